@@ -36,7 +36,10 @@ import com.shopgun.android.sdk.corekit.realm.SgnAnonymousEventRealmModule;
 import com.shopgun.android.sdk.corekit.realm.SgnLegacyEventRealmModule;
 import com.shopgun.android.sdk.database.SgnDatabase;
 import com.shopgun.android.sdk.eventskit.AnonymousEvent;
+import com.shopgun.android.sdk.eventskit.EventStore;
 import com.shopgun.android.sdk.eventskit.EventUtils;
+import com.shopgun.android.sdk.eventskit.RealmEventStore;
+import com.shopgun.android.sdk.eventskit.SegmentedEventLog;
 import com.shopgun.android.sdk.log.SgnLog;
 import com.shopgun.android.sdk.model.Shoppinglist;
 import com.shopgun.android.sdk.model.ShoppinglistItem;
@@ -45,9 +48,10 @@ import com.shopgun.android.sdk.network.Network;
 import com.shopgun.android.sdk.network.Request;
 import com.shopgun.android.sdk.network.RequestQueue;
 import com.shopgun.android.sdk.network.impl.DefaultRedirectProtocol;
-import com.shopgun.android.sdk.network.impl.HttpURLNetwork;
+import com.shopgun.android.sdk.network.impl.HandlerDelivery;
 import com.shopgun.android.sdk.network.impl.MemoryCache;
 import com.shopgun.android.sdk.network.impl.NetworkImpl;
+import com.shopgun.android.sdk.network.impl.OkHttpNetwork;
 import com.shopgun.android.sdk.shoppinglists.ListManager;
 import com.shopgun.android.sdk.shoppinglists.SyncManager;
 import com.shopgun.android.sdk.utils.Constants;
@@ -155,6 +159,8 @@ public class ShopGun {
     private final RealmConfiguration mRealmConfiguration;
     /** Realm configuration to handle the shipping of legacy events */
     private final  RealmConfiguration mLegacyConfiguration;
+    /** Storage for the events waiting to be dispatched */
+    private final EventStore mEventStore;
     /**  **/
     private SgnLifecycleCallback mLifecycleCallback;
 
@@ -170,6 +176,7 @@ public class ShopGun {
         mRealmConfiguration = builder.realmConfiguration;
         mApolloClient = builder.apolloClient;
         mLegacyConfiguration = builder.legacyConfiguration;
+        mEventStore = builder.eventStore;
 
         mLifecycleManager = new LifecycleManager(builder.application);
         mLifecycleCallback = new SgnLifecycleCallback();
@@ -180,7 +187,8 @@ public class ShopGun {
         mDeviceId = mSettings.getClientId();
         mSessionId = mSettings.getSessionId();
 
-        mRequestQueue = new RequestQueue(ShopGun.this, builder.cache, builder.network);
+        mRequestQueue = new RequestQueue(ShopGun.this, builder.cache, builder.network,
+                RequestQueue.ADAPTIVE_POOL_SIZE, new HandlerDelivery());
         mRequestQueue.start();
 
         mLocation = mSettings.getLocation();
@@ -417,6 +425,13 @@ public class ShopGun {
         return realm;
     }
 
+    /**
+     * @return The {@link EventStore} holding the events waiting to be dispatched
+     */
+    public EventStore getEventStore() {
+        return mEventStore;
+    }
+
     public boolean legacyEventsDetected() {
         return !(mLegacyConfiguration == null);
     }
@@ -488,6 +503,7 @@ public class ShopGun {
         String eventEnvironment;
         RealmConfiguration realmConfiguration;
         RealmConfiguration legacyConfiguration;
+        EventStore eventStore;
         OkHttpClient okHttpClient;
         ApolloClient apolloClient;
         List<Interceptor> interceptors = new ArrayList<>();
@@ -522,6 +538,8 @@ public class ShopGun {
 
         /**
          * Specify the memory cache for the shopgun-requests.
+         * <p>Use a {@link com.shopgun.android.sdk.network.impl.TieredCache TieredCache} to also persist
+         * responses to disk, so they can be served from cache after a cold start.</p>
          * @param cache A {@link Cache}
          * @return This object
          */
@@ -628,6 +646,24 @@ public class ShopGun {
             return this;
         }
 
+        /**
+         * Specify the {@link EventStore} to keep events in, until they're dispatched.
+         * <p>Defaults to a {@link SegmentedEventLog} in the apps files directory. Use a
+         * {@link RealmEventStore} to keep the events in Realm.</p>
+         * @param eventStore An EventStore
+         * @return This object
+         */
+        public Builder setEventStore(EventStore eventStore) {
+            if (eventStore == null) {
+                throw new IllegalArgumentException("EventStore must not be null.");
+            }
+            if (this.eventStore != null) {
+                throw new IllegalStateException("EventStore already set.");
+            }
+            this.eventStore = eventStore;
+            return this;
+        }
+
         /**
          * Builds and set the ShopGun instance, and sets it to be the global singleton.
          * @return The ShopGun instance
@@ -647,10 +683,6 @@ public class ShopGun {
                 cache = new MemoryCache();
             }
 
-            if (network == null) {
-                network = new NetworkImpl(new HttpURLNetwork(new DefaultRedirectProtocol()));
-            }
-
             if (develop == null) {
                 develop = false;
             }
@@ -667,6 +699,10 @@ public class ShopGun {
                 eventEnvironment = "https://events.service.shopgun.com/sync";
             }
 
+            if (eventStore == null) {
+                eventStore = new SegmentedEventLog(new File(application.getFilesDir(), Constants.PACKAGE + ".events"));
+            }
+
             // Setup the default OkHttpClient
             OkHttpClient.Builder okHttpClientBuilder = new OkHttpClient.Builder();
             for (Interceptor i : interceptors) {
@@ -679,6 +715,11 @@ public class ShopGun {
             okHttpClientBuilder.addInterceptor(new UserAgentInterceptor(SgnUserAgent.getUserAgent(application)));
             okHttpClient = okHttpClientBuilder.build();
 
+            if (network == null) {
+                // API requests share connections with the rest of the SDK
+                network = new NetworkImpl(new OkHttpNetwork(okHttpClient, new DefaultRedirectProtocol()));
+            }
+
             // Setup the default ApolloClient
             ApolloClient.Builder apolloBuilder = ApolloClient.builder()
                     .serverUrl("https://graph.service.shopgun.com")
@@ -23,12 +23,20 @@ import com.shopgun.android.sdk.utils.Constants;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @deprecated No longer maintained
+ *
+ * <p>Besides the flat maps of changes, the changes are grouped by {@link Shoppinglist#getId()} in
+ * {@link ListChanges}, so a subscriber only has to look at the lists it's showing. When the order
+ * of the items is known, {@link ListChanges#getOperations()} describes the change as positional
+ * operations, that can be passed directly to e.g. a {@code RecyclerView.Adapter}.</p>
  */
 @Deprecated
 public class ShoppinglistEvent extends ShopGunEvent {
@@ -39,8 +47,10 @@ public class ShoppinglistEvent extends ShopGunEvent {
      * Lists for collecting individual changes in items and lists, to do a single
      * notification to any subscribers
      */
-    public Map<String, StateWrapper<ShoppinglistItem>> mItems = Collections.synchronizedMap(new HashMap<String, StateWrapper<ShoppinglistItem>>());
-    public Map<String, StateWrapper<Shoppinglist>> mLists = Collections.synchronizedMap(new HashMap<String, StateWrapper<Shoppinglist>>());
+    public Map<String, StateWrapper<ShoppinglistItem>> mItems = new HashMap<String, StateWrapper<ShoppinglistItem>>();
+    public Map<String, StateWrapper<Shoppinglist>> mLists = new HashMap<String, StateWrapper<Shoppinglist>>();
+    /** The same changes as {@link #mItems} and {@link #mLists}, grouped by {@link Shoppinglist#getId()} */
+    Map<String, ListChanges> mChanges = new HashMap<String, ListChanges>();
     boolean mIsServer = false;
     boolean mFirstSync = false;
 
@@ -98,27 +108,79 @@ public class ShoppinglistEvent extends ShopGunEvent {
     Add new notification items to the maps
      */
     public void add(Shoppinglist s) {
-        mLists.put(s.getId(), new StateWrapper<Shoppinglist>(StateWrapper.Action.ADDED, s));
+        putList(mLists, mChanges, StateWrapper.Action.ADDED, s);
     }
 
     public void del(Shoppinglist s) {
-        mLists.put(s.getId(), new StateWrapper<Shoppinglist>(StateWrapper.Action.DELETED, s));
+        putList(mLists, mChanges, StateWrapper.Action.DELETED, s);
     }
 
     public void edit(Shoppinglist s) {
-        mLists.put(s.getId(), new StateWrapper<Shoppinglist>(StateWrapper.Action.EDITED, s));
+        putList(mLists, mChanges, StateWrapper.Action.EDITED, s);
     }
 
     public void add(ShoppinglistItem s) {
-        mItems.put(s.getId(), new StateWrapper<ShoppinglistItem>(StateWrapper.Action.ADDED, s));
+        putItem(mItems, mChanges, StateWrapper.Action.ADDED, s);
     }
 
     public void del(ShoppinglistItem s) {
-        mItems.put(s.getId(), new StateWrapper<ShoppinglistItem>(StateWrapper.Action.DELETED, s));
+        putItem(mItems, mChanges, StateWrapper.Action.DELETED, s);
     }
 
     public void edit(ShoppinglistItem s) {
-        mItems.put(s.getId(), new StateWrapper<ShoppinglistItem>(StateWrapper.Action.EDITED, s));
+        putItem(mItems, mChanges, StateWrapper.Action.EDITED, s);
+    }
+
+    private static void putList(Map<String, StateWrapper<Shoppinglist>> lists, Map<String, ListChanges> changes, int action, Shoppinglist s) {
+        StateWrapper<Shoppinglist> w = new StateWrapper<Shoppinglist>(action, s);
+        lists.put(s.getId(), w);
+        getChanges(changes, s.getId()).mList = w;
+    }
+
+    private static void putItem(Map<String, StateWrapper<ShoppinglistItem>> items, Map<String, ListChanges> changes, int action, ShoppinglistItem s) {
+        StateWrapper<ShoppinglistItem> w = new StateWrapper<ShoppinglistItem>(action, s);
+        items.put(s.getId(), w);
+        if (s.getShoppinglistId() != null) {
+            getChanges(changes, s.getShoppinglistId()).mItems.put(s.getId(), w);
+        }
+    }
+
+    private static ListChanges getChanges(Map<String, ListChanges> changes, String shoppinglistId) {
+        ListChanges c = changes.get(shoppinglistId);
+        if (c == null) {
+            c = new ListChanges(shoppinglistId);
+            changes.put(shoppinglistId, c);
+        }
+        return c;
+    }
+
+    /**
+     * @return The changes grouped by {@link Shoppinglist#getId()}
+     */
+    public Map<String, ListChanges> getChanges() {
+        return Collections.unmodifiableMap(mChanges);
+    }
+
+    /**
+     * @param shoppinglistId A {@link Shoppinglist#getId()}
+     * @return The changes to the given {@link Shoppinglist}, or {@code null} if it didn't change
+     */
+    public ListChanges getChanges(String shoppinglistId) {
+        return mChanges.get(shoppinglistId);
+    }
+
+    private List<ShoppinglistItem> getItems(String shoppinglistId, int action) {
+        ListChanges c = mChanges.get(shoppinglistId);
+        return c == null ? new ArrayList<ShoppinglistItem>(0) : c.getItems(action);
+    }
+
+    private List<Shoppinglist> getLists(String shoppinglistId, int action) {
+        List<Shoppinglist> list = new ArrayList<Shoppinglist>(1);
+        ListChanges c = mChanges.get(shoppinglistId);
+        if (c != null && c.mList != null && (action == StateWrapper.Action.ALL || c.mList.getAction() == action)) {
+            list.add(c.mList.getItem());
+        }
+        return list;
     }
 
     public List<ShoppinglistItem> getItems() {
@@ -126,7 +188,7 @@ public class ShoppinglistEvent extends ShopGunEvent {
     }
 
     public List<ShoppinglistItem> getItems(String shoppinglistId) {
-        return getCleanItemValues(mItems, StateWrapper.Action.ALL, shoppinglistId);
+        return getItems(shoppinglistId, StateWrapper.Action.ALL);
     }
 
     public List<ShoppinglistItem> getAddedItems() {
@@ -134,7 +196,7 @@ public class ShoppinglistEvent extends ShopGunEvent {
     }
 
     public List<ShoppinglistItem> getAddedItems(String shoppinglistId) {
-        return getCleanItemValues(mItems, StateWrapper.Action.ADDED, shoppinglistId);
+        return getItems(shoppinglistId, StateWrapper.Action.ADDED);
     }
 
     public List<ShoppinglistItem> getDeletedItems() {
@@ -142,7 +204,7 @@ public class ShoppinglistEvent extends ShopGunEvent {
     }
 
     public List<ShoppinglistItem> getDeletedItems(String shoppinglistId) {
-        return getCleanItemValues(mItems, StateWrapper.Action.DELETED, shoppinglistId);
+        return getItems(shoppinglistId, StateWrapper.Action.DELETED);
     }
 
     public List<ShoppinglistItem> getEditedItems() {
@@ -150,7 +212,7 @@ public class ShoppinglistEvent extends ShopGunEvent {
     }
 
     public List<ShoppinglistItem> getEditedItems(String shoppinglistId) {
-        return getCleanItemValues(mItems, StateWrapper.Action.EDITED, shoppinglistId);
+        return getItems(shoppinglistId, StateWrapper.Action.EDITED);
     }
 
     public List<Shoppinglist> getLists() {
@@ -158,7 +220,7 @@ public class ShoppinglistEvent extends ShopGunEvent {
     }
 
     public List<Shoppinglist> getLists(String shoppinglistId) {
-        return getCleanListValues(mLists, StateWrapper.Action.ALL, shoppinglistId);
+        return getLists(shoppinglistId, StateWrapper.Action.ALL);
     }
 
     public List<Shoppinglist> getAddedLists() {
@@ -166,7 +228,7 @@ public class ShoppinglistEvent extends ShopGunEvent {
     }
 
     public List<Shoppinglist> getAddedLists(String shoppinglistId) {
-        return getCleanListValues(mLists, StateWrapper.Action.ADDED, shoppinglistId);
+        return getLists(shoppinglistId, StateWrapper.Action.ADDED);
     }
 
     public List<Shoppinglist> getDeletedLists() {
@@ -174,7 +236,7 @@ public class ShoppinglistEvent extends ShopGunEvent {
     }
 
     public List<Shoppinglist> getDeletedLists(String shoppinglistId) {
-        return getCleanListValues(mLists, StateWrapper.Action.DELETED, shoppinglistId);
+        return getLists(shoppinglistId, StateWrapper.Action.DELETED);
     }
 
     public List<Shoppinglist> getEditedLists() {
@@ -182,7 +244,7 @@ public class ShoppinglistEvent extends ShopGunEvent {
     }
 
     public List<Shoppinglist> getEditedLists(String shoppinglistId) {
-        return getCleanListValues(mLists, StateWrapper.Action.EDITED, shoppinglistId);
+        return getLists(shoppinglistId, StateWrapper.Action.EDITED);
     }
 
     public boolean hasListNotifications() {
@@ -193,6 +255,250 @@ public class ShoppinglistEvent extends ShopGunEvent {
         return !mItems.isEmpty();
     }
 
+    /**
+     * The changes to a single {@link Shoppinglist}, and it's {@link ShoppinglistItem ShoppinglistItems}.
+     */
+    public static class ListChanges {
+
+        final String mShoppinglistId;
+        StateWrapper<Shoppinglist> mList;
+        final LinkedHashMap<String, StateWrapper<ShoppinglistItem>> mItems = new LinkedHashMap<String, StateWrapper<ShoppinglistItem>>();
+        List<ShoppinglistItem> mBefore;
+        List<ShoppinglistItem> mAfter;
+        List<Operation> mOperations = Collections.emptyList();
+
+        ListChanges(String shoppinglistId) {
+            mShoppinglistId = shoppinglistId;
+        }
+
+        public String getShoppinglistId() {
+            return mShoppinglistId;
+        }
+
+        /**
+         * @return The change to the {@link Shoppinglist} it self, or {@code null} if only it's items changed
+         */
+        public StateWrapper<Shoppinglist> getList() {
+            return mList;
+        }
+
+        public List<ShoppinglistItem> getItems(int action) {
+            List<ShoppinglistItem> list = new ArrayList<ShoppinglistItem>(mItems.size());
+            for (StateWrapper<ShoppinglistItem> w : mItems.values()) {
+                if (w.getAction() == action || action == StateWrapper.Action.ALL) {
+                    list.add(w.getItem());
+                }
+            }
+            return list;
+        }
+
+        public List<ShoppinglistItem> getItems() {
+            return getItems(StateWrapper.Action.ALL);
+        }
+
+        public List<ShoppinglistItem> getAddedItems() {
+            return getItems(StateWrapper.Action.ADDED);
+        }
+
+        public List<ShoppinglistItem> getDeletedItems() {
+            return getItems(StateWrapper.Action.DELETED);
+        }
+
+        public List<ShoppinglistItem> getEditedItems() {
+            return getItems(StateWrapper.Action.EDITED);
+        }
+
+        /**
+         * @return {@code true} if the order of the items is known, and {@link #getOperations()} is valid
+         */
+        public boolean hasOrder() {
+            return mBefore != null && mAfter != null;
+        }
+
+        /**
+         * The items of the {@link Shoppinglist} in order, after the change.
+         * @return An unmodifiable list, or {@code null} if the order isn't known
+         */
+        public List<ShoppinglistItem> getOrderedItems() {
+            return mAfter == null ? null : Collections.unmodifiableList(mAfter);
+        }
+
+        /**
+         * The operations that will turn the items as they were ordered before the change (as returned
+         * by {@code ListManager.getItems()}), into {@link #getOrderedItems()}. Positions are relative to
+         * the list as it is, after applying the operations before it. {@link Operation#CHANGE} operations
+         * are last, and refers to positions in the final list.
+         * @return A list of operations, empty if the order isn't known, or didn't change
+         */
+        public List<Operation> getOperations() {
+            return mOperations;
+        }
+
+        void diff() {
+            if (hasOrder()) {
+                mOperations = Collections.unmodifiableList(diff(mBefore, mAfter, mItems));
+            }
+        }
+
+        /**
+         * Find the operations that turns {@code before} into {@code after}. Items that are in both, and
+         * keep their relative order (the longest increasing subsequence) stay, the rest are moved.
+         */
+        static List<Operation> diff(List<ShoppinglistItem> before, List<ShoppinglistItem> after,
+                                    Map<String, StateWrapper<ShoppinglistItem>> changed) {
+
+            List<Operation> ops = new ArrayList<Operation>();
+            HashMap<String, Integer> target = new HashMap<String, Integer>(after.size());
+            for (int i = 0; i < after.size(); i++) {
+                target.put(after.get(i).getId(), i);
+            }
+
+            // Remove from the end, so the positions of the remaining removals doesn't change
+            ArrayList<String> working = new ArrayList<String>(before.size());
+            HashSet<String> existing = new HashSet<String>(before.size());
+            for (ShoppinglistItem sli : before) {
+                working.add(sli.getId());
+                existing.add(sli.getId());
+            }
+            for (int i = working.size() - 1; i >= 0; i--) {
+                if (!target.containsKey(working.get(i))) {
+                    ops.add(new Operation(Operation.REMOVE, i, -1, before.get(i)));
+                    working.remove(i);
+                }
+            }
+
+            Set<String> stable = stable(working, target);
+            String previous = null;
+            for (int i = 0; i < after.size(); i++) {
+                ShoppinglistItem sli = after.get(i);
+                String id = sli.getId();
+                if (!stable.contains(id)) {
+                    int to = previous == null ? 0 : working.indexOf(previous) + 1;
+                    int from = working.indexOf(id);
+                    if (from == -1) {
+                        working.add(to, id);
+                        ops.add(new Operation(Operation.INSERT, -1, to, sli));
+                    } else {
+                        working.remove(from);
+                        if (from < to) {
+                            to--;
+                        }
+                        working.add(to, id);
+                        if (from != to) {
+                            ops.add(new Operation(Operation.MOVE, from, to, sli));
+                        }
+                    }
+                }
+                previous = id;
+            }
+
+            for (int i = 0; i < after.size(); i++) {
+                ShoppinglistItem sli = after.get(i);
+                StateWrapper<ShoppinglistItem> w = changed.get(sli.getId());
+                if (w != null && w.getAction() != StateWrapper.Action.DELETED && existing.contains(sli.getId())) {
+                    ops.add(new Operation(Operation.CHANGE, i, i, sli));
+                }
+            }
+            return ops;
+        }
+
+        /**
+         * The ids in the longest subsequence of {@code ids}, that is already in the target order.
+         */
+        private static Set<String> stable(List<String> ids, Map<String, Integer> target) {
+            int n = ids.size();
+            int[] tails = new int[n];
+            int[] parent = new int[n];
+            int length = 0;
+            for (int i = 0; i < n; i++) {
+                int t = target.get(ids.get(i));
+                int lo = 0;
+                int hi = length;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (target.get(ids.get(tails[mid])) < t) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                parent[i] = lo > 0 ? tails[lo - 1] : -1;
+                tails[lo] = i;
+                if (lo == length) {
+                    length++;
+                }
+            }
+            HashSet<String> stable = new HashSet<String>(length);
+            for (int i = length > 0 ? tails[length - 1] : -1; i != -1; i = parent[i]) {
+                stable.add(ids.get(i));
+            }
+            return stable;
+        }
+
+        @Override
+        public String toString() {
+            String format = "ListChanges[ id: %s, list: %s, item.count: %s, operations: %s ]";
+            int action = mList == null ? -1 : mList.getAction();
+            return String.format(format, mShoppinglistId, action, mItems.size(), mOperations.size());
+        }
+
+    }
+
+    /**
+     * A positional change to the items of a {@link Shoppinglist}.
+     */
+    public static class Operation {
+
+        /** An item was inserted at {@link #getTo()} */
+        public static final int INSERT = 1;
+        /** The item at {@link #getFrom()} was removed */
+        public static final int REMOVE = 2;
+        /** The item at {@link #getFrom()} was moved to {@link #getTo()} */
+        public static final int MOVE = 3;
+        /** The content of the item at {@link #getTo()} changed */
+        public static final int CHANGE = 4;
+
+        final int mType;
+        final int mFrom;
+        final int mTo;
+        final ShoppinglistItem mItem;
+
+        Operation(int type, int from, int to, ShoppinglistItem item) {
+            mType = type;
+            mFrom = from;
+            mTo = to;
+            mItem = item;
+        }
+
+        public int getType() {
+            return mType;
+        }
+
+        /**
+         * @return The position before the operation, or -1 for {@link #INSERT}
+         */
+        public int getFrom() {
+            return mFrom;
+        }
+
+        /**
+         * @return The position after the operation, or -1 for {@link #REMOVE}
+         */
+        public int getTo() {
+            return mTo;
+        }
+
+        public ShoppinglistItem getItem() {
+            return mItem;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Operation[ type: %s, from: %s, to: %s, item: %s ]", mType, mFrom, mTo, mItem.getId());
+        }
+
+    }
+
     public static class StateWrapper<T> {
 
         int mAction = -1;
@@ -263,8 +569,13 @@ public class ShoppinglistEvent extends ShopGunEvent {
 
     public static class Builder {
 
-        public Map<String, StateWrapper<ShoppinglistItem>> items = Collections.synchronizedMap(new HashMap<String, StateWrapper<ShoppinglistItem>>());
-        public Map<String, StateWrapper<Shoppinglist>> lists = Collections.synchronizedMap(new HashMap<String, StateWrapper<Shoppinglist>>());
+        /*
+         * A Builder is only used by a single thread, like the SyncManager's on the sync thread, so the
+         * maps aren't synchronized. Use a SynchronizedBuilder, where changes come from any thread.
+         */
+        public Map<String, StateWrapper<ShoppinglistItem>> items = new HashMap<String, StateWrapper<ShoppinglistItem>>();
+        public Map<String, StateWrapper<Shoppinglist>> lists = new HashMap<String, StateWrapper<Shoppinglist>>();
+        private Map<String, ListChanges> changes = new HashMap<String, ListChanges>();
         public boolean isServer = false;
         public boolean firstSync = false;
 
@@ -305,27 +616,42 @@ public class ShoppinglistEvent extends ShopGunEvent {
         }
 
         public void add(Shoppinglist s) {
-            lists.put(s.getId(), new StateWrapper<Shoppinglist>(StateWrapper.Action.ADDED, s));
+            putList(lists, changes, StateWrapper.Action.ADDED, s);
         }
 
         public void del(Shoppinglist s) {
-            lists.put(s.getId(), new StateWrapper<Shoppinglist>(StateWrapper.Action.DELETED, s));
+            putList(lists, changes, StateWrapper.Action.DELETED, s);
         }
 
         public void edit(Shoppinglist s) {
-            lists.put(s.getId(), new StateWrapper<Shoppinglist>(StateWrapper.Action.EDITED, s));
+            putList(lists, changes, StateWrapper.Action.EDITED, s);
         }
 
         public void add(ShoppinglistItem s) {
-            items.put(s.getId(), new StateWrapper<ShoppinglistItem>(StateWrapper.Action.ADDED, s));
+            putItem(items, changes, StateWrapper.Action.ADDED, s);
         }
 
         public void del(ShoppinglistItem s) {
-            items.put(s.getId(), new StateWrapper<ShoppinglistItem>(StateWrapper.Action.DELETED, s));
+            putItem(items, changes, StateWrapper.Action.DELETED, s);
         }
 
         public void edit(ShoppinglistItem s) {
-            items.put(s.getId(), new StateWrapper<ShoppinglistItem>(StateWrapper.Action.EDITED, s));
+            putItem(items, changes, StateWrapper.Action.EDITED, s);
+        }
+
+        /**
+         * Record the order of the items in a {@link Shoppinglist}, before and after a change. If the
+         * order is recorded more than once, the first {@code before} and the last {@code after} is kept.
+         * @param shoppinglistId A {@link Shoppinglist#getId()}
+         * @param before The items before the change, in order. This list must not be modified later.
+         * @param after The items after the change, in order. This list must not be modified later.
+         */
+        public void order(String shoppinglistId, List<ShoppinglistItem> before, List<ShoppinglistItem> after) {
+            ListChanges c = getChanges(changes, shoppinglistId);
+            if (c.mBefore == null) {
+                c.mBefore = before;
+            }
+            c.mAfter = after;
         }
 
         public boolean hasChanges() {
@@ -336,10 +662,115 @@ public class ShoppinglistEvent extends ShopGunEvent {
             ShoppinglistEvent e = new ShoppinglistEvent(isServer);
             e.mItems = items;
             e.mLists = lists;
+            // Do the diffing here, rather than on the thread that receives the event
+            for (ListChanges c : changes.values()) {
+                c.diff();
+            }
+            e.mChanges = changes;
             e.mFirstSync = firstSync;
             return e;
         }
 
     }
 
+    /**
+     * A {@link Builder} that can be shared by several threads, like the one the {@link
+     * com.shopgun.android.sdk.shoppinglists.ListManager ListManager} records changes in, from whatever
+     * thread is calling it. The public maps are synchronized, and every method holds the lock of the builder.
+     */
+    public static class SynchronizedBuilder extends Builder {
+
+        public SynchronizedBuilder(boolean isServer) {
+            super(isServer);
+            items = Collections.synchronizedMap(items);
+            lists = Collections.synchronizedMap(lists);
+        }
+
+        @Override
+        public synchronized List<ShoppinglistItem> getItems() {
+            return super.getItems();
+        }
+
+        @Override
+        public synchronized List<ShoppinglistItem> getAddedItems() {
+            return super.getAddedItems();
+        }
+
+        @Override
+        public synchronized List<ShoppinglistItem> getDeletedItems() {
+            return super.getDeletedItems();
+        }
+
+        @Override
+        public synchronized List<ShoppinglistItem> getEditedItems() {
+            return super.getEditedItems();
+        }
+
+        @Override
+        public synchronized List<Shoppinglist> getLists() {
+            return super.getLists();
+        }
+
+        @Override
+        public synchronized List<Shoppinglist> getAddedLists() {
+            return super.getAddedLists();
+        }
+
+        @Override
+        public synchronized List<Shoppinglist> getDeletedLists() {
+            return super.getDeletedLists();
+        }
+
+        @Override
+        public synchronized List<Shoppinglist> getEditedLists() {
+            return super.getEditedLists();
+        }
+
+        @Override
+        public synchronized void add(Shoppinglist s) {
+            super.add(s);
+        }
+
+        @Override
+        public synchronized void del(Shoppinglist s) {
+            super.del(s);
+        }
+
+        @Override
+        public synchronized void edit(Shoppinglist s) {
+            super.edit(s);
+        }
+
+        @Override
+        public synchronized void add(ShoppinglistItem s) {
+            super.add(s);
+        }
+
+        @Override
+        public synchronized void del(ShoppinglistItem s) {
+            super.del(s);
+        }
+
+        @Override
+        public synchronized void edit(ShoppinglistItem s) {
+            super.edit(s);
+        }
+
+        @Override
+        public synchronized void order(String shoppinglistId, List<ShoppinglistItem> before, List<ShoppinglistItem> after) {
+            super.order(shoppinglistId, before, after);
+        }
+
+        @Override
+        public synchronized boolean hasChanges() {
+            return super.hasChanges();
+        }
+
+        @Override
+        public synchronized ShoppinglistEvent build() {
+            return super.build();
+        }
+
+    }
+
 }
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.shopgun.android.sdk.model.User;
+import com.shopgun.android.sdk.model.interfaces.SyncState;
+import com.shopgun.android.sdk.utils.Constants;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @deprecated No longer maintained
+ *
+ * Class for handling the outbound change journal, see {@link PendingChange}.
+ *
+ * <p>The journal is maintained by triggers on the list, item and share tables, so any row that is written
+ * in a state that must be sent to the API, is journaled in the same transaction as the row itself.
+ * Writing the same row again replaces the entry, and resets its retry schedule.</p>
+ */
+@Deprecated
+public class ChangeSQLiteHelper extends SgnOpenHelper {
+
+    public static final String TAG = Constants.getTag(ChangeSQLiteHelper.class);
+
+    public static final String TABLE = "changes";
+
+    /** The first database version with a change journal */
+    private static final int JOURNAL_VERSION = 7;
+
+    public static final String CREATE_TABLE =
+            "create table if not exists " + TABLE + "(" +
+                    USER + " integer not null, " +
+                    TYPE + " integer not null, " +
+                    SHOPPINGLIST_ID + " text not null, " +
+                    ID + " text not null, " +
+                    SEQ + " integer not null, " +
+                    ATTEMPTS + " integer not null default 0, " +
+                    RETRY_AT + " integer not null default 0, " +
+                    "primary key (" + USER + ", " + TYPE + ", " + SHOPPINGLIST_ID + ", " + ID + ")" +
+                    ");";
+    public static final String[] CREATE_INDEXES = {
+            createIndex(TABLE, USER, SEQ)
+    };
+
+    /** The states that needs to be sent to the API */
+    private static final String PENDING_STATES = "(" + SyncState.TO_SYNC + "," + SyncState.DELETE + "," + SyncState.ERROR + ")";
+
+    private static final String INSERT = "insert";
+    private static final String UPDATE = "update of " + STATE;
+
+    public static final String[] CREATE_TRIGGERS = {
+            createTrigger(ListSQLiteHelper.TABLE, INSERT, PendingChange.TYPE_LIST, ID, ID),
+            createTrigger(ListSQLiteHelper.TABLE, UPDATE, PendingChange.TYPE_LIST, ID, ID),
+            createTrigger(ItemSQLiteHelper.TABLE, INSERT, PendingChange.TYPE_ITEM, SHOPPINGLIST_ID, ID),
+            createTrigger(ItemSQLiteHelper.TABLE, UPDATE, PendingChange.TYPE_ITEM, SHOPPINGLIST_ID, ID),
+            createTrigger(ShareSQLiteHelper.TABLE, INSERT, PendingChange.TYPE_SHARE, SHOPPINGLIST_ID, EMAIL),
+            createTrigger(ShareSQLiteHelper.TABLE, UPDATE, PendingChange.TYPE_SHARE, SHOPPINGLIST_ID, EMAIL)
+    };
+
+    public ChangeSQLiteHelper(Context context) {
+        super(context);
+    }
+
+    public static void create(SQLiteDatabase db) {
+        db.acquireReference();
+        db.execSQL(CREATE_TABLE);
+        createIndexes(db, CREATE_INDEXES);
+        for (String s : CREATE_TRIGGERS) {
+            db.execSQL(s);
+        }
+        db.releaseReference();
+    }
+
+    public static void upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.acquireReference();
+        if (oldVersion < SCHEMA_VERSION) {
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        }
+        create(db);
+        if (SCHEMA_VERSION <= oldVersion && oldVersion < JOURNAL_VERSION) {
+            // The tables survived the upgrade, journal the rows that are waiting to be synchronized
+            seed(db, ListSQLiteHelper.TABLE, PendingChange.TYPE_LIST, ID, ID);
+            seed(db, ItemSQLiteHelper.TABLE, PendingChange.TYPE_ITEM, SHOPPINGLIST_ID, ID);
+            seed(db, ShareSQLiteHelper.TABLE, PendingChange.TYPE_SHARE, SHOPPINGLIST_ID, EMAIL);
+        }
+        db.releaseReference();
+    }
+
+    /**
+     * Get the statement for a trigger, that journals the rows of a table.
+     * @param table The table to journal
+     * @param event Either {@link #INSERT} or {@link #UPDATE}
+     * @param type The {@link PendingChange#getType()} of the rows
+     * @param listColumn The column holding the {@link PendingChange#getShoppinglistId()}
+     * @param idColumn The column holding the {@link PendingChange#getId()}
+     * @return A create trigger statement
+     */
+    private static String createTrigger(String table, String event, int type, String listColumn, String idColumn) {
+        String name = table + "_" + (event.equals(INSERT) ? "insert" : "update") + "_journal";
+        return "create trigger if not exists " + name + " after " + event + " on " + table +
+                " when new." + STATE + " in " + PENDING_STATES + " and new." + USER + " != " + User.NO_USER +
+                " begin insert or replace into " + TABLE +
+                " (" + USER + ", " + TYPE + ", " + SHOPPINGLIST_ID + ", " + ID + ", " + SEQ + ") values (" +
+                "new." + USER + ", " + type + ", ifnull(new." + listColumn + ", ''), ifnull(new." + idColumn + ", ''), " +
+                "(select ifnull(max(" + SEQ + "), 0) + 1 from " + TABLE + ")); end;";
+    }
+
+    private static void seed(SQLiteDatabase db, String table, int type, String listColumn, String idColumn) {
+        db.execSQL("insert or replace into " + TABLE +
+                " (" + USER + ", " + TYPE + ", " + SHOPPINGLIST_ID + ", " + ID + ", " + SEQ + ") " +
+                "select " + USER + ", " + type + ", " + listColumn + ", " + idColumn + ", rowid from " + table +
+                " where (" + STATE + " in " + PENDING_STATES + " or " + STATE + " = " + SyncState.SYNCING + ")" +
+                " and " + USER + " != " + User.NO_USER);
+    }
+
+    public static List<PendingChange> cursorToList(Cursor c) {
+        ArrayList<PendingChange> list = new ArrayList<PendingChange>();
+        for (ContentValues cv : DbUtils.cursorToContentValues(c)) {
+            list.add(contentValuesToObject(cv));
+        }
+        return list;
+    }
+
+    public static PendingChange contentValuesToObject(ContentValues cv) {
+        return new PendingChange(cv.getAsInteger(TYPE), cv.getAsString(SHOPPINGLIST_ID), cv.getAsString(ID),
+                cv.getAsLong(SEQ), cv.getAsInteger(ATTEMPTS), cv.getAsLong(RETRY_AT));
+    }
+
+}
@@ -257,6 +257,28 @@ public class DbUtils {
         }
     }
 
+    /**
+     * Get the query plan SQLite will use for the given statement, as returned by {@code EXPLAIN QUERY PLAN}.
+     * All {@code ?} parameters are bound to a dummy value.
+     * A line starting with {@code SCAN} means the statement reads the whole table (or index).
+     * @param db A {@link SQLiteDatabase}
+     * @param sql A SQL statement
+     * @return The 'detail' column of each step in the plan
+     */
+    public static List<String> explainQueryPlan(SQLiteDatabase db, String sql) {
+        int params = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.charAt(i) == '?') {
+                params++;
+            }
+        }
+        String[] args = new String[params];
+        for (int i = 0; i < params; i++) {
+            args[i] = "0";
+        }
+        return cursorToStrings(db.rawQuery("EXPLAIN QUERY PLAN " + sql, args), "detail");
+    }
+
     public static <T> List<T> cursorToList(Cursor c, ContentValuesConverter<T> converter) {
         ArrayList<T> list = new ArrayList<T>();
         for (ContentValues cv : cursorToContentValues(c)) {
@@ -63,6 +63,11 @@ public class ItemSQLiteHelper extends SgnOpenHelper {
                     USER + "  integer not null " +
                     ");";
     public static final String INSERT_STATEMENT = "INSERT OR REPLACE INTO " + TABLE + " VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?)";
+    public static final String[] CREATE_INDEXES = {
+            createIndex(TABLE, SHOPPINGLIST_ID, USER, STATE),
+            createIndex(TABLE, SHOPPINGLIST_ID, PREVIOUS_ID, USER),
+            createIndex(TABLE, USER, STATE)
+    };
 
     public ItemSQLiteHelper(Context context) {
         super(context);
@@ -92,12 +97,16 @@ public class ItemSQLiteHelper extends SgnOpenHelper {
     public static void create(SQLiteDatabase db) {
         db.acquireReference();
         db.execSQL(CREATE_TABLE);
+        createIndexes(db, CREATE_INDEXES);
         db.releaseReference();
     }
 
     public static void upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         db.acquireReference();
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        if (oldVersion < SCHEMA_VERSION) {
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        }
+        create(db);
         db.releaseReference();
     }
 
@@ -60,6 +60,10 @@ public class ListSQLiteHelper extends SgnOpenHelper {
                     USER + " integer not null " +
                     ");";
     public static final String INSERT_STATEMENT = "INSERT OR REPLACE INTO " + TABLE + " VALUES (?,?,?,?,?,?,?,?,?,?)";
+    public static final String[] CREATE_INDEXES = {
+            createIndex(TABLE, USER, NAME),
+            createIndex(TABLE, USER, PREVIOUS_ID)
+    };
 
     public ListSQLiteHelper(Context context) {
         super(context);
@@ -68,12 +72,16 @@ public class ListSQLiteHelper extends SgnOpenHelper {
     public static void create(SQLiteDatabase db) {
         db.acquireReference();
         db.execSQL(CREATE_TABLE);
+        createIndexes(db, CREATE_INDEXES);
         db.releaseReference();
     }
 
     public static void upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         db.acquireReference();
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        if (oldVersion < SCHEMA_VERSION) {
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        }
+        create(db);
         db.releaseReference();
     }
 
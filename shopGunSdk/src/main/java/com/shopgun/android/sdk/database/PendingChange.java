@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk.database;
+
+import com.shopgun.android.sdk.model.Share;
+import com.shopgun.android.sdk.model.Shoppinglist;
+import com.shopgun.android.sdk.model.ShoppinglistItem;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @deprecated No longer maintained
+ *
+ * An entry in the outbound change journal. The journal holds at most one entry per {@link Shoppinglist},
+ * {@link ShoppinglistItem} and {@link Share}, no matter how many times it has been edited, as the
+ * request is built from the current row when the change is sent.
+ */
+@Deprecated
+public class PendingChange {
+
+    public static final int TYPE_LIST = 1;
+    public static final int TYPE_ITEM = 2;
+    public static final int TYPE_SHARE = 3;
+
+    /** The delay before the first retry of a failed change */
+    public static final long MIN_BACKOFF = TimeUnit.SECONDS.toMillis(4);
+    /** The upper limit on the delay between retries */
+    public static final long MAX_BACKOFF = TimeUnit.MINUTES.toMillis(5);
+
+    private final int mType;
+    private final String mShoppinglistId;
+    private final String mId;
+    private final long mSeq;
+    private final int mAttempts;
+    private final long mRetryAt;
+
+    public PendingChange(int type, String shoppinglistId, String id, long seq, int attempts, long retryAt) {
+        mType = type;
+        mShoppinglistId = shoppinglistId;
+        mId = id;
+        mSeq = seq;
+        mAttempts = attempts;
+        mRetryAt = retryAt;
+    }
+
+    /**
+     * @return One of {@link #TYPE_LIST}, {@link #TYPE_ITEM} or {@link #TYPE_SHARE}
+     */
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * @return The {@link Shoppinglist#getId()} the change belongs to, for lists this is the list itself
+     */
+    public String getShoppinglistId() {
+        return mShoppinglistId;
+    }
+
+    /**
+     * @return The {@link Shoppinglist#getId()}, {@link ShoppinglistItem#getId()} or {@link Share#getEmail()}
+     */
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     * @return The position of the latest edit in the journal, later edits have a higher sequence number
+     */
+    public long getSeq() {
+        return mSeq;
+    }
+
+    /**
+     * @return The number of times the change has been sent
+     */
+    public int getAttempts() {
+        return mAttempts;
+    }
+
+    /**
+     * @return The earliest time the change may be sent again, in milliseconds since epoch
+     */
+    public long getRetryAt() {
+        return mRetryAt;
+    }
+
+    /**
+     * @return A key that identifies the changed object
+     */
+    public String getKey() {
+        return getKey(mType, mShoppinglistId, mId);
+    }
+
+    public static String getKey(int type, String shoppinglistId, String id) {
+        return type + ":" + shoppinglistId + ":" + id;
+    }
+
+    /**
+     * Get the time to wait before a change is sent again, doubling with each attempt.
+     * @param attempts The number of times the change has been sent
+     * @return A delay in milliseconds
+     */
+    public static long getBackoff(int attempts) {
+        if (attempts >= 16) {
+            return MAX_BACKOFF;
+        }
+        return Math.min(MIN_BACKOFF << attempts, MAX_BACKOFF);
+    }
+
+    @Override
+    public String toString() {
+        return "PendingChange[type:" + mType + ", list:" + mShoppinglistId + ", id:" + mId +
+                ", seq:" + mSeq + ", attempts:" + mAttempts + ", retryAt:" + mRetryAt + "]";
+    }
+
+}
@@ -34,6 +34,7 @@ import org.json.JSONArray;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 
 
@@ -45,6 +46,46 @@ public class SgnDataSource extends SQLDataSource {
 
     public static final String TAG = Constants.getTag(SgnDataSource.class);
 
+    static final String WHERE_USER = SgnOpenHelper.USER + "=?";
+    static final String WHERE_USER_STATE = SgnOpenHelper.USER + "=? AND " + SgnOpenHelper.STATE + "=?";
+    static final String WHERE_USER_NOT_STATE = SgnOpenHelper.USER + "=? AND " + SgnOpenHelper.STATE + "!=?";
+    static final String WHERE_ID_USER = SgnOpenHelper.ID + "=? AND " + SgnOpenHelper.USER + "=?";
+    static final String WHERE_ID_USER_NOT_STATE = SgnOpenHelper.ID + "=? AND " + SgnOpenHelper.USER + "=? AND " + SgnOpenHelper.STATE + "!=?";
+    static final String WHERE_PREVIOUS_USER = SgnOpenHelper.PREVIOUS_ID + "=? AND " + SgnOpenHelper.USER + "=?";
+    static final String WHERE_LIST_USER = SgnOpenHelper.SHOPPINGLIST_ID + "=? AND " + SgnOpenHelper.USER + "=?";
+    static final String WHERE_LIST_USER_NOT_STATE = SgnOpenHelper.SHOPPINGLIST_ID + "=? AND " + SgnOpenHelper.USER + "=? AND " + SgnOpenHelper.STATE + "!=?";
+    static final String WHERE_LIST_USER_TICK = SgnOpenHelper.SHOPPINGLIST_ID + "=? AND " + SgnOpenHelper.USER + "=? AND " + SgnOpenHelper.TICK + "=?";
+    static final String WHERE_LIST_PREVIOUS_USER = SgnOpenHelper.SHOPPINGLIST_ID + "=? AND " + SgnOpenHelper.PREVIOUS_ID + "=? AND " + SgnOpenHelper.USER + "=?";
+    static final String WHERE_EMAIL_LIST_USER = SgnOpenHelper.EMAIL + "=? AND " + SgnOpenHelper.SHOPPINGLIST_ID + "=? AND " + SgnOpenHelper.USER + "=?";
+    static final String WHERE_CHANGE_SEQ = SgnOpenHelper.USER + "=? AND " + SgnOpenHelper.TYPE + "=? AND " + SgnOpenHelper.SHOPPINGLIST_ID + "=? AND " + SgnOpenHelper.ID + "=? AND " + SgnOpenHelper.SEQ + "=?";
+
+    /**
+     * All the (table, where clause) pairs that {@link SgnDataSource} uses to read and write rows.
+     * Every one of them should be served by an index, see {@link DbUtils#explainQueryPlan(SQLiteDatabase, String)}.
+     */
+    static final String[][] ACCESS_PATHS = {
+            { ListSQLiteHelper.TABLE, WHERE_USER },
+            { ListSQLiteHelper.TABLE, WHERE_USER_STATE },
+            { ListSQLiteHelper.TABLE, WHERE_USER_NOT_STATE },
+            { ListSQLiteHelper.TABLE, WHERE_ID_USER },
+            { ListSQLiteHelper.TABLE, WHERE_ID_USER_NOT_STATE },
+            { ListSQLiteHelper.TABLE, WHERE_PREVIOUS_USER },
+            { ItemSQLiteHelper.TABLE, WHERE_USER },
+            { ItemSQLiteHelper.TABLE, WHERE_USER_STATE },
+            { ItemSQLiteHelper.TABLE, WHERE_ID_USER },
+            { ItemSQLiteHelper.TABLE, WHERE_ID_USER_NOT_STATE },
+            { ItemSQLiteHelper.TABLE, WHERE_LIST_USER },
+            { ItemSQLiteHelper.TABLE, WHERE_LIST_USER_NOT_STATE },
+            { ItemSQLiteHelper.TABLE, WHERE_LIST_USER_TICK },
+            { ItemSQLiteHelper.TABLE, WHERE_LIST_PREVIOUS_USER },
+            { ShareSQLiteHelper.TABLE, WHERE_USER },
+            { ShareSQLiteHelper.TABLE, WHERE_LIST_USER },
+            { ShareSQLiteHelper.TABLE, WHERE_LIST_USER_NOT_STATE },
+            { ShareSQLiteHelper.TABLE, WHERE_EMAIL_LIST_USER },
+            { ChangeSQLiteHelper.TABLE, WHERE_USER },
+            { ChangeSQLiteHelper.TABLE, WHERE_CHANGE_SEQ }
+    };
+
     public SgnDataSource(Context c) {
         super(new SgnOpenHelper(c));
     }
@@ -58,6 +99,7 @@ public class SgnDataSource extends SQLDataSource {
         int count = delete(ItemSQLiteHelper.TABLE, whereClause, null);
         count += delete(ListSQLiteHelper.TABLE, whereClause, null);
         count += delete(ShareSQLiteHelper.TABLE, whereClause, null);
+        count += delete(ChangeSQLiteHelper.TABLE, whereClause, null);
         return count;
     }
 
@@ -67,11 +109,12 @@ public class SgnDataSource extends SQLDataSource {
      * @return number of changes
      */
     public int clear(int userId) {
-        String whereClause = SgnOpenHelper.USER + "=?";
+        String whereClause = WHERE_USER;
         String[] whereArgs = new String[]{String.valueOf(userId)};
         int count = delete(ItemSQLiteHelper.TABLE, whereClause, whereArgs);
         count += delete(ListSQLiteHelper.TABLE, whereClause, whereArgs);
         count += delete(ShareSQLiteHelper.TABLE, whereClause, whereArgs);
+        count += delete(ChangeSQLiteHelper.TABLE, whereClause, whereArgs);
         return count;
     }
 
@@ -146,7 +189,7 @@ public class SgnDataSource extends SQLDataSource {
      * @return A Shoppinglist if one exists in DB, else null;
      */
     public Shoppinglist getList(String id, String userId) {
-        String selection = SgnOpenHelper.ID + "=? AND " + SgnOpenHelper.USER + "=? AND " + SgnOpenHelper.STATE + "!=?";
+        String selection = WHERE_ID_USER_NOT_STATE;
         String[] selectionArgs = new String[]{id, userId, String.valueOf(SyncState.DELETE)};
         List<Shoppinglist> list = getLists(selection, selectionArgs, userId);
         return list.isEmpty() ? null : list.get(0);
@@ -158,10 +201,10 @@ public class SgnDataSource extends SQLDataSource {
      * @return A list of Shoppinglist
      */
     public List<Shoppinglist> getLists(String userId, boolean includeDeleted) {
-        String selection = SgnOpenHelper.USER + "=? AND " + SgnOpenHelper.STATE + "!=?";
+        String selection = WHERE_USER_NOT_STATE;
         String[] selectionArgs = new String[]{userId, String.valueOf(SyncState.DELETE)};
         if (includeDeleted) {
-            selection = SgnOpenHelper.USER + "=?";
+            selection = WHERE_USER;
             selectionArgs = new String[]{userId};
         }
         return getLists(selection, selectionArgs, userId);
@@ -198,7 +241,7 @@ public class SgnDataSource extends SQLDataSource {
      * @return number of affected rows
      */
     public int deleteList(String shoppinglistId, String userId) {
-        String whereClause = SgnOpenHelper.ID + "=? AND " + SgnOpenHelper.USER + "=? ";
+        String whereClause = WHERE_ID_USER;
         String[] whereArgs = new String[]{shoppinglistId, userId};
         return delete(ListSQLiteHelper.TABLE, whereClause, whereArgs);
     }
@@ -210,7 +253,7 @@ public class SgnDataSource extends SQLDataSource {
      * @return A {@link Shoppinglist} if one exists with the {@code previousId}, else {@code null}
      */
     public Shoppinglist getListPrevious(String previousId, String userId) {
-        String selection = SgnOpenHelper.PREVIOUS_ID + "=? AND " + SgnOpenHelper.USER + "=?";
+        String selection = WHERE_PREVIOUS_USER;
         String[] selectionArgs = new String[]{previousId, userId};
         List<Shoppinglist> list = getLists(selection, selectionArgs, userId);
         return list.isEmpty() ? null : list.get(0);
@@ -234,7 +277,7 @@ public class SgnDataSource extends SQLDataSource {
     public int editItemState(String shoppinglistId, String userId, Date modified, int syncState) {
         try {
             ContentValues cv = ItemSQLiteHelper.stateToContentValues(modified, syncState);
-            String whereClause = SgnOpenHelper.SHOPPINGLIST_ID + "=? AND " + SgnOpenHelper.USER + "=? ";
+            String whereClause = WHERE_LIST_USER;
             String[] whereArgs = new String[]{shoppinglistId, userId};
             return acquireDb().updateWithOnConflict(ItemSQLiteHelper.TABLE, cv, whereClause, whereArgs, SQLiteDatabase.CONFLICT_REPLACE);
         } catch (IllegalStateException e) {
@@ -297,7 +340,7 @@ public class SgnDataSource extends SQLDataSource {
     }
 
     public ShoppinglistItem getItem(String itemId, String userId) {
-        String selection = SgnOpenHelper.ID + "=? AND " + SgnOpenHelper.USER + "=? AND " + SgnOpenHelper.STATE + "!=?";
+        String selection = WHERE_ID_USER_NOT_STATE;
         String[] selectionArgs = new String[]{itemId, userId, String.valueOf(SyncState.DELETE)};
         List<ShoppinglistItem> list = getItems(selection, selectionArgs);
         return list.isEmpty() ? null : list.get(0);
@@ -311,10 +354,10 @@ public class SgnDataSource extends SQLDataSource {
      * @return A list of {@link ShoppinglistItem}
      */
     public List<ShoppinglistItem> getItems(String shoppinglistId, String userId, boolean includeDeleted) {
-        String selection = SgnOpenHelper.SHOPPINGLIST_ID + "=? AND " + SgnOpenHelper.USER + "=? AND " + SgnOpenHelper.STATE + "!=?";
+        String selection = WHERE_LIST_USER_NOT_STATE;
         String[] selectionArgs = new String[]{shoppinglistId, userId, String.valueOf(SyncState.DELETE)};
         if (includeDeleted) {
-            selection = SgnOpenHelper.SHOPPINGLIST_ID + "=? AND " + SgnOpenHelper.USER + "=?";
+            selection = WHERE_LIST_USER;
             selectionArgs = new String[]{shoppinglistId, userId};
         }
         return getItems(selection, selectionArgs);
@@ -328,7 +371,7 @@ public class SgnDataSource extends SQLDataSource {
      * @return A {@link ShoppinglistItem} if one exists with the {@code previousId}, else {@code null}
      */
     public ShoppinglistItem getItemPrevious(String shoppinglistId, String previousId, String userId) {
-        String selection = SgnOpenHelper.SHOPPINGLIST_ID + "=? AND " + SgnOpenHelper.PREVIOUS_ID + "=? AND " + SgnOpenHelper.USER + "=?";
+        String selection = WHERE_LIST_PREVIOUS_USER;
         String[] selectionArgs = new String[]{shoppinglistId, previousId, userId};
         List<ShoppinglistItem> list = getItems(selection, selectionArgs);
         return list.isEmpty() ? null : list.get(0);
@@ -349,7 +392,7 @@ public class SgnDataSource extends SQLDataSource {
     }
 
     public int deleteItem(String itemId, String userId) {
-        String whereClause = SgnOpenHelper.ID + "=? AND " + SgnOpenHelper.USER + "=? ";
+        String whereClause = WHERE_ID_USER;
         String[] whereArgs = new String[]{itemId, userId};
         return delete(ItemSQLiteHelper.TABLE, whereClause, whereArgs);
     }
@@ -369,15 +412,196 @@ public class SgnDataSource extends SQLDataSource {
      * @return number of affected rows
      */
     public int deleteItems(String shoppinglistId, Boolean state, String userId) {
-        String whereClause = SgnOpenHelper.SHOPPINGLIST_ID + "=? AND " + SgnOpenHelper.USER + "=? ";
+        String whereClause = WHERE_LIST_USER;
         String[] whereArgs = new String[]{shoppinglistId, userId};
         if (state != null) {
-            whereClause = SgnOpenHelper.SHOPPINGLIST_ID + "=? AND " + SgnOpenHelper.USER + "=?  AND " + SgnOpenHelper.TICK + "=?";
+            whereClause = WHERE_LIST_USER_TICK;
             whereArgs = new String[]{shoppinglistId, userId, DbUtils.unescape(state)};
         }
         return delete(ItemSQLiteHelper.TABLE, whereClause, whereArgs);
     }
 
+    /***********************************************************************************************
+     *
+     *                                            BATCH
+     *
+     **********************************************************************************************/
+
+    /**
+     * Apply all operations in a {@link WriteBatch} in a single transaction. Each kind of operation
+     * uses one precompiled {@link SQLiteStatement}, that is reused for all rows in the batch.
+     * @param batch A {@link WriteBatch}
+     * @param userId A {@link User#getId()}
+     * @return number of affected rows, or -1 if the transaction failed
+     */
+    public int applyBatch(WriteBatch batch, String userId) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        SQLiteDatabase db = acquireDb();
+        BatchStatements statements = new BatchStatements(db);
+        db.beginTransaction();
+        try {
+            int count = 0;
+            for (WriteBatch.Op op : batch.mOps) {
+                switch (op.type) {
+                    case WriteBatch.PUT_LIST:
+                        Shoppinglist sl = (Shoppinglist) op.object;
+                        SQLiteStatement s = statements.insertList();
+                        ListSQLiteHelper.bind(s, sl, userId);
+                        if (s.executeInsert() > -1) {
+                            count++;
+                        }
+                        statements.delete(ShareSQLiteHelper.TABLE, WHERE_LIST_USER, op.id, userId);
+                        s = statements.insertShare();
+                        for (Share share : sl.getShares().values()) {
+                            ShareSQLiteHelper.bind(s, share, userId);
+                            s.executeInsert();
+                        }
+                        break;
+                    case WriteBatch.DELETE_LIST:
+                        count += statements.delete(ListSQLiteHelper.TABLE, WHERE_ID_USER, op.id, userId);
+                        statements.delete(ShareSQLiteHelper.TABLE, WHERE_LIST_USER, op.id, userId);
+                        break;
+                    case WriteBatch.PUT_ITEM:
+                        s = statements.insertItem();
+                        ItemSQLiteHelper.bind(s, (ShoppinglistItem) op.object, userId);
+                        if (s.executeInsert() > -1) {
+                            count++;
+                        }
+                        break;
+                    case WriteBatch.DELETE_ITEM:
+                        count += statements.delete(ItemSQLiteHelper.TABLE, WHERE_ID_USER, op.id, userId);
+                        break;
+                    case WriteBatch.DELETE_ITEMS:
+                        count += statements.delete(ItemSQLiteHelper.TABLE, WHERE_LIST_USER, op.id, userId);
+                        break;
+                }
+            }
+            db.setTransactionSuccessful();
+            return count;
+        } catch (IllegalStateException e) {
+            log(TAG, e);
+            return -1;
+        } finally {
+            db.endTransaction();
+            statements.close();
+            releaseDb();
+        }
+    }
+
+    /**
+     * The statements used by a {@link #applyBatch(WriteBatch, String)}, compiled on first use.
+     */
+    private static class BatchStatements {
+
+        private final SQLiteDatabase mDb;
+        private final HashMap<String, SQLiteStatement> mStatements = new HashMap<String, SQLiteStatement>();
+
+        BatchStatements(SQLiteDatabase db) {
+            mDb = db;
+        }
+
+        private SQLiteStatement get(String sql) {
+            SQLiteStatement s = mStatements.get(sql);
+            if (s == null) {
+                s = mDb.compileStatement(sql);
+                mStatements.put(sql, s);
+            }
+            return s;
+        }
+
+        SQLiteStatement insertList() {
+            return get(ListSQLiteHelper.INSERT_STATEMENT);
+        }
+
+        SQLiteStatement insertItem() {
+            return get(ItemSQLiteHelper.INSERT_STATEMENT);
+        }
+
+        SQLiteStatement insertShare() {
+            return get(ShareSQLiteHelper.INSERT_STATEMENT);
+        }
+
+        int delete(String table, String whereClause, String id, String userId) {
+            SQLiteStatement s = get("DELETE FROM " + table + " WHERE " + whereClause);
+            DbUtils.bindOrNull(s, 1, id);
+            s.bindString(2, userId);
+            return s.executeUpdateDelete();
+        }
+
+        void close() {
+            for (SQLiteStatement s : mStatements.values()) {
+                s.close();
+            }
+        }
+
+    }
+
+    /***********************************************************************************************
+     *
+     *                                            CHANGES
+     *
+     **********************************************************************************************/
+
+    /**
+     * Get the journaled changes, in the order they were last edited.
+     * @param userId A {@link User#getId()}
+     * @return A list of {@link PendingChange}
+     */
+    public List<PendingChange> getChanges(String userId) {
+        Cursor c = null;
+        try {
+            String[] selectionArgs = new String[]{userId};
+            c = acquireDb().query(false, ChangeSQLiteHelper.TABLE, null, WHERE_USER, selectionArgs, null, null, SgnOpenHelper.SEQ, null);
+            return ChangeSQLiteHelper.cursorToList(c);
+        } catch (IllegalStateException e) {
+            log(TAG, e);
+            return new ArrayList<PendingChange>();
+        } finally {
+            DbUtils.closeCursor(c);
+            releaseDb();
+        }
+    }
+
+    /**
+     * Count an attempt to send a change, and postpone any retry until the given time. Nothing
+     * happens if the object have been edited since the change was read.
+     * @param change A {@link PendingChange}
+     * @param userId A {@link User#getId()}
+     * @param retryAt The earliest time to retry the change
+     * @return number of affected rows
+     */
+    public int deferChange(PendingChange change, String userId, long retryAt) {
+        try {
+            ContentValues cv = new ContentValues();
+            cv.put(SgnOpenHelper.ATTEMPTS, change.getAttempts() + 1);
+            cv.put(SgnOpenHelper.RETRY_AT, retryAt);
+            return acquireDb().update(ChangeSQLiteHelper.TABLE, cv, WHERE_CHANGE_SEQ, changeArgs(change, userId));
+        } catch (IllegalStateException e) {
+            log(TAG, e);
+            return 0;
+        } finally {
+            releaseDb();
+        }
+    }
+
+    /**
+     * Remove a change from the journal. Nothing happens if the object have been edited since the
+     * change was read, as the new edit must still be sent.
+     * @param change A {@link PendingChange}
+     * @param userId A {@link User#getId()}
+     * @return number of affected rows
+     */
+    public int completeChange(PendingChange change, String userId) {
+        return delete(ChangeSQLiteHelper.TABLE, WHERE_CHANGE_SEQ, changeArgs(change, userId));
+    }
+
+    private static String[] changeArgs(PendingChange change, String userId) {
+        return new String[]{userId, String.valueOf(change.getType()), change.getShoppinglistId(),
+                change.getId(), String.valueOf(change.getSeq())};
+    }
+
     /**
      * ********************************************************************************************
      *
@@ -448,10 +672,10 @@ public class SgnDataSource extends SQLDataSource {
     }
 
     public List<Share> getShares(String shoppinglistId, String userId, boolean includeDeleted) {
-        String selection = SgnOpenHelper.SHOPPINGLIST_ID + "=? AND " + SgnOpenHelper.USER + "=? AND " + SgnOpenHelper.STATE + "!=?";
+        String selection = WHERE_LIST_USER_NOT_STATE;
         String[] selectionArgs = new String[]{shoppinglistId, userId, String.valueOf(SyncState.DELETE)};
         if (includeDeleted) {
-            selection = SgnOpenHelper.SHOPPINGLIST_ID + "=? AND " + SgnOpenHelper.USER + "=?";
+            selection = WHERE_LIST_USER;
             selectionArgs = new String[]{shoppinglistId, userId};
         }
         return getShares(selection, selectionArgs, shoppinglistId);
@@ -476,13 +700,13 @@ public class SgnDataSource extends SQLDataSource {
     }
 
     public int deleteShare(String shareEmail, String shareShoppinglistId, String userId) {
-        String whereClause = SgnOpenHelper.EMAIL + "=? AND " + SgnOpenHelper.SHOPPINGLIST_ID + "=? AND " + SgnOpenHelper.USER + "=?";
+        String whereClause = WHERE_EMAIL_LIST_USER;
         String[] whereArgs = new String[]{shareEmail, shareShoppinglistId, userId};
         return delete(ShareSQLiteHelper.TABLE, whereClause, whereArgs);
     }
 
     public int deleteShares(String shoppinglistId, String userId) {
-        String whereClause = SgnOpenHelper.SHOPPINGLIST_ID + "=? AND " + SgnOpenHelper.USER + "=? ";
+        String whereClause = WHERE_LIST_USER;
         String[] whereArgs = new String[]{shoppinglistId, userId};
         return delete(ShareSQLiteHelper.TABLE, whereClause, whereArgs);
     }
@@ -499,7 +723,7 @@ public class SgnDataSource extends SQLDataSource {
         shoppinglistitems to remain in the item table.
         Cleanup by performing a delete WHERE user = -1 and state = DELETE
          */
-        String whereClause = SgnOpenHelper.USER + "=? AND " + SgnOpenHelper.STATE + "=? ";
+        String whereClause = WHERE_USER_STATE;
         String[] whereArgs = new String[]{"-1", String.valueOf(SyncState.DELETE)};
         return delete(ItemSQLiteHelper.TABLE, whereClause, whereArgs);
     }
@@ -510,7 +734,7 @@ public class SgnDataSource extends SQLDataSource {
         Shoppinglists to remain in the item table.
         Cleanup by performing a delete WHERE user = -1 and state = DELETE
          */
-        String whereClause = SgnOpenHelper.USER + "=? AND " + SgnOpenHelper.STATE + "=? ";
+        String whereClause = WHERE_USER_STATE;
         String[] whereArgs = new String[]{"-1", String.valueOf(SyncState.DELETE)};
         return delete(ListSQLiteHelper.TABLE, whereClause, whereArgs);
     }
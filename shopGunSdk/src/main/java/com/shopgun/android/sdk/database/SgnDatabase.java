@@ -423,6 +423,47 @@ public class SgnDatabase {
         return mDataSource.editItemState(sl.getId(), user.getId(), modified, syncState);
     }
 
+    /**
+     * Apply all operations in a {@link WriteBatch} to the database, in a single transaction.
+     * Either all operations are applied, or none of them are.
+     * @param batch A {@link WriteBatch}
+     * @param user A {@link User}
+     * @return {@code true} if the batch was applied, else {@code false}
+     */
+    public boolean apply(WriteBatch batch, User user) {
+        return mDataSource.applyBatch(batch, String.valueOf(user.getUserId())) > -1;
+    }
+
+    /**
+     * Get the journaled changes for a {@link User}, that needs to be sent to the API.
+     * @param user A {@link User}
+     * @return A list of {@link PendingChange}, in the order they were last edited
+     */
+    public List<PendingChange> getChanges(User user) {
+        return mDataSource.getChanges(String.valueOf(user.getUserId()));
+    }
+
+    /**
+     * Count an attempt to send a {@link PendingChange}, and postpone the next attempt.
+     * @param change A {@link PendingChange}
+     * @param user A {@link User}
+     * @param retryAt The earliest time to retry the change
+     * @return {@code true} if the change is still pending, else {@code false}
+     */
+    public boolean deferChange(PendingChange change, User user, long retryAt) {
+        return mDataSource.deferChange(change, String.valueOf(user.getUserId()), retryAt) > 0;
+    }
+
+    /**
+     * Remove a {@link PendingChange} from the journal, unless the object have been edited again.
+     * @param change A {@link PendingChange}
+     * @param user A {@link User}
+     * @return {@code true} if the change was removed, else {@code false}
+     */
+    public boolean completeChange(PendingChange change, User user) {
+        return mDataSource.completeChange(change, String.valueOf(user.getUserId())) > 0;
+    }
+
     /**
      *
      * @param sl A shoppinglist
@@ -431,7 +472,18 @@ public class SgnDatabase {
      * @return A list of Share
      */
     public List<Share> getShares(Shoppinglist sl, User user, boolean includeDeleted) {
-        return mDataSource.getShares(sl.getId(), String.valueOf(user.getUserId()), includeDeleted);
+        return getShares(sl.getId(), user, includeDeleted);
+    }
+
+    /**
+     *
+     * @param shoppinglistId A {@link Shoppinglist#getId()}
+     * @param user A user
+     * @param includeDeleted Whether to include deleted shares
+     * @return A list of Share
+     */
+    public List<Share> getShares(String shoppinglistId, User user, boolean includeDeleted) {
+        return mDataSource.getShares(shoppinglistId, String.valueOf(user.getUserId()), includeDeleted);
     }
 
     public boolean insertShare(Share s, User user) {
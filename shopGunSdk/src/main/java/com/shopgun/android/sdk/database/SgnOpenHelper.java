@@ -56,9 +56,18 @@ public class SgnOpenHelper extends SQLiteOpenHelper {
     public static final String EMAIL = "email";
     public static final String ACCEPTED = "accepted";
     public static final String ACCEPT_URL = "accept_url";
+    public static final String SEQ = "seq";
+    public static final String ATTEMPTS = "attempts";
+    public static final String RETRY_AT = "retry_at";
 
     private static final String DB_NAME = "shoppinglist.db";
-    private static final int DB_VERSION = 5;
+    private static final int DB_VERSION = 7;
+
+    /**
+     * The last version that changed the layout of the tables. Upgrades from an older version
+     * will drop and recreate the tables, any later upgrades must preserve the data.
+     */
+    protected static final int SCHEMA_VERSION = 5;
 
     protected SgnOpenHelper(Context c) {
         super(c, DB_NAME, null, DB_VERSION);
@@ -70,6 +79,7 @@ public class SgnOpenHelper extends SQLiteOpenHelper {
         ListSQLiteHelper.create(db);
         ItemSQLiteHelper.create(db);
         ShareSQLiteHelper.create(db);
+        ChangeSQLiteHelper.create(db);
     }
 
     @Override
@@ -80,6 +90,29 @@ public class SgnOpenHelper extends SQLiteOpenHelper {
         ListSQLiteHelper.upgrade(db, oldVersion, newVersion);
         ItemSQLiteHelper.upgrade(db, oldVersion, newVersion);
         ShareSQLiteHelper.upgrade(db, oldVersion, newVersion);
+        ChangeSQLiteHelper.upgrade(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Get the statement for creating an index on the given columns, if it doesn't already exist.
+     * @param table The table to index
+     * @param columns The columns to include in the index, in order
+     * @return A create index statement
+     */
+    protected static String createIndex(String table, String... columns) {
+        StringBuilder name = new StringBuilder(table);
+        StringBuilder list = new StringBuilder();
+        for (String c : columns) {
+            name.append('_').append(c);
+            list.append(list.length() == 0 ? "" : ", ").append(c);
+        }
+        return "create index if not exists " + name + "_idx on " + table + "(" + list + ");";
+    }
+
+    protected static void createIndexes(SQLiteDatabase db, String[] statements) {
+        for (String s : statements) {
+            db.execSQL(s);
+        }
     }
 
 }
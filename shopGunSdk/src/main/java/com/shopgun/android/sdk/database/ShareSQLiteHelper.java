@@ -53,6 +53,10 @@ public class ShareSQLiteHelper extends SgnOpenHelper {
                     STATE + " integer " +
                     ");";
     public static final String INSERT_STATEMENT = "INSERT OR REPLACE INTO " + TABLE + " VALUES (?,?,?,?,?,?,?,?,?)";
+    public static final String[] CREATE_INDEXES = {
+            createIndex(TABLE, SHOPPINGLIST_ID, USER),
+            createIndex(TABLE, USER)
+    };
 
     public ShareSQLiteHelper(Context context) {
         super(context);
@@ -61,12 +65,16 @@ public class ShareSQLiteHelper extends SgnOpenHelper {
     public static void create(SQLiteDatabase db) {
         db.acquireReference();
         db.execSQL(CREATE_TABLE);
+        createIndexes(db, CREATE_INDEXES);
         db.releaseReference();
     }
 
     public static void upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         db.acquireReference();
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        if (oldVersion < SCHEMA_VERSION) {
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        }
+        create(db);
         db.releaseReference();
     }
 
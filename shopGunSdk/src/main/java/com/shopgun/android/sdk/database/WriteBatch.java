@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk.database;
+
+import com.shopgun.android.sdk.model.Shoppinglist;
+import com.shopgun.android.sdk.model.ShoppinglistItem;
+import com.shopgun.android.sdk.utils.Constants;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A list of write operations, that are to be applied to the database in a single transaction,
+ * using {@link SgnDatabase#apply(WriteBatch, com.shopgun.android.sdk.model.User)}.
+ *
+ * <p>Operations are applied in the order they are added, and each kind of operation is executed
+ * with a single precompiled statement, that is reused across rows. So merging a few hundred
+ * {@link ShoppinglistItem ShoppinglistItems} costs one commit, rather than one per item.</p>
+ */
+public class WriteBatch {
+
+    public static final String TAG = Constants.getTag(WriteBatch.class);
+
+    static final int PUT_LIST = 1;
+    static final int DELETE_LIST = 2;
+    static final int PUT_ITEM = 3;
+    static final int DELETE_ITEM = 4;
+    static final int DELETE_ITEMS = 5;
+
+    final List<Op> mOps = new ArrayList<Op>();
+
+    /**
+     * Insert or replace a {@link Shoppinglist}, and replace it's shares with {@link Shoppinglist#getShares()}.
+     * @param sl A {@link Shoppinglist}
+     * @return this object
+     */
+    public WriteBatch putList(Shoppinglist sl) {
+        mOps.add(new Op(PUT_LIST, sl.getId(), sl));
+        return this;
+    }
+
+    /**
+     * Delete a {@link Shoppinglist} and it's shares. Use {@link #deleteItems(String)} to delete the items.
+     * @param shoppinglistId A {@link Shoppinglist#getId()}
+     * @return this object
+     */
+    public WriteBatch deleteList(String shoppinglistId) {
+        mOps.add(new Op(DELETE_LIST, shoppinglistId, null));
+        return this;
+    }
+
+    /**
+     * Insert or replace a {@link ShoppinglistItem}.
+     * @param sli A {@link ShoppinglistItem}
+     * @return this object
+     */
+    public WriteBatch putItem(ShoppinglistItem sli) {
+        mOps.add(new Op(PUT_ITEM, sli.getId(), sli));
+        return this;
+    }
+
+    /**
+     * Delete a {@link ShoppinglistItem}.
+     * @param itemId A {@link ShoppinglistItem#getId()}
+     * @return this object
+     */
+    public WriteBatch deleteItem(String itemId) {
+        mOps.add(new Op(DELETE_ITEM, itemId, null));
+        return this;
+    }
+
+    /**
+     * Delete all {@link ShoppinglistItem ShoppinglistItems} in a {@link Shoppinglist}.
+     * @param shoppinglistId A {@link Shoppinglist#getId()}
+     * @return this object
+     */
+    public WriteBatch deleteItems(String shoppinglistId) {
+        mOps.add(new Op(DELETE_ITEMS, shoppinglistId, null));
+        return this;
+    }
+
+    /**
+     * @return The number of operations in this batch
+     */
+    public int size() {
+        return mOps.size();
+    }
+
+    /**
+     * @return {@code true} if there are no operations in this batch, else {@code false}
+     */
+    public boolean isEmpty() {
+        return mOps.isEmpty();
+    }
+
+    /**
+     * Remove all operations from this batch, so it can be reused.
+     */
+    public void clear() {
+        mOps.clear();
+    }
+
+    static class Op {
+
+        final int type;
+        final String id;
+        final Object object;
+
+        Op(int type, String id, Object object) {
+            this.type = type;
+            this.id = id;
+            this.object = object;
+        }
+    }
+
+}
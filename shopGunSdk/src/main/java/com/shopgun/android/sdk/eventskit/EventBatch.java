@@ -0,0 +1,67 @@
+package com.shopgun.android.sdk.eventskit;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A batch of the oldest events in an {@link EventStore}, read to be shipped together.
+ *
+ * <p>The batch covers a contiguous range of the store, from {@link #getFirst()} to {@link #getLast()}, so
+ * once the server has acknowledged all of it, it can be deleted as a single range with
+ * {@link EventStore#deleteBatch(EventBatch)}. The range is only valid until the store is closed.</p>
+ */
+public class EventBatch {
+
+    private final List<AnonymousEventWrapper> mEvents;
+    private final long mFirst;
+    private final long mLast;
+
+    public EventBatch(List<AnonymousEventWrapper> events, long first, long last) {
+        mEvents = Collections.unmodifiableList(events);
+        mFirst = first;
+        mLast = last;
+    }
+
+    /**
+     * @return The events in the batch, oldest first
+     */
+    public List<AnonymousEventWrapper> getEvents() {
+        return mEvents;
+    }
+
+    /**
+     * @return The store specific position of the first event in the batch
+     */
+    public long getFirst() {
+        return mFirst;
+    }
+
+    /**
+     * @return The store specific position of the last event in the batch
+     */
+    public long getLast() {
+        return mLast;
+    }
+
+    public boolean isEmpty() {
+        return mEvents.isEmpty();
+    }
+
+    public int size() {
+        return mEvents.size();
+    }
+
+    /**
+     * @return The {@link AnonymousEventWrapper#getId() ids} of the events in the batch
+     */
+    public Set<String> getIds() {
+        Set<String> ids = new HashSet<>(mEvents.size());
+        for (AnonymousEventWrapper e : mEvents) {
+            ids.add(e.getId());
+        }
+        return ids;
+    }
+
+}
@@ -4,31 +4,26 @@ import android.os.Process;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import com.shopgun.android.sdk.ShopGun;
-import com.shopgun.android.sdk.corekit.gson.JsonNullExclusionStrategy;
-import com.shopgun.android.sdk.corekit.gson.RealmObjectExclusionStrategy;
 import com.shopgun.android.sdk.log.SgnLog;
 import com.shopgun.android.sdk.utils.Constants;
+import com.shopgun.android.sdk.utils.SgnThreadFactory;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-import io.realm.Realm;
-import io.realm.RealmQuery;
-import io.realm.RealmResults;
-import io.realm.exceptions.RealmPrimaryKeyConstraintException;
 import okhttp3.Call;
 import okhttp3.Headers;
 import okhttp3.HttpUrl;
-import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.Response;
 
 /**
@@ -47,6 +42,19 @@ public class EventDispatcher extends Thread {
     /** Events older than one week will be deleted if a nack is received */
     private static final int EVENT_MAX_AGE = 7;
 
+    /** Max number of events kept in memory, while the store is unable to persist them */
+    private static final int MAX_UNPERSISTED = 1000;
+
+    /** Max number of spilled events waiting for the spill writer */
+    private static final int MAX_SPILLED = 1024;
+
+    /** Initial, and max time to wait, before trying to open the store again */
+    private static final long OPEN_RETRY_DELAY = 1000;
+    private static final long MAX_OPEN_RETRY_DELAY = 60000;
+
+    /** Default time to wait for more events, before a batch is persisted */
+    public static final long DEFAULT_LINGER_TIME = 100;
+
     /** The queue of requests to service. */
     private final BlockingQueue<AnonymousEvent> mQueue;
 
@@ -58,49 +66,140 @@ public class EventDispatcher extends Thread {
 
     private final int mEventBatchSize;
 
+    /** Max number of events taken from the queue, and persisted in one write */
+    private volatile int mDrainLimit;
+
+    /** Time in milliseconds to wait for more events, before a batch is persisted */
+    private volatile long mLingerTime = DEFAULT_LINGER_TIME;
+
     /** Event that indicate that is time to flush out the events */
     private final AnonymousEvent mFlushEvent;
 
+    /** Set when a flush is requested, in case the flush event didn't fit in the queue */
+    private final AtomicBoolean mFlushRequested = new AtomicBoolean(false);
+
     private final HttpUrl mUrl;
-    private final MediaType mMediatype;
     private final Headers mHeaders;
-    private Realm mRealm;
-    private final Gson mGson;
+    /** Whether to gzip the events shipped */
+    private volatile boolean mGzip = true;
+    /** Bytes of event JSON shipped, before and after compression */
+    private final AtomicLong mRawBytes = new AtomicLong();
+    private final AtomicLong mCompressedBytes = new AtomicLong();
+    /** The events waiting to be dispatched */
+    private final EventStore mStore;
+    /** Events spilled by the {@link EventManager}, waiting to be written by the spill writer */
+    private final BlockingQueue<AnonymousEventWrapper> mSpillQueue = new LinkedBlockingQueue<>(MAX_SPILLED);
+    /** Set while a write of the spilled events is scheduled */
+    private final AtomicBoolean mSpillScheduled = new AtomicBoolean(false);
+    /** Writes the spilled events, off the threads adding events, and off the dispatcher thread */
+    private final ThreadPoolExecutor mSpillWriter;
+    /** Events lost after they were accepted, because the store couldn't persist them */
+    private final AtomicLong mDroppedCount;
+    /** The instance the dispatcher belongs to, or {@code null} to use {@link ShopGun#getInstance()} */
+    private final ShopGun mShopGun;
 
     public EventDispatcher(BlockingQueue<AnonymousEvent> queue, OkHttpClient client, String url) {
-        this(queue, client, url, DEFAULT_EVENT_BATCH_SIZE);
+        this(queue, client, url, new RealmEventStore());
+    }
+
+    public EventDispatcher(BlockingQueue<AnonymousEvent> queue, OkHttpClient client, String url, EventStore store) {
+        this(queue, client, url, store, DEFAULT_EVENT_BATCH_SIZE);
+    }
+
+    public EventDispatcher(BlockingQueue<AnonymousEvent> queue, OkHttpClient client, String url, EventStore store, int eventBatchSize) {
+        this(queue, null, client, url, store, eventBatchSize, new AtomicLong());
+    }
+
+    /**
+     * @param droppedCount The counter to add the events lost by the dispatcher to, shared by the dispatchers
+     *                     of an {@link EventManager}
+     */
+    EventDispatcher(BlockingQueue<AnonymousEvent> queue, ShopGun shopGun, AtomicLong droppedCount) {
+        this(queue, shopGun, shopGun.getClient(), shopGun.getEventEnvironment(), shopGun.getEventStore(), DEFAULT_EVENT_BATCH_SIZE, droppedCount);
     }
 
-    public EventDispatcher(BlockingQueue<AnonymousEvent> queue, OkHttpClient client, String url, int eventBatchSize) {
+    private EventDispatcher(BlockingQueue<AnonymousEvent> queue, ShopGun shopGun, OkHttpClient client, String url, EventStore store, int eventBatchSize, AtomicLong droppedCount) {
         mQueue = queue;
+        mDroppedCount = droppedCount;
+        mShopGun = shopGun;
+        mStore = store;
         mClient = client;
         mEventBatchSize = eventBatchSize;
+        mDrainLimit = eventBatchSize;
         mFlushEvent = new AnonymousEvent(FLUSH_EVENT_TYPE)
                 .add("custom event", "flush event") // add some info for logging
                 .doNotTrack(true);
+        mSpillWriter = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new SgnThreadFactory("sgn-events-spill-"));
+        mSpillWriter.allowCoreThreadTimeOut(true);
         mUrl = HttpUrl.parse(url);
-        mMediatype = MediaType.parse("application/json");
         mHeaders = new Headers.Builder()
                 .add("Content-Type", "application/json")
                 .add("Accept", "application/json")
                 .build();
-        mGson = getGson();
     }
 
-    private Gson getGson() {
+    /**
+     * Set whether the events shipped are gzip compressed. It's enabled by default.
+     * @param gzip {@code true} to compress the events, else {@code false}
+     */
+    public void setGzipEnabled(boolean gzip) {
+        mGzip = gzip;
+    }
 
-        try {
-            Class clazz = Class.forName("io.realm.com_shopgun_android_sdk_eventskit_AnonymousEventWrapperRealmProxy");
-            return new GsonBuilder()
-                    .setExclusionStrategies(
-                            new RealmObjectExclusionStrategy(),
-                            new JsonNullExclusionStrategy())
-                    .registerTypeAdapter(clazz, new AnonymousEventSerializer())
-                    .create();
-        } catch (ClassNotFoundException e) {
-            throw new IllegalStateException("Gson not instantiated due to missing RealmProxy class", e);
-        }
+    public boolean isGzipEnabled() {
+        return mGzip;
+    }
 
+    /**
+     * @return The number of bytes of event JSON shipped by this dispatcher, before compression
+     */
+    public long getRawBytes() {
+        return mRawBytes.get();
+    }
+
+    /**
+     * @return The number of bytes of events shipped by this dispatcher, as sent over the network
+     */
+    public long getCompressedBytes() {
+        return mCompressedBytes.get();
+    }
+
+    /**
+     * @return The number of events lost after they were taken from the queue, or spilled, because the store
+     *          couldn't persist them
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * Set the time to wait for more events, after the first event of a batch is taken from the queue.
+     * A burst of events, e.g. from page flips, is then persisted and considered for dispatch once.
+     * @param lingerTime The time in milliseconds, or {@code 0} to only take the events already in the queue
+     */
+    public void setLingerTime(long lingerTime) {
+        mLingerTime = Math.max(0, lingerTime);
+    }
+
+    public long getLingerTime() {
+        return mLingerTime;
+    }
+
+    /**
+     * Set the max number of events taken from the queue, and persisted in one write.
+     * @param drainLimit A limit, of at least one
+     */
+    public void setDrainLimit(int drainLimit) {
+        mDrainLimit = Math.max(1, drainLimit);
+    }
+
+    public int getDrainLimit() {
+        return mDrainLimit;
+    }
+
+    private ShopGun getShopGun() {
+        return mShopGun != null ? mShopGun : ShopGun.getInstance();
     }
 
     public void quit() {
@@ -124,51 +223,138 @@ public class EventDispatcher extends Thread {
     }
 
     /**
-     * Take an event from the queue and processes it.
-     * If it's an event to be tracked, it'll be serialized and inserted into a database, waiting to be dispatched.
+     * Take a batch of events from the queue and processes it.
+     * The events to be tracked are serialized and persisted in the {@link EventStore} in one write, waiting to
+     * be dispatched, and then it's decided once for the whole batch, whether to dispatch.
      */
     @Override
     public void run() {
         // low priority on posting mEvents to atta
         Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-        mRealm = ShopGun.getInstance().getRealmInstance();
-        if (mRealm == null) {
-            return;
-        }
-        AnonymousEvent event;
+        // A store that fails to open is retried with backoff, the events are kept in memory meanwhile
+        boolean open = openStore();
+        long retryDelay = OPEN_RETRY_DELAY;
+        long retryAt = System.currentTimeMillis() + retryDelay;
+        List<AnonymousEvent> batch = new ArrayList<>();
+        // Events the store failed to persist, they're retried with the next batch
+        List<AnonymousEventWrapper> wrappedEvents = new ArrayList<>();
         while (!mQuit || !mQueue.isEmpty()) {
+            batch.clear();
             try {
-                // Take an event from the queue.
-                event = mQueue.take();
+                // Take an event from the queue, and whatever follows it
+                batch.add(mQueue.take());
             } catch (InterruptedException e) {
                 // We were interrupted, likely because we want to quit
                 continue;
             }
-            if (event.doNotTrack()) {
-                // log events not meant to be tracked (like the flush event)
-                SgnLog.v(TAG, event.toString());
-            } else {
-                // wrap the event for database operation
-                AnonymousEventWrapper wrappedEvent =
-                        new AnonymousEventWrapper(event.getId(),event.getVersion(), event.getTimestamp(), event.toString());
-
-                mRealm.executeTransaction(new InsertTransaction(wrappedEvent));
+            boolean flush = drain(batch);
+            for (AnonymousEvent event : batch) {
+                if (event.doNotTrack()) {
+                    // log events not meant to be tracked (like the flush event)
+                    SgnLog.v(TAG, event.toString());
+                } else {
+                    // wrap the event for database operation
+                    wrappedEvents.add(wrap(event));
+                }
+            }
+            if (!open && System.currentTimeMillis() >= retryAt) {
+                open = openStore();
+                retryDelay = Math.min(retryDelay * 2, MAX_OPEN_RETRY_DELAY);
+                retryAt = System.currentTimeMillis() + retryDelay;
+            }
+            if (!wrappedEvents.isEmpty()) {
+                if (open && mStore.add(wrappedEvents)) {
+                    wrappedEvents.clear();
+                } else if (wrappedEvents.size() > MAX_UNPERSISTED) {
+                    int dropped = wrappedEvents.size() - MAX_UNPERSISTED;
+                    SgnLog.w(TAG, "Unable to persist events, dropping the " + dropped + " oldest");
+                    mDroppedCount.addAndGet(dropped);
+                    wrappedEvents.subList(0, dropped).clear();
+                }
+            }
+            if (open) {
+                dispatchEventQueue(flush);
             }
-            boolean flush = event.getType() == FLUSH_EVENT_TYPE;
-            dispatchEventQueue(flush);
         }
-        mRealm.close();
+        if (!wrappedEvents.isEmpty()) {
+            SgnLog.w(TAG, "Unable to persist events, dropping " + wrappedEvents.size());
+            mDroppedCount.addAndGet(wrappedEvents.size());
+        }
+        // Don't leave spilled events behind, the store can't take them once it's closed
+        writeSpilled();
+        mStore.close();
         interrupt();
     }
 
+    /**
+     * Open the store, and move over the events tracked before switching store.
+     * @return {@code true} if the store is open, else {@code false}
+     */
+    private boolean openStore() {
+        if (!mStore.open()) {
+            SgnLog.w(TAG, "Unable to open the event store, trying again later");
+            return false;
+        }
+        if (!(mStore instanceof RealmEventStore)) {
+            // Events tracked before switching store, must not be lost
+            RealmEventStore.migrate(getShopGun(), mStore);
+        }
+        return true;
+    }
+
+    /**
+     * Take events from the queue, until the {@link #setDrainLimit(int) drain limit} is reached, or no more
+     * events arrive within the {@link #setLingerTime(long) linger time}. A flush event ends the batch right away.
+     * @param batch The batch to add events to, holding the first event
+     * @return {@code true} if the batch holds a flush event, else {@code false}
+     */
+    private boolean drain(List<AnonymousEvent> batch) {
+        int limit = mDrainLimit;
+        mQueue.drainTo(batch, limit - batch.size());
+        boolean flush = containsFlush(batch, 0) || mFlushRequested.get();
+        long deadline = System.currentTimeMillis() + mLingerTime;
+        while (!flush && !mQuit && batch.size() < limit) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                break;
+            }
+            int from = batch.size();
+            try {
+                AnonymousEvent event = mQueue.poll(wait, TimeUnit.MILLISECONDS);
+                if (event == null) {
+                    break;
+                }
+                batch.add(event);
+            } catch (InterruptedException e) {
+                // Likely because we want to quit, persist what we have
+                break;
+            }
+            mQueue.drainTo(batch, limit - batch.size());
+            flush = containsFlush(batch, from) || mFlushRequested.get();
+        }
+        if (flush) {
+            mFlushRequested.set(false);
+        }
+        return flush;
+    }
+
+    private static boolean containsFlush(List<AnonymousEvent> events, int from) {
+        for (int i = from; i < events.size(); i++) {
+            if (events.get(i).getType() == FLUSH_EVENT_TYPE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void dispatchEventQueue(boolean force) {
 
-        if (!force && !ShopGun.getInstance().getLifecycleManager().isActive()) {
+        if (!force && !getShopGun().getLifecycleManager().isActive()) {
             // Ship network is we aren't active
             return;
         }
 
-        int count = (int) mRealm.where(AnonymousEventWrapper.class).count();
+        long count = mStore.count();
 
         if (!force && count < mEventBatchSize) {
             // Wait until we have a decent amount of mEvents
@@ -179,14 +365,20 @@ public class EventDispatcher extends Thread {
 
         try {
 
-            // get a limited amount of event from the db
-            List<AnonymousEventWrapper> events = getEvents(mEventBatchSize);
-            if (events.isEmpty()) {
+            // get the next batch of events from the store
+            EventBatch batch = mStore.getBatch(mEventBatchSize);
+            if (batch.isEmpty()) {
                 return;
             }
-
-            Call call = buildCallFromEvents(events);
-            response = call.execute();
+            List<AnonymousEventWrapper> events = batch.getEvents();
+
+            EventRequestBody body = new EventRequestBody(events, mGzip);
+            response = buildCall(body).execute();
+            if (body.getRawBytes() >= 0) {
+                mRawBytes.addAndGet(body.getRawBytes());
+                mCompressedBytes.addAndGet(body.getCompressedBytes());
+                SgnLog.v(TAG, events.size() + " events, " + body.getRawBytes() + " bytes, " + body.getCompressedBytes() + " bytes sent");
+            }
 
             if (response.isSuccessful()) {
 
@@ -195,16 +387,18 @@ public class EventDispatcher extends Thread {
                 Gson gson = new GsonBuilder().create();
                 EventResponse resp = gson.fromJson(responseBody, EventResponse.class);
 
-                mRealm.beginTransaction();
-
                 Set<String> removeIds = resp.getRemovableItems();
-                getEvents(removeIds).deleteAllFromRealm();
+                if (removeIds.size() == events.size() && removeIds.containsAll(batch.getIds())) {
+                    // The common case, where the whole batch is done with
+                    mStore.deleteBatch(batch);
+                } else {
+                    mStore.delete(removeIds);
+                }
 
+                // Events older than EVENT_MAX_AGE are deleted, even if nack'ed
                 Set<String> nackIds = resp.getNackItems();
-
-                getOldEvents(nackIds).deleteAllFromRealm();
-
-                mRealm.commitTransaction();
+                long timeLimit = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - TimeUnit.DAYS.toSeconds(EVENT_MAX_AGE);
+                mStore.deleteOlderThan(nackIds, timeLimit);
 
                 List<EventResponse.Item> errors = resp.getErrors();
                 SgnLog.d(TAG, events.size() + " events successfully shipped. " + resp.getAckItems().size() + " ack, " + nackIds.size() + " nack, " + errors.size() + " error.");
@@ -222,9 +416,6 @@ public class EventDispatcher extends Thread {
         } catch (Exception e) {
             SgnLog.e(TAG, "Network failed", e);
         } finally {
-            if (mRealm.isInTransaction()) {
-                mRealm.cancelTransaction();
-            }
             if (response != null) {
                 response.close();
             }
@@ -233,86 +424,73 @@ public class EventDispatcher extends Thread {
     }
 
 
-    private RealmResults<AnonymousEventWrapper> getOldEvents(Set<String> ids) {
-        // get the time limit
-        long timeLimit = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - TimeUnit.DAYS.toSeconds(EVENT_MAX_AGE);
-
-        RealmQuery<AnonymousEventWrapper> query = mRealm.where(AnonymousEventWrapper.class);
-        query.beginGroup();
-        boolean first = true;
-        for (String id : ids) {
-            if (!first) {
-                query.or();
-            }
-            first = false;
-            query = query.equalTo("id", id);
-        }
-        query.endGroup();
-        query.and().lessThan("timestamp", timeLimit);
-        return query.findAll();
+    /**
+     * Forces the delivery of all the event stored in the database
+     */
+    public void flush() {
+        mFlushRequested.set(true);
+        // if the queue is full, the dispatcher is busy anyway, and will see the request with the next batch
+        mQueue.offer(mFlushEvent);
     }
 
-    private List<AnonymousEventWrapper> getEvents(int limit) {
-        RealmResults<AnonymousEventWrapper> events = mRealm.where(AnonymousEventWrapper.class).findAll();
-        List<AnonymousEventWrapper> dispatchEvents = new ArrayList<>(DEFAULT_EVENT_BATCH_SIZE);
-        for (int i = 0; i < Math.min(limit, events.size()); i++) {
-            dispatchEvents.add(events.get(i));
+    /**
+     * Hand an event to the spill writer, that writes it directly to the store on a background thread, if
+     * the store allows it. Spilled events are written in batches, so a burst of events costs one write.
+     * @param event The event to store
+     * @return {@code true} if the event was accepted, else {@code false}
+     * @see EventOverflowPolicy#SPILL
+     */
+    boolean spill(AnonymousEvent event) {
+        if (!mStore.isThreadSafe() || !mStore.isOpen()) {
+            return false;
         }
-        return dispatchEvents;
-    }
-
-    private RealmResults<AnonymousEventWrapper> getEvents(Set<String> ids) {
-        RealmQuery<AnonymousEventWrapper> query = mRealm.where(AnonymousEventWrapper.class);
-        boolean first = true;
-        for (String id : ids) {
-            if (!first) {
-                query.or();
-            }
-            first = false;
-            query = query.equalTo("id", id);
+        if (event.doNotTrack()) {
+            return true;
+        }
+        if (!mSpillQueue.offer(wrap(event))) {
+            return false;
         }
-        return query.findAll();
+        if (mSpillScheduled.compareAndSet(false, true)) {
+            mSpillWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    do {
+                        mSpillScheduled.set(false);
+                        writeSpilled();
+                        // Another event may have been spilled, after we drained the queue
+                    } while (!mSpillQueue.isEmpty() && mSpillScheduled.compareAndSet(false, true));
+                }
+            });
+        }
+        return true;
     }
 
     /**
-     * Forces the delivery of all the event stored in the database
+     * Write the events waiting in the spill queue to the store, in one write.
      */
-    public void flush() {
-        // we can't flush if we've exceeded the capacity
-        if (mQueue.remainingCapacity() > 0) {
-            mQueue.add(mFlushEvent);
+    private void writeSpilled() {
+        List<AnonymousEventWrapper> events = new ArrayList<>(mSpillQueue.size());
+        mSpillQueue.drainTo(events);
+        if (!events.isEmpty() && !mStore.add(events)) {
+            SgnLog.w(TAG, "Unable to persist " + events.size() + " spilled events, dropping them");
+            mDroppedCount.addAndGet(events.size());
         }
     }
 
-    private static class InsertTransaction implements Realm.Transaction {
-
-        AnonymousEventWrapper mEvent;
-
-        InsertTransaction(AnonymousEventWrapper event) {
-            mEvent = event;
-        }
-
-        @Override
-        public void execute(Realm realm) {
-            try {
-                realm.insert(mEvent);
-            } catch (RealmPrimaryKeyConstraintException e) {
-                throw new IllegalStateException("Realm duplicate key on event: " + mEvent.toString(), e);
-            }
-        }
+    private static AnonymousEventWrapper wrap(AnonymousEvent event) {
+        return new AnonymousEventWrapper(event.getId(), event.getVersion(), event.getTimestamp(), event.toString());
     }
 
-    private Call buildCallFromEvents(List<AnonymousEventWrapper> events) {
-        JsonElement eventArray = mGson.toJsonTree(events);
-        JsonObject eventWrapper = new JsonObject();
-        eventWrapper.add("events", eventArray);
-        RequestBody body = RequestBody.create(mMediatype, eventWrapper.toString());
-        Request request = new Request.Builder()
+    private Call buildCall(EventRequestBody body) {
+        Request.Builder builder = new Request.Builder()
                 .url(mUrl)
                 .post(body)
-                .headers(mHeaders)
-                .build();
-        return mClient.newCall(request);
+                .headers(mHeaders);
+        if (body.isGzip()) {
+            builder.header("Content-Encoding", "gzip");
+        }
+        return mClient.newCall(builder.build());
     }
 
 }
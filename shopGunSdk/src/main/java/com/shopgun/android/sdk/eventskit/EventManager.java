@@ -11,11 +11,14 @@ import com.shopgun.android.sdk.log.SgnLog;
 import com.shopgun.android.sdk.utils.Constants;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Receives events from the {@link EventTracker} and insert them into the "to be dispatched" queue.
@@ -27,6 +30,9 @@ public class EventManager {
     private static final int DISPATCH_MSG = 5738629;
     private static final long DISPATCH_INTERVAL = TimeUnit.SECONDS.toMillis(120);
     public static final int MAX_QUEUE_SIZE = 1024;
+    public static final long DEFAULT_BLOCK_TIMEOUT = 50;
+    /** Remaining capacity in the queue, below which the {@link EventOverflowPolicy#SAMPLE sampling} begins */
+    private static final int SAMPLE_THRESHOLD = MAX_QUEUE_SIZE / 4;
 
     private static EventManager mInstance;
 
@@ -46,6 +52,16 @@ public class EventManager {
     private EventDispatcher mEventDispatcher;
     private LegacyEventDispatcher mLegacyEventDispatcher;
     private long mDispatchInterval = DISPATCH_INTERVAL;
+    private long mLingerTime = EventDispatcher.DEFAULT_LINGER_TIME;
+    private final ShopGun mShopGun;
+    private volatile EventOverflowPolicy mOverflowPolicy = EventOverflowPolicy.DROP_NEWEST;
+    private volatile long mBlockTimeout = DEFAULT_BLOCK_TIMEOUT;
+    /** Keep one in every n events of a type, when sampling */
+    private final Map<Integer, Integer> mSampleRates = new HashMap<>();
+    private final Map<Integer, Integer> mSampleCounts = new HashMap<>();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mSpilledCount = new AtomicLong();
+    private final AtomicLong mSampledCount = new AtomicLong();
     private final List<EventListener> mEventListeners;
     private String mCountryCode;
 
@@ -60,10 +76,11 @@ public class EventManager {
         return mInstance;
     }
 
-    private EventManager(ShopGun shopGun) {
+    EventManager(ShopGun shopGun) {
+        mShopGun = shopGun;
         mEventListeners = new ArrayList<>();
         mEventQueue = new LinkedBlockingQueue<>(MAX_QUEUE_SIZE);
-        mEventDispatcher = new EventDispatcher(mEventQueue, shopGun.getClient(), shopGun.getEventEnvironment());
+        mEventDispatcher = new EventDispatcher(mEventQueue, shopGun, mDroppedCount);
         mCountryCode = "";
 
         checkLegacyEvents(shopGun);
@@ -94,19 +111,133 @@ public class EventManager {
             SgnLog.d(TAG, "Adding tracked event: " + event.toString());
         }
 
-        boolean isActive = ShopGun.getInstance().getLifecycleManager().isActive();
+        boolean isActive = mShopGun.getLifecycleManager().isActive();
         if (!isActive) {
             mEventDispatcher.start();
         }
-        if (mEventQueue.remainingCapacity() > 0) {
+        if (enqueue(event)) {
             dispatchOnEvent(event);
-            mEventQueue.add(event);
         }
         if (!isActive) {
             mEventDispatcher.quit();
         }
     }
 
+    /**
+     * Put an event into the queue, or handle it according to the {@link EventOverflowPolicy} if the queue is full.
+     * @return {@code true} if the event was accepted, else {@code false}
+     */
+    private boolean enqueue(AnonymousEvent event) {
+        EventOverflowPolicy policy = mOverflowPolicy;
+        if (policy == EventOverflowPolicy.SAMPLE && mEventQueue.remainingCapacity() < SAMPLE_THRESHOLD && !isSampled(event)) {
+            mSampledCount.incrementAndGet();
+            return false;
+        }
+        if (mEventQueue.offer(event)) {
+            return true;
+        }
+        switch (policy) {
+            case DROP_OLDEST:
+                while (!mEventQueue.offer(event)) {
+                    AnonymousEvent oldest = mEventQueue.poll();
+                    if (oldest != null && !oldest.doNotTrack()) {
+                        mDroppedCount.incrementAndGet();
+                    }
+                }
+                return true;
+            case BLOCK:
+                try {
+                    if (mEventQueue.offer(event, mBlockTimeout, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                break;
+            case SPILL:
+                if (mEventDispatcher.spill(event)) {
+                    mSpilledCount.incrementAndGet();
+                    return true;
+                }
+                break;
+        }
+        mDroppedCount.incrementAndGet();
+        SgnLog.d(TAG, "Event queue full, dropped event: " + event.getType());
+        return false;
+    }
+
+    private boolean isSampled(AnonymousEvent event) {
+        synchronized (mSampleRates) {
+            Integer rate = mSampleRates.get(event.getType());
+            if (rate == null) {
+                return true;
+            }
+            Integer count = mSampleCounts.get(event.getType());
+            count = count == null ? 0 : count;
+            mSampleCounts.put(event.getType(), count + 1);
+            return count % rate == 0;
+        }
+    }
+
+    /**
+     * Set what to do with new events, when the queue to the dispatcher is full.
+     * @param policy A policy, the default is {@link EventOverflowPolicy#DROP_NEWEST}
+     */
+    public void setOverflowPolicy(EventOverflowPolicy policy) {
+        mOverflowPolicy = policy == null ? EventOverflowPolicy.DROP_NEWEST : policy;
+    }
+
+    public EventOverflowPolicy getOverflowPolicy() {
+        return mOverflowPolicy;
+    }
+
+    /**
+     * Set the max time to wait for room in the queue, with the {@link EventOverflowPolicy#BLOCK} policy.
+     * @param blockTimeout The time in milliseconds
+     */
+    public void setBlockTimeout(long blockTimeout) {
+        mBlockTimeout = Math.max(0, blockTimeout);
+    }
+
+    /**
+     * Keep only one in every {@code rate} events of a type, once the queue is filling up,
+     * with the {@link EventOverflowPolicy#SAMPLE} policy.
+     * @param type An event type, e.g. {@link AnonymousEvent#PAGED_PUBLICATION_PAGE_DISAPPEARED}
+     * @param rate The sample rate, or {@code 1} to keep all events of the type
+     */
+    public void setSampleRate(int type, int rate) {
+        synchronized (mSampleRates) {
+            if (rate <= 1) {
+                mSampleRates.remove(type);
+            } else {
+                mSampleRates.put(type, rate);
+            }
+            mSampleCounts.remove(type);
+        }
+    }
+
+    /**
+     * @return The number of events lost because the queue was full, including the events pushed out by
+     * {@link EventOverflowPolicy#DROP_OLDEST}, and the spilled events the store failed to persist
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * @return The number of events handed to the spill writer by {@link EventOverflowPolicy#SPILL}
+     */
+    public long getSpilledCount() {
+        return mSpilledCount.get();
+    }
+
+    /**
+     * @return The number of events left out by {@link EventOverflowPolicy#SAMPLE}
+     */
+    public long getSampledCount() {
+        return mSampledCount.get();
+    }
+
     /**
      * Optional: the current country of the device user as an ISO 3166-1 alpha-2 encoded string that will
      * be added to every event.
@@ -118,6 +249,17 @@ public class EventManager {
         }
     }
 
+    /**
+     * Set the time the dispatcher waits for more events, before persisting a batch of events.
+     * A longer time turns a burst of events into fewer writes, at the risk of losing them if the process dies.
+     * @param lingerTime The time in milliseconds
+     * @see EventDispatcher#setLingerTime(long)
+     */
+    public void setLingerTime(long lingerTime) {
+        mLingerTime = lingerTime;
+        mEventDispatcher.setLingerTime(lingerTime);
+    }
+
     private void resetTimer() {
         mHandler.removeMessages(DISPATCH_MSG);
         // next flush in 120 sec
@@ -131,9 +273,9 @@ public class EventManager {
 
     private void startDispatcher() {
         if (mEventDispatcher == null || mEventDispatcher.getState() == Thread.State.TERMINATED) {
-            ShopGun sgn = ShopGun.getInstance();
-            mEventDispatcher = new EventDispatcher(mEventQueue, sgn.getClient(), sgn.getEventEnvironment());
+            mEventDispatcher = new EventDispatcher(mEventQueue, mShopGun, mDroppedCount);
         }
+        mEventDispatcher.setLingerTime(mLingerTime);
         mEventDispatcher.start();
 
         if (mLegacyEventDispatcher != null) {
@@ -0,0 +1,41 @@
+package com.shopgun.android.sdk.eventskit;
+
+/**
+ * What the {@link EventManager} does with an event, when the queue to the {@link EventDispatcher} is full.
+ * Events that are lost either way are counted by the {@link EventManager}.
+ */
+public enum EventOverflowPolicy {
+
+    /** Drop the new event. This is the default. */
+    DROP_NEWEST,
+
+    /** Drop the oldest events in the queue, to make room for the new event. */
+    DROP_OLDEST,
+
+    /**
+     * Wait for room in the queue, for up to {@link EventManager#setBlockTimeout(long)}, and then drop
+     * the new event.
+     * <p>The thread calling {@link EventManager#addEvent(AnonymousEvent)} is blocked while waiting, for up to
+     * the full timeout per event, and events are usually added from the main thread. Keep the timeout short,
+     * or only use this when events are added from a background thread.</p>
+     */
+    BLOCK,
+
+    /**
+     * Hand the new event to a background writer, that writes it directly to the {@link EventStore}, bypassing
+     * the queue. This requires a store that {@link EventStore#isThreadSafe() can be used from any thread}, like
+     * the {@link SegmentedEventLog}, else the event is dropped. The event is also dropped, if the writer has
+     * fallen too far behind, or the store fails to persist it.
+     * <p>The calling thread doesn't touch the disk, it only pays for serializing the event. The writer is a
+     * thread of its own, that writes the spilled events in batches, with one sync per batch. It competes with
+     * the dispatcher for the lock of the store, and for disk I/O, while the queue is full.</p>
+     */
+    SPILL,
+
+    /**
+     * Keep only some of the events of the types given a {@link EventManager#setSampleRate(int, int) sample rate},
+     * once the queue is filling up, and drop the new event if the queue is full anyway.
+     */
+    SAMPLE
+
+}
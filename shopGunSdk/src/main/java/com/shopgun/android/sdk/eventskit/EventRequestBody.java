@@ -0,0 +1,152 @@
+package com.shopgun.android.sdk.eventskit;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.shopgun.android.sdk.log.SgnLog;
+import com.shopgun.android.sdk.utils.Constants;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.GzipSink;
+import okio.Okio;
+import okio.Sink;
+
+/**
+ * A request body for shipping events, that streams the JSON already stored in each
+ * {@link AnonymousEventWrapper} straight into the request, without building an object tree.
+ *
+ * <p>The body is {@code {"events":[...]}}, optionally gzip compressed. The number of bytes written,
+ * before and after compression, is available once the body has been written.</p>
+ *
+ * <p>An event that isn't a valid JSON object is sent as {@code {}}, so a single corrupt event
+ * doesn't make the server reject the whole batch.</p>
+ */
+public class EventRequestBody extends RequestBody {
+
+    public static final String TAG = Constants.getTag(EventRequestBody.class);
+
+    private static final MediaType MEDIA_TYPE = MediaType.parse("application/json; charset=utf-8");
+
+    private static final String PREFIX = "{\"events\":[";
+    private static final String SUFFIX = "]}";
+    private static final String EMPTY_EVENT = "{}";
+
+    private final List<AnonymousEventWrapper> mEvents;
+    private final boolean mGzip;
+    private long mRawBytes = -1;
+    private long mCompressedBytes = -1;
+
+    public EventRequestBody(List<AnonymousEventWrapper> events, boolean gzip) {
+        mEvents = events;
+        mGzip = gzip;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return MEDIA_TYPE;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        CountingSink compressed = new CountingSink(sink, false);
+        CountingSink raw = new CountingSink(mGzip ? new GzipSink(compressed) : compressed, true);
+        BufferedSink out = Okio.buffer(raw);
+        out.writeUtf8(PREFIX);
+        boolean first = true;
+        for (AnonymousEventWrapper e : mEvents) {
+            if (!first) {
+                out.writeByte(',');
+            }
+            first = false;
+            String event = e.getEvent();
+            if (event == null || event.isEmpty()) {
+                out.writeUtf8(EMPTY_EVENT);
+            } else if (isValid(event)) {
+                out.writeUtf8(event);
+            } else {
+                SgnLog.w(TAG, "Sending invalid event " + e.getId() + " as an empty event");
+                out.writeUtf8(EMPTY_EVENT);
+            }
+        }
+        out.writeUtf8(SUFFIX);
+        // Finishes the gzip stream, but leaves the sink we were given open
+        out.close();
+        mRawBytes = raw.getCount();
+        mCompressedBytes = compressed.getCount();
+    }
+
+    /**
+     * Check that the event is a single JSON object, by reading through it without building an object tree.
+     * @param event The JSON of an event
+     * @return {@code true} if the event is valid, else {@code false}
+     */
+    private static boolean isValid(String event) {
+        try {
+            JsonReader reader = new JsonReader(new StringReader(event));
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return false;
+            }
+            reader.skipValue();
+            return reader.peek() == JsonToken.END_DOCUMENT;
+        } catch (IOException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    public boolean isGzip() {
+        return mGzip;
+    }
+
+    /**
+     * @return The number of bytes of JSON in the body, or {@code -1} if it hasn't been written yet
+     */
+    public long getRawBytes() {
+        return mRawBytes;
+    }
+
+    /**
+     * @return The number of bytes sent, after compression, or {@code -1} if it hasn't been written yet
+     */
+    public long getCompressedBytes() {
+        return mCompressedBytes;
+    }
+
+    private static class CountingSink extends ForwardingSink {
+
+        private final boolean mCloseDelegate;
+        private long mCount;
+
+        CountingSink(Sink delegate, boolean closeDelegate) {
+            super(delegate);
+            mCloseDelegate = closeDelegate;
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            super.write(source, byteCount);
+            mCount += byteCount;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mCloseDelegate) {
+                super.close();
+            } else {
+                // The sink we were given is closed by its owner
+                flush();
+            }
+        }
+
+        long getCount() {
+            return mCount;
+        }
+    }
+
+}
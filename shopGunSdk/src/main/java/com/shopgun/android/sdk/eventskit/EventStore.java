@@ -0,0 +1,87 @@
+package com.shopgun.android.sdk.eventskit;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Persistent storage for the events waiting to be dispatched by the {@link EventDispatcher}.
+ *
+ * <p>A store is only used from the dispatcher thread. It's opened when the dispatcher starts, and
+ * closed when it quits, and must support being opened again by a new dispatcher. A store that is
+ * {@link #isThreadSafe() safe to use from other threads}, like the {@link SegmentedEventLog}, may also take
+ * events {@link EventOverflowPolicy#SPILL spilled} by the {@link EventManager}.</p>
+ *
+ * @see SegmentedEventLog
+ * @see RealmEventStore
+ */
+public interface EventStore {
+
+    /**
+     * Open the store, on the calling thread.
+     * @return {@code true} if the store is ready for use, else {@code false}
+     */
+    boolean open();
+
+    /**
+     * Close the store.
+     */
+    void close();
+
+    /**
+     * @return {@code true} if the store is open, and events can be added, else {@code false}
+     */
+    boolean isOpen();
+
+    /**
+     * @return {@code true} if events may be added from other threads, while the dispatcher uses the store,
+     *          else {@code false}
+     */
+    boolean isThreadSafe();
+
+    /**
+     * Add events to the store, in a single commit.
+     * @param events The events to add
+     * @return {@code true} if the events were persisted, else {@code false}, and the caller still owns them
+     */
+    boolean add(List<AnonymousEventWrapper> events);
+
+    /**
+     * @return The number of events waiting to be dispatched
+     */
+    long count();
+
+    /**
+     * Get the oldest events in the store.
+     * @param limit The max number of events to return
+     * @return A list of events, oldest first
+     */
+    List<AnonymousEventWrapper> get(int limit);
+
+    /**
+     * Get the next batch of events to ship, read from the oldest event in the store, without scanning
+     * the events that have already been deleted.
+     * @param limit The max number of events in the batch
+     * @return A batch, possibly empty
+     */
+    EventBatch getBatch(int limit);
+
+    /**
+     * Delete all the events in a batch, e.g. once the server has acknowledged all of them.
+     * @param batch A batch returned by {@link #getBatch(int)}, since the store was opened
+     */
+    void deleteBatch(EventBatch batch);
+
+    /**
+     * Delete events, e.g. once the server has acknowledged them.
+     * @param ids The {@link AnonymousEventWrapper#getId() ids} of the events to delete
+     */
+    void delete(Set<String> ids);
+
+    /**
+     * Delete the events with a timestamp older than the given limit.
+     * @param ids The {@link AnonymousEventWrapper#getId() ids} of the events to consider
+     * @param timestamp The limit in seconds, as {@link AnonymousEventWrapper#getTimestamp()}
+     */
+    void deleteOlderThan(Set<String> ids, long timestamp);
+
+}
@@ -0,0 +1,184 @@
+package com.shopgun.android.sdk.eventskit;
+
+import com.shopgun.android.sdk.ShopGun;
+import com.shopgun.android.sdk.log.SgnLog;
+import com.shopgun.android.sdk.utils.Constants;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.realm.Realm;
+import io.realm.RealmQuery;
+import io.realm.RealmResults;
+import io.realm.exceptions.RealmPrimaryKeyConstraintException;
+
+/**
+ * An {@link EventStore} that keeps the events in the Realm configured by {@link ShopGun}.
+ *
+ * <p>Every call to {@link #add(List)} is a Realm transaction of its own.</p>
+ */
+public class RealmEventStore implements EventStore {
+
+    public static final String TAG = Constants.getTag(RealmEventStore.class);
+
+    private final ShopGun mShopGun;
+    private Realm mRealm;
+
+    public RealmEventStore() {
+        this(null);
+    }
+
+    RealmEventStore(ShopGun shopGun) {
+        mShopGun = shopGun;
+    }
+
+    @Override
+    public boolean open() {
+        ShopGun shopGun = mShopGun != null ? mShopGun : ShopGun.getInstance();
+        mRealm = shopGun.getRealmInstance();
+        return mRealm != null;
+    }
+
+    @Override
+    public void close() {
+        if (mRealm != null) {
+            mRealm.close();
+            mRealm = null;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mRealm != null;
+    }
+
+    /**
+     * @return {@code false}, a Realm instance must only be used on the thread that opened it
+     */
+    @Override
+    public boolean isThreadSafe() {
+        return false;
+    }
+
+    @Override
+    public boolean add(List<AnonymousEventWrapper> events) {
+        mRealm.executeTransaction(new InsertTransaction(events));
+        return true;
+    }
+
+    @Override
+    public long count() {
+        return mRealm.where(AnonymousEventWrapper.class).count();
+    }
+
+    @Override
+    public List<AnonymousEventWrapper> get(int limit) {
+        RealmResults<AnonymousEventWrapper> events = mRealm.where(AnonymousEventWrapper.class).limit(limit).findAll();
+        return new ArrayList<AnonymousEventWrapper>(events);
+    }
+
+    @Override
+    public EventBatch getBatch(int limit) {
+        // Realm has no notion of a position, the batch is deleted by id
+        return new EventBatch(get(limit), -1, -1);
+    }
+
+    @Override
+    public void deleteBatch(EventBatch batch) {
+        delete(batch.getIds());
+    }
+
+    @Override
+    public void delete(Set<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        mRealm.beginTransaction();
+        try {
+            getEvents(ids).findAll().deleteAllFromRealm();
+            mRealm.commitTransaction();
+        } finally {
+            if (mRealm.isInTransaction()) {
+                mRealm.cancelTransaction();
+            }
+        }
+    }
+
+    @Override
+    public void deleteOlderThan(Set<String> ids, long timestamp) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        mRealm.beginTransaction();
+        try {
+            getEvents(ids).and().lessThan("timestamp", timestamp).findAll().deleteAllFromRealm();
+            mRealm.commitTransaction();
+        } finally {
+            if (mRealm.isInTransaction()) {
+                mRealm.cancelTransaction();
+            }
+        }
+    }
+
+    private RealmQuery<AnonymousEventWrapper> getEvents(Set<String> ids) {
+        // A single IN condition, rather than a chain of OR'ed conditions
+        return mRealm.where(AnonymousEventWrapper.class).in("id", ids.toArray(new String[ids.size()]));
+    }
+
+    /**
+     * Move the events left in the Realm to another store, e.g. after switching to a {@link SegmentedEventLog}.
+     * @param shopGun The instance holding the Realm
+     * @param store The store to move the events to, it must be open
+     */
+    static void migrate(ShopGun shopGun, EventStore store) {
+        RealmEventStore realm = new RealmEventStore(shopGun);
+        if (!realm.open()) {
+            return;
+        }
+        try {
+            if (realm.count() == 0) {
+                return;
+            }
+            List<AnonymousEventWrapper> events = new ArrayList<>();
+            Set<String> ids = new HashSet<>();
+            for (AnonymousEventWrapper e : realm.get(Integer.MAX_VALUE)) {
+                events.add(new AnonymousEventWrapper(e.getId(), e.getVersion(), e.getTimestamp(), e.getEvent()));
+                ids.add(e.getId());
+            }
+            if (!store.add(events)) {
+                // Leave them in the Realm, and try again the next time
+                SgnLog.w(TAG, "Unable to move " + events.size() + " events from Realm");
+                return;
+            }
+            realm.delete(ids);
+            SgnLog.d(TAG, "Moved " + events.size() + " events from Realm");
+        } catch (RuntimeException e) {
+            SgnLog.e(TAG, "Unable to move events from Realm", e);
+        } finally {
+            realm.close();
+        }
+    }
+
+    private static class InsertTransaction implements Realm.Transaction {
+
+        List<AnonymousEventWrapper> mEvents;
+
+        InsertTransaction(List<AnonymousEventWrapper> events) {
+            mEvents = events;
+        }
+
+        @Override
+        public void execute(Realm realm) {
+            for (AnonymousEventWrapper event : mEvents) {
+                try {
+                    realm.insert(event);
+                } catch (RealmPrimaryKeyConstraintException e) {
+                    throw new IllegalStateException("Realm duplicate key on event: " + event.toString(), e);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,702 @@
+package com.shopgun.android.sdk.eventskit;
+
+import com.shopgun.android.sdk.log.SgnLog;
+import com.shopgun.android.sdk.utils.Constants;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * An {@link EventStore} persisting events to an append-only log, split into segments.
+ *
+ * <p>Events are appended to the newest segment, with a single sequential write and sync per call to
+ * {@link #add(List)}, and a new segment is started once it holds {@link #DEFAULT_SEGMENT_SIZE} events.
+ * Events are never rewritten. Deleted events are instead recorded in an ack file next to the segment,
+ * and the segment and its ack file are deleted, once all the events in it have been deleted.</p>
+ *
+ * <p>An index of the events waiting to be dispatched is kept in memory, so {@link #count()} and
+ * {@link #delete(Set)} doesn't touch the disk, other than appending to the ack files. The index is
+ * rebuilt by scanning the segments when the log is opened. A torn write at the end of a segment is
+ * simply truncated.</p>
+ *
+ * <p>All methods are synchronized, so unlike other stores, the log can be used from any thread, e.g. for
+ * events {@link EventOverflowPolicy#SPILL spilled} by the {@link EventManager}.</p>
+ *
+ * <p>Every event is given a sequence number in the order it was written. Each segment keeps a cursor at
+ * its oldest pending event, so {@link #getBatch(int)} reads from the cursor, and
+ * {@link #deleteBatch(EventBatch)} deletes the sequence range of the batch, with a single ack record per
+ * segment.</p>
+ *
+ * <p>An {@link IOException} closes the log, keeping what's on disk. The log is then reopened on the next use,
+ * at most once per second, and {@link #add(List)} returns {@code false} until it's open again.</p>
+ */
+public class SegmentedEventLog implements EventStore {
+
+    public static final String TAG = Constants.getTag(SegmentedEventLog.class);
+
+    /** Default number of events per segment */
+    public static final int DEFAULT_SEGMENT_SIZE = 500;
+
+    private static final int MAGIC = 0x53474e45; // "SGNE"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String ACK_SUFFIX = ".ack";
+
+    /** Ack record holding the id of a deleted event */
+    private static final int ACK_ID = 1;
+    /** Ack record holding a range of deleted events, by their index in the segment */
+    private static final int ACK_RANGE = 2;
+
+    /** Time in milliseconds to wait, before reopening a log that was closed by an error */
+    private static final long REOPEN_DELAY = 1000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File mDirectory;
+    private final int mSegmentSize;
+
+    /** The segments, oldest first */
+    private final LinkedList<Segment> mSegments = new LinkedList<Segment>();
+    /** The segment holding each pending event */
+    private final HashMap<String, Segment> mIndex = new HashMap<String, Segment>();
+    /** The segment being appended to, or {@code null} if a new segment must be started */
+    private Segment mHeadSegment;
+    private RandomAccessFile mHead;
+    private long mNextNumber = 0;
+    /** The sequence number of the next event written, or loaded */
+    private long mNextSeq = 0;
+    private boolean mOpen = false;
+    /** Set when the log was closed by an error, rather than by {@link #close()} */
+    private boolean mFailed = false;
+    /** When to try reopening a failed log, in {@link System#currentTimeMillis()} */
+    private long mReopenAt = 0;
+
+    /**
+     * Create a new log with the {@link #DEFAULT_SEGMENT_SIZE default segment size}.
+     * @param directory The directory to keep the segments in. The log must be the only user of the directory.
+     */
+    public SegmentedEventLog(File directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Create a new log.
+     * @param directory The directory to keep the segments in. The log must be the only user of the directory.
+     * @param segmentSize The max number of events per segment
+     */
+    public SegmentedEventLog(File directory, int segmentSize) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory must not be null.");
+        }
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("segmentSize must be positive");
+        }
+        mDirectory = directory;
+        mSegmentSize = segmentSize;
+    }
+
+    @Override
+    public synchronized boolean open() {
+        if (mOpen) {
+            return true;
+        }
+        try {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Unable to create directory " + mDirectory.getAbsolutePath());
+            }
+            load();
+            mOpen = true;
+            mFailed = false;
+        } catch (IOException e) {
+            SgnLog.e(TAG, "Unable to open " + mDirectory.getAbsolutePath(), e);
+            release();
+            // Let isReady() try again, a failed first open is no different from a failed write
+            mFailed = true;
+            mReopenAt = System.currentTimeMillis() + REOPEN_DELAY;
+        }
+        return mOpen;
+    }
+
+    @Override
+    public synchronized void close() {
+        release();
+        mFailed = false;
+    }
+
+    @Override
+    public synchronized boolean add(List<AnonymousEventWrapper> events) {
+        if (!isReady()) {
+            return false;
+        }
+        if (events.isEmpty()) {
+            return true;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Segment head = mHeadSegment;
+            long offset = head == null ? 0 : mHead.length();
+            for (AnonymousEventWrapper e : events) {
+                if (mIndex.containsKey(e.getId())) {
+                    SgnLog.w(TAG, "Duplicate event ignored: " + e.getId());
+                    continue;
+                }
+                if (head == null || head.entries.size() >= mSegmentSize) {
+                    // Commit what we have, and start a new segment
+                    write(out, offset);
+                    head = newSegment();
+                    offset = HEADER_SIZE;
+                }
+                byte[] record = encode(e);
+                head.add(new Entry(mNextSeq++, e.getId(), e.getTimestamp(), offset + out.size(), record.length));
+                mIndex.put(e.getId(), head);
+                out.write(record);
+            }
+            write(out, offset);
+            return true;
+        } catch (IOException e) {
+            onError(e);
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized long count() {
+        return mIndex.size();
+    }
+
+    @Override
+    public synchronized List<AnonymousEventWrapper> get(int limit) {
+        return getBatch(limit).getEvents();
+    }
+
+    @Override
+    public synchronized EventBatch getBatch(int limit) {
+        List<AnonymousEventWrapper> events = new ArrayList<AnonymousEventWrapper>(Math.min(limit, mIndex.size()));
+        long first = -1;
+        long last = -1;
+        if (!isReady()) {
+            return new EventBatch(events, first, last);
+        }
+        try {
+            for (Segment s : mSegments) {
+                if (events.size() >= limit) {
+                    break;
+                }
+                if (s.live == 0) {
+                    continue;
+                }
+                RandomAccessFile raf = s == mHeadSegment ? mHead : new RandomAccessFile(s.file, "r");
+                try {
+                    // Start reading at the cursor, rather than skipping the deleted events again
+                    for (int i = s.advanceCursor(); i < s.entries.size() && events.size() < limit; i++) {
+                        Entry e = s.entries.get(i);
+                        if (e.deleted) {
+                            continue;
+                        }
+                        byte[] record = new byte[e.length];
+                        raf.seek(e.offset);
+                        raf.readFully(record);
+                        AnonymousEventWrapper event = decode(record);
+                        if (event != null) {
+                            events.add(event);
+                            if (first == -1) {
+                                first = e.seq;
+                            }
+                            last = e.seq;
+                        }
+                    }
+                } finally {
+                    if (raf != mHead) {
+                        raf.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            onError(e);
+        }
+        return new EventBatch(events, first, last);
+    }
+
+    @Override
+    public synchronized void deleteBatch(EventBatch batch) {
+        if (!isReady() || batch.isEmpty()) {
+            return;
+        }
+        List<Segment> done = new ArrayList<Segment>();
+        try {
+            for (Segment s : mSegments) {
+                if (s.entries.isEmpty() || s.last().seq < batch.getFirst()) {
+                    continue;
+                }
+                if (s.entries.get(0).seq > batch.getLast()) {
+                    break;
+                }
+                // Sequence numbers are contiguous within a segment
+                int from = (int) Math.max(0, batch.getFirst() - s.entries.get(0).seq);
+                int to = (int) Math.min(s.entries.size() - 1, batch.getLast() - s.entries.get(0).seq);
+                for (int i = from; i <= to; i++) {
+                    Entry e = s.entries.get(i);
+                    if (!e.deleted) {
+                        e.deleted = true;
+                        s.live--;
+                        mIndex.remove(e.id);
+                    }
+                }
+                if (s.live == 0 && s != mHeadSegment) {
+                    done.add(s);
+                } else {
+                    appendRange(s, from, to);
+                }
+            }
+            for (Segment s : done) {
+                deleteSegment(s);
+            }
+            deleteHeadIfDone();
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+
+    @Override
+    public synchronized void delete(Set<String> ids) {
+        deleteOlderThan(ids, Long.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized void deleteOlderThan(Set<String> ids, long timestamp) {
+        if (!isReady() || ids.isEmpty()) {
+            return;
+        }
+        Map<Segment, List<String>> acks = new HashMap<Segment, List<String>>();
+        for (String id : ids) {
+            Segment s = mIndex.get(id);
+            if (s == null) {
+                continue;
+            }
+            Entry e = s.get(id);
+            if (e.timestamp >= timestamp) {
+                continue;
+            }
+            e.deleted = true;
+            s.live--;
+            mIndex.remove(id);
+            List<String> list = acks.get(s);
+            if (list == null) {
+                list = new ArrayList<String>();
+                acks.put(s, list);
+            }
+            list.add(id);
+        }
+        try {
+            for (Map.Entry<Segment, List<String>> me : acks.entrySet()) {
+                Segment s = me.getKey();
+                if (s.live == 0 && s != mHeadSegment) {
+                    deleteSegment(s);
+                } else {
+                    appendAcks(s, me.getValue());
+                }
+            }
+            deleteHeadIfDone();
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+
+    private void deleteHeadIfDone() {
+        // Don't keep an empty head segment around, unless we're still filling it
+        Segment head = mHeadSegment;
+        if (head != null && head.live == 0 && head.entries.size() >= mSegmentSize) {
+            closeHead();
+            deleteSegment(head);
+        }
+    }
+
+    /**
+     * @return {@code true} if the log is open, and events can be added. A log closed by an error counts
+     *          as open, as it's reopened on the next use.
+     */
+    @Override
+    public synchronized boolean isOpen() {
+        return mOpen || mFailed;
+    }
+
+    /**
+     * @return {@code true}, as every access to the log is synchronized
+     */
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    /**
+     * @return The number of segments currently on disk
+     */
+    public synchronized int getSegmentCount() {
+        return mSegments.size();
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    private void write(ByteArrayOutputStream out, long offset) throws IOException {
+        if (out.size() == 0) {
+            return;
+        }
+        // A single sequential write and sync for the whole group
+        mHead.seek(offset);
+        mHead.write(out.toByteArray());
+        mHead.getFD().sync();
+        out.reset();
+    }
+
+    private Segment newSegment() throws IOException {
+        closeHead();
+        Segment s = new Segment(mDirectory, mNextNumber++);
+        mHead = new RandomAccessFile(s.file, "rw");
+        mHead.setLength(0);
+        mHead.writeInt(MAGIC);
+        mHead.writeInt(VERSION);
+        mSegments.add(s);
+        mHeadSegment = s;
+        return s;
+    }
+
+    private void closeHead() {
+        if (mHead != null) {
+            try {
+                mHead.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            mHead = null;
+        }
+        mHeadSegment = null;
+    }
+
+    private void deleteSegment(Segment s) {
+        mSegments.remove(s);
+        if (!s.file.delete() || (s.ackFile.exists() && !s.ackFile.delete())) {
+            SgnLog.w(TAG, "Unable to delete segment " + s.file.getName());
+        }
+    }
+
+    private void appendAcks(Segment s, List<String> ids) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (String id : ids) {
+            out.writeByte(ACK_ID);
+            out.writeUTF(id);
+        }
+        appendAcks(s, bytes);
+    }
+
+    private void appendRange(Segment s, int from, int to) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(9);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(ACK_RANGE);
+        out.writeInt(from);
+        out.writeInt(to);
+        appendAcks(s, bytes);
+    }
+
+    private void appendAcks(Segment s, ByteArrayOutputStream bytes) throws IOException {
+        FileOutputStream fos = new FileOutputStream(s.ackFile, true);
+        try {
+            fos.write(bytes.toByteArray());
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Rebuild the index, by scanning all segments and their ack files. Segments where all events are
+     * deleted are removed, and a corrupt tail is truncated.
+     */
+    private void load() throws IOException {
+
+        mSegments.clear();
+        mIndex.clear();
+        mNextNumber = 0;
+        // mNextSeq keeps counting, so a batch read before the log was reopened, can't match other events
+
+        File[] files = mDirectory.listFiles();
+        List<Long> numbers = new ArrayList<Long>();
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        numbers.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        // not ours
+                    }
+                }
+            }
+        }
+        Long[] sorted = numbers.toArray(new Long[numbers.size()]);
+        Arrays.sort(sorted);
+
+        for (Long number : sorted) {
+            mNextNumber = number + 1;
+            Segment s = new Segment(mDirectory, number);
+            if (!loadSegment(s)) {
+                deleteSegment(s);
+                continue;
+            }
+            mSegments.add(s);
+            for (Entry e : s.entries) {
+                if (!e.deleted) {
+                    mIndex.put(e.id, s);
+                }
+            }
+        }
+
+        // Fully acked segments can go, except the newest which we may keep appending to
+        while (mSegments.size() > 1 && mSegments.getFirst().live == 0) {
+            deleteSegment(mSegments.getFirst());
+        }
+        if (!mSegments.isEmpty()) {
+            mHeadSegment = mSegments.getLast();
+            mHead = new RandomAccessFile(mHeadSegment.file, "rw");
+        }
+
+        SgnLog.v(TAG, "Loaded " + mIndex.size() + " events in " + mSegments.size() + " segments");
+
+    }
+
+    private boolean loadSegment(Segment s) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(s.file, "rw");
+        try {
+            long length = raf.length();
+            if (length < HEADER_SIZE || raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                return false;
+            }
+            long offset = HEADER_SIZE;
+            byte[] buffer = new byte[4096];
+            while (offset + 8 < length) {
+                raf.seek(offset);
+                int recordLength = raf.readInt();
+                if (recordLength <= 8 || offset + recordLength > length) {
+                    break;
+                }
+                if (buffer.length < recordLength) {
+                    buffer = new byte[recordLength];
+                }
+                raf.seek(offset);
+                raf.readFully(buffer, 0, recordLength);
+                AnonymousEventWrapper e = decode(Arrays.copyOf(buffer, recordLength));
+                if (e == null) {
+                    break;
+                }
+                s.add(new Entry(mNextSeq++, e.getId(), e.getTimestamp(), offset, recordLength));
+                offset += recordLength;
+            }
+            if (offset < length) {
+                SgnLog.w(TAG, "Truncating corrupt segment " + s.file.getName() + " at " + offset + " of " + length + " bytes");
+                raf.setLength(offset);
+            }
+        } finally {
+            raf.close();
+        }
+        if (s.ackFile.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(s.ackFile)));
+            try {
+                while (true) {
+                    int type = in.readByte();
+                    if (type == ACK_ID) {
+                        s.delete(s.get(in.readUTF()));
+                    } else if (type == ACK_RANGE) {
+                        int from = in.readInt();
+                        int to = Math.min(in.readInt(), s.entries.size() - 1);
+                        for (int i = Math.max(0, from); i <= to; i++) {
+                            s.delete(s.entries.get(i));
+                        }
+                    } else {
+                        SgnLog.w(TAG, "Unknown ack record in " + s.ackFile.getName());
+                        break;
+                    }
+                }
+            } catch (EOFException e) {
+                // done, a torn record at the end is simply ignored
+            } finally {
+                in.close();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reopen the log if it was closed by an error, and it's time to try again.
+     * @return {@code true} if the log is open, else {@code false}
+     */
+    private boolean isReady() {
+        if (!mOpen && mFailed && System.currentTimeMillis() >= mReopenAt) {
+            SgnLog.i(TAG, "Reopening event log");
+            open();
+        }
+        return mOpen;
+    }
+
+    private void release() {
+        closeHead();
+        mSegments.clear();
+        mIndex.clear();
+        mOpen = false;
+    }
+
+    private void onError(IOException e) {
+        // Keep whatever is on disk, and load it again when the log is reopened on the next use
+        SgnLog.e(TAG, "Event log failed", e);
+        release();
+        mFailed = true;
+        mReopenAt = System.currentTimeMillis() + REOPEN_DELAY;
+    }
+
+    /*
+     * Record layout:
+     * int    record length, including this field and the checksum
+     * int    CRC32 of the rest of the record
+     * UTF    id
+     * int    version
+     * long   timestamp
+     * int    event length
+     * byte[] event, UTF-8
+     */
+
+    private static byte[] encode(AnonymousEventWrapper e) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(e.getId());
+        out.writeInt(e.getVersion());
+        out.writeLong(e.getTimestamp());
+        byte[] event = e.getEvent() == null ? new byte[0] : e.getEvent().getBytes(UTF8);
+        out.writeInt(event.length);
+        out.write(event);
+        byte[] payload = bytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteArrayOutputStream record = new ByteArrayOutputStream(payload.length + 8);
+        DataOutputStream rout = new DataOutputStream(record);
+        rout.writeInt(payload.length + 8);
+        rout.writeInt((int) crc.getValue());
+        rout.write(payload);
+        return record.toByteArray();
+    }
+
+    private static AnonymousEventWrapper decode(byte[] record) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            in.readInt();
+            int checksum = in.readInt();
+            CRC32 crc = new CRC32();
+            crc.update(record, 8, record.length - 8);
+            if ((int) crc.getValue() != checksum) {
+                return null;
+            }
+            String id = in.readUTF();
+            int version = in.readInt();
+            long timestamp = in.readLong();
+            byte[] event = new byte[in.readInt()];
+            in.readFully(event);
+            return new AnonymousEventWrapper(id, version, timestamp, new String(event, UTF8));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static class Entry {
+
+        final long seq;
+        final String id;
+        final long timestamp;
+        final long offset;
+        final int length;
+        boolean deleted;
+
+        Entry(long seq, String id, long timestamp, long offset, int length) {
+            this.seq = seq;
+            this.id = id;
+            this.timestamp = timestamp;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static class Segment {
+
+        final long number;
+        final File file;
+        final File ackFile;
+        /** The events in the segment, in the order they were written */
+        final List<Entry> entries = new ArrayList<Entry>();
+        final HashMap<String, Entry> byId = new HashMap<String, Entry>();
+        /** The number of events in the segment, that haven't been deleted */
+        int live;
+        /** The index of the oldest event, that may not have been deleted */
+        int cursor;
+
+        Segment(File directory, long number) {
+            this.number = number;
+            String name = String.format(Locale.US, "%019d", number);
+            this.file = new File(directory, name + SEGMENT_SUFFIX);
+            this.ackFile = new File(directory, name + ACK_SUFFIX);
+        }
+
+        void add(Entry e) {
+            entries.add(e);
+            byId.put(e.id, e);
+            live++;
+        }
+
+        Entry get(String id) {
+            return byId.get(id);
+        }
+
+        Entry last() {
+            return entries.get(entries.size() - 1);
+        }
+
+        void delete(Entry e) {
+            if (e != null && !e.deleted) {
+                e.deleted = true;
+                live--;
+            }
+        }
+
+        /**
+         * Move the cursor past the deleted events at the start of the segment.
+         * @return The new cursor
+         */
+        int advanceCursor() {
+            while (cursor < entries.size() && entries.get(cursor).deleted) {
+                cursor++;
+            }
+            return cursor;
+        }
+    }
+
+}
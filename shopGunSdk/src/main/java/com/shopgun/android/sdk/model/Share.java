@@ -85,6 +85,20 @@ public class Share implements Comparable<Share>, SyncState<Share>, IJson<JSONObj
     private Share() {
     }
 
+    /**
+     * Copy constructor.
+     * @param share The {@link Share} to copy
+     */
+    public Share(Share share) {
+        this.mName = share.mName;
+        this.mEmail = share.mEmail;
+        this.mAccess = share.mAccess;
+        this.mShoppinglistId = share.mShoppinglistId;
+        this.mAccepted = share.mAccepted;
+        this.mAcceptUrl = share.mAcceptUrl;
+        this.mSyncState = share.mSyncState;
+    }
+
     private Share(Parcel in) {
         this.mName = in.readString();
         this.mEmail = in.readString();
@@ -38,6 +38,7 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -149,6 +150,37 @@ public class Shoppinglist implements Comparable<Shoppinglist>, SyncState<Shoppin
         this.mSyncState = in.readInt();
     }
 
+    /**
+     * Copy constructor, the {@link Share shares} and the top level of {@link #getMeta() meta} are copied too.
+     * @param sl The {@link Shoppinglist} to copy
+     */
+    public Shoppinglist(Shoppinglist sl) {
+        this.mErn = sl.mErn;
+        this.mName = sl.mName;
+        this.mAccess = sl.mAccess;
+        this.mModified = sl.mModified == null ? null : new Date(sl.mModified.getTime());
+        this.mPrevId = sl.mPrevId;
+        this.mType = sl.mType;
+        if (sl.mMeta != null) {
+            // A copy of the top level, without serializing and parsing it again
+            this.mMeta = new JSONObject();
+            Iterator<String> keys = sl.mMeta.keys();
+            try {
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    this.mMeta.put(key, sl.mMeta.opt(key));
+                }
+            } catch (JSONException e) {
+                // Can't happen, the keys and values came from a JSONObject
+            }
+        }
+        for (Share s : sl.mShares.values()) {
+            this.mShares.put(s.getEmail(), new Share(s));
+        }
+        this.mUserId = sl.mUserId;
+        this.mSyncState = sl.mSyncState;
+    }
+
     /**
      * Factory method for creating a shoppinglist from a name.
      * @param name A name for the {@link Shoppinglist}
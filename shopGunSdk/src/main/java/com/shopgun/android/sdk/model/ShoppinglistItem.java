@@ -35,6 +35,7 @@ import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -174,6 +175,39 @@ public class ShoppinglistItem implements Comparable<ShoppinglistItem>, SyncState
         this.mSyncState = in.readInt();
     }
 
+    /**
+     * Copy constructor, the top level of {@link #getMeta() meta} is copied too.
+     * @param sli The {@link ShoppinglistItem} to copy
+     */
+    public ShoppinglistItem(ShoppinglistItem sli) {
+        this.mId = sli.mId;
+        this.mErn = sli.mErn;
+        this.mTick = sli.mTick;
+        this.mOfferId = sli.mOfferId;
+        this.mCount = sli.mCount;
+        this.mDescription = sli.mDescription;
+        this.mCreator = sli.mCreator;
+        this.mModified = sli.mModified == null ? null : new Date(sli.mModified.getTime());
+        this.mOffer = sli.mOffer;
+        this.mShoppinglistId = sli.mShoppinglistId;
+        this.mPrevId = sli.mPrevId;
+        if (sli.mMeta != null) {
+            // A copy of the top level, without serializing and parsing it again
+            this.mMeta = new JSONObject();
+            Iterator<String> keys = sli.mMeta.keys();
+            try {
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    this.mMeta.put(key, sli.mMeta.opt(key));
+                }
+            } catch (JSONException e) {
+                // Can't happen, the keys and values came from a JSONObject
+            }
+        }
+        this.mUserId = sli.mUserId;
+        this.mSyncState = sli.mSyncState;
+    }
+
     /**
      * Convert a {@link JSONArray} into a {@link List};.
      * @param array A {@link JSONArray}  with a valid API v2 structure for a {@code ShoppinglistItem}
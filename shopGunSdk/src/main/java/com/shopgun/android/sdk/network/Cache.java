@@ -49,12 +49,48 @@ public interface Cache {
         public final long expires;
         public final Object object;
         public long size;
+        /** The ETag of the response this item was created from, if any */
+        public String etag;
+        /** The Last-Modified date of the response this item was created from, if any */
+        public String lastModified;
 
         public Item(Object o, long timeToLive) {
             this.expires = System.currentTimeMillis() + timeToLive;
             this.object = o;
         }
 
+        /**
+         * Create an Item with an absolute expiry time, e.g. when restoring a previously persisted item.
+         * @param o The object to cache
+         * @param expires The time of expiry in milliseconds since epoch
+         * @return A new Item
+         */
+        public static Item fromExpiry(Object o, long expires) {
+            return new Item(o, expires - System.currentTimeMillis());
+        }
+
+        /**
+         * Create a copy of this Item with a new time to live, e.g. when the API have responded
+         * {@code 304 Not Modified} to a conditional request.
+         * @param timeToLive The new time to live in milliseconds
+         * @return A new Item, with the same object and validators
+         */
+        public Item refresh(long timeToLive) {
+            Item item = new Item(object, timeToLive);
+            item.size = size;
+            item.etag = etag;
+            item.lastModified = lastModified;
+            return item;
+        }
+
+        /**
+         * Returns true if the Item has validators, that can be used to perform a conditional request.
+         * @return {@code true} if either an ETag or a Last-Modified date is present, else {@code false}
+         */
+        public boolean hasValidators() {
+            return etag != null || lastModified != null;
+        }
+
         /**
          * Returns true if the Item is still valid.
          * this is based on the time to live factor
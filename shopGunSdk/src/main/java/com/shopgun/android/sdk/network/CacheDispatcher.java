@@ -19,7 +19,11 @@ package com.shopgun.android.sdk.network;
 import android.os.Process;
 
 import com.shopgun.android.sdk.utils.Constants;
+import com.shopgun.android.sdk.utils.SgnUtils;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 
 public class CacheDispatcher extends Thread {
@@ -38,6 +42,9 @@ public class CacheDispatcher extends Thread {
     /** For posting responses and errors. */
     private final Delivery mDelivery;
 
+    /** Keys of the stale responses currently being refreshed */
+    private final Set<String> mRevalidating = Collections.synchronizedSet(new HashSet<String>());
+
     /** Used for telling us to die. */
     private volatile boolean mQuit = false;
 
@@ -79,11 +86,24 @@ public class CacheDispatcher extends Thread {
                 request.addEvent("received-by-cache-dispatcher");
             }
 
+            request.getTimings().markCacheStart();
+
             if (!request.ignoreCache()) {
-                Response<?> response = request.parseCache(mCache);
+                StaleCacheView staleCache = null;
+                Response<?> response;
+                if (request.getMaxStale() > 0 && mCache instanceof StaleCache) {
+                    staleCache = new StaleCacheView((StaleCache) mCache, request.getMaxStale());
+                    response = request.parseCache(staleCache);
+                } else {
+                    response = request.parseCache(mCache);
+                }
+                request.getTimings().markCacheEnd();
                 // if the cache is valid, then return it
                 if (response != null) {
                     request.addEvent("post-cache-item");
+                    if (staleCache != null && staleCache.isStale() && response.isSuccess()) {
+                        revalidate(request);
+                    }
                     // Parse the response here on the worker thread.
                     request.setCacheHit(true);
                     mDelivery.postResponse(request, response);
@@ -92,9 +112,25 @@ public class CacheDispatcher extends Thread {
             }
 
             request.addEvent("add-to-network-queue");
+            request.getTimings().markNetworkQueued();
             mNetworkQueue.add(request);
 
         }
     }
 
+    /**
+     * Refresh the cache for a request, that have been served a stale response, unless it's already being refreshed.
+     * @param request A request
+     */
+    private <T> void revalidate(Request<T> request) {
+        String key = SgnUtils.requestToUrlAndQueryString(request);
+        if (mRevalidating.add(key)) {
+            request.addEvent("post-stale-cache-item");
+            RevalidateRequest<T> revalidate = new RevalidateRequest<T>(request, mRevalidating, key);
+            revalidate.getTimings().markAdded();
+            revalidate.getTimings().markNetworkQueued();
+            mNetworkQueue.add(revalidate);
+        }
+    }
+
 }
@@ -24,11 +24,12 @@ import com.shopgun.android.sdk.log.SgnLog;
 import com.shopgun.android.sdk.network.Request.Method;
 import com.shopgun.android.sdk.utils.Api.Endpoint;
 import com.shopgun.android.sdk.utils.Constants;
-import com.shopgun.android.utils.HashUtils;
+import com.shopgun.android.sdk.utils.SgnUtils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.net.HttpURLConnection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
@@ -37,6 +38,11 @@ public class NetworkDispatcher extends Thread {
 
     public static final String TAG = Constants.getTag(NetworkDispatcher.class);
 
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
     /** ShopGun object controlling the whole lot */
     private final ShopGun mShopGun;
 
@@ -55,11 +61,19 @@ public class NetworkDispatcher extends Thread {
     /** For posting responses and errors. */
     private final Delivery mDelivery;
 
+    /** Signs requests with the session token */
+    private final RequestSigner mSigner;
+
     /** Used for telling us to die. */
     private volatile boolean mQuit = false;
 
     public NetworkDispatcher(ShopGun shopGun, RequestQueue requestQueue, BlockingQueue<Request<?>> queue, Network network, Cache cache, Delivery delivery) {
+        this(shopGun, requestQueue, queue, network, cache, delivery, new RequestSigner(shopGun));
+    }
+
+    public NetworkDispatcher(ShopGun shopGun, RequestQueue requestQueue, BlockingQueue<Request<?>> queue, Network network, Cache cache, Delivery delivery, RequestSigner signer) {
         mQueue = queue;
+        mSigner = signer;
         mNetwork = network;
         mCache = cache;
         mDelivery = delivery;
@@ -90,70 +104,122 @@ public class NetworkDispatcher extends Thread {
                 continue;
             }
 
-            try {
+            process(request);
+        }
+    }
 
-                // If the request was cancelled already, do not perform the network request.
-                if (request.isCanceled()) {
-                    request.finish("network-dispatcher-cancelled-on-recieved");
-                    continue;
-                } else {
-                    request.addEvent("recieved-by-network-dispatcher");
-                }
+    /**
+     * Perform a single request, and post the response to the {@link Delivery}.
+     * <p>This method holds no state, and can be called from any thread.</p>
+     * @param request A request taken from the network queue
+     */
+    void process(Request<?> request) {
 
-                prepare(request);
+        request.getTimings().markNetworkStart();
 
-                // Perform the network request.
-                NetworkResponse networkResponse = mNetwork.performRequest(request);
+        try {
 
-                appendLogging(request, networkResponse);
+            // If the request was cancelled already, do not perform the network request.
+            if (request.isCanceled()) {
+                request.finish("network-dispatcher-cancelled-on-recieved");
+                return;
+            } else {
+                request.addEvent("recieved-by-network-dispatcher");
+            }
+
+            prepare(request);
+            boolean conditional = prepareConditional(request);
+
+            // Perform the network request.
+            NetworkResponse networkResponse = mNetwork.performRequest(request);
 
-                request.addEvent("parsing-network-response");
-                Response<?> response = request.parseNetworkResponse(networkResponse);
+            appendLogging(request, networkResponse);
 
-                if (response.isSuccess()) {
+            if (conditional && networkResponse.statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
 
-                    updateSessionInfo(networkResponse.headers);
-                    mCache.put(request, response);
+                networkResponse.close();
+                updateSessionInfo(networkResponse.headers);
+                request.getTimings().markParseStart();
+                Response<?> response = parseNotModified(request);
+                request.getTimings().markParseEnd();
+                if (response != null) {
                     mDelivery.postResponse(request, response);
+                    return;
+                }
 
-                } else {
+                // The cached items have been evicted in the meantime, so we'll need the full response
+                request.addEvent("not-modified-cache-evicted");
+                request.getHeaders().remove(HEADER_IF_NONE_MATCH);
+                request.getHeaders().remove(HEADER_IF_MODIFIED_SINCE);
+                networkResponse = mNetwork.performRequest(request);
+                appendLogging(request, networkResponse);
+
+            }
 
-                    if (SessionManager.recoverableError(response.error)) {
+            request.addEvent("parsing-network-response");
+            Response<?> response;
+            request.getTimings().markParseStart();
+            try {
+                response = request.parseNetworkResponse(networkResponse);
+            } finally {
+                networkResponse.close();
+                request.getTimings().markParseEnd();
+            }
 
-                        request.addEvent("recoverable-session-error");
+            if (response.isSuccess()) {
 
-                        if (isSessionEndpoint(request)) {
+                updateSessionInfo(networkResponse.headers);
+                storeValidators(request, response, networkResponse.headers);
+                mCache.put(request, response);
+                mDelivery.postResponse(request, response);
 
-                            mDelivery.postResponse(request, response);
+            } else {
 
-                        } else {
+                if (SessionManager.recoverableError(response.error)) {
 
-                            // Query the session manager to perform an update
-                            if (mShopGun.getSessionManager().recover(response.error)) {
-                                mRequestQueue.add(request);
-                            } else {
-                                mDelivery.postResponse(request, response);
-                            }
+                    request.addEvent("recoverable-session-error");
 
-                        }
+                    if (isSessionEndpoint(request)) {
+
+                        mDelivery.postResponse(request, response);
 
                     } else {
 
-                        request.addEvent("non-recoverable-error");
-                        mDelivery.postResponse(request, response);
+                        // Query the session manager to perform an update
+                        if (mShopGun.getSessionManager().recover(response.error)) {
+                            mRequestQueue.add(request);
+                        } else {
+                            mDelivery.postResponse(request, response);
+                        }
 
                     }
 
+                } else {
+
+                    request.addEvent("non-recoverable-error");
+                    mDelivery.postResponse(request, response);
+
                 }
 
+            }
 
-            } catch (ShopGunError e) {
 
-                request.addEvent("network-error");
-                mDelivery.postResponse(request, Response.fromError(e));
+        } catch (ShopGunError e) {
+
+            request.addEvent("network-error");
+            mDelivery.postResponse(request, Response.fromError(e));
 
-            }
         }
+
+    }
+
+    /**
+     * Post an error response for a request that can't be performed, e.g. because the dispatcher has quit.
+     * @param request A request taken from the network queue
+     * @param error The error to deliver
+     */
+    void fail(Request<?> request, ShopGunError error) {
+        mDelivery.postResponse(request, Response.fromError(error));
     }
 
     /**
@@ -178,13 +244,113 @@ public class NetworkDispatcher extends Thread {
 
         if (!newSession) {
 
-            Map<String, String> headers = new HashMap<String, String>();
-            String token = mShopGun.getSessionManager().getSession().getToken();
-            headers.put("X-Token", token);
-            String sha256 = HashUtils.sha256(mShopGun.getApiSecret() + token);
-            headers.put("X-Signature", sha256);
-            request.setHeaders(headers);
+            request.setHeaders(mSigner.getHeaders());
+
+        }
+
+    }
+
+    /**
+     * If the cache holds validators for the request, make the request conditional.
+     * @param request A request
+     * @return {@code true} if the request is conditional, else {@code false}
+     */
+    private boolean prepareConditional(Request<?> request) {
+
+        if (request.getMethod() != Method.GET || !request.isCacheable() || !(mCache instanceof StaleCache)) {
+            return false;
+        }
+
+        Cache.Item item = getValidators(request);
+        if (item == null) {
+            return false;
+        }
+
+        request.addEvent("preparing-conditional-headers");
+        Map<String, String> headers = new HashMap<String, String>(2);
+        if (item.etag != null) {
+            headers.put(HEADER_IF_NONE_MATCH, item.etag);
+        }
+        if (item.lastModified != null) {
+            headers.put(HEADER_IF_MODIFIED_SINCE, item.lastModified);
+        }
+        request.setHeaders(headers);
+        return true;
+
+    }
+
+    /**
+     * Find the cache item holding the validators for the request. That's the item cached for the request url,
+     * or, for requests caching a single object under its ern (like {@link com.shopgun.android.sdk.network.impl.JsonObjectRequest}),
+     * the item the request would read from the cache.
+     * @param request A request
+     * @return An item with validators, or {@code null}
+     */
+    private Cache.Item getValidators(Request<?> request) {
+
+        StaleCache cache = (StaleCache) mCache;
+        Cache.Item item = cache.getStale(SgnUtils.requestToUrlAndQueryString(request));
+        if (item != null) {
+            return item.hasValidators() ? item : null;
+        }
+
+        StaleCacheView view = new StaleCacheView(cache, Long.MAX_VALUE);
+        request.parseCache(view);
+        Map<String, Cache.Item> items = view.getItems();
+        if (items.size() == 1) {
+            item = items.values().iterator().next();
+            return item.hasValidators() ? item : null;
+        }
+        return null;
 
+    }
+
+    /**
+     * The API responded {@code 304 Not Modified}, so create the response from the (possibly expired)
+     * cache items, and refresh them in the cache.
+     * @param request A request
+     * @return A response, or {@code null} if the cache no longer holds the items needed
+     */
+    private Response<?> parseNotModified(Request<?> request) {
+
+        request.addEvent("parsing-not-modified-response");
+        StaleCacheView staleCache = new StaleCacheView((StaleCache) mCache, Long.MAX_VALUE);
+        Response<?> response = request.parseCache(staleCache);
+        if (response == null || !response.isSuccess()) {
+            return null;
+        }
+
+        response.cache = staleCache.refresh(request.getCacheTTL());
+        mCache.put(request, response);
+        request.setCacheHit(true);
+        return response;
+
+    }
+
+    /**
+     * Store the ETag and Last-Modified headers, on the cache item created for the request url. If the response
+     * didn't cache an item for the url, e.g. a single object cached under its ern, they're stored on every item.
+     * @param request A request
+     * @param response The parsed response
+     * @param headers The response headers
+     */
+    private static void storeValidators(Request<?> request, Response<?> response, Map<String, String> headers) {
+
+        if (response.cache == null) {
+            return;
+        }
+
+        String etag = NetworkUtils.getHeader(headers, HEADER_ETAG);
+        String lastModified = NetworkUtils.getHeader(headers, HEADER_LAST_MODIFIED);
+        Cache.Item item = response.cache.get(SgnUtils.requestToUrlAndQueryString(request));
+        if (item != null) {
+            item.etag = etag;
+            item.lastModified = lastModified;
+            return;
+        }
+        for (Cache.Item i : response.cache.values()) {
+            i.etag = etag;
+            i.lastModified = lastModified;
         }
 
     }
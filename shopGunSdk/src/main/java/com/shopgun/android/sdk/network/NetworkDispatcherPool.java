@@ -0,0 +1,390 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk.network;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Process;
+import android.telephony.TelephonyManager;
+
+import com.shopgun.android.sdk.log.SgnLog;
+import com.shopgun.android.sdk.network.impl.NetworkError;
+import com.shopgun.android.sdk.utils.Constants;
+import com.shopgun.android.sdk.utils.SgnThreadFactory;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of network dispatchers, that grows and shrinks with the load, rather than keeping a fixed number of
+ * {@link NetworkDispatcher} threads alive.
+ *
+ * <p>A single feeder thread takes requests from the network queue, in {@link Request.Priority} order, as soon as there
+ * is a free slot in the pool. The requests are performed on an executor, that creates threads as needed and lets them
+ * die after {@link #KEEP_ALIVE_SECONDS} of idling.</p>
+ *
+ * <p>The size of the pool is bounded by the connection type (if the app holds the
+ * {@link Manifest.permission#ACCESS_NETWORK_STATE} permission), and is reduced when the measured throughput is low.
+ * The number of concurrent requests to a single host is bounded by {@link #DEFAULT_MAX_REQUESTS_PER_HOST}.
+ * Requests exceeding the limit are held back, and the one with the highest priority is put back in the network queue,
+ * once a request to that host finishes.</p>
+ */
+public class NetworkDispatcherPool {
+
+    public static final String TAG = Constants.getTag(NetworkDispatcherPool.class);
+
+    /** Same as the OkHttp default */
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+
+    /** Pool size when the connection type is unknown, same as the fixed pool size */
+    public static final int DEFAULT_POOL_SIZE = 4;
+
+    /** Idle threads are terminated after this many seconds */
+    public static final long KEEP_ALIVE_SECONDS = 30;
+
+    /** Throughput below this many bytes per second, limits the pool to {@link #SLOW_POOL_SIZE} */
+    private static final int SLOW_BYTES_PER_SECOND = 16 * 1024;
+    private static final int SLOW_POOL_SIZE = 2;
+
+    /** Responses smaller than this, doesn't say much about the throughput */
+    private static final int MIN_THROUGHPUT_SAMPLE = 8 * 1024;
+
+    private static final long CONNECTION_CHECK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    /** Weight of new samples in the moving averages */
+    private static final double ALPHA = 0.2d;
+
+    private final Context mContext;
+    private final BlockingQueue<Request<?>> mQueue;
+    private final NetworkDispatcher mDispatcher;
+    private final int mMaxRequestsPerHost;
+    private final ThreadPoolExecutor mExecutor;
+    private final Thread mFeeder;
+
+    private final Object mLock = new Object();
+    private int mActive = 0;
+    private final Map<String, Integer> mActivePerHost = new HashMap<String, Integer>();
+    private final Map<String, PriorityQueue<Request<?>>> mDeferred = new HashMap<String, PriorityQueue<Request<?>>>();
+
+    private volatile int mConnectionPoolSize = DEFAULT_POOL_SIZE;
+    private volatile long mConnectionCheckedAt = 0;
+    private volatile double mThroughput = -1;
+    private volatile double mQueueWait = 0;
+    private volatile boolean mQuit = false;
+
+    /**
+     * Create a new pool
+     * @param context A context for reading the connection type, or {@code null} to use {@link #DEFAULT_POOL_SIZE}
+     * @param queue The network queue to take requests from
+     * @param dispatcher The dispatcher performing the requests, it will not be started
+     * @param maxRequestsPerHost Max number of concurrent requests to a single host
+     */
+    public NetworkDispatcherPool(Context context, BlockingQueue<Request<?>> queue, NetworkDispatcher dispatcher, int maxRequestsPerHost) {
+        mContext = context == null ? null : context.getApplicationContext();
+        mQueue = queue;
+        mDispatcher = dispatcher;
+        mMaxRequestsPerHost = Math.max(1, maxRequestsPerHost);
+        // The feeder bounds the concurrency, so the executor queue is practically always empty
+        mExecutor = new ThreadPoolExecutor(DEFAULT_POOL_SIZE, DEFAULT_POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new BackgroundThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+        mFeeder = new Thread(new Feeder(), "sgn-network-feeder");
+    }
+
+    public void start() {
+        mFeeder.start();
+    }
+
+    /**
+     * Stop taking requests from the queue. Requests currently being performed will finish.
+     */
+    public void quit() {
+        mQuit = true;
+        mFeeder.interrupt();
+        mExecutor.shutdown();
+    }
+
+    /**
+     * @return The number of threads currently in the pool, including idle threads
+     */
+    public int getPoolSize() {
+        return mExecutor.getPoolSize();
+    }
+
+    /**
+     * @return The number of requests currently being performed
+     */
+    public int getActiveCount() {
+        synchronized (mLock) {
+            return mActive;
+        }
+    }
+
+    /**
+     * @return The current upper bound of the pool, given the connection type and throughput
+     */
+    public int getMaxPoolSize() {
+        int size = getConnectionPoolSize();
+        double throughput = mThroughput;
+        if (throughput >= 0 && throughput < SLOW_BYTES_PER_SECOND) {
+            size = Math.min(size, SLOW_POOL_SIZE);
+        }
+        return size;
+    }
+
+    /**
+     * @return The moving average of the time requests have waited in the network queue, in milliseconds
+     */
+    public double getQueueWait() {
+        return mQueueWait;
+    }
+
+    /**
+     * @return The moving average of the throughput in bytes per second, or -1 if not yet measured
+     */
+    public double getThroughput() {
+        return mThroughput;
+    }
+
+    private class Feeder implements Runnable {
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            while (!mQuit) {
+                try {
+                    awaitSlot();
+                    dispatch(mQueue.take());
+                } catch (InterruptedException e) {
+                    // We may have been interrupted because it was time to quit.
+                }
+            }
+        }
+    }
+
+    private void awaitSlot() throws InterruptedException {
+        int max;
+        synchronized (mLock) {
+            while (mActive >= (max = getMaxPoolSize())) {
+                mLock.wait();
+            }
+        }
+        resize(max);
+    }
+
+    /**
+     * Threads are only created when requests are dispatched, and idle threads times out.
+     * So the core size is just an upper bound.
+     */
+    private void resize(int size) {
+        int current = mExecutor.getCorePoolSize();
+        if (size > current) {
+            mExecutor.setMaximumPoolSize(size);
+            mExecutor.setCorePoolSize(size);
+        } else if (size < current) {
+            mExecutor.setCorePoolSize(size);
+            mExecutor.setMaximumPoolSize(size);
+        }
+    }
+
+    private void dispatch(Request<?> request) {
+
+        long queuedAt = request.getTimings().getNetworkQueuedAt();
+        if (queuedAt > 0) {
+            double wait = (System.nanoTime() - queuedAt) / 1e6d;
+            mQueueWait = mQueueWait + ALPHA * (wait - mQueueWait);
+        }
+
+        String host = getHost(request);
+        synchronized (mLock) {
+            Integer count = mActivePerHost.get(host);
+            int active = count == null ? 0 : count;
+            if (active >= mMaxRequestsPerHost) {
+                PriorityQueue<Request<?>> deferred = mDeferred.get(host);
+                if (deferred == null) {
+                    deferred = new PriorityQueue<Request<?>>();
+                    mDeferred.put(host, deferred);
+                }
+                request.addEvent("deferred-host-limit");
+                deferred.add(request);
+                return;
+            }
+            mActivePerHost.put(host, active + 1);
+            mActive++;
+        }
+
+        try {
+            if (mQuit) {
+                throw new RejectedExecutionException("The pool has quit");
+            }
+            mExecutor.execute(new Task(request, host));
+        } catch (RejectedExecutionException e) {
+            // The executor has been shut down, don't leave the request hanging
+            request.addEvent("network-dispatcher-pool-quit");
+            onFinished(request, host, 0);
+            mDispatcher.fail(request, new NetworkError(e));
+        }
+
+    }
+
+    private void onFinished(Request<?> request, String host, long nanos) {
+
+        int bytes = request.getBytesIn();
+        if (bytes >= MIN_THROUGHPUT_SAMPLE && nanos > 0) {
+            double throughput = bytes / (nanos / 1e9d);
+            double current = mThroughput;
+            mThroughput = current < 0 ? throughput : current + ALPHA * (throughput - current);
+        }
+
+        Request<?> next = null;
+        synchronized (mLock) {
+            mActive--;
+            int active = mActivePerHost.get(host) - 1;
+            if (active == 0) {
+                mActivePerHost.remove(host);
+            } else {
+                mActivePerHost.put(host, active);
+            }
+            PriorityQueue<Request<?>> deferred = mDeferred.get(host);
+            if (deferred != null) {
+                next = deferred.poll();
+                if (deferred.isEmpty()) {
+                    mDeferred.remove(host);
+                }
+            }
+            mLock.notifyAll();
+        }
+
+        if (next != null) {
+            // Back in the queue, to compete with the other requests on priority
+            mQueue.add(next);
+        }
+
+    }
+
+    private class Task implements Runnable {
+
+        final Request<?> mRequest;
+        final String mHost;
+
+        Task(Request<?> request, String host) {
+            mRequest = request;
+            mHost = host;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                mDispatcher.process(mRequest);
+            } catch (RuntimeException e) {
+                SgnLog.e(TAG, "Failed to perform " + mRequest.toString(), e);
+            } finally {
+                onFinished(mRequest, mHost, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static String getHost(Request<?> request) {
+        try {
+            return new URL(request.getUrl()).getHost();
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    private int getConnectionPoolSize() {
+        long now = System.nanoTime();
+        if (mContext != null && now - mConnectionCheckedAt > CONNECTION_CHECK_INTERVAL) {
+            mConnectionCheckedAt = now;
+            mConnectionPoolSize = readConnectionPoolSize(mContext);
+        }
+        return mConnectionPoolSize;
+    }
+
+    private static int readConnectionPoolSize(Context context) {
+
+        int permission = context.checkCallingOrSelfPermission(Manifest.permission.ACCESS_NETWORK_STATE);
+        if (permission != PackageManager.PERMISSION_GRANTED) {
+            return DEFAULT_POOL_SIZE;
+        }
+
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = cm == null ? null : cm.getActiveNetworkInfo();
+        if (info == null || !info.isConnectedOrConnecting()) {
+            return DEFAULT_POOL_SIZE;
+        }
+
+        switch (info.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+            case ConnectivityManager.TYPE_WIMAX:
+            case ConnectivityManager.TYPE_ETHERNET:
+                return 6;
+            case ConnectivityManager.TYPE_MOBILE:
+                switch (info.getSubtype()) {
+                    case TelephonyManager.NETWORK_TYPE_LTE:
+                    case TelephonyManager.NETWORK_TYPE_HSPAP:
+                    case TelephonyManager.NETWORK_TYPE_EHRPD:
+                        return 4;
+                    case TelephonyManager.NETWORK_TYPE_UMTS:
+                    case TelephonyManager.NETWORK_TYPE_CDMA:
+                    case TelephonyManager.NETWORK_TYPE_EVDO_0:
+                    case TelephonyManager.NETWORK_TYPE_EVDO_A:
+                    case TelephonyManager.NETWORK_TYPE_EVDO_B:
+                        return 3;
+                    case TelephonyManager.NETWORK_TYPE_GPRS:
+                    case TelephonyManager.NETWORK_TYPE_EDGE:
+                        return 1;
+                    default:
+                        return DEFAULT_POOL_SIZE;
+                }
+            default:
+                return DEFAULT_POOL_SIZE;
+        }
+
+    }
+
+    private static class BackgroundThreadFactory implements ThreadFactory {
+
+        private final ThreadFactory mFactory = new SgnThreadFactory("sgn-network-");
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return mFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            });
+        }
+    }
+
+}
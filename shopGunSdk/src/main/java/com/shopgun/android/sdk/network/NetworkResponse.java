@@ -16,19 +16,26 @@
 
 package com.shopgun.android.sdk.network;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Map;
 
-public class NetworkResponse {
+public class NetworkResponse implements Closeable {
 
     /** The HTTP status code. */
     public final int statusCode;
 
-    /** Raw data from this response. */
+    /** Raw data from this response, or {@code null} if the response is streamed, see {@link #getStream()}. */
     public final byte[] data;
 
     /** Response headers. */
     public final Map<String, String> headers;
 
+    /** The body of a streamed response */
+    private final InputStream mStream;
+
     /**
      * Creates a new network response. From data received from a data source
      * @param statusCode the HTTP status code
@@ -36,9 +43,59 @@ public class NetworkResponse {
      * @param headers Headers returned with this response, or null for none
      */
     public NetworkResponse(int statusCode, byte[] data, Map<String, String> headers) {
+        this(statusCode, data, null, headers);
+    }
+
+    private NetworkResponse(int statusCode, byte[] data, InputStream stream, Map<String, String> headers) {
         this.statusCode = statusCode;
         this.data = data;
         this.headers = headers;
+        mStream = stream;
+    }
+
+    /**
+     * Creates a new streamed network response, where the body is read directly from the connection.
+     * The stream is closed by the {@link NetworkDispatcher} once the response have been parsed.
+     * @param statusCode the HTTP status code
+     * @param stream Response body
+     * @param headers Headers returned with this response, or null for none
+     * @return A new {@link NetworkResponse}
+     */
+    public static NetworkResponse fromStream(int statusCode, InputStream stream, Map<String, String> headers) {
+        return new NetworkResponse(statusCode, null, stream, headers);
+    }
+
+    /**
+     * Returns true if the body of this response must be read from {@link #getStream()}, and {@link #data} is {@code null}.
+     * @return {@code true} if this response is streamed, else {@code false}
+     */
+    public boolean isStreamed() {
+        return mStream != null;
+    }
+
+    /**
+     * Get the body of this response as a stream. This works for both streamed and buffered responses,
+     * but the stream of a streamed response can only be read once.
+     * @return An {@link InputStream}
+     */
+    public InputStream getStream() {
+        if (mStream != null) {
+            return mStream;
+        }
+        return new ByteArrayInputStream(data == null ? new byte[0] : data);
+    }
+
+    /**
+     * Release the connection of a streamed response. This does nothing for buffered responses.
+     */
+    public void close() {
+        if (mStream != null) {
+            try {
+                mStream.close();
+            } catch (IOException e) {
+                // Ignore, we're done with the stream anyway
+            }
+        }
     }
 
 }
@@ -99,5 +99,26 @@ public class NetworkUtils {
         return l;
     }
 
+    /**
+     * Get a header from a map of response headers, ignoring the case of the header name.
+     * @param headers A map of headers, may be {@code null}
+     * @param name The name of the header
+     * @return The header value, or {@code null}
+     */
+    public static String getHeader(Map<String, String> headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+        String value = headers.get(name);
+        if (value != null) {
+            return value;
+        }
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            if (name.equalsIgnoreCase(e.getKey())) {
+                return e.getValue();
+            }
+        }
+        return null;
+    }
 
 }
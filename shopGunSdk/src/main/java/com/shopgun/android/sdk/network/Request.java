@@ -66,6 +66,8 @@ public abstract class Request<T> implements Comparable<Request<T>> {
     private boolean mExcludeRadius = false;
     /** If true Request will return data from cache if exists */
     private boolean mIgnoreCache = false;
+    /** How long after expiry a cached response may still be delivered, while it's being refreshed */
+    private long mMaxStale = 0;
     /** Whether or not responses to this request should be cached. */
     private boolean mIsCacheable = true;
     /** Whether or not this request has been canceled. */
@@ -88,6 +90,11 @@ public abstract class Request<T> implements Comparable<Request<T>> {
 
     private Delivery mDelivery;
 
+    /** Timings of the phases this request goes through */
+    private final RequestTimings mTimings = new RequestTimings();
+    /** Number of bytes received for this request */
+    private volatile int mBytesIn = 0;
+
     /**
      * Creates a new request with the given method (one of the values from {@link Method}),
      * URL, and error listener.  Note that the normal response listener is not provided here as
@@ -120,6 +127,14 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         mEventLog.add(event);
     }
 
+    /**
+     * Get the timings of the phases, this request have been through.
+     * @return The {@link RequestTimings} of this request
+     */
+    public RequestTimings getTimings() {
+        return mTimings;
+    }
+
     /**
      * Get the log for this request, log contains actions, and timings that have been performed on this request
      * @return the EventLog for this request
@@ -175,6 +190,7 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         }
 
         mFinished = true;
+        mTimings.markFinished();
         if (mRequestQueue != null) {
             mRequestQueue.finish(this);
         }
@@ -191,10 +207,15 @@ public abstract class Request<T> implements Comparable<Request<T>> {
     }
 
     public void stats(int in, int out) {
+        mBytesIn += in;
         mRequestQueue.dataIn += in;
         mRequestQueue.dataOut += out;
     }
 
+    int getBytesIn() {
+        return mBytesIn;
+    }
+
     /**
      * Get the connection timeout for this request.
      * <p>The timeout will be the same for connecting, and for reading data</p>
@@ -255,6 +276,25 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         mIsCacheable = cacheable;
     }
 
+    /**
+     * Whether identical requests in flight at the same time may share the response of this request,
+     * rather than each performing a network call of their own.
+     * @return {@code true} if this request may be coalesced with identical requests
+     */
+    public boolean isCoalescable() {
+        return mMethod == Method.GET && mIsCacheable;
+    }
+
+    /**
+     * Whether the {@link NetworkResponse} handed to {@link #parseNetworkResponse(NetworkResponse)} should be
+     * streamed, rather than buffered into a {@code byte[]}. Requests returning {@code true} must read the body
+     * from {@link NetworkResponse#getStream()}.
+     * @return {@code true} if the response body should be streamed, else {@code false}
+     */
+    public boolean isStreamed() {
+        return false;
+    }
+
     /**
      * A tag to identify this request (or its origin) for performing batch operations.
      * @return An object. This requests tag or null.
@@ -332,6 +372,28 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return Request.this;
     }
 
+    /**
+     * Get the max time after expiry, that a cached response may be delivered, see {@link #setMaxStale(long)}.
+     * @return The max stale time in milliseconds, or {@code 0} if stale responses aren't allowed
+     */
+    public long getMaxStale() {
+        return mMaxStale;
+    }
+
+    /**
+     * Enable stale-while-revalidate for this request.
+     * <p>If the response have expired in the cache, but expired less than {@code maxStale} ago, the stale
+     * response will be delivered right away, and the cache will be refreshed in the background. The
+     * refresh is a conditional request, so if nothing have changed the API will only return the headers.</p>
+     * <p>This requires a {@link StaleCache}, and is ignored with any other {@link Cache}.</p>
+     * @param maxStale The max stale time in milliseconds, or {@code 0} to disable
+     * @return this object
+     */
+    public Request setMaxStale(long maxStale) {
+        mMaxStale = maxStale;
+        return Request.this;
+    }
+
     /**
      * Get the {@link Delivery} for this request, if any exists.
      * @return A delivery, or null
@@ -28,10 +28,14 @@ import com.shopgun.android.utils.PackageUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -43,6 +47,9 @@ public class RequestQueue {
     /** Number of network request dispatcher threads to start. */
     private static final int DEFAULT_NETWORK_THREAD_POOL_SIZE = 4;
 
+    /** Pool size, that will make the RequestQueue use a {@link NetworkDispatcherPool} */
+    public static final int ADAPTIVE_POOL_SIZE = 0;
+
     /** ShopGun object controlling the whole lot */
     private final ShopGun mShopGun;
 
@@ -58,14 +65,18 @@ public class RequestQueue {
     /** Queue of items waiting for session request */
     private final LinkedList<Request<?>> mSessionParking = new LinkedList<Request<?>>();
 
-    /** Queue of items waiting for similar request to finish */
-//    private final Map<String, LinkedList<Request>> mRequestParking = new HashMap<String, LinkedList<Request>>();
+    /** Requests in flight, and the identical requests waiting for them to finish */
+    private final Map<String, InFlight> mInFlight = new HashMap<String, InFlight>();
+    /** Number of requests that were served by an identical request in flight */
+    private final AtomicInteger mCoalescedCount = new AtomicInteger();
     /** Network interface for performing requests. */
     private final Network mNetwork;
     /** Cache interface for retrieving and storing responses. */
     private final Cache mCache;
     /** Response delivery mechanism. */
     private final Delivery mDelivery;
+    /** Signs requests, shared by all network dispatchers */
+    private final RequestSigner mSigner;
     /** Atomic number generator for sequencing requests in the queues */
     private final AtomicInteger mSequenceGenerator = new AtomicInteger();
     /* tmp var for testing */
@@ -74,6 +85,10 @@ public class RequestQueue {
     public int dataOut = 0;
     /** Network dispatchers, the threads that will actually perform the work */
     private NetworkDispatcher[] mNetworkDispatchers;
+    /** Receives the timings of finished requests */
+    private volatile TimingListener mTimingListener;
+    /** Pool of network dispatchers, used in place of mNetworkDispatchers if the pool size is adaptive */
+    private NetworkDispatcherPool mNetworkDispatcherPool;
     /** Queue of requests, that need validation, and cache check */
     private CacheDispatcher mCacheDispatcher;
 
@@ -84,15 +99,20 @@ public class RequestQueue {
      * @param shopGun, the ShopGun SDK object to use for requests
      * @param cache to use for this RequestQueue
      * @param network the implementation you want to use for this RequestQueue
-     * @param poolSize, number of threads to do requests
+     * @param poolSize, number of threads to do requests, or {@link #ADAPTIVE_POOL_SIZE} to let the number of
+     *                 threads follow the load and connection type
      * @param delivery object for returning objects to UI thread
      */
     public RequestQueue(ShopGun shopGun, Cache cache, Network network, int poolSize, Delivery delivery) {
+        if (poolSize < 0) {
+            throw new IllegalArgumentException("Pool size must not be negative");
+        }
         mShopGun = shopGun;
         mCache = cache;
         mNetwork = network;
         mNetworkDispatchers = new NetworkDispatcher[poolSize];
-        mDelivery = delivery;
+        mDelivery = new CoalescingDelivery(delivery);
+        mSigner = new RequestSigner(shopGun);
     }
 
     /**
@@ -114,9 +134,17 @@ public class RequestQueue {
         mCacheDispatcher = new CacheDispatcher(mCacheQueue, mNetworkQueue, mCache, mDelivery);
         mCacheDispatcher.start();
 
+        if (mNetworkDispatchers.length == ADAPTIVE_POOL_SIZE) {
+            NetworkDispatcher dispatcher = new NetworkDispatcher(mShopGun, this, mNetworkQueue, mNetwork, mCache, mDelivery, mSigner);
+            mNetworkDispatcherPool = new NetworkDispatcherPool(mShopGun.getContext(), mNetworkQueue, dispatcher,
+                    NetworkDispatcherPool.DEFAULT_MAX_REQUESTS_PER_HOST);
+            mNetworkDispatcherPool.start();
+            return;
+        }
+
         // Create network dispatchers (and corresponding threads) up to the pool size.
         for (int i = 0; i < mNetworkDispatchers.length; i++) {
-            NetworkDispatcher networkDispatcher = new NetworkDispatcher(mShopGun, this, mNetworkQueue, mNetwork, mCache, mDelivery);
+            NetworkDispatcher networkDispatcher = new NetworkDispatcher(mShopGun, this, mNetworkQueue, mNetwork, mCache, mDelivery, mSigner);
             mNetworkDispatchers[i] = networkDispatcher;
             networkDispatcher.start();
         }
@@ -136,6 +164,9 @@ public class RequestQueue {
                 n.quit();
         }
 
+        if (mNetworkDispatcherPool != null)
+            mNetworkDispatcherPool.quit();
+
     }
 
     /**
@@ -164,9 +195,9 @@ public class RequestQueue {
 
     /**
      * This method is mostly for statistics and allows RequestQueue to tie up any loose
-     * ends that might be in a request. In the future, this can be used for better SDK cache control
-     * as multiple requests to the same endpoint, can be queued, and only one may be dispatched.
-     * On complete the others can be triggered, and instantly hitting local cache.
+     * ends that might be in a request. If the request were coalesced with other identical requests,
+     * and it finished without delivering a response (e.g. it was cancelled), one of the waiting
+     * requests will take over, and be dispatched in its place.
      * @param request - request, that finished
      */
     public synchronized void finish(Request<?> request) {
@@ -175,22 +206,33 @@ public class RequestQueue {
             mCurrentRequests.remove(request);
         }
 
-//    	if (!request.ignoreCache() && request.getMethod() == Method.GET) {
-//    		
-//    		synchronized (mRequestParking) {
-//				
-//    			String url = request.getUrl();
-//        		LinkedList<Request> waiting = mRequestParking.remove(url);
-//        		if (waiting != null) {
-//        			String msg = "Posting %d requests, waiting for %s";
-//        			SgnLog.d(TAG, String.format(msg, waiting.size(), url));
-//        			mCacheQueue.addAll(waiting);
-//        		}
-//        		
-//			}
-//    		
-//    	}
+        if (request.isCoalescable()) {
+            promoteWaiting(request);
+        }
+
+        TimingListener listener = mTimingListener;
+        if (listener != null) {
+            listener.onRequestFinished(request, request.getTimings());
+        }
+
+    }
+
+    /**
+     * Set a listener, that will receive the {@link RequestTimings} of every request, as it finishes.
+     * The listener is called on the thread finishing the request, typically the main thread, so it should
+     * be quick, e.g. just add the timings to a histogram.
+     * @param listener A listener, or {@code null} to remove the current listener
+     */
+    public void setTimingListener(TimingListener listener) {
+        mTimingListener = listener;
+    }
 
+    /**
+     * Get the pool of network dispatchers, e.g. for reading the pool size and queue wait metrics.
+     * @return A {@link NetworkDispatcherPool}, or {@code null} if the queue isn't started with an adaptive pool size
+     */
+    public NetworkDispatcherPool getNetworkDispatcherPool() {
+        return mNetworkDispatcherPool;
     }
 
     /**
@@ -225,6 +267,8 @@ public class RequestQueue {
             mCurrentRequests.add(request);
         }
 
+        request.getTimings().markAdded();
+
         prepareRequest(request);
 
         request.setRequestQueue(this);
@@ -249,30 +293,9 @@ public class RequestQueue {
                 SgnLog.w(TAG, "Session changes should be handled by SessionManager. This request might cause problems");
             }
 
-//        	synchronized (mRequestParking) {
-//
-//        		String url = request.getUrl();
-//        		
-//        		// Either add to waiting queue, or add to cache queue
-//        		if (mRequestParking.containsKey(url)) {
-//        			
-//        			request.addEvent("waiting-for-similar-request");
-//        			LinkedList<Request> waiting = mRequestParking.get(url);
-//        			if (waiting == null) {
-//        				waiting = new LinkedList<Request>();
-//        			}
-//        			waiting.add(request);
-//        			mRequestParking.put(url, waiting);
-//        			
-//        		} else {
-//        			
-//        			/* add null, and only allocate memory if needed */
-//        			mRequestParking.put(url, null);
-            mCacheQueue.add(request);
-
-//        		}
-//        		
-//        	}
+            if (!attachToInFlight(request)) {
+                mCacheQueue.add(request);
+            }
 
         }
 
@@ -280,6 +303,109 @@ public class RequestQueue {
 
     }
 
+    /**
+     * Attach the request to an identical request already in flight, if any. If there isn't one, the given
+     * request will be registered as in flight, so later identical requests can attach to it.
+     * @param request A request
+     * @return {@code true} if the request is waiting for another request, else {@code false}
+     */
+    private boolean attachToInFlight(Request<?> request) {
+
+        if (!request.isCoalescable()) {
+            return false;
+        }
+
+        String key = getCoalescingKey(request);
+        synchronized (mInFlight) {
+            InFlight inFlight = mInFlight.get(key);
+            if (inFlight == null) {
+                mInFlight.put(key, new InFlight(request));
+                return false;
+            } else if (inFlight.primary == request) {
+                // The request is being retried, e.g. after a session error
+                return false;
+            }
+            request.addEvent("waiting-for-similar-request");
+            inFlight.waiting.add(request);
+        }
+        mCoalescedCount.incrementAndGet();
+        return true;
+
+    }
+
+    /**
+     * Remove the requests waiting for the given request, as a response is ready to be delivered.
+     * @param request A request that have a response ready
+     * @return A list of waiting requests, or {@code null}
+     */
+    private List<Request<?>> releaseWaiting(Request<?> request) {
+        if (!request.isCoalescable()) {
+            return null;
+        }
+        String key = getCoalescingKey(request);
+        synchronized (mInFlight) {
+            InFlight inFlight = mInFlight.get(key);
+            if (inFlight != null && inFlight.primary == request) {
+                mInFlight.remove(key);
+                return inFlight.waiting;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A request finished without delivering a response, let the first waiting request,
+     * that haven't been cancelled take over.
+     * @param request A request that have finished
+     */
+    private void promoteWaiting(Request<?> request) {
+
+        List<Request<?>> waiting = releaseWaiting(request);
+        if (waiting == null) {
+            return;
+        }
+
+        Request<?> next = null;
+        List<Request<?>> cancelled = new ArrayList<Request<?>>();
+        synchronized (mInFlight) {
+            InFlight inFlight = null;
+            for (Request<?> r : waiting) {
+                if (r.isCanceled()) {
+                    cancelled.add(r);
+                } else if (inFlight == null) {
+                    next = r;
+                    inFlight = new InFlight(r);
+                    mInFlight.put(getCoalescingKey(r), inFlight);
+                } else {
+                    inFlight.waiting.add(r);
+                }
+            }
+        }
+
+        for (Request<?> r : cancelled) {
+            r.finish("cancelled-while-waiting-for-similar-request");
+        }
+
+        if (next != null) {
+            next.addEvent("promoted-from-waiting-for-similar-request");
+            mCacheQueue.add(next);
+        }
+
+    }
+
+    private static String getCoalescingKey(Request<?> r) {
+        return r.getClass().getName() + " " + r.getMethod() + " " + SgnUtils.requestToUrlAndQueryString(r);
+    }
+
+    /**
+     * Get the number of requests, that were served by an identical request already in flight,
+     * and hence didn't perform a network call of their own.
+     * @return The number of coalesced requests
+     */
+    public int getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
     private void appendRequestNetworkLog(Request<?> r) {
 
         JSONObject log = r.getNetworkLog();
@@ -362,4 +488,58 @@ public class RequestQueue {
         return mSequenceGenerator.get();
     }
 
+    /**
+     * A request in flight, and the identical requests waiting for its response.
+     */
+    private static class InFlight {
+
+        final Request<?> primary;
+        final List<Request<?>> waiting = new ArrayList<Request<?>>(2);
+
+        InFlight(Request<?> primary) {
+            this.primary = primary;
+        }
+
+    }
+
+    /**
+     * Receives the {@link RequestTimings} of finished requests, e.g. for exporting them to a metrics backend.
+     */
+    public interface TimingListener {
+
+        /**
+         * Called when a request have finished, whether it was successful, failed or cancelled.
+         * @param request The finished request
+         * @param timings The timings of the request
+         */
+        void onRequestFinished(Request<?> request, RequestTimings timings);
+
+    }
+
+    /**
+     * Delivers the response of a request, to the request itself and to all requests waiting for it.
+     */
+    private class CoalescingDelivery implements Delivery {
+
+        private final Delivery mDelivery;
+
+        CoalescingDelivery(Delivery delivery) {
+            mDelivery = delivery;
+        }
+
+        public void postResponse(Request<?> request, Response<?> response) {
+            List<Request<?>> waiting = releaseWaiting(request);
+            request.getTimings().markDeliveryPosted();
+            mDelivery.postResponse(request, response);
+            if (waiting != null) {
+                for (Request<?> r : waiting) {
+                    r.addEvent("response-from-similar-request");
+                    r.getTimings().markDeliveryPosted();
+                    mDelivery.postResponse(r, response);
+                }
+            }
+        }
+
+    }
+
 }
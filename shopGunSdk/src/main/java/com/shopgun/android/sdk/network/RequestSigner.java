@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk.network;
+
+import com.shopgun.android.sdk.ShopGun;
+import com.shopgun.android.sdk.utils.Constants;
+import com.shopgun.android.utils.HashUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Computes the X-Token and X-Signature headers for API requests.
+ *
+ * <p>The signature only depends on the API secret and the session token, and the token changes far less often than
+ * requests are made. So the headers are computed once per token, and handed out as an immutable map shared by all
+ * requests. When the session token changes (e.g. via {@link com.shopgun.android.sdk.SessionManager#updateTokens(String, String)}
+ * or a new session), the next call will see a different token, and recompute the headers.</p>
+ *
+ * <p>This class is thread safe.</p>
+ */
+public class RequestSigner {
+
+    public static final String TAG = Constants.getTag(RequestSigner.class);
+
+    public static final String HEADER_TOKEN = "X-Token";
+    public static final String HEADER_SIGNATURE = "X-Signature";
+
+    private final ShopGun mShopGun;
+    private String mApiSecret;
+    private volatile Signature mSignature;
+
+    public RequestSigner(ShopGun shopGun) {
+        mShopGun = shopGun;
+    }
+
+    /**
+     * Get the signed headers for the current session.
+     * @return An immutable map containing the X-Token and X-Signature headers
+     */
+    public Map<String, String> getHeaders() {
+        return getHeaders(mShopGun.getSessionManager().getSession().getToken());
+    }
+
+    /**
+     * Get the signed headers for a given session token.
+     * @param token A session token
+     * @return An immutable map containing the X-Token and X-Signature headers
+     */
+    public Map<String, String> getHeaders(String token) {
+        Signature signature = mSignature;
+        if (signature == null || !equals(signature.token, token)) {
+            signature = new Signature(token, HashUtils.sha256(getApiSecret() + token));
+            mSignature = signature;
+        }
+        return signature.headers;
+    }
+
+    private synchronized String getApiSecret() {
+        // The secret doesn't change, and looking it up means reading the application meta data
+        if (mApiSecret == null) {
+            mApiSecret = mShopGun.getApiSecret();
+        }
+        return mApiSecret;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static class Signature {
+
+        final String token;
+        final Map<String, String> headers;
+
+        Signature(String token, String signature) {
+            this.token = token;
+            Map<String, String> headers = new HashMap<String, String>(4);
+            headers.put(HEADER_TOKEN, token);
+            headers.put(HEADER_SIGNATURE, signature);
+            this.headers = Collections.unmodifiableMap(headers);
+        }
+    }
+
+}
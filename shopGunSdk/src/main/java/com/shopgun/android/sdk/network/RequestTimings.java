@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk.network;
+
+import java.util.Locale;
+
+/**
+ * Timings of the phases a {@link Request} goes through, from being added to the {@link RequestQueue},
+ * until the response is delivered.
+ *
+ * <p>The phases are marked by the {@link CacheDispatcher}, {@link NetworkDispatcher}, the {@link Network}
+ * implementation and the {@link Delivery}. When the request is finished, the timings are passed on to the
+ * {@link RequestQueue.TimingListener}, if any. A phase that didn't happen (e.g. the network phases of a cache hit)
+ * has a duration of {@code -1}. All durations are in nanoseconds.</p>
+ *
+ * <p>For a request, that's performed more than once (e.g. after a session error), the timings are those of the
+ * last attempt, except for the total duration.</p>
+ */
+public class RequestTimings {
+
+    private volatile long mAdded;
+    private volatile long mCacheStart;
+    private volatile long mCacheEnd;
+    private volatile long mNetworkQueued;
+    private volatile long mNetworkStart;
+    private volatile long mConnect = -1;
+    private volatile long mRequestStart;
+    private volatile long mResponseStart;
+    private volatile long mResponseEnd;
+    private volatile long mParseStart;
+    private volatile long mParseEnd;
+    private volatile long mDeliveryPosted;
+    private volatile long mFinished;
+
+    private static long now() {
+        return System.nanoTime();
+    }
+
+    private static long duration(long start, long end) {
+        return (start == 0 || end == 0 || end < start) ? -1 : end - start;
+    }
+
+    /** The request was added to the {@link RequestQueue} */
+    public void markAdded() {
+        if (mAdded == 0) {
+            mAdded = now();
+        }
+    }
+
+    /** The {@link CacheDispatcher} took the request */
+    public void markCacheStart() {
+        mCacheStart = now();
+    }
+
+    /** The cache lookup is done, whether or not there was a hit */
+    public void markCacheEnd() {
+        mCacheEnd = now();
+    }
+
+    /** The request was added to the network queue */
+    public void markNetworkQueued() {
+        mNetworkQueued = now();
+    }
+
+    /** A {@link NetworkDispatcher} took the request */
+    public void markNetworkStart() {
+        mNetworkStart = now();
+        mConnect = -1;
+    }
+
+    /**
+     * Add time spent on DNS lookup and connecting. Only reported if a new connection was made.
+     * @param nanos The time spent
+     */
+    public void addConnect(long nanos) {
+        mConnect = Math.max(0, mConnect) + nanos;
+    }
+
+    /** The {@link Network} is about to send the request */
+    public void markRequestStart() {
+        mRequestStart = now();
+        mResponseStart = 0;
+        mResponseEnd = 0;
+    }
+
+    /** The response status line and headers have been received */
+    public void markResponseStart() {
+        mResponseStart = now();
+    }
+
+    /** The body have been read, for streamed responses it's when the stream is closed */
+    public void markResponseEnd() {
+        mResponseEnd = now();
+    }
+
+    /** The response (network or cache) is about to be parsed */
+    public void markParseStart() {
+        mParseStart = now();
+    }
+
+    /** The response have been parsed */
+    public void markParseEnd() {
+        mParseEnd = now();
+    }
+
+    /** The response have been handed to the {@link Delivery} */
+    public void markDeliveryPosted() {
+        mDeliveryPosted = now();
+    }
+
+    /** The request have finished */
+    public void markFinished() {
+        mFinished = now();
+    }
+
+    /**
+     * @return Time from the request was added to the queue, until a dispatcher took it.
+     * This includes waiting for a new session, and for identical requests in flight.
+     */
+    public long getQueueWait() {
+        long cache = duration(mAdded, mCacheStart);
+        long network = duration(mNetworkQueued, mNetworkStart);
+        if (cache < 0 && network < 0) {
+            // never made it to a dispatcher, e.g. served by an identical request in flight
+            return duration(mAdded, mDeliveryPosted);
+        }
+        return Math.max(0, cache) + Math.max(0, network);
+    }
+
+    /** @return Time spent looking up the cache, including building a response from the cached items */
+    public long getCacheLookup() {
+        return duration(mCacheStart, mCacheEnd);
+    }
+
+    /** @return Time spent on DNS lookup and connecting, {@code 0} if an existing connection was reused */
+    public long getConnect() {
+        if (mResponseStart == 0) {
+            return -1;
+        }
+        return Math.max(0, mConnect);
+    }
+
+    /** @return Time from sending the request until the response headers were received, excluding the connect time */
+    public long getTimeToFirstByte() {
+        long ttfb = duration(mRequestStart, mResponseStart);
+        return ttfb < 0 ? ttfb : Math.max(0, ttfb - Math.max(0, mConnect));
+    }
+
+    /**
+     * @return Time spent reading the response body. For streamed responses reading and parsing is interleaved,
+     * so this overlaps {@link #getParse()}
+     */
+    public long getDownload() {
+        return duration(mResponseStart, mResponseEnd);
+    }
+
+    /** @return Time spent parsing the network response */
+    public long getParse() {
+        return duration(mParseStart, mParseEnd);
+    }
+
+    /** @return Time from the response was handed to the {@link Delivery}, until the request finished on the delivery thread */
+    public long getDelivery() {
+        return duration(mDeliveryPosted, mFinished);
+    }
+
+    /** @return Time from the request was added, until it finished */
+    public long getTotal() {
+        return duration(mAdded, mFinished);
+    }
+
+    /** @return The time (nanos) the request was added to the network queue, or 0 */
+    public long getNetworkQueuedAt() {
+        return mNetworkQueued;
+    }
+
+    /** @return {@code true} if the request was performed by a {@link NetworkDispatcher} */
+    public boolean isNetwork() {
+        return mNetworkStart != 0;
+    }
+
+    private static String ms(long nanos) {
+        return nanos < 0 ? "-" : String.format(Locale.US, "%.2f", nanos / 1e6d);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "RequestTimings[queue:%s, cache:%s, connect:%s, ttfb:%s, download:%s, parse:%s, delivery:%s, total:%s ms]",
+                ms(getQueueWait()), ms(getCacheLookup()), ms(getConnect()), ms(getTimeToFirstByte()),
+                ms(getDownload()), ms(getParse()), ms(getDelivery()), ms(getTotal()));
+    }
+
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk.network;
+
+import com.shopgun.android.sdk.utils.Constants;
+
+import java.util.Set;
+
+/**
+ * A background refresh of a {@link Request}, that was served a stale response from the {@link Cache}.
+ *
+ * <p>The network response is parsed by the original request, in order to create the same cache items,
+ * but the response is never delivered to the original listener.</p>
+ * @param <T> The type of the original request
+ */
+class RevalidateRequest<T> extends Request<T> implements Delivery {
+
+    public static final String TAG = Constants.getTag(RevalidateRequest.class);
+
+    private final Request<T> mOriginal;
+    private final Set<String> mRevalidating;
+    private final String mKey;
+
+    /**
+     * Create a new revalidation of the given request.
+     * @param original A request, that have been prepared by the {@link RequestQueue}
+     * @param revalidating The set of keys being revalidated, the key of this request will be removed once it finishes
+     * @param key The key of this request
+     */
+    RevalidateRequest(Request<T> original, Set<String> revalidating, String key) {
+        super(original.getMethod(), original.getUrl(), null);
+        mOriginal = original;
+        mRevalidating = revalidating;
+        mKey = key;
+        putParameters(original.getParameters());
+        setHeaders(original.getHeaders());
+        setTimeOut(original.getTimeOut());
+        setRequestQueue(original.getRequestQueue());
+        setDelivery(this);
+        addEvent("revalidating-stale-cache-item");
+    }
+
+    @Override
+    protected Response<T> parseNetworkResponse(NetworkResponse response) {
+        return mOriginal.parseNetworkResponse(response);
+    }
+
+    @Override
+    protected Response<T> parseCache(Cache c) {
+        return mOriginal.parseCache(c);
+    }
+
+    @Override
+    public boolean isStreamed() {
+        return mOriginal.isStreamed();
+    }
+
+    @Override
+    public boolean ignoreCache() {
+        // We know the cache is stale, so always go to the network
+        return true;
+    }
+
+    @Override
+    public boolean isCoalescable() {
+        return false;
+    }
+
+    @Override
+    public long getCacheTTL() {
+        return mOriginal.getCacheTTL();
+    }
+
+    @Override
+    protected Priority getPriority() {
+        return Priority.LOW;
+    }
+
+    @Override
+    public synchronized Request finish(String reason) {
+        super.finish(reason);
+        mRevalidating.remove(mKey);
+        return this;
+    }
+
+    public void postResponse(Request<?> request, Response<?> response) {
+        // The stale response have already been delivered, so nothing to do here
+        finish("revalidation-finished");
+    }
+
+}
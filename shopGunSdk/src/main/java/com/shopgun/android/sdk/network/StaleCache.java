@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk.network;
+
+/**
+ * A {@link Cache} that keeps expired items around, until they are evicted to make room for new items.
+ *
+ * <p>Expired items are never returned from {@link #get(String)}, but they can be used for
+ * stale-while-revalidate (see {@link Request#setMaxStale(long)}), and their validators
+ * ({@link Cache.Item#etag}, {@link Cache.Item#lastModified}) for conditional requests.</p>
+ */
+public interface StaleCache extends Cache {
+
+    /**
+     * Get a {@link com.shopgun.android.sdk.network.Cache.Item} from this cache, whether it has expired or not.
+     * @param key A key
+     * @return A {@link com.shopgun.android.sdk.network.Cache.Item} if one is found, else {@code null}
+     */
+    public Cache.Item getStale(String key);
+
+}
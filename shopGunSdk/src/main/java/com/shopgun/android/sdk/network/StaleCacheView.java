@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk.network;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A view of a {@link StaleCache}, that will also return items that have expired less than a given time ago.
+ * The view remembers the items a {@link Request#parseCache(Cache)} have read, so they can be refreshed
+ * if the API responds {@code 304 Not Modified}.
+ */
+class StaleCacheView implements Cache {
+
+    private final StaleCache mCache;
+    private final long mMaxStale;
+    private final Map<String, Cache.Item> mItems = new HashMap<String, Cache.Item>();
+    private boolean mStale = false;
+
+    StaleCacheView(StaleCache cache, long maxStale) {
+        mCache = cache;
+        mMaxStale = maxStale;
+    }
+
+    public void put(Request<?> request, Response<?> response) {
+        mCache.put(request, response);
+    }
+
+    public Cache.Item get(String key) {
+        Cache.Item item = mCache.getStale(key);
+        if (item == null) {
+            return null;
+        }
+        if (item.isExpired()) {
+            if (System.currentTimeMillis() - item.expires > mMaxStale) {
+                return null;
+            }
+            mStale = true;
+        }
+        mItems.put(key, item);
+        return item;
+    }
+
+    public void clear() {
+        mCache.clear();
+    }
+
+    /**
+     * Returns true if any of the items read through this view have expired.
+     * @return {@code true} if stale items were read, else {@code false}
+     */
+    boolean isStale() {
+        return mStale;
+    }
+
+    /**
+     * @return The items read through this view, by their key
+     */
+    Map<String, Cache.Item> getItems() {
+        return mItems;
+    }
+
+    /**
+     * Create a copy of every item read through this view, with a new time to live.
+     * @param timeToLive The new time to live in milliseconds
+     * @return A map of refreshed items
+     */
+    Map<String, Cache.Item> refresh(long timeToLive) {
+        Map<String, Cache.Item> items = new HashMap<String, Cache.Item>(mItems.size());
+        for (Map.Entry<String, Cache.Item> e : mItems.entrySet()) {
+            items.put(e.getKey(), e.getValue().refresh(timeToLive));
+        }
+        return items;
+    }
+
+}
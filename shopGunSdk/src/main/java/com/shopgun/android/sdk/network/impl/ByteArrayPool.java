@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk.network.impl;
+
+import com.shopgun.android.sdk.utils.Constants;
+
+import java.util.ArrayDeque;
+
+/**
+ * A bounded pool of equally sized byte arrays, used as read buffers by {@link NetworkImpl}.
+ *
+ * <p>The network dispatchers read every response body through a buffer, and recycling them avoids
+ * allocating a new buffer (and garbage collecting it) for each request.</p>
+ */
+public class ByteArrayPool {
+
+    public static final String TAG = Constants.getTag(ByteArrayPool.class);
+
+    private final ArrayDeque<byte[]> mBuffers;
+    private final int mBufferSize;
+    private final int mMaxBuffers;
+
+    /**
+     * Create a new pool.
+     * @param bufferSize The size of each buffer
+     * @param maxBuffers The max number of buffers kept in the pool
+     */
+    public ByteArrayPool(int bufferSize, int maxBuffers) {
+        mBufferSize = bufferSize;
+        mMaxBuffers = maxBuffers;
+        mBuffers = new ArrayDeque<byte[]>(maxBuffers);
+    }
+
+    /**
+     * Get a buffer from the pool, or a new buffer if the pool is empty.
+     * @return A buffer of {@link #getBufferSize()} bytes
+     */
+    public synchronized byte[] getBuf() {
+        byte[] buf = mBuffers.poll();
+        return buf == null ? new byte[mBufferSize] : buf;
+    }
+
+    /**
+     * Return a buffer to the pool. Buffers of the wrong size, or buffers returned to a full pool are discarded.
+     * @param buf A buffer
+     */
+    public synchronized void returnBuf(byte[] buf) {
+        if (buf != null && buf.length == mBufferSize && mBuffers.size() < mMaxBuffers) {
+            mBuffers.push(buf);
+        }
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+}
@@ -0,0 +1,590 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk.network.impl;
+
+import com.shopgun.android.sdk.log.SgnLog;
+import com.shopgun.android.sdk.network.Cache;
+import com.shopgun.android.sdk.network.Request;
+import com.shopgun.android.sdk.network.Request.Method;
+import com.shopgun.android.sdk.network.Response;
+import com.shopgun.android.sdk.network.StaleCache;
+import com.shopgun.android.sdk.utils.Constants;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link Cache} persisting items to a single append-only file.
+ *
+ * <p>The file is a header followed by a sequence of length-prefixed, checksummed records. An index of
+ * key to file offset is kept in memory, and is rebuilt by scanning the file the first time the cache is
+ * accessed. New items are always appended, and the file is compacted (live items are rewritten
+ * to a new file) once it outgrows the size limit. Expired items are kept for stale-while-revalidate, until
+ * they're either evicted or have been expired for longer than {@link #STALE_RETENTION}. A torn write at the end of the file, is simply truncated.</p>
+ *
+ * <p>Only items holding a {@link JSONObject}, a {@link String}, a {@code byte[]} or a list of strings can be
+ * persisted, which covers all the {@link Cache.Item items} created by the SDK requests.</p>
+ *
+ * <p>All I/O is done lazily on the calling thread, which will be either the
+ * {@link com.shopgun.android.sdk.network.CacheDispatcher} or a {@link com.shopgun.android.sdk.network.NetworkDispatcher}.</p>
+ */
+public class DiskCache implements StaleCache {
+
+    public static final String TAG = Constants.getTag(DiskCache.class);
+
+    /** Default size limit for the cache file */
+    public static final long DEFAULT_MAX_BYTES = 10 * 1024 * 1024;
+
+    /** How long expired items are kept in the file */
+    public static final long STALE_RETENTION = TimeUnit.DAYS.toMillis(7);
+
+    private static final int MAGIC = 0x53474e43; // "SGNC"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte TYPE_BYTES = 1;
+    private static final byte TYPE_STRING = 2;
+    private static final byte TYPE_JSON_OBJECT = 3;
+    private static final byte TYPE_STRING_LIST = 4;
+
+    /** When compacting, the cache will be trimmed to this fraction of the max size */
+    private static final float COMPACT_TARGET = 0.75f;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private final long mMaxBytes;
+
+    /** Index of key to record, in least-recently-used order */
+    private final LinkedHashMap<String, Entry> mIndex = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+
+    private RandomAccessFile mRaf;
+    private long mLiveBytes = 0;
+    private boolean mBroken = false;
+
+    /**
+     * Create a new cache with the {@link #DEFAULT_MAX_BYTES default size limit}.
+     * @param file The file to persist items to. It's recommended to use a file in the apps cache directory.
+     */
+    public DiskCache(File file) {
+        this(file, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Create a new cache.
+     * @param file The file to persist items to. It's recommended to use a file in the apps cache directory.
+     * @param maxBytes The max size of the file in bytes
+     */
+    public DiskCache(File file, long maxBytes) {
+        if (file == null) {
+            throw new IllegalArgumentException("File must not be null.");
+        }
+        if (maxBytes <= HEADER_SIZE) {
+            throw new IllegalArgumentException("maxBytes too small");
+        }
+        mFile = file;
+        mMaxBytes = maxBytes;
+    }
+
+    public void put(Request<?> request, Response<?> response) {
+
+        // If the request is cacheable
+        if (request.getMethod() == Method.GET && request.isCacheable() && !request.isCacheHit() && response.cache != null) {
+            request.addEvent("add-response-to-disk-cache");
+            putAll(response.cache);
+        }
+
+    }
+
+    /**
+     * Persist a collection of items, bypassing the checks performed on a {@link Request}.
+     * @param items The items to add
+     */
+    public synchronized void putAll(Map<String, Cache.Item> items) {
+        if (!ensureOpen()) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long offset = mRaf.length();
+            for (Map.Entry<String, Cache.Item> e : items.entrySet()) {
+                byte[] record = encode(e.getKey(), e.getValue());
+                if (record == null) {
+                    continue;
+                }
+                Entry entry = new Entry(offset + out.size(), record.length, e.getValue().expires);
+                out.write(record);
+                replace(e.getKey(), entry);
+            }
+            if (out.size() > 0) {
+                // A single sequential write for the whole response
+                mRaf.seek(offset);
+                mRaf.write(out.toByteArray());
+            }
+            if (mRaf.length() > mMaxBytes) {
+                compact();
+            }
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+
+    public synchronized Cache.Item get(String key) {
+        return read(key, false);
+    }
+
+    public synchronized Cache.Item getStale(String key) {
+        return read(key, true);
+    }
+
+    private Cache.Item read(String key, boolean allowStale) {
+        if (key == null || !ensureOpen()) {
+            return null;
+        }
+        Entry e = mIndex.get(key);
+        if (e == null) {
+            return null;
+        }
+        if (!allowStale && e.expires < System.currentTimeMillis()) {
+            return null;
+        }
+        try {
+            byte[] record = new byte[e.length];
+            mRaf.seek(e.offset);
+            mRaf.readFully(record);
+            Cache.Item item = decode(record);
+            if (item == null) {
+                remove(key);
+            }
+            return item;
+        } catch (IOException ex) {
+            onError(ex);
+            return null;
+        }
+    }
+
+    /**
+     * Remove an item from the index. The bytes on disk will be reclaimed on the next compaction.
+     * @param key A key
+     */
+    public synchronized void remove(String key) {
+        Entry e = mIndex.remove(key);
+        if (e != null) {
+            mLiveBytes -= e.length;
+        }
+    }
+
+    public synchronized void clear() {
+        mIndex.clear();
+        mLiveBytes = 0;
+        if (mRaf != null) {
+            try {
+                mRaf.setLength(HEADER_SIZE);
+            } catch (IOException e) {
+                onError(e);
+            }
+        } else {
+            mFile.delete();
+        }
+    }
+
+    /**
+     * Close the underlying file. The cache will reopen the file if used again.
+     */
+    public synchronized void close() {
+        if (mRaf != null) {
+            try {
+                mRaf.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            mRaf = null;
+        }
+        mIndex.clear();
+        mLiveBytes = 0;
+    }
+
+    /**
+     * Get the number of items in this cache. Note that this will open the file, if it isn't already open.
+     * @return The number of items
+     */
+    public synchronized int getItemCount() {
+        return ensureOpen() ? mIndex.size() : 0;
+    }
+
+    /**
+     * Get the number of bytes in use by the items in this cache.
+     * @return A number of bytes
+     */
+    public synchronized long getBytes() {
+        return ensureOpen() ? mLiveBytes : 0;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    private void replace(String key, Entry entry) {
+        Entry previous = mIndex.put(key, entry);
+        if (previous != null) {
+            mLiveBytes -= previous.length;
+        }
+        mLiveBytes += entry.length;
+    }
+
+    private boolean ensureOpen() {
+        if (mRaf != null) {
+            return true;
+        }
+        if (mBroken) {
+            return false;
+        }
+        try {
+            File dir = mFile.getParentFile();
+            if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Unable to create directory " + dir.getAbsolutePath());
+            }
+            mRaf = new RandomAccessFile(mFile, "rw");
+            load();
+            return true;
+        } catch (IOException e) {
+            SgnLog.e(TAG, "Unable to open " + mFile.getAbsolutePath(), e);
+            mBroken = true;
+            mRaf = null;
+            return false;
+        }
+    }
+
+    /**
+     * Rebuild the index by scanning the whole file. Items expired for longer than {@link #STALE_RETENTION} are
+     * skipped, and a corrupt tail is truncated.
+     */
+    private void load() throws IOException {
+
+        mIndex.clear();
+        mLiveBytes = 0;
+
+        long length = mRaf.length();
+        if (length < HEADER_SIZE || mRaf.readInt() != MAGIC || mRaf.readInt() != VERSION) {
+            writeHeader(mRaf);
+            return;
+        }
+
+        long retain = System.currentTimeMillis() - STALE_RETENTION;
+        long offset = HEADER_SIZE;
+        byte[] buffer = new byte[(int) Math.min(length - HEADER_SIZE, 64 * 1024)];
+        while (offset + 4 < length) {
+            mRaf.seek(offset);
+            int recordLength = mRaf.readInt();
+            if (recordLength <= 4 || offset + recordLength > length) {
+                break;
+            }
+            if (buffer.length < recordLength) {
+                buffer = new byte[recordLength];
+            }
+            mRaf.seek(offset);
+            mRaf.readFully(buffer, 0, recordLength);
+            String key = readKey(buffer, recordLength);
+            if (key == null) {
+                break;
+            }
+            long expires = readExpires(buffer);
+            if (expires >= retain) {
+                replace(key, new Entry(offset, recordLength, expires));
+            } else {
+                // an expired item, may still shadow an older version of the same key
+                remove(key);
+            }
+            offset += recordLength;
+        }
+
+        if (offset < length) {
+            SgnLog.w(TAG, "Truncating corrupt cache file at " + offset + " of " + length + " bytes");
+            mRaf.setLength(offset);
+        }
+
+        SgnLog.v(TAG, "Loaded " + mIndex.size() + " items (" + mLiveBytes / 1024 + "kb) from " + mFile.getName());
+
+    }
+
+    /**
+     * Rewrite the least recently used items to a new file, until the items fill {@link #COMPACT_TARGET} of the
+     * max size, and then swap the files.
+     */
+    private void compact() throws IOException {
+
+        long retain = System.currentTimeMillis() - STALE_RETENTION;
+        long target = (long) (mMaxBytes * COMPACT_TARGET);
+
+        // Drop long expired and least recently used items, until we're below the target
+        Iterator<Map.Entry<String, Entry>> it = mIndex.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next().getValue();
+            if (e.expires < retain || mLiveBytes + HEADER_SIZE > target) {
+                it.remove();
+                mLiveBytes -= e.length;
+            }
+        }
+
+        File tmp = new File(mFile.getAbsolutePath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+        LinkedHashMap<String, Entry> index = new LinkedHashMap<String, Entry>(mIndex.size(), 0.75f, true);
+        try {
+            out.setLength(0);
+            writeHeader(out);
+            long offset = HEADER_SIZE;
+            byte[] buffer = new byte[4096];
+            for (Map.Entry<String, Entry> me : mIndex.entrySet()) {
+                Entry e = me.getValue();
+                if (buffer.length < e.length) {
+                    buffer = new byte[e.length];
+                }
+                mRaf.seek(e.offset);
+                mRaf.readFully(buffer, 0, e.length);
+                out.write(buffer, 0, e.length);
+                index.put(me.getKey(), new Entry(offset, e.length, e.expires));
+                offset += e.length;
+            }
+        } finally {
+            out.close();
+        }
+
+        mRaf.close();
+        mRaf = null;
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+            throw new IOException("Unable to replace " + mFile.getAbsolutePath());
+        }
+        mRaf = new RandomAccessFile(mFile, "rw");
+        mIndex.clear();
+        mIndex.putAll(index);
+
+        SgnLog.d(TAG, "Compacted " + mFile.getName() + " new size: " + mRaf.length() / 1024 + "kb");
+
+    }
+
+    private void onError(IOException e) {
+        SgnLog.e(TAG, "Disk cache failed, clearing " + mFile.getAbsolutePath(), e);
+        close();
+        if (!mFile.delete()) {
+            // If we can't even delete the file, then give up on the cache
+            mBroken = true;
+        }
+    }
+
+    private static void writeHeader(RandomAccessFile raf) throws IOException {
+        raf.setLength(0);
+        raf.seek(0);
+        raf.writeInt(MAGIC);
+        raf.writeInt(VERSION);
+    }
+
+    /*
+     * Record layout:
+     * int    record length, including this field and the checksum
+     * long   expires
+     * UTF    key
+     * byte   type
+     * int    value length
+     * byte[] value
+     * UTF    etag, or an empty string
+     * UTF    last modified, or an empty string
+     * long   CRC32 of everything but the checksum itself
+     */
+
+    static byte[] encode(String key, Cache.Item item) throws IOException {
+
+        byte type;
+        byte[] value;
+        Object o = item.object;
+        if (o instanceof byte[]) {
+            type = TYPE_BYTES;
+            value = (byte[]) o;
+        } else if (o instanceof String) {
+            type = TYPE_STRING;
+            value = ((String) o).getBytes(UTF8);
+        } else if (o instanceof JSONObject) {
+            type = TYPE_JSON_OBJECT;
+            value = o.toString().getBytes(UTF8);
+        } else if (o instanceof List) {
+            type = TYPE_STRING_LIST;
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(bos);
+            List<?> list = (List<?>) o;
+            dos.writeInt(list.size());
+            for (Object s : list) {
+                if (!(s instanceof String)) {
+                    return null;
+                }
+                dos.writeUTF((String) s);
+            }
+            dos.flush();
+            value = bos.toByteArray();
+        } else {
+            return null;
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(value.length + key.length() + 32);
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeInt(0); // placeholder for the record length
+        dos.writeLong(item.expires);
+        dos.writeUTF(key);
+        dos.writeByte(type);
+        dos.writeInt(value.length);
+        dos.write(value);
+        dos.writeUTF(item.etag == null ? "" : item.etag);
+        dos.writeUTF(item.lastModified == null ? "" : item.lastModified);
+        dos.writeLong(0); // placeholder for the checksum
+        dos.flush();
+
+        byte[] record = bos.toByteArray();
+        int length = record.length;
+        putInt(record, 0, length);
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, length - 8);
+        putLong(record, length - 8, crc.getValue());
+        return record;
+
+    }
+
+    /**
+     * Decode a record into a {@link Cache.Item}.
+     * @param record The record
+     * @return An item, or {@code null} if the record is corrupt
+     */
+    static Cache.Item decode(byte[] record) throws IOException {
+
+        if (!isValid(record, record.length)) {
+            return null;
+        }
+
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(record, 4, record.length - 12));
+        long expires = dis.readLong();
+        dis.readUTF(); // key
+        byte type = dis.readByte();
+        byte[] value = new byte[dis.readInt()];
+        dis.readFully(value);
+        String etag = dis.readUTF();
+        String lastModified = dis.readUTF();
+
+        Object o;
+        switch (type) {
+            case TYPE_BYTES:
+                o = value;
+                break;
+            case TYPE_STRING:
+                o = new String(value, UTF8);
+                break;
+            case TYPE_JSON_OBJECT:
+                try {
+                    o = new JSONObject(new String(value, UTF8));
+                } catch (JSONException e) {
+                    return null;
+                }
+                break;
+            case TYPE_STRING_LIST:
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+                int size = in.readInt();
+                LinkedList<String> list = new LinkedList<String>();
+                for (int i = 0; i < size; i++) {
+                    list.add(in.readUTF());
+                }
+                o = list;
+                break;
+            default:
+                return null;
+        }
+
+        Cache.Item item = Cache.Item.fromExpiry(o, expires);
+        item.etag = etag.length() == 0 ? null : etag;
+        item.lastModified = lastModified.length() == 0 ? null : lastModified;
+        return item;
+
+    }
+
+    private static String readKey(byte[] record, int length) throws IOException {
+        if (!isValid(record, length)) {
+            return null;
+        }
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(record, 12, length - 12));
+        return dis.readUTF();
+    }
+
+    private static long readExpires(byte[] record) {
+        return getLong(record, 4);
+    }
+
+    private static boolean isValid(byte[] record, int length) {
+        if (length < 4 + 8 + 2 + 1 + 4 + 8 || getInt(record, 0) != length) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, length - 8);
+        return crc.getValue() == getLong(record, length - 8);
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    private static void putLong(byte[] b, int off, long v) {
+        putInt(b, off, (int) (v >>> 32));
+        putInt(b, off + 4, (int) v);
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    private static long getLong(byte[] b, int off) {
+        return ((long) getInt(b, off) << 32) | (getInt(b, off + 4) & 0xffffffffL);
+    }
+
+    private static class Entry {
+
+        final long offset;
+        final int length;
+        final long expires;
+
+        Entry(long offset, int length, long expires) {
+            this.offset = offset;
+            this.length = length;
+            this.expires = expires;
+        }
+
+    }
+
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk.network.impl;
+
+import com.shopgun.android.sdk.network.Delivery;
+import com.shopgun.android.sdk.network.Request;
+import com.shopgun.android.sdk.network.Response;
+
+import java.util.concurrent.Executor;
+
+public class ExecutorDelivery implements Delivery {
+
+    /**
+     * Used for posting responses, typically to a single background thread.
+     */
+    private final Executor mExecutor;
+
+    /**
+     * Creates a new response delivery interface, that delivers the response to the thread(s) of an {@link Executor}.
+     *
+     * @param executor {@link Executor} to post responses on
+     */
+    public ExecutorDelivery(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Post the Response to a Request, on to the executor, and then trigger the listener waiting for the callback.
+     *
+     * @param request made by the user
+     * @param response response response from the API fulfilling the Request
+     */
+    public void postResponse(Request<?> request, Response<?> response) {
+
+        if (request.isCanceled()) {
+            request.finish("cancelled-at-delivery");
+        } else if (request.getDelivery() != null && !ExecutorDelivery.this.equals(request.getDelivery())) {
+            // If there isn't a check, you'll end up in an infinite loop
+            request.addEvent("post-to-custom-delivery");
+            request.getDelivery().postResponse(request, response);
+        } else {
+            request.addEvent("post-response");
+            mExecutor.execute(new DeliveryRunnable(request, response));
+        }
+
+    }
+
+}
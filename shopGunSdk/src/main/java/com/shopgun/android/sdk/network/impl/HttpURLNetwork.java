@@ -45,6 +45,8 @@ public class HttpURLNetwork implements HttpStack {
 
     public static final String TAG = Constants.getTag(HttpURLNetwork.class);
 
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
     Pattern mHostPatternPrefix = Pattern.compile("^(shopgun\\.com|etilbudsavis\\.dk|api\\.etilbudsavis\\.dk|api-edge\\.etilbudsavis\\.dk|api-staging\\.etilbudsavis\\.dk).*$");
     Pattern mHostPatternPostfix = Pattern.compile(".*?(shopgun\\.com|etilbudsavis\\.dk)");
 
@@ -95,6 +97,7 @@ public class HttpURLNetwork implements HttpStack {
 
         connection.setConnectTimeout(request.getTimeOut());
         connection.setReadTimeout(request.getTimeOut());
+        // Caching, and conditional requests are handled by the SDK Cache
         connection.setUseCaches(false);
         connection.setDoInput(true);
         connection.setInstanceFollowRedirects(false);
@@ -107,6 +110,10 @@ public class HttpURLNetwork implements HttpStack {
     private void setHeaders(Request<?> request, HttpURLConnection connection) {
         HashMap<String, String> headers = new HashMap<String, String>(request.getHeaders().size());
         headers.putAll(request.getHeaders());
+        if (!headers.containsKey(HEADER_ACCEPT_ENCODING)) {
+            // Ask for gzip explicitly, the response is then decoded by NetworkImpl
+            headers.put(HEADER_ACCEPT_ENCODING, "gzip");
+        }
         for (String key : headers.keySet())
             connection.setRequestProperty(key, headers.get(key));
     }
@@ -116,15 +123,32 @@ public class HttpURLNetwork implements HttpStack {
         String method = request.getMethod().toString();
         connection.setRequestMethod(method);
 
+        byte[] body = null;
         switch (request.getMethod()) {
             case POST:
             case PUT:
-                addBodyIfExists(connection, request);
+                body = request.getBody();
                 break;
             default:
                 break;
 
         }
+
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.addRequestProperty("Content-Type", request.getBodyContentType());
+        }
+
+        // Connect explicitly to time it, if a pooled connection is reused, this is close to free
+        long start = System.nanoTime();
+        connection.connect();
+        request.getTimings().addConnect(System.nanoTime() - start);
+
+        if (body != null) {
+            DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+            out.write(body);
+            out.close();
+        }
     }
 
     private HttpResponse getHttpResponse(HttpURLConnection connection) throws IOException {
@@ -158,15 +182,4 @@ public class HttpURLNetwork implements HttpStack {
         return entity;
     }
 
-    private static void addBodyIfExists(HttpURLConnection connection, Request<?> request) throws IOException {
-        byte[] body = request.getBody();
-        if (body != null) {
-            connection.setDoOutput(true);
-            connection.addRequestProperty("Content-Type", request.getBodyContentType());
-            DataOutputStream out = new DataOutputStream(connection.getOutputStream());
-            out.write(body);
-            out.close();
-        }
-    }
-
 }
@@ -29,7 +29,6 @@ import com.shopgun.android.utils.TextUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.UnsupportedEncodingException;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -72,35 +71,37 @@ public class JsonArrayRequest extends JsonRequest<JSONArray> {
     @Override
     protected Response<JSONArray> parseNetworkResponse(NetworkResponse response) {
 
-        String jsonString = "";
         try {
-            try {
-                jsonString = new String(response.data, getParamsEncoding());
-            } catch (UnsupportedEncodingException e) {
-                jsonString = new String(response.data);
-            }
 
             Response<JSONArray> r = null;
             if (SgnUtils.isSuccess(response.statusCode)) {
-                // Parse into array if it's successful
-                JSONArray jArray = new JSONArray(jsonString);
+                // Parse into array if it's successful, reading tokens directly from the response
+                JSONArray jArray = JsonStreamHelper.readArray(response.getStream(), getParamsEncoding());
                 r = Response.fromSuccess(jArray, getCache());
                 JsonCacheHelper.cacheJSONArray(this, r.result);
 
             } else {
                 // Parse into object if it failed.
-                JSONObject jObject = new JSONObject(jsonString);
+                JSONObject jObject = JsonStreamHelper.readObject(response.getStream(), getParamsEncoding());
                 ShopGunError e = ShopGunError.fromJSON(jObject);
                 r = Response.fromError(e);
             }
 
             return r;
 
+        } catch (NetworkIOException e) {
+            // The connection failed while reading the body
+            return Response.fromError(new NetworkError(e));
         } catch (Exception e) {
             return Response.fromError(new ParseError(e, JSONArray.class));
         }
     }
 
+    @Override
+    public boolean isStreamed() {
+        return true;
+    }
+
     @Override
     public Response<JSONArray> parseCache(Cache c) {
         return JsonCacheHelper.getJSONArray(this, c);
@@ -27,7 +27,7 @@ import com.shopgun.android.sdk.utils.SgnUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 public class JsonObjectRequest extends JsonRequest<JSONObject> {
@@ -47,17 +47,9 @@ public class JsonObjectRequest extends JsonRequest<JSONObject> {
     @Override
     protected Response<JSONObject> parseNetworkResponse(NetworkResponse response) {
 
-        String jsonString = null;
-
         try {
 
-            try {
-                jsonString = new String(response.data, getParamsEncoding());
-            } catch (UnsupportedEncodingException e) {
-                jsonString = new String(response.data);
-            }
-
-            JSONObject item = new JSONObject(jsonString);
+            JSONObject item = JsonStreamHelper.readObject(response.getStream(), getParamsEncoding());
             Response<JSONObject> r = null;
             if (SgnUtils.isSuccess(response.statusCode)) {
                 JsonCacheHelper.cacheJSONObject(this, item);
@@ -72,10 +64,20 @@ public class JsonObjectRequest extends JsonRequest<JSONObject> {
 
         } catch (JSONException e) {
             return Response.fromError(new ParseError(e, JSONObject.class));
+        } catch (NetworkIOException e) {
+            // The connection failed while reading the body
+            return Response.fromError(new NetworkError(e));
+        } catch (IOException e) {
+            return Response.fromError(new ParseError(e, JSONObject.class));
         }
 
     }
 
+    @Override
+    public boolean isStreamed() {
+        return true;
+    }
+
     @Override
     public long getCacheTTL() {
         return CACHE_TTL;
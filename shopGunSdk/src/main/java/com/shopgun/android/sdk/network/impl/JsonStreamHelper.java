@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk.network.impl;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.shopgun.android.sdk.network.NetworkResponse;
+import com.shopgun.android.sdk.utils.Constants;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Reads {@link JSONArray} and {@link JSONObject} directly from a stream of tokens.
+ *
+ * <p>Parsing with {@code new JSONArray(new String(data))} first copies the whole response body into a
+ * {@link String}, and then tokenizes that string. For list responses (offers, catalogs, e.t.c.) that's a copy
+ * of the whole body, which is only needed for the duration of the parse. Reading the tokens from the stream,
+ * only keeps a small buffer besides the resulting objects, which are identical to the ones org.json creates.
+ * Combined with a {@link NetworkResponse#isStreamed() streamed} response, the body is never held in memory at all.</p>
+ */
+public class JsonStreamHelper {
+
+    public static final String TAG = Constants.getTag(JsonStreamHelper.class);
+
+    private JsonStreamHelper() {
+        // utility class
+    }
+
+    /**
+     * Read a JSON array from the given stream. The stream is closed when done.
+     * @param in An {@link InputStream}
+     * @param charset The charset of the stream
+     * @return A {@link JSONArray}
+     * @throws IOException If the stream can't be read, or isn't valid json
+     * @throws JSONException If the stream doesn't contain an array
+     */
+    public static JSONArray readArray(InputStream in, String charset) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, charset));
+        try {
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                throw new JSONException("Expected a json array, but found " + reader.peek());
+            }
+            JSONArray array = readArray(reader);
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JSONException("Unexpected data after json array");
+            }
+            return array;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Read a JSON object from the given stream. The stream is closed when done.
+     * @param in An {@link InputStream}
+     * @param charset The charset of the stream
+     * @return A {@link JSONObject}
+     * @throws IOException If the stream can't be read, or isn't valid json
+     * @throws JSONException If the stream doesn't contain an object
+     */
+    public static JSONObject readObject(InputStream in, String charset) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, charset));
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                throw new JSONException("Expected a json object, but found " + reader.peek());
+            }
+            JSONObject object = readObject(reader);
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JSONException("Unexpected data after json object");
+            }
+            return object;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static JSONArray readArray(JsonReader reader) throws IOException, JSONException {
+        JSONArray array = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            array.put(readValue(reader));
+        }
+        reader.endArray();
+        return array;
+    }
+
+    private static JSONObject readObject(JsonReader reader) throws IOException, JSONException {
+        JSONObject object = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            object.put(name, readValue(reader));
+        }
+        reader.endObject();
+        return object;
+    }
+
+    private static Object readValue(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+            case BEGIN_ARRAY:
+                return readArray(reader);
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+                return toNumber(reader.nextString());
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                throw new JSONException("Unexpected token " + reader.peek());
+        }
+    }
+
+    /**
+     * Convert a number literal to the same type as org.json would, that is an {@link Integer} or a {@link Long} if
+     * it fits, else a {@link Double}.
+     * @param literal A number literal
+     * @return A {@link Number}
+     */
+    private static Number toNumber(String literal) {
+        if (literal.indexOf('.') == -1 && literal.indexOf('e') == -1 && literal.indexOf('E') == -1) {
+            try {
+                long l = Long.parseLong(literal);
+                if (l <= Integer.MAX_VALUE && l >= Integer.MIN_VALUE) {
+                    return (int) l;
+                }
+                return l;
+            } catch (NumberFormatException e) {
+                // Too large for a long, fall through
+            }
+        }
+        return Double.valueOf(literal);
+    }
+
+}
@@ -21,6 +21,7 @@ import com.shopgun.android.sdk.network.Cache;
 import com.shopgun.android.sdk.network.Request;
 import com.shopgun.android.sdk.network.Request.Method;
 import com.shopgun.android.sdk.network.Response;
+import com.shopgun.android.sdk.network.StaleCache;
 import com.shopgun.android.sdk.utils.Constants;
 
 import java.util.Collections;
@@ -29,7 +30,7 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
-public class MemoryCache implements Cache {
+public class MemoryCache implements StaleCache {
 
     public static final String TAG = Constants.getTag(MemoryCache.class);
 
@@ -122,10 +123,8 @@ public class MemoryCache implements Cache {
         synchronized (MemoryCache.class) {
 
             Cache.Item c = mCache.get(key);
-            if (c == null) {
-                return null;
-            } else if (c.isExpired()) {
-                mCache.remove(key);
+            if (c == null || c.isExpired()) {
+                // Expired items are kept for stale-while-revalidate, until they are cleaned out
                 return null;
             }
             return c;
@@ -134,6 +133,12 @@ public class MemoryCache implements Cache {
 
     }
 
+    public Cache.Item getStale(String key) {
+        synchronized (MemoryCache.class) {
+            return mCache.get(key);
+        }
+    }
+
     public void clear() {
         synchronized (MemoryCache.class) {
             mCache.clear();
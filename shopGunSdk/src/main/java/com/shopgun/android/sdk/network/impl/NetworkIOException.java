@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk.network.impl;
+
+import java.io.IOException;
+
+/**
+ * An {@link IOException} thrown by the stream of a streamed response, when the connection fails while the body is
+ * being read, e.g. on a timeout or a reset. It lets a request tell a failing connection, that should be reported as
+ * a {@link NetworkError}, apart from a body that can't be parsed.
+ */
+public class NetworkIOException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public NetworkIOException(IOException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+}
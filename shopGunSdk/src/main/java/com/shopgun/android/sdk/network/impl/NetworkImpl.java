@@ -23,73 +23,152 @@ import com.shopgun.android.sdk.network.Request;
 import com.shopgun.android.sdk.network.ShopGunError;
 import com.shopgun.android.sdk.utils.Constants;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.util.ByteArrayBuffer;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 public class NetworkImpl implements Network {
 
     public static final String TAG = Constants.getTag(NetworkImpl.class);
 
-    private static final int BUFFER_SIZE = 0x1000; // 4K
+    private static final int BUFFER_SIZE = 0x2000; // 8K
+
+    /** Enough buffers for the default number of network dispatchers */
+    private static final int MAX_POOLED_BUFFERS = 4;
 
     HttpStack mStack;
 
+    private final ByteArrayPool mPool = new ByteArrayPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+
     public NetworkImpl(HttpStack stack) {
         mStack = stack;
     }
 
-    private static byte[] entityToBytes(HttpEntity entity) throws IllegalStateException, IOException {
+    /**
+     * Get the content of the entity, decoding it if it's gzip encoded.
+     */
+    private static InputStream getContent(HttpEntity entity) throws IOException {
+        InputStream is = entity.getContent();
+        if (is != null && isGzip(entity)) {
+            is = new GZIPInputStream(is);
+        }
+        return is;
+    }
 
-        // Find best buffer size
-        int init_buf = 0 <= entity.getContentLength() ? (int) entity.getContentLength() : BUFFER_SIZE;
+    /**
+     * Responses to conditional requests (304), 204 and 1xx responses never have a body, but may still carry
+     * the headers of one, e.g. {@code Content-Encoding: gzip}.
+     */
+    private static boolean hasBody(int statusCode, HttpEntity entity) {
+        return entity != null
+                && statusCode >= HttpURLConnection.HTTP_OK
+                && statusCode != HttpURLConnection.HTTP_NO_CONTENT
+                && statusCode != HttpURLConnection.HTTP_NOT_MODIFIED
+                && entity.getContentLength() != 0;
+    }
 
-        ByteArrayBuffer bytes = new ByteArrayBuffer(init_buf);
+    private static boolean isGzip(HttpEntity entity) {
+        Header encoding = entity.getContentEncoding();
+        return encoding != null && "gzip".equalsIgnoreCase(encoding.getValue());
+    }
 
-        InputStream is = entity.getContent();
-        if (is == null)
+    private static void closeQuietly(HttpEntity entity) {
+        try {
+            InputStream is = entity.getContent();
+            if (is != null) {
+                is.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Read the whole stream into a byte array, through a pooled read buffer. If the length of the content is known,
+     * it's read directly into an array of that size, otherwise it's collected and copied once.
+     */
+    private byte[] toBytes(InputStream is, long contentLength) throws IOException {
+
+        try {
+
+            if (0 <= contentLength && contentLength <= Integer.MAX_VALUE) {
+                byte[] bytes = new byte[(int) contentLength];
+                int offset = 0;
+                int c;
+                while (offset < bytes.length && (c = is.read(bytes, offset, bytes.length - offset)) != -1) {
+                    offset += c;
+                }
+                return offset == bytes.length ? bytes : Arrays.copyOf(bytes, offset);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFFER_SIZE);
+            byte[] buf = mPool.getBuf();
+            try {
+                int c;
+                while ((c = is.read(buf)) != -1) {
+                    bytes.write(buf, 0, c);
+                }
+            } finally {
+                mPool.returnBuf(buf);
+            }
             return bytes.toByteArray();
 
-        byte[] buf = new byte[init_buf];
-        int c = -1;
-        while ((c = is.read(buf)) != -1) {
-            bytes.append(buf, 0, c);
+        } finally {
+            is.close();
         }
 
-        return bytes.toByteArray();
     }
 
     public NetworkResponse performRequest(Request<?> request) throws ShopGunError {
 
-        byte[] content;
         Map<String, String> responseHeaders = new HashMap<String, String>();
         try {
 
+            request.getTimings().markRequestStart();
             HttpResponse resp = mStack.performNetworking(request);
+            request.getTimings().markResponseStart();
 
-            if (resp.getEntity() == null) {
-                // add 0-byte for to mock no-content
-                content = new byte[0];
-            } else {
-                request.addEvent("reading-input");
-                content = entityToBytes(resp.getEntity());
+            for (Header h : resp.getAllHeaders()) {
+                responseHeaders.put(h.getName(), h.getValue());
             }
 
-            int respLength = content.length;
+            int statusCode = resp.getStatusLine().getStatusCode();
             int bodyLength = (request.getBody() == null ? 0 : request.getBody().length);
 
-            request.stats(respLength, bodyLength);
+            HttpEntity entity = resp.getEntity();
+            InputStream is = (hasBody(statusCode, entity) ? getContent(entity) : null);
+            if (is == null && entity != null) {
+                closeQuietly(entity);
+            }
 
-            for (org.apache.http.Header h : resp.getAllHeaders()) {
-                responseHeaders.put(h.getName(), h.getValue());
+            if (is == null) {
+                // add 0-byte for to mock no-content
+                request.stats(0, bodyLength);
+                request.getTimings().markResponseEnd();
+                return new NetworkResponse(statusCode, new byte[0], responseHeaders);
+            }
+
+            if (request.isStreamed()) {
+                request.addEvent("streaming-input");
+                return NetworkResponse.fromStream(statusCode, new StatsInputStream(is, request, bodyLength), responseHeaders);
             }
 
-            return new NetworkResponse(resp.getStatusLine().getStatusCode(), content, responseHeaders);
+            request.addEvent("reading-input");
+            // The content length of a gzip'ed entity is the compressed length
+            byte[] content = toBytes(is, isGzip(entity) ? -1 : entity.getContentLength());
+            request.stats(content.length, bodyLength);
+            request.getTimings().markResponseEnd();
+            return new NetworkResponse(statusCode, content, responseHeaders);
 
         } catch (Exception e) {
             throw new NetworkError(e);
@@ -97,4 +176,59 @@ public class NetworkImpl implements Network {
 
     }
 
+    /**
+     * Counts the bytes read from a streamed response, and reports them to the request once closed. A failing read
+     * is thrown as a {@link NetworkIOException}, so it isn't mistaken for a parse error.
+     */
+    private static class StatsInputStream extends FilterInputStream {
+
+        private final Request<?> mRequest;
+        private final int mBodyLength;
+        private int mCount = 0;
+        private boolean mClosed = false;
+
+        StatsInputStream(InputStream in, Request<?> request, int bodyLength) {
+            super(in);
+            mRequest = request;
+            mBodyLength = bodyLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int b = super.read();
+                if (b != -1) {
+                    mCount++;
+                }
+                return b;
+            } catch (IOException e) {
+                throw new NetworkIOException(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                int c = super.read(b, off, len);
+                if (c > 0) {
+                    mCount += c;
+                }
+                return c;
+            } catch (IOException e) {
+                throw new NetworkIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!mClosed) {
+                mClosed = true;
+                mRequest.stats(mCount, mBodyLength);
+                mRequest.getTimings().markResponseEnd();
+            }
+            super.close();
+        }
+
+    }
+
 }
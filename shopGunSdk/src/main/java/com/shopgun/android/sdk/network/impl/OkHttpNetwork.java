@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk.network.impl;
+
+import com.shopgun.android.sdk.network.HttpStack;
+import com.shopgun.android.sdk.network.RedirectProtocol;
+import com.shopgun.android.sdk.network.Request;
+import com.shopgun.android.sdk.utils.Constants;
+import com.shopgun.android.sdk.utils.SgnUtils;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * A {@link HttpStack} performing requests on an {@link OkHttpClient}.
+ *
+ * <p>Given the shared client from {@link com.shopgun.android.sdk.ShopGun#getClient()}, API requests share
+ * connection pool, dispatcher and DNS with the rest of the SDK (events, GraphQL), and are multiplexed over HTTP/2
+ * where the server supports it. OkHttp requests and decodes gzip transparently, so the body handed to
+ * {@link NetworkImpl} is always decoded.</p>
+ *
+ * <p>OkHttp is told not to follow redirects, so they are still resolved by the {@link RedirectProtocol}.</p>
+ */
+public class OkHttpNetwork implements HttpStack {
+
+    public static final String TAG = Constants.getTag(OkHttpNetwork.class);
+
+    private static final ProtocolVersion HTTP_1_1 = new ProtocolVersion("HTTP", 1, 1);
+
+    private final OkHttpClient mClient;
+    private final RedirectProtocol mRedirectProtocol;
+
+    /** The last client derived for a timeout, most requests use the same timeout */
+    private volatile OkHttpClient mTimeoutClient;
+
+    public OkHttpNetwork(OkHttpClient client, RedirectProtocol redirectProtocol) {
+        if (client == null || redirectProtocol == null) {
+            throw new IllegalArgumentException("OkHttpClient and RedirectProtocol must not be null.");
+        }
+        // newBuilder() shares the connection pool, dispatcher and interceptors with the given client
+        mClient = client.newBuilder()
+                .followRedirects(false)
+                .followSslRedirects(false)
+                .eventListenerFactory(new ConnectTimingFactory())
+                .build();
+        mRedirectProtocol = redirectProtocol;
+    }
+
+    public HttpResponse performNetworking(Request<?> request) throws IOException {
+        ArrayList<URL> urls = new ArrayList<URL>();
+        urls.add(new URL(SgnUtils.requestToUrlAndQueryString(request)));
+        return performNetworking(request, getClient(request), urls);
+    }
+
+    private HttpResponse performNetworking(Request<?> request, OkHttpClient client, ArrayList<URL> urls) throws IOException {
+
+        URL url = urls.get(urls.size()-1);
+        Response response = client.newCall(buildRequest(request, url)).execute();
+        ResponseBody body = response.body();
+
+        try {
+
+            BasicHttpResponse httpResponse = new BasicHttpResponse(HTTP_1_1, response.code(), response.message());
+            Headers headers = response.headers();
+            for (int i = 0; i < headers.size(); i++) {
+                httpResponse.addHeader(headers.name(i), headers.value(i));
+            }
+
+            if (mRedirectProtocol.isRedirectRequested(request, httpResponse, urls)) {
+                URL redirectUrl = mRedirectProtocol.getRedirectLocation(request, httpResponse, urls);
+                if (redirectUrl != null) {
+                    closeQuietly(body);
+                    urls.add(redirectUrl);
+                    return performNetworking(request, client, urls);
+                }
+            }
+
+            if (urls.size() > 1) {
+                mRedirectProtocol.onRedirectComplete(request, urls);
+            }
+
+            if (body != null) {
+                BasicHttpEntity entity = new BasicHttpEntity();
+                entity.setContent(body.byteStream());
+                entity.setContentLength(body.contentLength());
+                MediaType type = body.contentType();
+                if (type != null) {
+                    entity.setContentType(type.toString());
+                }
+                // Only present if the body wasn't decoded by OkHttp, e.g. if the request set Accept-Encoding itself
+                entity.setContentEncoding(response.header("Content-Encoding"));
+                httpResponse.setEntity(entity);
+            }
+
+            return httpResponse;
+
+        } catch (IOException e) {
+            closeQuietly(body);
+            throw e;
+        } catch (RuntimeException e) {
+            closeQuietly(body);
+            throw e;
+        }
+
+    }
+
+    /**
+     * Get a client with the timeouts of the given request. Derived clients still share the connection pool.
+     */
+    private OkHttpClient getClient(Request<?> request) {
+        int timeout = request.getTimeOut();
+        if (hasTimeout(mClient, timeout)) {
+            return mClient;
+        }
+        OkHttpClient client = mTimeoutClient;
+        if (client == null || !hasTimeout(client, timeout)) {
+            client = mClient.newBuilder()
+                    .connectTimeout(timeout, TimeUnit.MILLISECONDS)
+                    .readTimeout(timeout, TimeUnit.MILLISECONDS)
+                    .build();
+            mTimeoutClient = client;
+        }
+        return client;
+    }
+
+    private static boolean hasTimeout(OkHttpClient client, int timeout) {
+        return client.connectTimeoutMillis() == timeout && client.readTimeoutMillis() == timeout;
+    }
+
+    private static okhttp3.Request buildRequest(Request<?> request, URL url) {
+
+        okhttp3.Request.Builder builder = new okhttp3.Request.Builder().url(url).tag(Request.class, request);
+        for (Map.Entry<String, String> e : request.getHeaders().entrySet()) {
+            if (e.getKey() != null && e.getValue() != null) {
+                builder.header(e.getKey(), e.getValue());
+            }
+        }
+
+        switch (request.getMethod()) {
+            case POST:
+            case PUT:
+                byte[] data = request.getBody();
+                MediaType type = MediaType.parse(request.getBodyContentType());
+                builder.method(request.getMethod().toString(), RequestBody.create(type, data == null ? new byte[0] : data));
+                break;
+            case DELETE:
+                builder.delete();
+                break;
+            default:
+                builder.get();
+                break;
+        }
+
+        return builder.build();
+
+    }
+
+    /**
+     * Reports the time spent on DNS lookup and connecting to the {@link com.shopgun.android.sdk.network.RequestTimings}
+     * of the request, the call was made for.
+     */
+    private static class ConnectTimingFactory implements EventListener.Factory {
+
+        @Override
+        public EventListener create(Call call) {
+            Request<?> request = call.request().tag(Request.class);
+            return request == null ? EventListener.NONE : new ConnectTimingListener(request);
+        }
+    }
+
+    private static class ConnectTimingListener extends EventListener {
+
+        private final Request<?> mRequest;
+        private long mStart = 0;
+
+        ConnectTimingListener(Request<?> request) {
+            mRequest = request;
+        }
+
+        private void start() {
+            if (mStart == 0) {
+                mStart = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            start();
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            start();
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            if (mStart != 0) {
+                mRequest.getTimings().addConnect(System.nanoTime() - mStart);
+                mStart = 0;
+            }
+        }
+    }
+
+    private static void closeQuietly(ResponseBody body) {
+        if (body != null) {
+            body.close();
+        }
+    }
+
+}
@@ -0,0 +1,387 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk.network.impl;
+
+import com.shopgun.android.sdk.log.SgnLog;
+import com.shopgun.android.sdk.network.Cache;
+import com.shopgun.android.sdk.network.Request;
+import com.shopgun.android.sdk.network.Request.Method;
+import com.shopgun.android.sdk.network.Response;
+import com.shopgun.android.sdk.network.StaleCache;
+import com.shopgun.android.sdk.utils.Constants;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Cache} that is bounded by the (estimated) number of bytes it holds, rather than the number of items.
+ *
+ * <p>Keys are spread across a number of independently locked segments, so the {@link com.shopgun.android.sdk.network.CacheDispatcher}
+ * and the {@link com.shopgun.android.sdk.network.NetworkDispatcher NetworkDispatchers} rarely contend for the same lock.
+ * Each segment owns an equal share of the byte budget, and evicts in least-recently-used order once the share is exceeded.</p>
+ *
+ * <p>Expired items aren't returned from {@link #get(String)}, but they are kept (and count towards the limit)
+ * until they are evicted, so they can be used for stale-while-revalidate.</p>
+ */
+public class SegmentedLruCache implements StaleCache {
+
+    public static final String TAG = Constants.getTag(SegmentedLruCache.class);
+
+    /** Default number of segments, must be a power of two */
+    private static final int DEFAULT_SEGMENT_COUNT = 8;
+
+    /** Approximate overhead of a cache entry, its key and the map node holding it */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    /** Approximate overhead of a single java object */
+    private static final int OBJECT_OVERHEAD = 16;
+
+    private final Segment[] mSegments;
+    private final int mSegmentMask;
+    private final long mMaxBytes;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mPutCount = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
+
+    /**
+     * Create a new cache, limited to an eighth of the max heap size, and the default number of segments.
+     */
+    public SegmentedLruCache() {
+        this(Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    /**
+     * Create a new cache, with the default number of segments.
+     * @param maxBytes The limit in bytes
+     */
+    public SegmentedLruCache(long maxBytes) {
+        this(maxBytes, DEFAULT_SEGMENT_COUNT);
+    }
+
+    /**
+     * Create a new cache.
+     * @param maxBytes The limit in bytes
+     * @param segmentCount The number of segments to split keys across. Will be rounded up to the nearest power of two.
+     */
+    public SegmentedLruCache(long maxBytes, int segmentCount) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        if (maxBytes > Runtime.getRuntime().maxMemory()) {
+            throw new IllegalArgumentException("maxBytes cannot be more than max heap size");
+        }
+        if (segmentCount <= 0) {
+            throw new IllegalArgumentException("segmentCount must be positive");
+        }
+        int count = 1;
+        while (count < segmentCount) {
+            count <<= 1;
+        }
+        mMaxBytes = maxBytes;
+        mSegmentMask = count - 1;
+        mSegments = new Segment[count];
+        long segmentBytes = Math.max(1, maxBytes / count);
+        for (int i = 0; i < count; i++) {
+            mSegments[i] = new Segment(segmentBytes);
+        }
+        SgnLog.v(TAG, "New memory limit: " + maxBytes / 1024 + "kb in " + count + " segments");
+    }
+
+    public void put(Request<?> request, Response<?> response) {
+
+        // If the request is cacheable
+        if (request.getMethod() == Method.GET && request.isCacheable() && !request.isCacheHit() && response.cache != null) {
+            request.addEvent("add-response-to-cache");
+            putAll(response.cache);
+        }
+
+    }
+
+    /**
+     * Add a collection of items to the cache, bypassing the checks performed on a {@link Request}.
+     * @param items The items to add
+     */
+    public void putAll(Map<String, Cache.Item> items) {
+        for (Map.Entry<String, Cache.Item> e : items.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Add a single item to the cache.
+     * @param key A key
+     * @param item The item to add
+     */
+    public void put(String key, Cache.Item item) {
+        if (key == null || item == null) {
+            return;
+        }
+        if (item.size <= 0) {
+            item.size = sizeOf(key, item.object);
+        }
+        mPutCount.incrementAndGet();
+        segmentFor(key).put(key, item);
+    }
+
+    public Cache.Item get(String key) {
+        if (key == null) {
+            return null;
+        }
+        Cache.Item item = segmentFor(key).get(key);
+        if (item == null || item.isExpired()) {
+            mMissCount.incrementAndGet();
+            return null;
+        }
+        mHitCount.incrementAndGet();
+        return item;
+    }
+
+    public Cache.Item getStale(String key) {
+        if (key == null) {
+            return null;
+        }
+        return segmentFor(key).get(key);
+    }
+
+    /**
+     * Remove a single item from the cache.
+     * @param key A key
+     */
+    public void remove(String key) {
+        if (key != null) {
+            segmentFor(key).remove(key);
+        }
+    }
+
+    public void clear() {
+        for (Segment s : mSegments) {
+            s.clear();
+        }
+    }
+
+    /**
+     * Get the upper limit of bytes this cache may hold.
+     * @return A number of bytes
+     */
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Get the estimated number of bytes currently held by this cache.
+     * @return A number of bytes
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (Segment s : mSegments) {
+            bytes += s.bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Get the number of items currently held by this cache.
+     * @return A number of items
+     */
+    public int getItemCount() {
+        int count = 0;
+        for (Segment s : mSegments) {
+            count += s.count();
+        }
+        return count;
+    }
+
+    /**
+     * Get a snapshot of the counters of this cache.
+     * @return A {@link Stats} object
+     */
+    public Stats getStats() {
+        return new Stats(mHitCount.get(), mMissCount.get(), mPutCount.get(),
+                mEvictionCount.get(), getItemCount(), getBytes(), mMaxBytes);
+    }
+
+    /**
+     * Reset the hit, miss, put and eviction counters.
+     */
+    public void resetStats() {
+        mHitCount.set(0);
+        mMissCount.set(0);
+        mPutCount.set(0);
+        mEvictionCount.set(0);
+    }
+
+    private Segment segmentFor(String key) {
+        // spread the hash, to avoid keys with the same prefix clustering in one segment
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return mSegments[h & mSegmentMask];
+    }
+
+    /**
+     * Estimate the number of bytes a given entry occupies on the heap.
+     * @param key The key of the entry
+     * @param object The cached object
+     * @return An estimated size in bytes
+     */
+    protected long sizeOf(String key, Object object) {
+        return ENTRY_OVERHEAD + sizeOf(key) + sizeOf(object);
+    }
+
+    static long sizeOf(Object o) {
+        if (o == null) {
+            return 0;
+        } else if (o instanceof String) {
+            return OBJECT_OVERHEAD + 2 * ((String) o).length();
+        } else if (o instanceof byte[]) {
+            return OBJECT_OVERHEAD + ((byte[]) o).length;
+        } else if (o instanceof JSONObject) {
+            JSONObject object = (JSONObject) o;
+            long size = OBJECT_OVERHEAD;
+            Iterator<String> it = object.keys();
+            while (it.hasNext()) {
+                String k = it.next();
+                size += OBJECT_OVERHEAD + sizeOf(k) + sizeOf(object.opt(k));
+            }
+            return size;
+        } else if (o instanceof JSONArray) {
+            JSONArray array = (JSONArray) o;
+            long size = OBJECT_OVERHEAD;
+            for (int i = 0; i < array.length(); i++) {
+                size += 4 + sizeOf(array.opt(i));
+            }
+            return size;
+        } else if (o instanceof Collection) {
+            long size = OBJECT_OVERHEAD;
+            for (Object e : (Collection<?>) o) {
+                size += OBJECT_OVERHEAD + sizeOf(e);
+            }
+            return size;
+        }
+        // Boxed primitives, Boolean, JSONObject.NULL e.t.c.
+        return OBJECT_OVERHEAD;
+    }
+
+    /**
+     * A single lock-guarded LRU map, with a byte budget of its own.
+     */
+    private class Segment {
+
+        private final LinkedHashMap<String, Cache.Item> mMap;
+        private final long mMaxBytes;
+        private long mBytes = 0;
+
+        Segment(long maxBytes) {
+            mMaxBytes = maxBytes;
+            mMap = new LinkedHashMap<String, Cache.Item>(16, 0.75f, true);
+        }
+
+        synchronized Cache.Item get(String key) {
+            return mMap.get(key);
+        }
+
+        synchronized void put(String key, Cache.Item item) {
+            Cache.Item previous = mMap.put(key, item);
+            if (previous != null) {
+                mBytes -= previous.size;
+            }
+            mBytes += item.size;
+            trimToSize();
+        }
+
+        synchronized void remove(String key) {
+            Cache.Item previous = mMap.remove(key);
+            if (previous != null) {
+                mBytes -= previous.size;
+            }
+        }
+
+        synchronized void clear() {
+            mMap.clear();
+            mBytes = 0;
+        }
+
+        synchronized long bytes() {
+            return mBytes;
+        }
+
+        synchronized int count() {
+            return mMap.size();
+        }
+
+        private void trimToSize() {
+            // least recently accessed item will be the first one iterated
+            Iterator<Map.Entry<String, Cache.Item>> it = mMap.entrySet().iterator();
+            while (mBytes > mMaxBytes && it.hasNext()) {
+                Cache.Item item = it.next().getValue();
+                it.remove();
+                mBytes -= item.size;
+                mEvictionCount.incrementAndGet();
+            }
+        }
+
+    }
+
+    /**
+     * An immutable snapshot of the counters in a {@link SegmentedLruCache}.
+     */
+    public static class Stats {
+
+        public final long hitCount;
+        public final long missCount;
+        public final long putCount;
+        public final long evictionCount;
+        public final int itemCount;
+        public final long bytes;
+        public final long maxBytes;
+
+        Stats(long hitCount, long missCount, long putCount, long evictionCount, int itemCount, long bytes, long maxBytes) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.putCount = putCount;
+            this.evictionCount = evictionCount;
+            this.itemCount = itemCount;
+            this.bytes = bytes;
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * Get the ratio of lookups that resulted in a hit.
+         * @return A number between 0 and 1
+         */
+        public double hitRate() {
+            long total = hitCount + missCount;
+            return total == 0 ? 0 : (double) hitCount / (double) total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "Stats[hits=%d, misses=%d, puts=%d, evictions=%d, items=%d, bytes=%d/%d]",
+                    hitCount, missCount, putCount, evictionCount, itemCount, bytes, maxBytes);
+        }
+
+    }
+
+}
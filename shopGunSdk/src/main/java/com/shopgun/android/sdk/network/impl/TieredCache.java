@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk.network.impl;
+
+import android.content.Context;
+
+import com.shopgun.android.sdk.network.Cache;
+import com.shopgun.android.sdk.network.Request;
+import com.shopgun.android.sdk.network.Response;
+import com.shopgun.android.sdk.network.StaleCache;
+import com.shopgun.android.sdk.utils.Constants;
+
+import java.io.File;
+
+/**
+ * A two-level {@link Cache}, with a {@link SegmentedLruCache} in front of a {@link DiskCache}.
+ *
+ * <p>Responses are written to both tiers. Lookups go to memory first, and items found on disk are
+ * promoted to memory, so repeated lookups don't touch the file. This allows e.g. catalog and offer
+ * lists to be served from cache right after a cold start.</p>
+ *
+ * <p>To enable it, set it on the builder:</p>
+ * <code>new ShopGun.Builder(application).setCache(new TieredCache(application)).setInstance();</code>
+ */
+public class TieredCache implements StaleCache {
+
+    public static final String TAG = Constants.getTag(TieredCache.class);
+
+    private static final String DEFAULT_FILE_NAME = "sgn-request-cache";
+
+    private final SegmentedLruCache mMemory;
+    private final DiskCache mDisk;
+
+    /**
+     * Create a new cache with the default memory limit, and a {@link DiskCache} of
+     * {@link DiskCache#DEFAULT_MAX_BYTES default size} in the apps cache directory.
+     * @param context A context
+     */
+    public TieredCache(Context context) {
+        this(context, DiskCache.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Create a new cache with the default memory limit, and a {@link DiskCache} in the apps cache directory.
+     * @param context A context
+     * @param maxDiskBytes The max size of the disk cache in bytes
+     */
+    public TieredCache(Context context, long maxDiskBytes) {
+        this(new SegmentedLruCache(), new DiskCache(new File(context.getCacheDir(), DEFAULT_FILE_NAME), maxDiskBytes));
+    }
+
+    public TieredCache(SegmentedLruCache memory, DiskCache disk) {
+        if (memory == null || disk == null) {
+            throw new IllegalArgumentException("Memory and disk cache must not be null.");
+        }
+        mMemory = memory;
+        mDisk = disk;
+    }
+
+    public void put(Request<?> request, Response<?> response) {
+        mMemory.put(request, response);
+        mDisk.put(request, response);
+    }
+
+    public Cache.Item get(String key) {
+        Cache.Item item = mMemory.get(key);
+        if (item == null) {
+            item = mDisk.get(key);
+            if (item != null) {
+                mMemory.put(key, item);
+            }
+        }
+        return item;
+    }
+
+    public Cache.Item getStale(String key) {
+        Cache.Item item = mMemory.getStale(key);
+        if (item == null) {
+            item = mDisk.getStale(key);
+            if (item != null) {
+                mMemory.put(key, item);
+            }
+        }
+        return item;
+    }
+
+    public void clear() {
+        mMemory.clear();
+        mDisk.clear();
+    }
+
+    public SegmentedLruCache getMemoryCache() {
+        return mMemory;
+    }
+
+    public DiskCache getDiskCache() {
+        return mDisk;
+    }
+
+}
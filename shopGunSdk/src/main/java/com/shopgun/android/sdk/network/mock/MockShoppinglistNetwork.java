@@ -0,0 +1,384 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk.network.mock;
+
+import com.shopgun.android.sdk.model.Share;
+import com.shopgun.android.sdk.model.Shoppinglist;
+import com.shopgun.android.sdk.model.ShoppinglistItem;
+import com.shopgun.android.sdk.network.NetworkResponse;
+import com.shopgun.android.sdk.network.Request;
+import com.shopgun.android.sdk.network.ShopGunError;
+import com.shopgun.android.sdk.utils.Constants;
+import com.shopgun.android.sdk.utils.ListUtils;
+import com.shopgun.android.sdk.utils.SgnJson;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fake of the shopping list part of the ShopGun API v2, that keeps the lists, items and shares
+ * of each user in memory.
+ *
+ * <p>Other devices editing the same lists, are simulated with {@link #simulateDevice(int, Random, int)},
+ * which edits the server state directly, just like another device syncing it's changes would. Requests
+ * can be made to fail randomly with {@link #setErrorRate(float)}, and the requests are counted, so
+ * the number of requests used by a sync can be measured.</p>
+ *
+ * <p>This class is thread safe.</p>
+ */
+public class MockShoppinglistNetwork extends MockNetwork {
+
+    public static final String TAG = Constants.getTag(MockShoppinglistNetwork.class);
+
+    private static final String PREFIX = "/v2/users/";
+
+    private final HashMap<Integer, Backend> mBackends = new HashMap<Integer, Backend>();
+    private final Random mRandom = new Random();
+    private float mErrorRate = 0;
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mWrites = new AtomicInteger();
+    private final AtomicInteger mErrors = new AtomicInteger();
+    private final AtomicInteger mInFlight = new AtomicInteger();
+
+    @Override
+    public NetworkResponse performRequest(Request<?> request) throws ShopGunError {
+        mInFlight.incrementAndGet();
+        try {
+            super.performRequest(request);
+            mRequests.incrementAndGet();
+            String url = request.getUrl();
+            int start = url.indexOf(PREFIX);
+            if (start == -1) {
+                return new MockUnsupportedNetworkResponse(request);
+            }
+            synchronized (this) {
+                if (mErrorRate > 0 && mRandom.nextFloat() < mErrorRate) {
+                    mErrors.incrementAndGet();
+                    return error(500, "Simulated server error");
+                }
+                int end = url.indexOf('?', start);
+                String[] path = url.substring(start + PREFIX.length(), end == -1 ? url.length() : end).split("/");
+                return handle(request, path);
+            }
+        } catch (JSONException e) {
+            return error(400, e.getMessage());
+        } catch (UnsupportedEncodingException e) {
+            return error(400, e.getMessage());
+        } finally {
+            mInFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Handle a request, where the path is split into: {user_id}/shoppinglists/{list_uuid}/{type}/{id}
+     */
+    private NetworkResponse handle(Request<?> request, String[] path) throws JSONException, UnsupportedEncodingException {
+
+        if (path.length < 2 || !"shoppinglists".equals(path[1])) {
+            return new MockUnsupportedNetworkResponse(request);
+        }
+        Backend b = getBackend(Integer.valueOf(path[0]));
+        Request.Method method = request.getMethod();
+        if (method != Request.Method.GET) {
+            mWrites.incrementAndGet();
+        }
+
+        if (path.length == 2) {
+            return ok(new JSONArray(b.lists.values()));
+        }
+
+        String listId = path[2];
+        if (path.length == 3) {
+            if (method == Request.Method.PUT) {
+                Shoppinglist sl = Shoppinglist.fromJSON(body(request));
+                sl.setModified(new Date());
+                b.lists.put(listId, sl.toJSON());
+                return ok(b.lists.get(listId));
+            }
+            JSONObject list = method == Request.Method.DELETE ? b.deleteList(listId) : b.lists.get(listId);
+            return list == null ? notFound() : ok(list);
+        }
+
+        if (!b.lists.containsKey(listId)) {
+            return notFound();
+        }
+        String type = path[3];
+        if ("modified".equals(type)) {
+            return ok(new SgnJson().setModified(Shoppinglist.fromJSON(b.lists.get(listId)).getModified()).toJSON());
+        }
+
+        if ("items".equals(type)) {
+            LinkedHashMap<String, JSONObject> items = b.getItems(listId);
+            if (path.length == 4) {
+                return ok(new JSONArray(items.values()));
+            }
+            String itemId = path[4];
+            JSONObject item;
+            if (method == Request.Method.PUT) {
+                item = ShoppinglistItem.fromJSON(body(request)).toJSON();
+                items.put(itemId, item);
+                b.touch(listId);
+            } else if (method == Request.Method.DELETE) {
+                item = items.remove(itemId);
+                b.touch(listId);
+            } else {
+                item = items.get(itemId);
+            }
+            return item == null ? notFound() : ok(item);
+        }
+
+        if ("shares".equals(type) && path.length == 5) {
+            String email = URLDecoder.decode(path[4], "UTF-8");
+            Shoppinglist sl = Shoppinglist.fromJSON(b.lists.get(listId));
+            Share share;
+            if (method == Request.Method.PUT) {
+                share = Share.fromJSON(body(request));
+                sl.putShare(share);
+            } else if (method == Request.Method.DELETE) {
+                share = sl.getShares().remove(email);
+            } else {
+                share = sl.getShares().get(email);
+            }
+            b.lists.put(listId, sl.toJSON());
+            return share == null ? notFound() : ok(share.toJSON());
+        }
+
+        return new MockUnsupportedNetworkResponse(request);
+    }
+
+    private static JSONObject body(Request<?> request) throws JSONException {
+        return new JSONObject(new String(request.getBody()));
+    }
+
+    private static NetworkResponse ok(Object json) {
+        return new NetworkResponse(200, json.toString().getBytes(), new HashMap<String, String>());
+    }
+
+    private static NetworkResponse notFound() {
+        return error(404, "Not found");
+    }
+
+    private static NetworkResponse error(int statusCode, String message) {
+        ShopGunError e = new ShopGunError(Integer.MAX_VALUE, message, message);
+        return new NetworkResponse(statusCode, e.toJSON().toString().getBytes(), new HashMap<String, String>());
+    }
+
+    private Backend getBackend(int userId) {
+        Backend b = mBackends.get(userId);
+        if (b == null) {
+            b = new Backend();
+            mBackends.put(userId, b);
+        }
+        return b;
+    }
+
+    /**
+     * Create a {@link Shoppinglist} with a number of {@link ShoppinglistItem ShoppinglistItems}, on
+     * the server.
+     * @param userId The user to add the list to
+     * @param email The email of the user, used for the owner {@link Share}
+     * @param name The name of the list
+     * @param itemCount The number of items to add
+     * @return The new list
+     */
+    public synchronized Shoppinglist createList(int userId, String email, String name, int itemCount) {
+        Shoppinglist sl = Shoppinglist.fromName(name);
+        Share owner = new Share(email, Share.ACCESS_OWNER, null);
+        owner.setShoppinglistId(sl.getId());
+        owner.setAccepted(true);
+        sl.putShare(owner);
+        sl.setPreviousId(ListUtils.FIRST_ITEM);
+        Backend b = getBackend(userId);
+        b.lists.put(sl.getId(), sl.toJSON());
+        LinkedHashMap<String, JSONObject> items = b.getItems(sl.getId());
+        String previous = ListUtils.FIRST_ITEM;
+        for (int i = 0; i < itemCount; i++) {
+            ShoppinglistItem sli = new ShoppinglistItem(sl, "item " + i);
+            sli.setPreviousId(previous);
+            sli.setCreator(email);
+            items.put(sli.getId(), sli.toJSON());
+            previous = sli.getId();
+        }
+        return sl;
+    }
+
+    /**
+     * Delete a {@link Shoppinglist}, and it's items from the server.
+     * @param userId The user to delete the list from
+     * @param listId A {@link Shoppinglist#getId()}
+     */
+    public synchronized void deleteList(int userId, String listId) {
+        getBackend(userId).deleteList(listId);
+    }
+
+    /**
+     * Simulate another device, that edits the lists of a user. An edit will tick, rename, add
+     * or delete a random {@link ShoppinglistItem}, and update the modified of the list.
+     * @param userId The user who's lists will be edited
+     * @param random A source of randomness
+     * @param edits The number of edits to make
+     */
+    public synchronized void simulateDevice(int userId, Random random, int edits) {
+        Backend b = getBackend(userId);
+        List<String> listIds = new ArrayList<String>(b.lists.keySet());
+        if (listIds.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < edits; i++) {
+            String listId = listIds.get(random.nextInt(listIds.size()));
+            LinkedHashMap<String, JSONObject> items = b.getItems(listId);
+            List<String> itemIds = new ArrayList<String>(items.keySet());
+            int action = itemIds.isEmpty() ? 2 : random.nextInt(4);
+            Date now = new Date();
+            if (action == 2) {
+                ShoppinglistItem sli = new ShoppinglistItem(Shoppinglist.fromJSON(b.lists.get(listId)), "device item " + i);
+                sli.setPreviousId(ListUtils.FIRST_ITEM);
+                if (!itemIds.isEmpty()) {
+                    ShoppinglistItem first = ShoppinglistItem.fromJSON(items.get(itemIds.get(0)));
+                    first.setPreviousId(sli.getId()).setModified(now);
+                    items.put(first.getId(), first.toJSON());
+                }
+                items.put(sli.getId(), sli.toJSON());
+            } else {
+                ShoppinglistItem sli = ShoppinglistItem.fromJSON(items.get(itemIds.get(random.nextInt(itemIds.size()))));
+                sli.setModified(now);
+                if (action == 0) {
+                    sli.setTick(!sli.isTicked());
+                } else if (action == 1) {
+                    sli.setDescription(sli.getDescription() + "*");
+                } else {
+                    items.remove(sli.getId());
+                    // Keep the order, by pointing the next item at the previous
+                    for (JSONObject o : items.values()) {
+                        ShoppinglistItem next = ShoppinglistItem.fromJSON(o);
+                        if (sli.getId().equals(next.getPreviousId())) {
+                            next.setPreviousId(sli.getPreviousId()).setModified(now);
+                            items.put(next.getId(), next.toJSON());
+                            break;
+                        }
+                    }
+                    b.touch(listId);
+                    continue;
+                }
+                items.put(sli.getId(), sli.toJSON());
+            }
+            b.touch(listId);
+        }
+    }
+
+    /**
+     * Get the {@link ShoppinglistItem ShoppinglistItems} of a list, as they are on the server.
+     * @param userId A user id
+     * @param listId A {@link Shoppinglist#getId()}
+     * @return A list of items, in no particular order
+     */
+    public synchronized List<ShoppinglistItem> getItems(int userId, String listId) {
+        List<ShoppinglistItem> list = new ArrayList<ShoppinglistItem>();
+        for (JSONObject o : getBackend(userId).getItems(listId).values()) {
+            list.add(ShoppinglistItem.fromJSON(o));
+        }
+        return list;
+    }
+
+    /**
+     * Set the rate of requests, that fail with a server error.
+     * @param errorRate A rate between 0 and 1
+     */
+    public synchronized void setErrorRate(float errorRate) {
+        mErrorRate = errorRate;
+    }
+
+    /**
+     * @return The number of requests handled, since the last {@link #resetCounters()}
+     */
+    public int getRequestCount() {
+        return mRequests.get();
+    }
+
+    /**
+     * @return The number of PUT and DELETE requests, since the last {@link #resetCounters()}
+     */
+    public int getWriteCount() {
+        return mWrites.get();
+    }
+
+    /**
+     * @return The number of simulated errors, since the last {@link #resetCounters()}
+     */
+    public int getErrorCount() {
+        return mErrors.get();
+    }
+
+    /**
+     * @return The number of requests currently being handled
+     */
+    public int getInFlightCount() {
+        return mInFlight.get();
+    }
+
+    public void resetCounters() {
+        mRequests.set(0);
+        mWrites.set(0);
+        mErrors.set(0);
+    }
+
+    /**
+     * The server state of a single user
+     */
+    private static class Backend {
+
+        final LinkedHashMap<String, JSONObject> lists = new LinkedHashMap<String, JSONObject>();
+        final Map<String, LinkedHashMap<String, JSONObject>> items = new HashMap<String, LinkedHashMap<String, JSONObject>>();
+
+        LinkedHashMap<String, JSONObject> getItems(String listId) {
+            LinkedHashMap<String, JSONObject> list = items.get(listId);
+            if (list == null) {
+                list = new LinkedHashMap<String, JSONObject>();
+                items.put(listId, list);
+            }
+            return list;
+        }
+
+        JSONObject deleteList(String listId) {
+            items.remove(listId);
+            return lists.remove(listId);
+        }
+
+        /**
+         * The API updates modified on the list, whenever an item changes
+         */
+        void touch(String listId) {
+            Shoppinglist sl = Shoppinglist.fromJSON(lists.get(listId));
+            sl.setModified(new Date());
+            lists.put(listId, sl.toJSON());
+        }
+    }
+
+}
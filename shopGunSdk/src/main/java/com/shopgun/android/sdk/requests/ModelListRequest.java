@@ -73,6 +73,12 @@ public abstract class ModelListRequest<T> extends JsonArrayRequest implements De
         return super.parseCache(c);
     }
 
+    @Override
+    public boolean isCoalescable() {
+        // requests with loader data don't go to the network, and can't share responses
+        return super.isCoalescable() && (mLoaderRequest == null || mLoaderRequest.getData() == null);
+    }
+
     @Override
     public Request setDelivery(Delivery d) {
         throw new RuntimeException(new IllegalAccessException("Custom delivery for model requests is not allowed"));
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk.shoppinglists;
+
+import com.shopgun.android.sdk.model.Shoppinglist;
+import com.shopgun.android.sdk.model.User;
+import com.shopgun.android.sdk.utils.SgnJson;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The state the {@link SyncManager} keeps for a single user, when doing delta sync.
+ *
+ * <p>The API can't filter lists or items by modified, so instead a content fingerprint is kept of every list and of
+ * the items in every list, as last seen on the server. A response with the same fingerprint as last time holds no
+ * changes, and can be ignored without touching the database. Fingerprints doesn't depend on the order of the
+ * elements in the response.</p>
+ *
+ * <p>This class isn't thread safe, it's only used from the sync thread.</p>
+ */
+class DeltaSyncState {
+
+    /** Items of every list are refreshed once per this many sync iterations */
+    static final int REFRESH_ITERATIONS = 10;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int mUserId;
+    private final Map<String, Long> mListFingerprints = new HashMap<>();
+    private final Map<String, Long> mItemFingerprints = new HashMap<>();
+    private int mRefreshCursor = 0;
+
+    DeltaSyncState(User user) {
+        mUserId = user.getUserId();
+    }
+
+    boolean isFor(User user) {
+        return user.getUserId() == mUserId;
+    }
+
+    /**
+     * Update the fingerprints of the lists, and get the ids of the lists, that are new or have changed.
+     * @param serverLists The lists as returned by the API
+     * @return The ids of lists that have changed since last time
+     */
+    Set<String> updateLists(JSONArray serverLists) {
+        Set<String> changed = new HashSet<>();
+        Map<String, Long> fingerprints = new HashMap<>(serverLists.length());
+        for (int i = 0; i < serverLists.length(); i++) {
+            JSONObject list = serverLists.optJSONObject(i);
+            if (list == null) {
+                continue;
+            }
+            String id = list.optString(SgnJson.ID, null);
+            long fingerprint = fingerprint(list);
+            fingerprints.put(id, fingerprint);
+            Long previous = mListFingerprints.get(id);
+            if (previous == null || previous != fingerprint) {
+                changed.add(id);
+            }
+        }
+        // Lists removed on the server can't hold items anymore
+        for (String id : mListFingerprints.keySet()) {
+            if (!fingerprints.containsKey(id)) {
+                mItemFingerprints.remove(id);
+            }
+        }
+        mListFingerprints.clear();
+        mListFingerprints.putAll(fingerprints);
+        return changed;
+    }
+
+    /**
+     * Update the fingerprint of the items in a list.
+     * @param shoppinglistId The list the items belong to
+     * @param serverItems The items as returned by the API
+     * @return {@code true} if the items have changed since last time, else {@code false}
+     */
+    boolean updateItems(String shoppinglistId, JSONArray serverItems) {
+        long fingerprint = fingerprint(serverItems);
+        Long previous = mItemFingerprints.put(shoppinglistId, fingerprint);
+        return previous == null || previous != fingerprint;
+    }
+
+    /**
+     * Forget the item fingerprint of a list, e.g. if the local items could have diverged from the server.
+     * @param shoppinglistId A list id
+     */
+    void invalidateItems(String shoppinglistId) {
+        mItemFingerprints.remove(shoppinglistId);
+    }
+
+    /**
+     * Get the lists that should have their items refreshed in this iteration. Lists are picked round robin,
+     * so that all lists are refreshed once per {@link #REFRESH_ITERATIONS} iterations.
+     * <p>This catches changes, that {@link Shoppinglist#getModified() modified} can't reveal, e.g. two devices
+     * changing a list in the same second.</p>
+     * @param lists All lists of the user
+     * @return The lists to refresh
+     */
+    List<Shoppinglist> nextRefresh(List<Shoppinglist> lists) {
+        List<Shoppinglist> refresh = new ArrayList<>();
+        int size = lists.size();
+        if (size == 0) {
+            return refresh;
+        }
+        int count = (size + REFRESH_ITERATIONS - 1) / REFRESH_ITERATIONS;
+        for (int i = 0; i < count; i++) {
+            refresh.add(lists.get((mRefreshCursor + i) % size));
+        }
+        mRefreshCursor = (mRefreshCursor + count) % size;
+        return refresh;
+    }
+
+    /**
+     * Order independent fingerprint of the elements in an array.
+     */
+    static long fingerprint(JSONArray array) {
+        long sum = array.length();
+        for (int i = 0; i < array.length(); i++) {
+            sum += mix(fingerprint(array.opt(i)));
+        }
+        return sum;
+    }
+
+    static long fingerprint(Object object) {
+        String s = String.valueOf(object);
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /** Spread the bits before summing, so similar elements doesn't cancel out */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
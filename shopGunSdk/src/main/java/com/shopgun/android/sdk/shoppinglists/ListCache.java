@@ -0,0 +1,358 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk.shoppinglists;
+
+import com.shopgun.android.sdk.bus.ShoppinglistEvent;
+import com.shopgun.android.sdk.database.SgnDatabase;
+import com.shopgun.android.sdk.model.Share;
+import com.shopgun.android.sdk.model.Shoppinglist;
+import com.shopgun.android.sdk.model.ShoppinglistItem;
+import com.shopgun.android.sdk.model.User;
+import com.shopgun.android.sdk.model.interfaces.SyncState;
+import com.shopgun.android.sdk.utils.Constants;
+import com.shopgun.android.sdk.utils.ItemOrderIndex;
+import com.shopgun.android.sdk.utils.ListUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @deprecated No longer maintained
+ *
+ * An in-memory snapshot of the {@link Shoppinglist Shoppinglists}, and the ordered
+ * {@link ShoppinglistItem ShoppinglistItems} of a single {@link User}, so the reads in
+ * {@link ListManager} doesn't have to query the {@link SgnDatabase database} every time.
+ *
+ * <p>The snapshot is loaded lazily, the lists on the first read, and the items of a
+ * {@link Shoppinglist} on the first read of that list. After that, it's updated in place by the
+ * writes done by {@link ListManager}, and reloaded for the lists that {@link SyncManager} have
+ * merged changes into.</p>
+ *
+ * <p>The lists handed out are unmodifiable views, and are replaced rather than modified when the
+ * snapshot changes, so a caller can hold on to one while it's being updated. The views are only
+ * rebuilt after a change, so reads are cheap. The snapshot keeps its own instances: the writes are
+ * copied into it, and the single objects read from it are copies, as they are the ones usually
+ * changed and passed on to e.g. {@link ListManager#editItem(ShoppinglistItem)}.</p>
+ *
+ * <p>All methods are synchronized, as the snapshot is read on the main thread, and refreshed on the
+ * sync thread.</p>
+ */
+@Deprecated
+class ListCache {
+
+    public static final String TAG = Constants.getTag(ListCache.class);
+
+    private final SgnDatabase mDatabase;
+    /** The {@link User#getUserId()} of the current snapshot */
+    private int mUserId = User.NO_USER;
+    /** The visible lists, in the same order as the database returns them, or {@code null} if not loaded */
+    private List<Shoppinglist> mLists;
+    /** The items of the lists that have been loaded, by {@link Shoppinglist#getId()} */
+    private final HashMap<String, Items> mItems = new HashMap<String, Items>();
+
+    ListCache(SgnDatabase db) {
+        mDatabase = db;
+    }
+
+    /**
+     * Get the visible {@link Shoppinglist Shoppinglists} of a {@link User}.
+     * @param user A {@link User}
+     * @return An unmodifiable list of {@link Shoppinglist}
+     */
+    synchronized List<Shoppinglist> getLists(User user) {
+        return loadLists(user);
+    }
+
+    /**
+     * Get a visible {@link Shoppinglist}.
+     * @param id A {@link Shoppinglist#getId()}
+     * @param user A {@link User}
+     * @return A copy of the {@link Shoppinglist}, or {@code null}
+     */
+    synchronized Shoppinglist getList(String id, User user) {
+        for (Shoppinglist sl : loadLists(user)) {
+            if (sl.getId().equals(id)) {
+                return new Shoppinglist(sl);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the {@link ShoppinglistItem ShoppinglistItems} of a {@link Shoppinglist}, in order.
+     * @param shoppinglistId A {@link Shoppinglist#getId()}
+     * @param user A {@link User}
+     * @return An unmodifiable list of {@link ShoppinglistItem}
+     */
+    synchronized List<ShoppinglistItem> getItems(String shoppinglistId, User user) {
+        return getSnapshot(shoppinglistId, user).getItems();
+    }
+
+    /**
+     * Get a {@link ShoppinglistItem}. Items in lists that haven't been loaded yet, are read from the
+     * {@link SgnDatabase database}.
+     * @param id A {@link ShoppinglistItem#getId()}
+     * @param user A {@link User}
+     * @return A copy of the {@link ShoppinglistItem}, or {@code null}
+     */
+    synchronized ShoppinglistItem getItem(String id, User user) {
+        setUser(user);
+        for (Items items : mItems.values()) {
+            ShoppinglistItem sli = items.mOrder.get(id);
+            if (sli != null) {
+                return new ShoppinglistItem(sli);
+            }
+        }
+        return mDatabase.getItem(id, user);
+    }
+
+    /**
+     * Move a {@link ShoppinglistItem} in the snapshot, see {@link ItemOrderIndex#move(String, String)}.
+     * @param sli A {@link ShoppinglistItem} to move
+     * @param previousId The id of the item to place it after, or {@link ListUtils#FIRST_ITEM}
+     * @param user A {@link User}
+     * @param builder A builder to record the order of the items in
+     * @return Copies of the items where {@link ShoppinglistItem#getPreviousId() previous_id} changed, or
+     *          {@code null} if either of the items doesn't exist in the {@link Shoppinglist}
+     */
+    synchronized List<ShoppinglistItem> move(ShoppinglistItem sli, String previousId, User user, ShoppinglistEvent.Builder builder) {
+        Items items = getSnapshot(sli.getShoppinglistId(), user);
+        ItemOrderIndex order = items.mOrder;
+        if (!order.contains(sli.getId()) || (!ListUtils.FIRST_ITEM.equals(previousId) && !order.contains(previousId))) {
+            return null;
+        }
+        List<ShoppinglistItem> before = items.getItems();
+        List<ShoppinglistItem> changed = order.move(sli.getId(), previousId);
+        items.mView = null;
+        builder.order(sli.getShoppinglistId(), before, items.getItems());
+        return copy(changed);
+    }
+
+    /**
+     * Update the snapshot with {@link Shoppinglist Shoppinglists} that have been written to the
+     * {@link SgnDatabase database}. Lists in the {@link SyncState#DELETE} state, or where the
+     * {@link User} no longer has a {@link Share} are removed.
+     * @param lists The lists that were written
+     * @param user The {@link User} they were written for
+     */
+    synchronized void putLists(List<Shoppinglist> lists, User user) {
+        if (mLists == null || user.getUserId() != mUserId) {
+            return;
+        }
+        List<Shoppinglist> copy = new ArrayList<Shoppinglist>(mLists);
+        for (Shoppinglist sl : lists) {
+            int i = indexOf(copy, sl.getId());
+            boolean visible = isVisible(sl, user);
+            if (i == -1 && !visible) {
+                continue;
+            }
+            if (i == -1 || (visible && !isSameName(copy.get(i), sl))) {
+                // The position may have changed, let the database sort it out
+                mLists = null;
+                return;
+            }
+            if (visible) {
+                copy.set(i, new Shoppinglist(sl));
+            } else {
+                copy.remove(i);
+                mItems.remove(sl.getId());
+            }
+        }
+        mLists = Collections.unmodifiableList(copy);
+    }
+
+    /**
+     * Update the snapshot with {@link ShoppinglistItem ShoppinglistItems} that have been written to
+     * the {@link SgnDatabase database}. Items in the {@link SyncState#DELETE} state are removed.
+     * @param items The items that were written
+     * @param user The {@link User} they were written for
+     * @param builder A builder to record the order of the items in
+     */
+    synchronized void putItems(List<ShoppinglistItem> items, User user, ShoppinglistEvent.Builder builder) {
+        if (user.getUserId() != mUserId) {
+            return;
+        }
+        HashMap<String, List<ShoppinglistItem>> byList = new HashMap<String, List<ShoppinglistItem>>();
+        for (ShoppinglistItem sli : items) {
+            List<ShoppinglistItem> list = byList.get(sli.getShoppinglistId());
+            if (list == null) {
+                list = new ArrayList<ShoppinglistItem>();
+                byList.put(sli.getShoppinglistId(), list);
+            }
+            list.add(new ShoppinglistItem(sli));
+        }
+        for (String id : byList.keySet()) {
+            Items snapshot = mItems.get(id);
+            if (snapshot != null) {
+                List<ShoppinglistItem> before = snapshot.getItems();
+                snapshot.put(byList.get(id));
+                builder.order(id, before, snapshot.getItems());
+            }
+        }
+    }
+
+    /**
+     * Reload the parts of the snapshot that a {@link ShoppinglistEvent} from the {@link SyncManager}
+     * touches. Only lists that have already been loaded are read from the {@link SgnDatabase database}.
+     * The order of the items before and after, is recorded in the builder.
+     * @param builder The changes that have been merged into the database
+     * @param user The {@link User} they were merged for
+     */
+    synchronized void refresh(ShoppinglistEvent.Builder builder, User user) {
+        if (user.getUserId() != mUserId) {
+            return;
+        }
+        if (mLists != null && !builder.lists.isEmpty()) {
+            mLists = Collections.unmodifiableList(mDatabase.getLists(user));
+        }
+        Set<String> ids = new HashSet<String>(builder.lists.keySet());
+        ids.addAll(ListUtils.getShoppinglistIdsFromItems(builder.getItems()));
+        for (String id : ids) {
+            Items snapshot = mItems.get(id);
+            if (snapshot != null) {
+                List<ShoppinglistItem> before = snapshot.getItems();
+                snapshot.update(mDatabase.getItems(id, user, false));
+                builder.order(id, before, snapshot.getItems());
+            }
+        }
+    }
+
+    /**
+     * Drop the snapshot of the items in a {@link Shoppinglist}, they will be read from the
+     * {@link SgnDatabase database} on the next read.
+     * @param shoppinglistId A {@link Shoppinglist#getId()}
+     */
+    synchronized void invalidate(String shoppinglistId) {
+        mItems.remove(shoppinglistId);
+    }
+
+    /**
+     * Drop the snapshot, if it belongs to the given {@link User}.
+     * @param userId A {@link User#getUserId()}
+     */
+    synchronized void invalidate(int userId) {
+        if (mUserId == userId) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Drop the snapshot.
+     */
+    synchronized void invalidate() {
+        mLists = null;
+        mItems.clear();
+    }
+
+    private void setUser(User user) {
+        if (user.getUserId() != mUserId) {
+            invalidate();
+            mUserId = user.getUserId();
+        }
+    }
+
+    private List<Shoppinglist> loadLists(User user) {
+        setUser(user);
+        if (mLists == null) {
+            mLists = Collections.unmodifiableList(mDatabase.getLists(user));
+        }
+        return mLists;
+    }
+
+    private Items getSnapshot(String shoppinglistId, User user) {
+        setUser(user);
+        Items items = mItems.get(shoppinglistId);
+        if (items == null) {
+            items = new Items();
+            items.update(mDatabase.getItems(shoppinglistId, user, false));
+            mItems.put(shoppinglistId, items);
+        }
+        return items;
+    }
+
+    private static List<ShoppinglistItem> copy(List<ShoppinglistItem> items) {
+        List<ShoppinglistItem> copy = new ArrayList<ShoppinglistItem>(items.size());
+        for (ShoppinglistItem sli : items) {
+            copy.add(new ShoppinglistItem(sli));
+        }
+        return copy;
+    }
+
+    private static int indexOf(List<Shoppinglist> lists, String id) {
+        for (int i = 0; i < lists.size(); i++) {
+            if (lists.get(i).getId().equals(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isSameName(Shoppinglist first, Shoppinglist second) {
+        return first.getName() == null ? second.getName() == null : first.getName().equals(second.getName());
+    }
+
+    private static boolean isVisible(Shoppinglist sl, User user) {
+        if (sl.getState() == SyncState.DELETE) {
+            return false;
+        }
+        Share share = sl.getShares().get(user.getEmail());
+        return share != null && share.getState() != SyncState.DELETE;
+    }
+
+    /**
+     * The ordered items of a single {@link Shoppinglist}
+     */
+    private static class Items {
+
+        final ItemOrderIndex mOrder = new ItemOrderIndex();
+        /** The list handed out to callers, rebuilt on the first read after a change */
+        List<ShoppinglistItem> mView;
+
+        List<ShoppinglistItem> getItems() {
+            if (mView == null) {
+                mView = Collections.unmodifiableList(mOrder.getItems());
+            }
+            return mView;
+        }
+
+        void update(List<ShoppinglistItem> items) {
+            mOrder.update(items);
+            mView = null;
+        }
+
+        void put(List<ShoppinglistItem> changed) {
+            LinkedHashMap<String, ShoppinglistItem> items = new LinkedHashMap<String, ShoppinglistItem>();
+            for (ShoppinglistItem sli : mOrder.getItems()) {
+                items.put(sli.getId(), sli);
+            }
+            for (ShoppinglistItem sli : changed) {
+                if (sli.getState() == SyncState.DELETE) {
+                    items.remove(sli.getId());
+                } else {
+                    items.put(sli.getId(), sli);
+                }
+            }
+            update(new ArrayList<ShoppinglistItem>(items.values()));
+        }
+    }
+
+}
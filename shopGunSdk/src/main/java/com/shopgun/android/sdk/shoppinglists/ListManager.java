@@ -36,6 +36,7 @@ import com.shopgun.android.sdk.utils.ListUtils;
 import org.json.JSONArray;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -62,8 +63,12 @@ public class ListManager {
     private SgnDatabase mDatabase;
 
     /** The notification service for ListManager, this allows for bundling
-     * list and item notifications, to avoid multiple updates for a single operation */
-    private ShoppinglistEvent.Builder mBuilder = new ShoppinglistEvent.Builder(false);
+     * list and item notifications, to avoid multiple updates for a single operation.
+     * Changes are recorded from any thread calling the ListManager, so the builder is synchronized */
+    private volatile ShoppinglistEvent.Builder mBuilder = new ShoppinglistEvent.SynchronizedBuilder(false);
+
+    /** The in-memory snapshot of the lists, and ordered items of the current user */
+    private final ListCache mCache;
 
     /**
      * Default constructor for ListManager.
@@ -73,6 +78,7 @@ public class ListManager {
     public ListManager(ShopGun shopGun, SgnDatabase db) {
         mShopGun = shopGun;
         mDatabase = db;
+        mCache = new ListCache(db);
         mShopGun.getLifecycleManager().registerCallback(new LifecycleCallback());
     }
 
@@ -89,22 +95,33 @@ public class ListManager {
         }
     }
 
+    /**
+     * Get the in-memory snapshot, that {@link SyncManager} refreshes after merging changes.
+     * @return The {@link ListCache}
+     */
+    ListCache getCache() {
+        return mCache;
+    }
+
     /**
      * Get a {@link Shoppinglist} from it's ID.
      * @param id A {@link Shoppinglist} id
      * @return A shopping list, or {@code null}
      */
     public Shoppinglist getList(String id) {
-        return mDatabase.getList(id, user());
+        return mCache.getList(id, user());
     }
 
     /**
      * The complete set of {@link Shoppinglist Shoppinglists}, that the current
      * user has.
+     * <p>The lists are kept in memory, so this is cheap to call. The returned
+     * {@link List} is an unmodifiable snapshot, that won't change. The lists in it are shared
+     * with the snapshot, so get a copy with {@link #getList(String)} before changing one.</p>
      * @return A {@link List} of {@link Shoppinglist}, for current {@link User}
      */
     public List<Shoppinglist> getLists() {
-        return mDatabase.getLists(user());
+        return mCache.getLists(user());
     }
 
     /**
@@ -113,7 +130,7 @@ public class ListManager {
      * @return A {@link List} of {@link Shoppinglist}, for the given {@link User}
      */
     public List<Shoppinglist> getLists(User user) {
-        return mDatabase.getLists(user);
+        return mCache.getLists(user);
     }
 
     /**
@@ -158,6 +175,7 @@ public class ListManager {
 
         boolean success = mDatabase.insertLists(lists, user);
         if (success) {
+            mCache.putLists(lists, user);
             mBuilder.add(sl);
         }
         postShoppinglistEvent();
@@ -197,6 +215,7 @@ public class ListManager {
             if (dbShare != null) {
                 dbShare.setState(SyncState.DELETE);
                 mDatabase.editShare(dbShare, user);
+                mCache.putLists(Collections.singletonList(original), user);
                 mBuilder.del(sl);
                 postShoppinglistEvent();
                 return true;
@@ -277,6 +296,7 @@ public class ListManager {
         try {
             boolean success = mDatabase.insertLists(lists, user);
             if (success) {
+                mCache.putLists(lists, user);
                 for (Shoppinglist edited : lists) {
                     mBuilder.edit(edited);
                 }
@@ -339,6 +359,7 @@ public class ListManager {
 
             success = mDatabase.editItems(items, user);
             if (success) {
+                mCache.putItems(items, user, mBuilder);
                 for (ShoppinglistItem sli : items) {
                     mBuilder.del(sli);
                 }
@@ -347,6 +368,7 @@ public class ListManager {
         else {
             // just delete all the items
             mDatabase.deleteItems(sl.getId(), null, user);
+            mCache.invalidate(sl.getId());
         }
 
         // Update local version of shoppinglist
@@ -364,6 +386,7 @@ public class ListManager {
         }
 
         if (success) {
+            mCache.putLists(editedLists, user);
             for (Shoppinglist s : editedLists) {
                 mBuilder.del(s);
             }
@@ -379,12 +402,15 @@ public class ListManager {
      * @return A shopping list item, or {@code null}
      */
     public ShoppinglistItem getItem(String id) {
-        return mDatabase.getItem(id, user());
+        return mCache.getItem(id, user());
     }
 
     /**
      * Get all {@link ShoppinglistItem ShoppinglistItems} associated with a
      * {@link Shoppinglist}.
+     * <p>The items are kept in memory, so this is cheap to call. The returned
+     * {@link List} is an unmodifiable snapshot, that won't change. The items in it are shared
+     * with the snapshot, so get a copy with {@link #getItem(String)} before changing one.</p>
      * @param sl A {@link Shoppinglist} to get {@link ShoppinglistItem ShoppinglistItems} from
      * @return A list of {@link ShoppinglistItem ShoppinglistItems}
      */
@@ -407,9 +433,34 @@ public class ListManager {
     }
 
     private List<ShoppinglistItem> getItems(String shoppinglistId, User user) {
-        List<ShoppinglistItem> items = mDatabase.getItems(shoppinglistId, user, false);
-        ListUtils.sortItems(items);
-        return items;
+        return mCache.getItems(shoppinglistId, user);
+    }
+
+    /**
+     * Move a {@link ShoppinglistItem}, so it's placed after another {@link ShoppinglistItem}
+     * in the same {@link Shoppinglist}.
+     *
+     * <p>Only the (at most three) items where the {@link ShoppinglistItem#getPreviousId() previous_id}
+     * changes, are written to the database, and synchronized to the server.</p>
+     * @param sli A {@link ShoppinglistItem} to move
+     * @param previousId The {@link ShoppinglistItem#getId()} to place it after, or
+     *                   {@link ListUtils#FIRST_ITEM} to move it to the top of the list
+     * @return {@code true} if the action was performed, else {@code false}
+     */
+    public boolean moveItem(ShoppinglistItem sli, String previousId) {
+        User user = user();
+        mDatabase.allowEditOrThrow(sli.getShoppinglistId(), user);
+        List<ShoppinglistItem> changed = mCache.move(sli, previousId, user, mBuilder);
+        if (changed == null) {
+            SgnLog.i(TAG, "No such item exists in the shoppinglist: " + sli.toString());
+            return false;
+        }
+        if (changed.isEmpty() || editItems(changed, user)) {
+            return true;
+        }
+        // The snapshot was moved, but the database wasn't
+        mCache.invalidate(sli.getShoppinglistId());
+        return false;
     }
 
     /**
@@ -503,10 +554,12 @@ public class ListManager {
 
         boolean success = mDatabase.insertItems(editedItems, user);
         if (success) {
+            mCache.putItems(editedItems, user, mBuilder);
 			/* Update SL info, but not state. This will prevent sync, and API
 			 * will auto update the modified tag, nice! */
             sl.setModified(now);
             mDatabase.editList(sl, user);
+            mCache.putLists(Collections.singletonList(sl), user);
             mBuilder.edit(sl);
             mBuilder.add(sli);
         }
@@ -548,9 +601,10 @@ public class ListManager {
         // Validate and get response in one step
         List<Shoppinglist> lists = mDatabase.allowEditItemsOrThrow(items, user);
 
+        // The order doesn't matter here, so skip the sorting
         HashMap<String, ShoppinglistItem> dbItems = new HashMap<String, ShoppinglistItem>();
         for (Shoppinglist sl : lists) {
-            for (ShoppinglistItem sli : getItems(sl, user)) {
+            for (ShoppinglistItem sli : mDatabase.getItems(sl, user)) {
                 dbItems.put(sli.getId(), sli);
             }
         }
@@ -572,6 +626,8 @@ public class ListManager {
 
         if (success) {
 
+            mCache.putItems(items, user, mBuilder);
+
             /* API will auto-update modified on the List, so we'll do the same and save a sync. */
             for (Shoppinglist sl : lists) {
                 // This is a bit expensive, if there is more than one shoppinglist
@@ -579,6 +635,7 @@ public class ListManager {
                 mDatabase.editList(sl, user);
                 mBuilder.edit(sl);
             }
+            mCache.putLists(lists, user);
 
             for (ShoppinglistItem sli : items) {
                 mBuilder.edit(sli);
@@ -608,12 +665,15 @@ public class ListManager {
 
         if (success) {
 
+            mCache.putItems(Collections.singletonList(sli), user, mBuilder);
+
             /* API will auto-update modified on the List, so we'll do the same and save a sync */
             Shoppinglist sl = mDatabase.getList(sli.getShoppinglistId(), user);
 
             if (sl != null) {
                 sl.setModified(now);
                 mDatabase.editList(sl, user);
+                mCache.putLists(Collections.singletonList(sl), user);
                 mBuilder.edit(sl);
             }
             mBuilder.edit(sli);
@@ -709,9 +769,13 @@ public class ListManager {
         boolean success = false;
         if (user.isLoggedIn()) {
             success = mDatabase.editItems(edited, user);
+            if (success) {
+                mCache.putItems(edited, user, mBuilder);
+            }
         } else {
             int rows = mDatabase.deleteItems(sl.getId(), stateToDelete, user);
             success = rows > 0;
+            mCache.invalidate(sl.getId());
         }
 
         if (success) {
@@ -720,6 +784,7 @@ public class ListManager {
 			 */
             sl.setModified(now);
             mDatabase.editList(sl, user);
+            mCache.putLists(Collections.singletonList(sl), user);
             mBuilder.edit(sl);
             for (ShoppinglistItem sli : edited) {
                 if (sli.getState() == SyncState.DELETE) {
@@ -777,6 +842,7 @@ public class ListManager {
         }
 
         if (success) {
+            mCache.putItems(Collections.singletonList(sli), user, mBuilder);
 			/* Update shoppinglist modified, but not state, so we have correct
 			 * state but won't have to sync changes to API.
 			 * API will change state based on the synced item.
@@ -784,6 +850,7 @@ public class ListManager {
             Shoppinglist sl = getList(sli.getShoppinglistId());
             sl.setModified(now);
             mDatabase.editList(sl, user);
+            mCache.putLists(Collections.singletonList(sl), user);
             mBuilder.edit(sl);
             mBuilder.del(sli);
         }
@@ -805,6 +872,7 @@ public class ListManager {
      */
     public void clear() {
         mDatabase.clear();
+        mCache.invalidate();
     }
 
     /**
@@ -814,13 +882,23 @@ public class ListManager {
      */
     public void clear(int userId) {
         mDatabase.clear(userId);
+        mCache.invalidate(userId);
     }
 
     private void postShoppinglistEvent() {
-        if (!mShopGun.getSyncManager().isPaused() && mBuilder.hasChanges()) {
-            SgnBus.getInstance().post(mBuilder.build());
-            mBuilder = new ShoppinglistEvent.Builder(false);
+        if (mShopGun.getSyncManager().isPaused()) {
+            return;
+        }
+        ShoppinglistEvent.Builder builder;
+        synchronized (this) {
+            // Swap the builder, so two threads can't post the same changes
+            if (!mBuilder.hasChanges()) {
+                return;
+            }
+            builder = mBuilder;
+            mBuilder = new ShoppinglistEvent.SynchronizedBuilder(false);
         }
+        SgnBus.getInstance().post(builder.build());
     }
 
     public JSONArray dumpListTable() {
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk.shoppinglists;
+
+import com.shopgun.android.sdk.model.Shoppinglist;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @deprecated No longer maintained
+ *
+ * Decides how often the {@link SyncManager} polls each {@link Shoppinglist} for server changes.
+ *
+ * <p>Activity is tracked per list: local edits, server changes, and when the list was last on
+ * screen. A list with recent activity, or the list currently on screen, is checked on every
+ * iteration of the sync loop. Lists that are shared with others are checked more often than
+ * private lists, as other users may be editing them. Dormant lists are only checked rarely.</p>
+ *
+ * <p>Besides the check, each list is given a full refresh of its items once in a while, as two
+ * devices may set the same modified on a list, hiding a change from the check. The refresh has a
+ * schedule of its own, so the frequent checks don't use up the slot of a dormant list.</p>
+ *
+ * <p>The activity is only updated from the sync thread, except for the foreground list which
+ * the host app sets from the main thread, so all methods are synchronized.</p>
+ */
+@Deprecated
+class ListScheduler {
+
+    /** Lists with activity within this period are checked on every iteration */
+    static final long HOT_PERIOD = TimeUnit.MINUTES.toMillis(5);
+    /** Lists with activity within this period are warm, older lists are cold */
+    static final long WARM_PERIOD = TimeUnit.HOURS.toMillis(1);
+
+    static final long SHARED_WARM_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+    static final long SHARED_COLD_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+    static final long WARM_INTERVAL = TimeUnit.MINUTES.toMillis(2);
+    static final long COLD_INTERVAL = TimeUnit.MINUTES.toMillis(15);
+
+    /** Min time between two full refreshes of a shared list, that isn't hot */
+    static final long SHARED_REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+    /** Min time between two full refreshes of a private list, that isn't hot */
+    static final long REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(30);
+
+    private final HashMap<String, Activity> mActivity = new HashMap<String, Activity>();
+    private String mForeground;
+
+    /**
+     * Set the list that is currently on screen, or {@code null} if none is.
+     * @param shoppinglistId A {@link Shoppinglist#getId()}, or {@code null}
+     * @param now The current time in milliseconds
+     */
+    synchronized void setForeground(String shoppinglistId, long now) {
+        if (mForeground != null) {
+            // It was open until now, keep it hot for a while
+            get(mForeground).opened = now;
+        }
+        mForeground = shoppinglistId;
+    }
+
+    synchronized String getForeground() {
+        return mForeground;
+    }
+
+    /**
+     * Record a local change to a list, that is waiting to be sent to the server.
+     */
+    synchronized void onLocalChange(String shoppinglistId, long now) {
+        get(shoppinglistId).localChange = now;
+    }
+
+    /**
+     * Record a change to a list, that was received from the server.
+     */
+    synchronized void onServerChange(String shoppinglistId, long now) {
+        get(shoppinglistId).serverChange = now;
+    }
+
+    /**
+     * Record that a list has been checked for server changes.
+     */
+    synchronized void onChecked(String shoppinglistId, long now) {
+        get(shoppinglistId).checked = now;
+    }
+
+    /**
+     * Get the lists that are due to be checked for server changes. The lists returned are
+     * recorded as checked.
+     * @param lists All lists of the user
+     * @param now The current time in milliseconds
+     * @return The lists to check, in the same order as given
+     */
+    synchronized List<Shoppinglist> nextDue(List<Shoppinglist> lists, long now) {
+        List<Shoppinglist> due = new ArrayList<Shoppinglist>(lists.size());
+        for (Shoppinglist sl : lists) {
+            Activity a = get(sl.getId());
+            if (now - a.checked >= getInterval(sl, a, now)) {
+                a.checked = now;
+                due.add(sl);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Get the lists that are due for a full refresh of their items. The lists returned are
+     * recorded as refreshed. This doesn't affect when the lists are due to be checked.
+     * @param lists All lists of the user
+     * @param now The current time in milliseconds
+     * @return The lists to refresh, in the same order as given
+     */
+    synchronized List<Shoppinglist> nextRefreshDue(List<Shoppinglist> lists, long now) {
+        List<Shoppinglist> due = new ArrayList<Shoppinglist>(lists.size());
+        for (Shoppinglist sl : lists) {
+            Activity a = get(sl.getId());
+            if (now - a.refreshed >= getRefreshInterval(sl, a, now)) {
+                a.refreshed = now;
+                due.add(sl);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Get the minimum time between two full refreshes of a list.
+     * @param sl A list
+     * @param now The current time in milliseconds
+     * @return An interval in milliseconds, {@code 0} if the list should be refreshed every time
+     */
+    synchronized long getRefreshInterval(Shoppinglist sl, long now) {
+        return getRefreshInterval(sl, get(sl.getId()), now);
+    }
+
+    private long getRefreshInterval(Shoppinglist sl, Activity a, long now) {
+        if (getInterval(sl, a, now) == 0) {
+            return 0;
+        }
+        return sl.getShares().size() > 1 ? SHARED_REFRESH_INTERVAL : REFRESH_INTERVAL;
+    }
+
+    /**
+     * Get the minimum time between two checks of a list.
+     * @param sl A list
+     * @param now The current time in milliseconds
+     * @return An interval in milliseconds, {@code 0} if the list should be checked on every iteration
+     */
+    synchronized long getInterval(Shoppinglist sl, long now) {
+        return getInterval(sl, get(sl.getId()), now);
+    }
+
+    private long getInterval(Shoppinglist sl, Activity a, long now) {
+        if (sl.getId().equals(mForeground)) {
+            return 0;
+        }
+        long last = Math.max(Math.max(a.localChange, a.serverChange), a.opened);
+        if (sl.getModified() != null) {
+            // The list is modified on every change, by this or any other device
+            last = Math.max(last, sl.getModified().getTime());
+        }
+        long age = now - last;
+        if (age < HOT_PERIOD) {
+            return 0;
+        }
+        boolean warm = age < WARM_PERIOD;
+        if (sl.getShares().size() > 1) {
+            return warm ? SHARED_WARM_INTERVAL : SHARED_COLD_INTERVAL;
+        }
+        return warm ? WARM_INTERVAL : COLD_INTERVAL;
+    }
+
+    /**
+     * Forget all activity, e.g. when the user changes. The foreground list is kept.
+     */
+    synchronized void clear() {
+        mActivity.clear();
+    }
+
+    private Activity get(String shoppinglistId) {
+        Activity a = mActivity.get(shoppinglistId);
+        if (a == null) {
+            a = new Activity();
+            mActivity.put(shoppinglistId, a);
+        }
+        return a;
+    }
+
+    private static class Activity {
+        long localChange;
+        long serverChange;
+        long opened;
+        long checked;
+        long refreshed;
+    }
+
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk.shoppinglists;
+
+import android.os.Process;
+
+import com.shopgun.android.sdk.bus.ShoppinglistEvent;
+import com.shopgun.android.sdk.log.SgnLog;
+import com.shopgun.android.sdk.network.Delivery;
+import com.shopgun.android.sdk.network.impl.ExecutorDelivery;
+import com.shopgun.android.sdk.utils.Constants;
+import com.shopgun.android.sdk.utils.SgnThreadFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @deprecated No longer maintained
+ *
+ * The single background thread that the {@link SyncManager} does all of its work on. Database reads
+ * and writes, merging of API responses and building of {@link ShoppinglistEvent ShoppinglistEvents}
+ * are all done here, in order, so none of it is done on the main thread. The iterations of the sync
+ * loop are scheduled here too, so they don't depend on the main thread's Looper either.
+ */
+@Deprecated
+class SyncEngine implements Executor {
+
+    public static final String TAG = Constants.getTag(SyncEngine.class);
+
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final Delivery mDelivery;
+    private volatile Thread mThread;
+
+    SyncEngine() {
+        mExecutor = new ScheduledThreadPoolExecutor(1, new SyncThreadFactory());
+        mDelivery = new ExecutorDelivery(this);
+    }
+
+    /**
+     * Run a task on the sync thread, after any tasks that are already waiting.
+     * @param task A task
+     */
+    @Override
+    public void execute(Runnable task) {
+        mExecutor.execute(new LoggingTask(task));
+    }
+
+    /**
+     * Run a task on the sync thread, after a delay.
+     * @param task A task
+     * @param delay The delay in milliseconds
+     * @return A {@link ScheduledFuture} that can be used to cancel the task
+     */
+    ScheduledFuture<?> schedule(Runnable task, long delay) {
+        return mExecutor.schedule(new LoggingTask(task), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return A {@link Delivery} that delivers responses on the sync thread
+     */
+    Delivery getDelivery() {
+        return mDelivery;
+    }
+
+    /**
+     * @return {@code true} if the calling thread is the sync thread, else {@code false}
+     */
+    boolean isSyncThread() {
+        return Thread.currentThread() == mThread;
+    }
+
+    /**
+     * Stop the sync thread, once the waiting tasks are done. Scheduled tasks are dropped.
+     */
+    void shutdown() {
+        mExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        mExecutor.shutdown();
+    }
+
+    /**
+     * The {@link ScheduledThreadPoolExecutor} swallows exceptions, log them rather than silently
+     * losing an iteration of the sync loop.
+     */
+    private static class LoggingTask implements Runnable {
+
+        private final Runnable mTask;
+
+        LoggingTask(Runnable task) {
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mTask.run();
+            } catch (RuntimeException e) {
+                SgnLog.e(TAG, "Sync task failed", e);
+            }
+        }
+    }
+
+    private class SyncThreadFactory implements ThreadFactory {
+
+        private final ThreadFactory mFactory = new SgnThreadFactory("sgn-sync-");
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return mFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    mThread = Thread.currentThread();
+                    r.run();
+                }
+            });
+        }
+    }
+
+}
@@ -18,9 +18,7 @@ package com.shopgun.android.sdk.shoppinglists;
 
 import android.app.Activity;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
-import android.os.Process;
 
 import com.shopgun.android.sdk.ShopGun;
 import com.shopgun.android.sdk.api.Endpoints;
@@ -29,7 +27,9 @@ import com.shopgun.android.sdk.bus.SessionEvent;
 import com.shopgun.android.sdk.bus.SgnBus;
 import com.shopgun.android.sdk.bus.ShoppinglistEvent;
 import com.shopgun.android.sdk.corekit.LifecycleManager;
+import com.shopgun.android.sdk.database.PendingChange;
 import com.shopgun.android.sdk.database.SgnDatabase;
+import com.shopgun.android.sdk.database.WriteBatch;
 import com.shopgun.android.sdk.log.SgnLog;
 import com.shopgun.android.sdk.model.Share;
 import com.shopgun.android.sdk.model.Shoppinglist;
@@ -42,10 +42,10 @@ import com.shopgun.android.sdk.network.RequestQueue;
 import com.shopgun.android.sdk.network.Response.Listener;
 import com.shopgun.android.sdk.network.ShopGunError;
 import com.shopgun.android.sdk.network.ShopGunError.Code;
-import com.shopgun.android.sdk.network.impl.HandlerDelivery;
 import com.shopgun.android.sdk.network.impl.JsonArrayRequest;
 import com.shopgun.android.sdk.network.impl.JsonObjectRequest;
 import com.shopgun.android.sdk.utils.Constants;
+import com.shopgun.android.sdk.utils.ItemOrderIndex;
 import com.shopgun.android.sdk.utils.ListUtils;
 import com.shopgun.android.sdk.utils.PermissionUtils;
 import com.shopgun.android.sdk.utils.SgnJson;
@@ -57,13 +57,17 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @deprecated No longer maintained
@@ -82,7 +86,10 @@ import java.util.Stack;
  * <ul>
  * <li>
  * Local changes - Sending local changes to the API has precedence over the other
- * types of synchronization.
+ * types of synchronization. Local changes are read from the outbound change journal
+ * (see {@link PendingChange}), that holds one entry per changed object, so repeated edits
+ * are sent as a single request. Changes to a {@link Shoppinglist} are sent before changes
+ * to its items and shares, and failed changes are retried with an exponential backoff.
  * </li>
  *
  * <li>
@@ -90,7 +97,9 @@ import java.util.Stack;
  * performed if no other type of synchronization is chosen. This in practice
  * means that this will be performed on almost every iteration. If there is any
  * changes in the modified, both the {@link Shoppinglist} and it's
- * {@link ShoppinglistItem ShoppinglistItems} will be synchronized.
+ * {@link ShoppinglistItem ShoppinglistItems} will be synchronized. Lists with recent
+ * activity, and the {@link #setForegroundList(String) foreground list} are checked on every
+ * iteration, dormant lists less often, see {@link ListScheduler}.
  * </li>
  *
  * <li>
@@ -112,6 +121,17 @@ import java.util.Stack;
  * </ul>
  *
  * <p>
+ * With {@link #setDeltaSync(boolean) delta sync} enabled, the last two types are replaced by
+ * fetching all {@link Shoppinglist Shoppinglists} in a single request on every iteration,
+ * and only merging the lists that have changed since the last iteration. The items of a few
+ * lists are refreshed on every iteration in turn, and only merged if they have changed.
+ * See {@link DeltaSyncState}.
+ *
+ * <p>
+ * All database access, merging and event building is done on a single background thread,
+ * see {@link SyncEngine}. Only the final {@link ShoppinglistEvent} is posted to the main thread.
+ *
+ * <p>
  * When {@link LifecycleManager} calls destroy, all local pending changes are pushed to
  * the API if possible to ensure a correct state on the server (and other devices).
  */
@@ -124,12 +144,14 @@ public class SyncManager {
 
     private final Object RESUME_LOCK = new Object();
     private final Stack<Request<?>> mCurrentRequests = new Stack<>();
-    private int mSyncInterval = Integer.MIN_VALUE; // we'll cheat a bit here
+    private volatile int mSyncInterval = Integer.MIN_VALUE; // we'll cheat a bit here
     private SyncLooper mSyncLooper;
     private ShopGun mShopGun;
     private SgnDatabase mDatabase;
-    /** The handler used to send messages to the sync thread */
-    private Handler mHandler;
+    /** The thread that all synchronization is done on */
+    private final SyncEngine mEngine;
+    /** The handler used to post the final events to the main thread */
+    private final Handler mMainHandler;
     /** Variable to determine if offline lists should automatically be synchronized if certain criteria are met. */
     private boolean mMigrateOfflineLists = false;
     /** A tag for identifying all requests originating from this {@link SyncManager} in the {@link RequestQueue} */
@@ -137,6 +159,14 @@ public class SyncManager {
     /** The notification object, used to combine and collect notifications */
     private ShoppinglistEvent.Builder mBuilder = new ShoppinglistEvent.Builder(true);
     private Delivery mDelivery;
+    /** Variable to determine if only changed lists and items should be merged into the database. Set from any thread, read on the sync thread */
+    private volatile boolean mDeltaSync = false;
+    /** Fingerprints of the server state, used for delta sync. Only accessed from the sync thread */
+    private DeltaSyncState mDeltaState;
+    /** The journaled changes that have been sent, by {@link PendingChange#getKey()}. Only accessed from the sync thread */
+    private final HashMap<String, PendingChange> mSentChanges = new HashMap<String, PendingChange>();
+    /** Decides how often each list is checked for server changes */
+    private final ListScheduler mScheduler = new ListScheduler();
 
     /**
      * Default constructor for the {@link SyncManager}
@@ -144,22 +174,31 @@ public class SyncManager {
      * @param db A database
      */
     public SyncManager(ShopGun shopGun, SgnDatabase db) {
+        this(shopGun, db, new SyncEngine());
+    }
+
+    SyncManager(ShopGun shopGun, SgnDatabase db, SyncEngine engine) {
         mShopGun = shopGun;
         mShopGun.getLifecycleManager().registerCallback(new LifecycleCallback());
         mDatabase = db;
         mSyncLooper = new SyncLooper();
-        // Create a new thread for a handler, so that i can later post content to that thread.
-        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
-        thread.start();
-        mHandler = new Handler(thread.getLooper());
-        mDelivery = new HandlerDelivery(mHandler);
+        mEngine = engine;
+        mMainHandler = new Handler(Looper.getMainLooper());
+        // Make sure, that responses are delivered to the sync thread
+        mDelivery = mEngine.getDelivery();
     }
 
     private class LifecycleCallback extends LifecycleManager.SimpleCallback {
 
         @Override
         public void onCreate(Activity activity) {
-            mDatabase.open();
+            // Opening the database may have to create or upgrade it, don't do that on the main thread
+            mEngine.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mDatabase.open();
+                }
+            });
             SgnBus.getInstance().register(SyncManager.this);
             // Set a SyncInterval if user haven't set one yet, else just force a sync cycle
             int interval = mSyncInterval == Integer.MIN_VALUE ? SyncInterval.SLOW : mSyncInterval;
@@ -170,7 +209,13 @@ public class SyncManager {
         public void onDestroy(Activity activity) {
             mSyncLooper.forceSync();
             SgnBus.getInstance().unregister(SyncManager.this);
-            mDatabase.close();
+            // Close after the final sync iteration
+            mEngine.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mDatabase.close();
+                }
+            });
         }
 
     }
@@ -263,6 +308,61 @@ public class SyncManager {
         return mMigrateOfflineLists;
     }
 
+    /**
+     * Enable or disable delta sync.
+     *
+     * <p>Rather than checking the modified of every {@link Shoppinglist} in a request of its own,
+     * and periodically fetching the {@link ShoppinglistItem ShoppinglistItems} of every list, the
+     * {@link SyncManager} will fetch all lists in one request per iteration, and refresh the items
+     * of a few lists per iteration. Only lists and items that have changed since they were last
+     * seen, are merged into the database.</p>
+     *
+     * @param deltaSync {@code true} to enable delta sync, else {@code false}
+     */
+    public void setDeltaSync(boolean deltaSync) {
+        mDeltaSync = deltaSync;
+        mSyncLooper.forceSync();
+    }
+
+    /**
+     * @return {@code true} if delta sync is enabled, else {@code false}
+     */
+    public boolean isDeltaSync() {
+        return mDeltaSync;
+    }
+
+    /**
+     * Set the {@link Shoppinglist} that is currently on screen.
+     *
+     * <p>The foreground list is checked for changes on every iteration of the sync loop, and
+     * the loop runs at least at {@link SyncInterval#FAST} while a list is in the foreground. Lists
+     * that haven't been edited or viewed for a while, are checked less often.</p>
+     *
+     * @param shoppinglistId A {@link Shoppinglist#getId()}, or {@code null} when no list is on screen
+     */
+    public void setForegroundList(String shoppinglistId) {
+        String previous = mScheduler.getForeground();
+        mScheduler.setForeground(shoppinglistId, System.currentTimeMillis());
+        if (shoppinglistId != null && !shoppinglistId.equals(previous)) {
+            // Don't leave the user looking at a stale list, until the next iteration
+            mSyncLooper.forceSync();
+        }
+    }
+
+    /**
+     * @return The {@link Shoppinglist#getId()} of the list currently on screen, or {@code null}
+     */
+    public String getForegroundList() {
+        return mScheduler.getForeground();
+    }
+
+    private DeltaSyncState getDeltaState(User user) {
+        if (mDeltaState == null || !mDeltaState.isFor(user)) {
+            mDeltaState = new DeltaSyncState(user);
+        }
+        return mDeltaState;
+    }
+
     private void addRequest(Request<?> r) {
         // No request from here should return a result from cache
         r.setIgnoreCache(true);
@@ -303,10 +403,15 @@ public class SyncManager {
         }
 
         mBuilder.firstSync = mSyncLooper.mSyncCount == 1;
+        if (mCurrentRequests.isEmpty() && mBuilder.hasChanges()) {
+            // Bring the in-memory lists up to date, before anyone is told about the changes
+            User user = mShopGun.getSessionManager().getSession().getUser();
+            mShopGun.getListManager().getCache().refresh(mBuilder, user);
+        }
         if (mCurrentRequests.isEmpty() && !isPaused() && mBuilder.hasChanges()) {
             final ShoppinglistEvent e = mBuilder.build();
             mBuilder = new ShoppinglistEvent.Builder(true);
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
+            mMainHandler.post(new Runnable() {
                 @Override
                 public void run() {
                     SgnBus.getInstance().post(e);
@@ -318,21 +423,46 @@ public class SyncManager {
 
     private class SyncLooper implements Runnable {
 
-        private int mSyncCount = 0;
+        private volatile int mSyncCount = 0;
+        /** The next scheduled iteration. Only accessed from the sync thread */
+        private ScheduledFuture<?> mNext;
+        /** Set while a forced iteration is waiting to run, so a burst of calls to forceSync runs only once */
+        private final AtomicBoolean mForced = new AtomicBoolean(false);
+        private final Runnable mForcedRun = new Runnable() {
+            @Override
+            public void run() {
+                mForced.set(false);
+                SyncLooper.this.run();
+            }
+        };
 
         private void restart() {
-            mSyncCount = 0;
+            mEngine.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mSyncCount = 0;
+                    mDeltaState = null;
+                    mScheduler.clear();
+                }
+            });
             forceSync();
         }
 
         private void forceSync() {
-            mHandler.removeCallbacks(this);
-            mHandler.post(this);
+            if (mForced.compareAndSet(false, true)) {
+                mEngine.execute(mForcedRun);
+            }
         }
 
         @Override
         public void run() {
 
+            // This iteration replaces the scheduled one
+            if (mNext != null) {
+                mNext.cancel(false);
+                mNext = null;
+            }
+
             int interval = getSyncInterval();
             if (interval == SyncInterval.PAUSED) {
                 // Sync paused, quit the loop
@@ -353,7 +483,9 @@ public class SyncManager {
             // By not doing a return statement we allow for a final sync,
             // and sending local changes to server
             if (mShopGun.getLifecycleManager().isActive()) {
-                mHandler.postDelayed(this, interval);
+                // Keep the list on screen fresh
+                int next = mScheduler.getForeground() == null ? interval : Math.min(interval, SyncInterval.FAST);
+                mNext = mEngine.schedule(this, next);
             }
 
             // Only do an update, if there are no pending transactions, and we are online
@@ -361,40 +493,49 @@ public class SyncManager {
                 SyncLog.syncLooper(TAG, mSyncCount, "skip-loop-cycle (ReqInFlight)");
                 return;
             }
-            if (!ConnectivityUtils.isOnline(ShopGun.getInstance().getContext())) {
+            if (!ConnectivityUtils.isOnline(mShopGun.getContext())) {
                 SyncLog.syncLooper(TAG, mSyncCount, "skip-loop-cycle (Offline)");
                 return;
             }
 
             SgnDatabase database = mDatabase;
+            // No requests are in flight, so any sent change that is still journaled must be sent again
+            mSentChanges.clear();
+            List<PendingChange> changes = database.getChanges(user);
+            long now = System.currentTimeMillis();
+            for (PendingChange change : changes) {
+                mScheduler.onLocalChange(change.getShoppinglistId(), now);
+            }
+
             // If there are local changes to a list, then syncLocalListChanges will handle it: return
-            List<Shoppinglist> lists = database.getLists(user, true);
-            if (syncLocalListChanges(database, lists, user)) {
+            if (syncLocalListChanges(database, changes, user)) {
                 mSyncCount++;
                 SyncLog.syncLooper(TAG, mSyncCount, "syncLocalListChanges");
                 return;
             }
 
             // If there are changes to any items, then syncLocalItemChanges will handle it: return
-            boolean hasLocalChanges = false;
-            for (Shoppinglist sl : lists) {
-                boolean itemChanges = syncLocalItemChanges(database, sl, user);
-                boolean shareChanges = syncLocalShareChanges(database, sl, user);
-//                if (itemChanges || shareChanges) {
-//                    L.d(TAG, sl.getName() + "[ itemChanges: " + itemChanges + ", shareChanges: " + shareChanges + " ]");
-//                }
-                hasLocalChanges = itemChanges || shareChanges || hasLocalChanges;
-            }
+            boolean itemChanges = syncLocalItemChanges(database, changes, user);
+            boolean shareChanges = syncLocalShareChanges(database, changes, user);
 
             // Skip further sync if we just posted our own changes
-            if (hasLocalChanges) {
+            if (itemChanges || shareChanges) {
                 mSyncCount++;
                 SyncLog.syncLooper(TAG, mSyncCount, "hasLocalChanges");
                 return;
             }
 
             // Finally ready to get server changes
-            if (mSyncCount % 3 == 0) {
+            if (mDeltaSync) {
+
+                SyncLog.syncLooper(TAG, mSyncCount, "syncDelta");
+                DeltaSyncState state = getDeltaState(user);
+                addRequest(new DeltaListSyncRequest(database, user, state));
+                for (Shoppinglist sl : state.nextRefresh(database.getLists(user))) {
+                    addRequest(new ItemSyncRequest(database, sl, user));
+                }
+
+            } else if (mSyncCount % 3 == 0) {
 
                 // Get a new set of lists
                 SyncLog.syncLooper(TAG, mSyncCount, "syncAllLists");
@@ -407,7 +548,8 @@ public class SyncManager {
                 // have a situation where two devices have set the same modified
                 // on a list, and therefore won't try to get a new list of items
                 // So we force the SDK to get a new set once in a while
-                List<Shoppinglist> localLists = database.getLists(user);
+                // Dormant lists are only refreshed once in a while, on a schedule apart from the checks
+                List<Shoppinglist> localLists = mScheduler.nextRefreshDue(database.getLists(user), now);
                 for (Shoppinglist sl : localLists) {
                     addRequest(new ItemSyncRequest(database, sl, user));
                 }
@@ -416,7 +558,7 @@ public class SyncManager {
 
                 SyncLog.syncLooper(TAG, mSyncCount, "checkModified");
                 // Base case, just check if there is changes
-                syncListsModifiedTimestamp(database, user);
+                syncListsModifiedTimestamp(database, user, now);
 
             }
 
@@ -436,19 +578,100 @@ public class SyncManager {
         }
     }
 
-    private void syncListsModifiedTimestamp(SgnDatabase database, User user) {
-        List<Shoppinglist> lists = database.getLists(user);
-        for (Iterator<Shoppinglist> it = lists.iterator(); it.hasNext();) {
-            Shoppinglist sl = it.next();
+    private class DeltaListSyncRequest extends JsonArrayRequest {
+
+        private DeltaListSyncRequest(SgnDatabase database, User user, DeltaSyncState state) {
+            super(Endpoints.lists(user.getUserId()), new DeltaListSyncListener(database, user, state));
+            // Offset and limit are set to default values, we want to ignore this.
+            getParameters().remove(Parameters.OFFSET);
+            getParameters().remove(Parameters.LIMIT);
+            setSaveNetworkLog(SAVE_NETWORK_LOG);
+        }
+    }
+
+    private class DeltaListSyncListener implements Listener<JSONArray> {
+
+        private final SgnDatabase mDatabase;
+        private final User mUser;
+        private final DeltaSyncState mState;
+
+        private DeltaListSyncListener(SgnDatabase database, User user, DeltaSyncState state) {
+            mDatabase = database;
+            mUser = user;
+            mState = state;
+        }
+
+        @Override
+        public void onComplete(JSONArray response, ShopGunError error) {
+
+            if (response == null || mState != mDeltaState) {
+                // Error, or the user have changed in the meantime
+                popRequest();
+                return;
+            }
+
+            Set<String> changed = mState.updateLists(response);
+            Set<String> serverIds = new HashSet<>(response.length());
+            List<Shoppinglist> serverLists = new ArrayList<>(changed.size());
+            for (int i = 0; i < response.length(); i++) {
+                JSONObject o = response.optJSONObject(i);
+                String id = (o == null ? null : o.optString(SgnJson.ID, null));
+                serverIds.add(id);
+                if (changed.contains(id)) {
+                    serverLists.add(Shoppinglist.fromJSON(o));
+                }
+            }
+
+            // Only the local lists that have changed, or are gone from the server
+            List<Shoppinglist> localLists = new ArrayList<>();
+            for (Shoppinglist sl : mDatabase.getLists(mUser, true)) {
+                if (changed.contains(sl.getId()) || !serverIds.contains(sl.getId())) {
+                    localLists.add(sl);
+                }
+            }
+
+            if (!serverLists.isEmpty() || !localLists.isEmpty()) {
+
+                // Server usually returns items in the order oldest to newest (not guaranteed)
+                // We want them to be reversed
+                Collections.reverse(serverLists);
+
+                for (Shoppinglist sl : serverLists) {
+                    for (Share share : sl.getShares().values()) {
+                        share.setState(SyncState.SYNCED);
+                    }
+                }
+
+                mergeListsToDbAndFetchItems(mDatabase, serverLists, localLists, mUser);
+
+            }
+
+            popRequestAndPostShoppinglistEvent();
+
+        }
+
+    }
+
+    private void syncListsModifiedTimestamp(SgnDatabase database, User user, long now) {
+        List<Shoppinglist> lists = new ArrayList<>();
+        for (Shoppinglist sl : database.getLists(user)) {
             // If they are in the state of processing, then skip
             if (sl.getState() == SyncState.SYNCING) {
-                it.remove();
+                continue;
             }
             // If state has changed locally, then sync then items
             if (sl.getState() == SyncState.TO_SYNC) {
                 addRequest(new ItemSyncRequest(database, sl, user));
-                it.remove();
+                continue;
             }
+            lists.add(sl);
+        }
+        // Dormant lists are only checked once in a while
+        lists = mScheduler.nextDue(lists, now);
+        if (lists.isEmpty()) {
+            return;
+        }
+        for (Shoppinglist sl : lists) {
             // Run the check
             sl.setState(SyncState.SYNCING);
         }
@@ -458,38 +681,100 @@ public class SyncManager {
         }
     }
 
-    private boolean syncLocalListChanges(SgnDatabase database, List<Shoppinglist> lists, User user) {
-        int count = lists.size();
-        for (Shoppinglist sl : lists) {
-            switch (sl.getState()) {
-                case SyncState.TO_SYNC: addRequest(new ListPutRequest(database, user, sl)); break;
-                case SyncState.DELETE: addRequest(new ListDelRequest(database, user, sl)); break;
-                case SyncState.ERROR: addRequest(new ListRevertRequest(database, user, sl)); break;
-                default: count--; break;
+    private boolean syncLocalListChanges(SgnDatabase database, List<PendingChange> changes, User user) {
+        long now = System.currentTimeMillis();
+        Map<String, Shoppinglist> lists = null;
+        int count = 0;
+        for (PendingChange change : changes) {
+            if (change.getType() != PendingChange.TYPE_LIST || !isReady(change, now)) {
+                continue;
+            }
+            if (lists == null) {
+                lists = new HashMap<String, Shoppinglist>();
+                for (Shoppinglist sl : database.getLists(user, true)) {
+                    lists.put(sl.getId(), sl);
+                }
+            }
+            Shoppinglist sl = lists.get(change.getId());
+            Request<?> r = null;
+            if (sl != null) {
+                switch (sl.getState()) {
+                    case SyncState.TO_SYNC: r = new ListPutRequest(database, user, sl); break;
+                    case SyncState.SYNCING:
+                        // No requests are in flight, so it's a PUT that didn't complete, e.g. on a network error.
+                        // Mark the list for sending again, which journals it anew, and it's sent with the next iteration
+                        sl.setState(SyncState.TO_SYNC);
+                        database.editList(sl, user);
+                        continue;
+                    case SyncState.DELETE: r = new ListDelRequest(database, user, sl); break;
+                    case SyncState.ERROR: r = new ListRevertRequest(database, user, sl); break;
+                }
+            }
+            if (sendChange(database, user, change, r)) {
+                count++;
             }
         }
         return count != 0;
     }
 
-    private boolean syncLocalItemChanges(SgnDatabase database, Shoppinglist sl, User user) {
-        List<ShoppinglistItem> items = database.getItems(sl, user, true);
-        int count = items.size();
-        for (ShoppinglistItem item : items) {
-            switch (item.getState()) {
-                case SyncState.TO_SYNC: addRequest(new ItemPutRequest(database, user, item)); break;
-                case SyncState.DELETE: addRequest(new ItemDelRequest(database, user, item)); break;
-                case SyncState.ERROR: addRequest(new ItemRevertRequest(database, user, item)); break;
-                default: count--; break;
+    private boolean syncLocalItemChanges(SgnDatabase database, List<PendingChange> changes, User user) {
+        long now = System.currentTimeMillis();
+        // Items must wait for the list they belong to
+        Set<String> pendingLists = getPendingLists(changes);
+        Map<String, Map<String, ShoppinglistItem>> lists = new HashMap<String, Map<String, ShoppinglistItem>>();
+        int count = 0;
+        for (PendingChange change : changes) {
+            if (change.getType() != PendingChange.TYPE_ITEM || !isReady(change, now) ||
+                    pendingLists.contains(change.getShoppinglistId())) {
+                continue;
+            }
+            Map<String, ShoppinglistItem> items = lists.get(change.getShoppinglistId());
+            if (items == null) {
+                items = new HashMap<String, ShoppinglistItem>();
+                for (ShoppinglistItem sli : database.getItems(change.getShoppinglistId(), user, true)) {
+                    items.put(sli.getId(), sli);
+                }
+                lists.put(change.getShoppinglistId(), items);
+            }
+            ShoppinglistItem item = items.get(change.getId());
+            Request<?> r = null;
+            if (item != null) {
+                switch (item.getState()) {
+                    case SyncState.TO_SYNC:
+                    case SyncState.SYNCING: r = new ItemPutRequest(database, user, item); break;
+                    case SyncState.DELETE: r = new ItemDelRequest(database, user, item); break;
+                    case SyncState.ERROR: r = new ItemRevertRequest(database, user, item); break;
+                }
+            }
+            if (sendChange(database, user, change, r)) {
+                count++;
             }
         }
         return count != 0;
     }
 
-    private boolean syncLocalShareChanges(SgnDatabase database, Shoppinglist sl, User user) {
-        List<Share> shares = database.getShares(sl, user, true);
-        int count = shares.size();
-        for (Share s : shares) {
-            if (s.isAccessOwner()) {
+    private boolean syncLocalShareChanges(SgnDatabase database, List<PendingChange> changes, User user) {
+        long now = System.currentTimeMillis();
+        // Shares must wait for the list they belong to
+        Set<String> pendingLists = getPendingLists(changes);
+        Map<String, Map<String, Share>> lists = new HashMap<String, Map<String, Share>>();
+        int count = 0;
+        for (PendingChange change : changes) {
+            if (change.getType() != PendingChange.TYPE_SHARE || !isReady(change, now) ||
+                    pendingLists.contains(change.getShoppinglistId())) {
+                continue;
+            }
+            Map<String, Share> shares = lists.get(change.getShoppinglistId());
+            if (shares == null) {
+                shares = new HashMap<String, Share>();
+                for (Share s : database.getShares(change.getShoppinglistId(), user, true)) {
+                    shares.put(s.getEmail(), s);
+                }
+                lists.put(change.getShoppinglistId(), shares);
+            }
+            Share s = shares.get(change.getId());
+            Request<?> r = null;
+            if (s != null && s.isAccessOwner()) {
                 // The API doesn't allow the owner-share to be edited/deleted as it's technically
                 // not a share in the API-share-table. So we will not be sending any request from
                 // the owner to the API. But rather do a herd coding of the object.
@@ -498,24 +783,85 @@ public class SyncManager {
                     SgnLog.v(TAG, "API doesn't allow owner to be 'deleted'. Deleting from own DB and ignoring.");
                 } else if (s.getState() != SyncState.SYNCED) {
                     s.setState(SyncState.SYNCED);
-                    s.setShoppinglistId(sl.getId());
+                    s.setShoppinglistId(change.getShoppinglistId());
                     database.editShare(s, user);
                     SgnLog.v(TAG, "Owner cannot be edited. Resetting share.state and ignoring.");
                 }
-                count--;
-                continue;
+            } else if (s != null) {
+                switch (s.getState()) {
+                    case SyncState.TO_SYNC:
+                    case SyncState.SYNCING: r = new SharePutRequest(database, user, s); break;
+                    case SyncState.DELETE: r = new ShareDelRequest(database, user, s); break;
+                    case SyncState.ERROR: r = new ShareRevertRequest(database, user, s); break;
+                }
             }
-
-            switch (s.getState()) {
-                case SyncState.TO_SYNC: addRequest(new SharePutRequest(database, user, s)); break;
-                case SyncState.DELETE: addRequest(new ShareDelRequest(database, user, s)); break;
-                case SyncState.ERROR: addRequest(new ShareRevertRequest(database, user, s)); break;
-                default: count--; break;
+            if (sendChange(database, user, change, r)) {
+                count++;
             }
         }
         return count != 0;
     }
 
+    /**
+     * Check if a journaled change can be sent now. It can't if it's already in flight, or is
+     * waiting for a retry after a failed attempt.
+     */
+    private boolean isReady(PendingChange change, long now) {
+        return !mSentChanges.containsKey(change.getKey()) && change.getRetryAt() <= now;
+    }
+
+    private static Set<String> getPendingLists(List<PendingChange> changes) {
+        Set<String> lists = new HashSet<String>();
+        for (PendingChange change : changes) {
+            if (change.getType() == PendingChange.TYPE_LIST) {
+                lists.add(change.getId());
+            }
+        }
+        return lists;
+    }
+
+    /**
+     * Send the request for a journaled change, and schedule the retry in case the request fails.
+     * @param database The database
+     * @param user The user
+     * @param change The change to send
+     * @param r The request, or {@code null} if the object is already synchronized or deleted
+     * @return {@code true} if a request was sent, else {@code false}
+     */
+    private boolean sendChange(SgnDatabase database, User user, PendingChange change, Request<?> r) {
+        if (r == null) {
+            database.completeChange(change, user);
+            return false;
+        }
+        long retryAt = System.currentTimeMillis() + PendingChange.getBackoff(change.getAttempts());
+        database.deferChange(change, user, retryAt);
+        mSentChanges.put(change.getKey(), change);
+        addRequest(r);
+        return true;
+    }
+
+    /**
+     * Remove a sent change from the journal, once the API have accepted it, or the change have been abandoned.
+     */
+    private void completeChange(SgnDatabase database, User user, int type, String shoppinglistId, String id) {
+        PendingChange change = mSentChanges.remove(PendingChange.getKey(type, shoppinglistId, id));
+        if (change != null) {
+            database.completeChange(change, user);
+        }
+    }
+
+    private void completeChange(SgnDatabase database, User user, Shoppinglist sl) {
+        completeChange(database, user, PendingChange.TYPE_LIST, sl.getId(), sl.getId());
+    }
+
+    private void completeChange(SgnDatabase database, User user, ShoppinglistItem sli) {
+        completeChange(database, user, PendingChange.TYPE_ITEM, sli.getShoppinglistId(), sli.getId());
+    }
+
+    private void completeChange(SgnDatabase database, User user, Share share) {
+        completeChange(database, user, PendingChange.TYPE_SHARE, share.getShoppinglistId(), share.getEmail());
+    }
+
     private class ListSyncListener extends ListArrayListener {
 
         private ListSyncListener(SgnDatabase database, User user, int syncCount) {
@@ -575,6 +921,7 @@ public class SyncManager {
         union.addAll(serverMap.keySet());
         union.addAll(localMap.keySet());
 
+        WriteBatch batch = new WriteBatch();
         for (String key : union) {
 
             if (localMap.containsKey(key)) {
@@ -588,8 +935,7 @@ public class SyncManager {
                     if (localSl.getModified().before(serverSl.getModified())) {
                         serverSl.setState(SyncState.SYNCED);
                         mBuilder.edit(serverSl);
-                        database.editList(serverSl, user);
-                        database.cleanShares(serverSl, user);
+                        batch.putList(serverSl);
                     }
                     // else: Don't do anything, next iteration will put local changes to API
 
@@ -598,26 +944,32 @@ public class SyncManager {
                     for (ShoppinglistItem sli : database.getItems(localSl, user)) {
                         mBuilder.del(sli);
                     }
-                    database.deleteItems(localSl.getId(), null, user);
-                    database.deleteList(localSl, user);
+                    batch.deleteItems(localSl.getId());
+                    batch.deleteList(localSl.getId());
                 }
 
             } else {
 
                 Shoppinglist add = serverMap.get(key);
-                add.setState(SyncState.TO_SYNC);
+                // The items are fetched right away. It's not a local change, so it mustn't be journaled
+                add.setState(SyncState.SYNCING);
                 mBuilder.add(add);
-                database.insertList(add, user);
+                batch.putList(add);
 
             }
 
         }
 
+        database.apply(batch, user);
+
+        long now = System.currentTimeMillis();
         for (Shoppinglist sl : mBuilder.getAddedLists()) {
+            mScheduler.onServerChange(sl.getId(), now);
             addRequest(new ItemSyncRequest(database, sl, user));
         }
 
         for (Shoppinglist sl : mBuilder.getEditedLists()) {
+            mScheduler.onServerChange(sl.getId(), now);
             addRequest(new ItemSyncRequest(database, sl, user));
         }
 
@@ -648,6 +1000,7 @@ public class SyncManager {
                 Date modified = SgnUtils.stringToDate(modifiedString);
                 // If local list has been modified before the server list, then sync items
                 if (mShoppinglist.getModified().before(modified)) {
+                    mScheduler.onServerChange(mShoppinglist.getId(), System.currentTimeMillis());
                     // If there are changes, update items (this will update list-state in DB)
                     addRequest(new ItemSyncRequest(mDatabase, mShoppinglist, mUser));
                 } else {
@@ -717,6 +1070,12 @@ public class SyncManager {
             mShoppinglist.setState(SyncState.SYNCED);
             mDatabase.editList(mShoppinglist, mUser);
 
+            if (mDeltaSync && !getDeltaState(mUser).updateItems(mShoppinglist.getId(), response)) {
+                // Same items as last time, nothing to merge
+                popRequestAndPostShoppinglistEvent();
+                return;
+            }
+
             // Get ALL items including deleted, to avoid adding them again
             List<ShoppinglistItem> localItems = mDatabase.getItems(mShoppinglist, mUser, true);
             List<ShoppinglistItem> serverItems = ShoppinglistItem.fromJSON(response);
@@ -730,33 +1089,30 @@ public class SyncManager {
 
             mergeItemsToDb(mDatabase, serverItems, localItems, mUser);
 
-            // fetch updated items from DB, as the state might be a bit whack after the merging of items
-            localItems = mDatabase.getItems(mShoppinglist, mUser);
-            ListUtils.sortItems(localItems);
-
             if (PermissionUtils.allowEdit(mShoppinglist, mUser)) {
 
+                // fetch updated items from DB, as the state might be a bit whack after the merging of items
+                ItemOrderIndex order = new ItemOrderIndex(mDatabase.getItems(mShoppinglist, mUser));
+
                 // Update previous_id's, modified and state if needed
-                String tmp = ListUtils.FIRST_ITEM;
-                for (ShoppinglistItem sli : localItems) {
-
-                    if (!tmp.equals(sli.getPreviousId())) {
-                        sli.setPreviousId(tmp);
-                        sli.setModified(new Date());
-                        sli.setState(SyncState.TO_SYNC);
-
-                        // If it's a new item, it's already in the added list, then we'll override it
-                        // else add it to the edited as a new item to the edited list
-                        if (mBuilder.items.containsKey(sli.getId())) {
-                            mBuilder.add(sli);
-                        } else {
-                            mBuilder.edit(sli);
-                        }
-
-                        mDatabase.editItems(sli, mUser);
+                WriteBatch batch = new WriteBatch();
+                Date now = new Date();
+                for (ShoppinglistItem sli : order.repair()) {
+
+                    sli.setModified(now);
+                    sli.setState(SyncState.TO_SYNC);
+
+                    // If it's a new item, it's already in the added list, then we'll override it
+                    // else add it to the edited as a new item to the edited list
+                    if (mBuilder.items.containsKey(sli.getId())) {
+                        mBuilder.add(sli);
+                    } else {
+                        mBuilder.edit(sli);
                     }
-                    tmp = sli.getId();
+
+                    batch.putItem(sli);
                 }
+                mDatabase.apply(batch, mUser);
             }
 
             popRequestAndPostShoppinglistEvent();
@@ -785,6 +1141,7 @@ public class SyncManager {
         union.addAll(serverMap.keySet());
         union.addAll(localMap.keySet());
 
+        WriteBatch batch = new WriteBatch();
         for (String key : union) {
 
             if (localMap.containsKey(key)) {
@@ -797,12 +1154,12 @@ public class SyncManager {
 
                     if (localSli.getModified().before(serverSli.getModified())) {
                         mBuilder.edit(serverSli);
-                        database.editItems(serverSli, user);
+                        batch.putItem(serverSli);
 
                     } else if (!localSli.getMeta().toString().equals(serverSli.getMeta().toString())) {
                         // Migration code, to get comments into the DB
                         mBuilder.edit(serverSli);
-                        database.editItems(serverSli, user);
+                        batch.putItem(serverSli);
                     } else if (localSli.equals(serverSli)) {
                         SgnLog.d(TAG, "We have a mismatch");
                     }
@@ -813,17 +1170,19 @@ public class SyncManager {
                         // If the item have been added while request was in flight it will
                         // have the state TO_SYNC, and will just ignore it for now
                         mBuilder.del(delSli);
-                        database.deleteItem(delSli, user);
+                        batch.deleteItem(delSli.getId());
                     }
                 }
 
             } else {
                 ShoppinglistItem serverSli = serverMap.get(key);
                 mBuilder.add(serverSli);
-                database.insertItem(serverSli, user);
+                batch.putItem(serverSli);
             }
         }
 
+        database.apply(batch, user);
+
     }
 
     private class ListPutListener extends ListObjectListener {
@@ -841,6 +1200,7 @@ public class SyncManager {
                 case Code.INVALID_RESOURCE_ID:
                     // maybe deleted from another device - delete and ignore
                     mDatabase.deleteList(mLocalCopy, mUser);
+                    completeChange(mDatabase, mUser, mLocalCopy);
                     break;
 
                 case Code.NETWORK_ERROR:
@@ -866,8 +1226,9 @@ public class SyncManager {
                 mDatabase.editList(response, mUser);
                 mBuilder.edit(response);
             }
+            completeChange(mDatabase, mUser, mLocalCopy);
             popRequest();
-            syncLocalItemChanges(mDatabase, mLocalCopy, mUser);
+            syncLocalItemChanges(mDatabase, mDatabase.getChanges(mUser), mUser);
         }
 
     }
@@ -912,6 +1273,7 @@ public class SyncManager {
             mDatabase.deleteList(mLocalCopy, mUser);
             mDatabase.deleteShares(mLocalCopy, mUser);
             mDatabase.deleteItems(mLocalCopy.getId(), null, mUser);
+            completeChange(mDatabase, mUser, mLocalCopy);
             popRequest();
         }
 
@@ -924,6 +1286,7 @@ public class SyncManager {
                 case Code.INVALID_RESOURCE_ID:
                     // Resource already gone (or have never been synchronized) delete local version and ignore
                     mDatabase.deleteList(mLocalCopy, mUser);
+                    completeChange(mDatabase, mUser, mLocalCopy);
                     break;
 
                 case Code.NETWORK_ERROR:
@@ -969,7 +1332,8 @@ public class SyncManager {
                     mLocalCopy.getPreviousId() : response.getPreviousId());
             mDatabase.editList(response, mUser);
             mBuilder.add(response);
-            syncLocalItemChanges(mDatabase, mLocalCopy, mUser);
+            completeChange(mDatabase, mUser, mLocalCopy);
+            syncLocalItemChanges(mDatabase, mDatabase.getChanges(mUser), mUser);
         }
 
         @Override
@@ -978,6 +1342,7 @@ public class SyncManager {
                 // Only network errors are allowed here
                 mDatabase.deleteList(mLocalCopy, mUser);
                 mBuilder.del(mLocalCopy);
+                completeChange(mDatabase, mUser, mLocalCopy);
             }
         }
     }
@@ -1016,6 +1381,7 @@ public class SyncManager {
 
             }
 
+            completeChange(mDatabase, mUser, mLocalCopy);
             popRequestAndPostShoppinglistEvent();
 
         }
@@ -1051,6 +1417,7 @@ public class SyncManager {
         @Override
         public void onSuccess(ShoppinglistItem response) {
             mDatabase.deleteItem(mLocalCopy, mUser);
+            completeChange(mDatabase, mUser, mLocalCopy);
             popRequest();
         }
 
@@ -1062,6 +1429,7 @@ public class SyncManager {
                 case Code.INVALID_RESOURCE_ID:
                     // Resource already gone (or have never been synchronized) delete local version and ignore
                     mDatabase.deleteItem(mLocalCopy, mUser);
+                    completeChange(mDatabase, mUser, mLocalCopy);
                     break;
 
                 case Code.NETWORK_ERROR:
@@ -1099,6 +1467,7 @@ public class SyncManager {
         public void onSuccess(ShoppinglistItem response) {
             response.setState(SyncState.SYNCED);
             response.setPreviousId(response.getPreviousId() == null ? mLocalCopy.getPreviousId() : response.getPreviousId());
+            mDatabase.editItems(response, mUser);
             mBuilder.edit(response);
         }
 
@@ -1111,6 +1480,7 @@ public class SyncManager {
 
         public void onComplete(JSONObject response, ShopGunError error) {
             super.onComplete(response, error);
+            completeChange(mDatabase, mUser, mLocalCopy);
 
             // Update shopping list modified to match the latest date of the
             // items, so that we get as close to API state as possible
@@ -1149,6 +1519,7 @@ public class SyncManager {
             response.setState(SyncState.SYNCED);
             response.setShoppinglistId(mLocalCopy.getShoppinglistId());
             mDatabase.editShare(response, mUser);
+            completeChange(mDatabase, mUser, mLocalCopy);
             popRequest();
         }
 
@@ -1157,6 +1528,7 @@ public class SyncManager {
             if (error.getFailedOnField() != null) {
                 // If it's a FailedOnField, we can't do anything, yet. Remove the share to keep the DB sane.
                 mDatabase.deleteShare(mLocalCopy, mUser);
+                completeChange(mDatabase, mUser, mLocalCopy);
                 // No need to edit the SL in DB, as shares are disconnected
                 Shoppinglist sl = mDatabase.getList(mLocalCopy.getShoppinglistId(), mUser);
                 if (sl != null) {
@@ -1203,6 +1575,7 @@ public class SyncManager {
                 // Else just remove the share in question
                 mDatabase.deleteShare(mLocalCopy, mUser);
             }
+            completeChange(mDatabase, mUser, mLocalCopy);
             popRequest();
 
         }
@@ -1221,6 +1594,7 @@ public class SyncManager {
                 case Code.INVALID_RESOURCE_ID:
                     // Resource gone (or have never been synchronized) delete local version and ignore
                     mDatabase.deleteShare(mLocalCopy, mUser);
+                    completeChange(mDatabase, mUser, mLocalCopy);
                     break;
 
                 default:
@@ -1256,6 +1630,7 @@ public class SyncManager {
             response.setState(SyncState.SYNCED);
             response.setShoppinglistId(mLocalCopy.getShoppinglistId());
             mDatabase.editShare(response, mUser);
+            completeChange(mDatabase, mUser, mLocalCopy);
 
             // No need to edit the SL in DB, as shares are disconnected
             Shoppinglist sl = mDatabase.getList(response.getShoppinglistId(), mUser);
@@ -1275,6 +1650,7 @@ public class SyncManager {
         @Override
         public void onError(ShopGunError error) {
             mDatabase.deleteShare(mLocalCopy, mUser);
+            completeChange(mDatabase, mUser, mLocalCopy);
             popRequest();
         }
     }
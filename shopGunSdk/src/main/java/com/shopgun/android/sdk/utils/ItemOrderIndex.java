@@ -0,0 +1,379 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk.utils;
+
+import com.shopgun.android.sdk.model.Shoppinglist;
+import com.shopgun.android.sdk.model.ShoppinglistItem;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * An index of the order of the {@link ShoppinglistItem ShoppinglistItems} in a {@link Shoppinglist}.
+ *
+ * <p>The order is persisted as a linked list, where each item points to the item before it with
+ * {@link ShoppinglistItem#getPreviousId() previous_id}, and the first item points to
+ * {@link ListUtils#FIRST_ITEM}. The index keeps the same chain in memory as a doubly linked list,
+ * with a map from id to node, so {@link #insert(ShoppinglistItem, String) insert},
+ * {@link #move(String, String) move} and {@link #remove(String) remove} are O(1), and only return
+ * the (at most three) items whose {@code previous_id} changed, and must be written to the database.</p>
+ *
+ * <p>{@link #update(List)} reconciles the index with a fresh set of items from the database. Items
+ * that are still consistent with the chain keep their position, and only the items that were added,
+ * removed or moved elsewhere are detached and re-attached, so the ordered view is produced without
+ * a full sort. Items pointing to an unknown item (orphans), or to an item that is already claimed by
+ * another item (duplicates), are appended to the end of the list, and items without a
+ * {@code previous_id} are put first, just like {@link ListUtils#sortItems(List)} does.
+ * {@link #repair()} will then update the {@code previous_id} of those items.</p>
+ *
+ * <p>This class is not thread safe.</p>
+ */
+public class ItemOrderIndex {
+
+    public static final String TAG = Constants.getTag(ItemOrderIndex.class);
+
+    private final HashMap<String, Node> mNodes = new HashMap<String, Node>();
+    private final Node mHead = new Node(null);
+
+    public ItemOrderIndex() {
+        mHead.next = mHead;
+        mHead.prev = mHead;
+    }
+
+    /**
+     * Create a new index from a list of items, in any order.
+     * @param items A list of {@link ShoppinglistItem}
+     */
+    public ItemOrderIndex(List<ShoppinglistItem> items) {
+        this();
+        update(items);
+    }
+
+    /**
+     * @return The number of items in the index
+     */
+    public int size() {
+        return mNodes.size();
+    }
+
+    /**
+     * @param id A {@link ShoppinglistItem#getId()}
+     * @return {@code true} if the item is in the index, else {@code false}
+     */
+    public boolean contains(String id) {
+        return mNodes.containsKey(id);
+    }
+
+    /**
+     * @param id A {@link ShoppinglistItem#getId()}
+     * @return The item, or {@code null}
+     */
+    public ShoppinglistItem get(String id) {
+        Node n = mNodes.get(id);
+        return n == null ? null : n.item;
+    }
+
+    /**
+     * @return A new list containing the items in order
+     */
+    public List<ShoppinglistItem> getItems() {
+        List<ShoppinglistItem> items = new ArrayList<ShoppinglistItem>(mNodes.size());
+        for (Node n = mHead.next; n != mHead; n = n.next) {
+            items.add(n.item);
+        }
+        return items;
+    }
+
+    /**
+     * Insert a new item after the item with the given id.
+     * @param sli A {@link ShoppinglistItem}
+     * @param previousId The id of the item to insert after, or {@link ListUtils#FIRST_ITEM}
+     * @return The items where {@link ShoppinglistItem#getPreviousId() previous_id} changed
+     */
+    public List<ShoppinglistItem> insert(ShoppinglistItem sli, String previousId) {
+        List<ShoppinglistItem> changed = new ArrayList<ShoppinglistItem>(2);
+        Node n = mNodes.get(sli.getId());
+        if (n != null) {
+            n.item = sli;
+            return move(n, anchor(previousId), changed);
+        }
+        n = new Node(sli);
+        mNodes.put(sli.getId(), n);
+        linkAfter(anchor(previousId), n, changed);
+        return changed;
+    }
+
+    /**
+     * Move an item, so it's placed after the item with the given id.
+     * @param id A {@link ShoppinglistItem#getId()} to move
+     * @param previousId The id of the item to place it after, or {@link ListUtils#FIRST_ITEM}
+     * @return The items where {@link ShoppinglistItem#getPreviousId() previous_id} changed
+     */
+    public List<ShoppinglistItem> move(String id, String previousId) {
+        Node n = mNodes.get(id);
+        if (n == null) {
+            throw new IllegalArgumentException("No item with id " + id);
+        }
+        return move(n, anchor(previousId), new ArrayList<ShoppinglistItem>(3));
+    }
+
+    /**
+     * Remove an item from the index.
+     * @param id A {@link ShoppinglistItem#getId()} to remove
+     * @return The items where {@link ShoppinglistItem#getPreviousId() previous_id} changed
+     */
+    public List<ShoppinglistItem> remove(String id) {
+        List<ShoppinglistItem> changed = new ArrayList<ShoppinglistItem>(1);
+        Node n = mNodes.remove(id);
+        if (n != null) {
+            unlink(n, changed);
+        }
+        return changed;
+    }
+
+    private Node anchor(String previousId) {
+        if (previousId == null || ListUtils.FIRST_ITEM.equals(previousId)) {
+            return mHead;
+        }
+        Node anchor = mNodes.get(previousId);
+        if (anchor == null) {
+            throw new IllegalArgumentException("No item with id " + previousId);
+        }
+        return anchor;
+    }
+
+    private List<ShoppinglistItem> move(Node n, Node anchor, List<ShoppinglistItem> changed) {
+        if (anchor == n) {
+            throw new IllegalArgumentException("An item cannot be placed after itself");
+        }
+        if (anchor.next == n) {
+            setPrevious(n, anchor, changed);
+            return changed;
+        }
+        unlink(n, changed);
+        linkAfter(anchor, n, changed);
+        return changed;
+    }
+
+    private void unlink(Node n, List<ShoppinglistItem> changed) {
+        Node next = n.next;
+        n.prev.next = next;
+        next.prev = n.prev;
+        if (changed != null && next != mHead) {
+            setPrevious(next, n.prev, changed);
+        }
+    }
+
+    private void linkAfter(Node anchor, Node n, List<ShoppinglistItem> changed) {
+        Node next = anchor.next;
+        n.prev = anchor;
+        n.next = next;
+        anchor.next = n;
+        next.prev = n;
+        if (changed != null) {
+            setPrevious(n, anchor, changed);
+            if (next != mHead) {
+                setPrevious(next, n, changed);
+            }
+        }
+    }
+
+    private void setPrevious(Node n, Node prev, List<ShoppinglistItem> changed) {
+        String id = idOf(prev);
+        if (!id.equals(n.item.getPreviousId())) {
+            n.item.setPreviousId(id);
+            if (!changed.contains(n.item)) {
+                changed.add(n.item);
+            }
+        }
+    }
+
+    private String idOf(Node n) {
+        return n == mHead ? ListUtils.FIRST_ITEM : n.item.getId();
+    }
+
+    private boolean isClaimed(Node n) {
+        return n != mHead && idOf(n.prev).equals(n.item.getPreviousId());
+    }
+
+    /**
+     * Reconcile the index with the current set of items in the {@link Shoppinglist}. Items that are
+     * no longer in the list are removed, and new or moved items are placed according to their
+     * {@link ShoppinglistItem#getPreviousId() previous_id}. The given items are not modified.
+     * @param items All the items in the {@link Shoppinglist}, in any order
+     */
+    public void update(List<ShoppinglistItem> items) {
+
+        HashMap<String, ShoppinglistItem> fresh = new HashMap<String, ShoppinglistItem>(items.size());
+        for (ShoppinglistItem sli : items) {
+            fresh.put(sli.getId(), sli);
+        }
+
+        // Remove items that are gone, and update the rest with the new instances
+        List<Node> removed = new ArrayList<Node>();
+        for (Node n = mHead.next; n != mHead; n = n.next) {
+            ShoppinglistItem sli = fresh.get(n.item.getId());
+            if (sli == null) {
+                mNodes.remove(n.item.getId());
+                removed.add(n);
+            } else {
+                n.item = sli;
+            }
+        }
+        for (Node n : removed) {
+            unlink(n, null);
+        }
+
+        // Detached segments, each segment is an item, and the items following it that still point to it
+        List<Node> detached = new ArrayList<Node>();
+        for (ShoppinglistItem sli : items) {
+            if (!mNodes.containsKey(sli.getId())) {
+                Node n = new Node(sli);
+                n.last = n;
+                mNodes.put(sli.getId(), n);
+                detached.add(n);
+            }
+        }
+
+        // Detach every segment that doesn't agree with it's position in the chain
+        Node n = mHead.next;
+        while (n != mHead) {
+            if (isClaimed(n)) {
+                n = n.next;
+                continue;
+            }
+            Node last = n;
+            while (last.next != mHead && isClaimed(last.next)) {
+                last = last.next;
+            }
+            Node next = last.next;
+            n.prev.next = next;
+            next.prev = n.prev;
+            n.prev = null;
+            last.next = null;
+            n.last = last;
+            detached.add(n);
+            n = next;
+        }
+
+        if (detached.isEmpty()) {
+            return;
+        }
+
+        // Group the detached segments by the item they point to
+        HashMap<String, List<Node>> waiting = new HashMap<String, List<Node>>();
+        List<ShoppinglistItem> nil = new ArrayList<ShoppinglistItem>();
+        for (Node segment : detached) {
+            String prevId = segment.item.getPreviousId();
+            if (prevId == null) {
+                nil.add(segment.item);
+            } else {
+                List<Node> list = waiting.get(prevId);
+                if (list == null) {
+                    list = new ArrayList<Node>(1);
+                    waiting.put(prevId, list);
+                }
+                list.add(segment);
+            }
+        }
+
+        // Attach segments to anchors that are in the chain, then to the segments just attached
+        ArrayDeque<Node> anchors = new ArrayDeque<Node>();
+        for (String prevId : waiting.keySet()) {
+            Node anchor = ListUtils.FIRST_ITEM.equals(prevId) ? mHead : mNodes.get(prevId);
+            if (anchor != null && anchor.next != null) {
+                anchors.add(anchor);
+            }
+        }
+        while (!anchors.isEmpty()) {
+            Node anchor = anchors.poll();
+            List<Node> list = waiting.get(idOf(anchor));
+            if (list == null || isClaimed(anchor.next)) {
+                // Already taken, the rest are handled as duplicates below
+                continue;
+            }
+            Node segment = list.remove(0);
+            if (list.isEmpty()) {
+                waiting.remove(idOf(anchor));
+            }
+            linkAfter(anchor, segment);
+            anchors.add(segment.last);
+        }
+
+        // Segments without a previous go first, orphans and duplicates last
+        List<ShoppinglistItem> orphans = new ArrayList<ShoppinglistItem>();
+        for (List<Node> list : waiting.values()) {
+            for (Node segment : list) {
+                orphans.add(segment.item);
+            }
+        }
+        Collections.sort(orphans, ShoppinglistItem.TITLE_ASCENDING);
+        for (ShoppinglistItem sli : orphans) {
+            linkAfter(mHead.prev, mNodes.get(sli.getId()));
+        }
+        Collections.sort(nil, ShoppinglistItem.TITLE_ASCENDING);
+        Node anchor = mHead;
+        for (ShoppinglistItem sli : nil) {
+            Node segment = mNodes.get(sli.getId());
+            linkAfter(anchor, segment);
+            anchor = segment.last;
+        }
+
+    }
+
+    /**
+     * Link a detached segment after the anchor.
+     */
+    private void linkAfter(Node anchor, Node segment) {
+        Node next = anchor.next;
+        segment.prev = anchor;
+        segment.last.next = next;
+        anchor.next = segment;
+        next.prev = segment.last;
+    }
+
+    /**
+     * Update the {@link ShoppinglistItem#getPreviousId() previous_id} of all items that doesn't
+     * agree with their position in the index, e.g. orphans and duplicates.
+     * @return The items where {@link ShoppinglistItem#getPreviousId() previous_id} changed
+     */
+    public List<ShoppinglistItem> repair() {
+        List<ShoppinglistItem> changed = new ArrayList<ShoppinglistItem>();
+        for (Node n = mHead.next; n != mHead; n = n.next) {
+            setPrevious(n, n.prev, changed);
+        }
+        return changed;
+    }
+
+    private static class Node {
+
+        ShoppinglistItem item;
+        Node prev;
+        Node next;
+        /** The last node of a detached segment, only used while reconciling */
+        Node last;
+
+        Node(ShoppinglistItem item) {
+            this.item = item;
+        }
+    }
+
+}
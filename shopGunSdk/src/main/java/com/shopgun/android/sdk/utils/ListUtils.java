@@ -36,11 +36,23 @@ public class ListUtils {
         SgnLog.d(tag, "Item " + s.getDescription() + " prevId( " + s.getPreviousId() + ") - modified( " + s.getModified().toGMTString() + " ) ");
     }
 
+    /**
+     * Move the item at {@code movePos} to be after the item at {@code prevPos}, by updating the
+     * {@link ShoppinglistItem#getPreviousId() previous_id} of the affected items.
+     *
+     * <p>If the list is ordered (e.g. by {@link #sortItems(List)} or {@link ItemOrderIndex}) only
+     * the neighbours are touched, else the whole list is searched for the affected items.</p>
+     *
+     * @param list A list of {@link ShoppinglistItem}
+     * @param prevPos The position of the item to move after, or -1 to move to the top
+     * @param movePos The position of the item to move
+     * @return The items that have changed
+     */
     public static List<ShoppinglistItem> setPrevious(List<ShoppinglistItem> list, int prevPos, int movePos) {
 
         List<ShoppinglistItem> tmp = new ArrayList<ShoppinglistItem>();
 
-        if (list == null || list.isEmpty() || movePos < 0) {
+        if (list == null || list.isEmpty() || movePos < 0 || prevPos == movePos) {
             return tmp;
         }
 
@@ -52,6 +64,31 @@ public class ListUtils {
         ShoppinglistItem prev = isFirst ? null : list.get(prevPos);
         String prevId = isFirst ? FIRST_ITEM : prev.getId();
 
+        if (prevId.equals(move.getPreviousId())) {
+            // Already in place
+            tmp.add(move);
+            return tmp;
+        }
+
+        // In an ordered list, the only other items affected are the neighbours
+        int size = list.size();
+        ShoppinglistItem afterPrev = prevPos + 1 < size ? list.get(prevPos + 1) : null;
+        ShoppinglistItem afterMove = movePos + 1 < size ? list.get(movePos + 1) : null;
+        if ((afterPrev == null || prevId.equals(afterPrev.getPreviousId())) &&
+                (afterMove == null || move.getId().equals(afterMove.getPreviousId()))) {
+            if (afterPrev != null) {
+                afterPrev.setPreviousId(move.getId());
+                tmp.add(afterPrev);
+            }
+            if (afterMove != null) {
+                afterMove.setPreviousId(move.getPreviousId());
+                tmp.add(afterMove);
+            }
+            move.setPreviousId(prevId);
+            tmp.add(move);
+            return tmp;
+        }
+
         for (ShoppinglistItem sli : list) {
             if (sli.getPreviousId().equals(prevId)) {
                 sli.setPreviousId(move.getId());
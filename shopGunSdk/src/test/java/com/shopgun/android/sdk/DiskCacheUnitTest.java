@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk;
+
+import com.shopgun.android.sdk.network.Cache;
+import com.shopgun.android.sdk.network.impl.DiskCache;
+import com.shopgun.android.sdk.network.impl.SegmentedLruCache;
+import com.shopgun.android.sdk.network.impl.TieredCache;
+import com.shopgun.android.sdk.utils.Constants;
+
+import junit.framework.Assert;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class DiskCacheUnitTest {
+
+    public static final String TAG = Constants.getTag(DiskCacheUnitTest.class);
+
+    private static final long TTL = TimeUnit.MINUTES.toMillis(3);
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("sgn-disk-cache", ".bin");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private static Map<String, Cache.Item> items() throws Exception {
+        Map<String, Cache.Item> items = new HashMap<String, Cache.Item>();
+        LinkedList<String> erns = new LinkedList<String>();
+        erns.add("ern:catalog:a");
+        erns.add("ern:catalog:b");
+        Cache.Item list = new Cache.Item(erns, TTL);
+        list.etag = "\"v1\"";
+        items.put("https://api.etilbudsavis.dk/v2/catalogs?limit=24", list);
+        items.put("ern:catalog:a", new Cache.Item(new JSONObject().put("ern", "ern:catalog:a").put("id", "a"), TTL));
+        items.put("ern:catalog:b", new Cache.Item(new JSONObject().put("ern", "ern:catalog:b").put("id", "b"), TTL));
+        items.put("bytes", new Cache.Item(new byte[]{1, 2, 3}, TTL));
+        items.put("expired", new Cache.Item("gone", -1));
+        return items;
+    }
+
+    @Test
+    public void testSurvivesReopen() throws Exception {
+
+        DiskCache cache = new DiskCache(mFile);
+        cache.putAll(items());
+        cache.close();
+
+        cache = new DiskCache(mFile);
+        Assert.assertEquals(5, cache.getItemCount());
+
+        Cache.Item list = cache.get("https://api.etilbudsavis.dk/v2/catalogs?limit=24");
+        Assert.assertTrue(list.object instanceof LinkedList);
+        Assert.assertEquals(2, ((LinkedList<?>) list.object).size());
+        Assert.assertFalse(list.isExpired());
+
+        Cache.Item a = cache.get("ern:catalog:a");
+        Assert.assertEquals("a", ((JSONObject) a.object).getString("id"));
+        Assert.assertEquals(3, ((byte[]) cache.get("bytes").object).length);
+        Assert.assertNull(cache.get("expired"));
+        Assert.assertEquals("gone", cache.getStale("expired").object);
+        Assert.assertEquals("\"v1\"", list.etag);
+        Assert.assertNull(a.etag);
+
+        cache.close();
+
+    }
+
+    @Test
+    public void testTruncatesTornWrite() throws Exception {
+
+        DiskCache cache = new DiskCache(mFile);
+        cache.putAll(items());
+        cache.close();
+
+        // Simulate a write that was interrupted half way through
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        long length = raf.length();
+        raf.seek(length);
+        raf.writeInt(1000);
+        raf.write(new byte[]{1, 2, 3});
+        raf.close();
+
+        cache = new DiskCache(mFile);
+        Assert.assertEquals(5, cache.getItemCount());
+        cache.close();
+        Assert.assertEquals(length, mFile.length());
+
+    }
+
+    @Test
+    public void testCompactsToSizeLimit() throws Exception {
+
+        long max = 16 * 1024;
+        DiskCache cache = new DiskCache(mFile, max);
+        for (int i = 0; i < 100; i++) {
+            Map<String, Cache.Item> items = new HashMap<String, Cache.Item>();
+            items.put("key-" + i, new Cache.Item(new byte[1024], TTL));
+            cache.putAll(items);
+        }
+
+        Assert.assertTrue(mFile.length() <= max);
+        Assert.assertNotNull(cache.get("key-99"));
+        Assert.assertNull(cache.get("key-0"));
+        cache.close();
+
+        // the compacted file must still be readable
+        cache = new DiskCache(mFile, max);
+        Assert.assertNotNull(cache.get("key-99"));
+        cache.close();
+
+    }
+
+    @Test
+    public void testTieredPromotesFromDisk() throws Exception {
+
+        DiskCache disk = new DiskCache(mFile);
+        disk.putAll(items());
+        disk.close();
+
+        SegmentedLruCache memory = new SegmentedLruCache(1024 * 1024);
+        TieredCache cache = new TieredCache(memory, new DiskCache(mFile));
+        Assert.assertNull(memory.get("ern:catalog:b"));
+        Assert.assertNotNull(cache.get("ern:catalog:b"));
+        Assert.assertNotNull(memory.get("ern:catalog:b"));
+
+        cache.clear();
+        Assert.assertNull(cache.get("ern:catalog:b"));
+        cache.getDiskCache().close();
+
+    }
+
+}
@@ -29,7 +29,10 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest=Config.NONE)
@@ -103,6 +106,99 @@ public class EventUnitTest {
 
     }
 
+    @Test
+    public void testShoppinglistEventGroupsByList() throws Exception {
+
+        Shoppinglist sl = Shoppinglist.fromName("groceries");
+        List<ShoppinglistItem> before = new ArrayList<ShoppinglistItem>();
+        for (int i = 0; i < 5; i++) {
+            before.add(new ShoppinglistItem(sl, "item-" + i));
+        }
+
+        // Move the first item to the end, remove one, insert one, and edit one
+        List<ShoppinglistItem> after = new ArrayList<ShoppinglistItem>(before);
+        after.add(after.remove(0));
+        ShoppinglistItem removed = after.remove(1);
+        ShoppinglistItem added = new ShoppinglistItem(sl, "new");
+        after.add(0, added);
+
+        ShoppinglistEvent.Builder b = new ShoppinglistEvent.Builder(true);
+        b.edit(sl);
+        b.add(added);
+        b.del(removed);
+        b.edit(before.get(3));
+        b.add(new ShoppinglistItem(Shoppinglist.fromName("other"), "other"));
+        b.order(sl.getId(), before, after);
+        ShoppinglistEvent e = b.build();
+
+        Assert.assertEquals(2, e.getChanges().size());
+        ShoppinglistEvent.ListChanges c = e.getChanges(sl.getId());
+        Assert.assertEquals(ShoppinglistEvent.StateWrapper.Action.EDITED, c.getList().getAction());
+        Assert.assertEquals(3, c.getItems().size());
+        Assert.assertEquals(1, e.getAddedItems(sl.getId()).size());
+        Assert.assertEquals(1, e.getEditedLists(sl.getId()).size());
+        Assert.assertTrue(c.hasOrder());
+
+        int moves = 0;
+        int changes = 0;
+        for (ShoppinglistEvent.Operation op : c.getOperations()) {
+            moves += op.getType() == ShoppinglistEvent.Operation.MOVE ? 1 : 0;
+            changes += op.getType() == ShoppinglistEvent.Operation.CHANGE ? 1 : 0;
+        }
+        Assert.assertEquals(4, c.getOperations().size());
+        Assert.assertEquals(1, moves);
+        Assert.assertEquals(1, changes);
+        Assert.assertEquals(after, apply(before, c.getOperations()));
+
+    }
+
+    @Test
+    public void testShoppinglistEventOperations() throws Exception {
+
+        Shoppinglist sl = Shoppinglist.fromName("groceries");
+        Random r = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            List<ShoppinglistItem> before = new ArrayList<ShoppinglistItem>();
+            for (int i = 0; i < r.nextInt(30); i++) {
+                before.add(new ShoppinglistItem(sl, "item-" + i));
+            }
+            List<ShoppinglistItem> after = new ArrayList<ShoppinglistItem>(before);
+            Collections.shuffle(after, r);
+            for (int i = 0; i < r.nextInt(5) && !after.isEmpty(); i++) {
+                after.remove(r.nextInt(after.size()));
+            }
+            for (int i = 0; i < r.nextInt(5); i++) {
+                after.add(r.nextInt(after.size() + 1), new ShoppinglistItem(sl, "new-" + i));
+            }
+            ShoppinglistEvent.Builder b = new ShoppinglistEvent.Builder(true);
+            b.order(sl.getId(), before, after);
+            List<ShoppinglistEvent.Operation> ops = b.build().getChanges(sl.getId()).getOperations();
+            Assert.assertEquals(after, apply(before, ops));
+        }
+
+    }
+
+    private static List<ShoppinglistItem> apply(List<ShoppinglistItem> before, List<ShoppinglistEvent.Operation> ops) {
+        List<ShoppinglistItem> list = new ArrayList<ShoppinglistItem>(before);
+        for (ShoppinglistEvent.Operation op : ops) {
+            switch (op.getType()) {
+                case ShoppinglistEvent.Operation.INSERT:
+                    list.add(op.getTo(), op.getItem());
+                    break;
+                case ShoppinglistEvent.Operation.REMOVE:
+                    Assert.assertSame(op.getItem(), list.remove(op.getFrom()));
+                    break;
+                case ShoppinglistEvent.Operation.MOVE:
+                    list.add(op.getTo(), list.remove(op.getFrom()));
+                    break;
+                case ShoppinglistEvent.Operation.CHANGE:
+                    Assert.assertSame(op.getItem(), list.get(op.getTo()));
+                    break;
+            }
+        }
+        return list;
+    }
+
     @Test
     public void testSessionEvent() throws Exception {
 
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk;
+
+import com.shopgun.android.sdk.log.SgnLog;
+import com.shopgun.android.sdk.model.Shoppinglist;
+import com.shopgun.android.sdk.model.ShoppinglistItem;
+import com.shopgun.android.sdk.utils.Constants;
+import com.shopgun.android.sdk.utils.ItemOrderIndex;
+import com.shopgun.android.sdk.utils.ListUtils;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class ItemOrderIndexUnitTest {
+
+    public static final String TAG = Constants.getTag(ItemOrderIndexUnitTest.class);
+
+    private static final Shoppinglist LIST = Shoppinglist.fromName("list");
+
+    /** A correctly linked list of items, in order */
+    private static List<ShoppinglistItem> chain(int count) {
+        List<ShoppinglistItem> items = new ArrayList<ShoppinglistItem>(count);
+        String prev = ListUtils.FIRST_ITEM;
+        for (int i = 0; i < count; i++) {
+            ShoppinglistItem sli = new ShoppinglistItem(LIST, String.format(Locale.US, "item %04d", i));
+            sli.setPreviousId(prev);
+            prev = sli.getId();
+            items.add(sli);
+        }
+        return items;
+    }
+
+    private static List<String> ids(List<ShoppinglistItem> items) {
+        List<String> ids = new ArrayList<String>(items.size());
+        for (ShoppinglistItem sli : items) {
+            ids.add(sli.getId());
+        }
+        return ids;
+    }
+
+    private static void assertLinked(List<ShoppinglistItem> items) {
+        String prev = ListUtils.FIRST_ITEM;
+        for (ShoppinglistItem sli : items) {
+            Assert.assertEquals(prev, sli.getPreviousId());
+            prev = sli.getId();
+        }
+    }
+
+    @Test
+    public void testBuildsSameOrderAsSortItems() throws Exception {
+
+        List<ShoppinglistItem> items = chain(50);
+        List<ShoppinglistItem> shuffled = new ArrayList<ShoppinglistItem>(items);
+        Collections.shuffle(shuffled, new Random(42));
+
+        ItemOrderIndex order = new ItemOrderIndex(shuffled);
+        Assert.assertEquals(ids(items), ids(order.getItems()));
+        Assert.assertTrue(order.repair().isEmpty());
+
+        ListUtils.sortItems(shuffled);
+        Assert.assertEquals(ids(shuffled), ids(order.getItems()));
+
+    }
+
+    @Test
+    public void testMoveInsertRemove() throws Exception {
+
+        List<ShoppinglistItem> items = chain(10);
+        ItemOrderIndex order = new ItemOrderIndex(items);
+
+        // Move the last item to the top
+        List<ShoppinglistItem> changed = order.move(items.get(9).getId(), ListUtils.FIRST_ITEM);
+        Assert.assertEquals(2, changed.size());
+        Assert.assertEquals(items.get(9), order.getItems().get(0));
+        assertLinked(order.getItems());
+
+        // Move an item from the middle, to after another item
+        changed = order.move(items.get(3).getId(), items.get(6).getId());
+        Assert.assertEquals(3, changed.size());
+        assertLinked(order.getItems());
+
+        ShoppinglistItem sli = new ShoppinglistItem(LIST, "new");
+        changed = order.insert(sli, items.get(0).getId());
+        Assert.assertEquals(2, changed.size());
+        Assert.assertEquals(11, order.size());
+        assertLinked(order.getItems());
+
+        changed = order.remove(items.get(0).getId());
+        Assert.assertEquals(1, changed.size());
+        Assert.assertEquals(sli, changed.get(0));
+        Assert.assertFalse(order.contains(items.get(0).getId()));
+        assertLinked(order.getItems());
+
+    }
+
+    @Test
+    public void testUpdateRepairsOrphansAndDuplicates() throws Exception {
+
+        List<ShoppinglistItem> items = chain(5);
+        ItemOrderIndex order = new ItemOrderIndex(items);
+
+        List<ShoppinglistItem> fresh = new ArrayList<ShoppinglistItem>(items);
+        // item 1 is deleted elsewhere, leaving item 2 as an orphan
+        fresh.remove(1);
+        // a new item claims the same position as item 4 (a duplicate)
+        ShoppinglistItem duplicate = new ShoppinglistItem(LIST, "duplicate");
+        duplicate.setPreviousId(items.get(3).getId());
+        fresh.add(duplicate);
+        // and a new item without a previous
+        ShoppinglistItem nil = new ShoppinglistItem(LIST, "nil");
+        nil.setPreviousId(null);
+        fresh.add(nil);
+
+        order.update(fresh);
+        List<ShoppinglistItem> result = order.getItems();
+        Assert.assertEquals(6, result.size());
+        Assert.assertEquals(nil, result.get(0));
+        Assert.assertEquals(items.get(0), result.get(1));
+        // orphans and duplicates last by title, orphans keep the items that follow them
+        Assert.assertEquals(duplicate, result.get(2));
+        Assert.assertEquals(items.get(2), result.get(3));
+        Assert.assertEquals(items.get(3), result.get(4));
+        Assert.assertEquals(items.get(4), result.get(5));
+
+        Assert.assertEquals(4, order.repair().size());
+        assertLinked(order.getItems());
+        Assert.assertTrue(order.repair().isEmpty());
+
+    }
+
+    @Test
+    public void testSetPreviousOnlyTouchesNeighbours() throws Exception {
+
+        List<ShoppinglistItem> items = chain(6);
+        List<ShoppinglistItem> changed = ListUtils.setPrevious(items, 0, 4);
+        Assert.assertEquals(3, changed.size());
+        ListUtils.sortItems(items);
+        assertLinked(items);
+        Assert.assertEquals("item 0004", items.get(1).getDescription());
+
+    }
+
+    /**
+     * Not a strict benchmark, but compares dragging items around in a large list using the index,
+     * with the old approach of updating the list with {@link ListUtils#setPrevious(List, int, int)}
+     * and re-sorting it with {@link ListUtils#sortItems(List)}.
+     */
+    @Test
+    public void testCompareWithSortItems() throws Exception {
+
+        int size = 500;
+        int moves = 1000;
+        Random random = new Random(7);
+        List<ShoppinglistItem> items = chain(size);
+
+        List<String> ids = ids(items);
+        long start = System.nanoTime();
+        ItemOrderIndex order = new ItemOrderIndex(items);
+        for (int i = 0; i < moves; i++) {
+            String move = ids.get(random.nextInt(size));
+            String after = ids.get(random.nextInt(size));
+            if (!move.equals(after)) {
+                order.move(move, after);
+            }
+        }
+        order.getItems();
+        long indexNanos = System.nanoTime() - start;
+        assertLinked(order.getItems());
+
+        List<ShoppinglistItem> list = chain(size);
+        start = System.nanoTime();
+        for (int i = 0; i < moves; i++) {
+            int from = random.nextInt(size);
+            int to = random.nextInt(size);
+            ListUtils.setPrevious(list, to, from);
+            ListUtils.sortItems(list);
+        }
+        long sortNanos = System.nanoTime() - start;
+        assertLinked(list);
+
+        SgnLog.d(TAG, String.format(Locale.US, "%d moves in %d items, index: %.2fms, setPrevious + sortItems: %.2fms",
+                moves, size, indexNanos / 1e6, sortNanos / 1e6));
+
+    }
+
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk;
+
+import com.shopgun.android.sdk.log.SgnLog;
+import com.shopgun.android.sdk.network.impl.JsonStreamHelper;
+import com.shopgun.android.sdk.utils.Constants;
+
+import junit.framework.Assert;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class JsonStreamHelperUnitTest {
+
+    public static final String TAG = Constants.getTag(JsonStreamHelperUnitTest.class);
+
+    private static final String UTF8 = "UTF-8";
+
+    private static JSONArray stream(String json) throws Exception {
+        return JsonStreamHelper.readArray(new ByteArrayInputStream(json.getBytes(UTF8)), UTF8);
+    }
+
+    @Test
+    public void testSameResultAsOrgJson() throws Exception {
+
+        String json = "[{\"id\":\"a\",\"int\":1,\"long\":12345678901,\"double\":1.5,\"exp\":1e3," +
+                "\"bool\":true,\"null\":null,\"unicode\":\"\\u00e6\\u00f8\\u00e5 \\\"q\\\"\"," +
+                "\"nested\":{\"list\":[1,\"two\",[3],{}]}},[],\"string\",-7]";
+
+        JSONArray expected = new JSONArray(json);
+        JSONArray actual = stream(json);
+        Assert.assertEquals(expected.toString(), actual.toString());
+
+        JSONObject o = actual.getJSONObject(0);
+        Assert.assertTrue(o.get("int") instanceof Integer);
+        Assert.assertTrue(o.get("long") instanceof Long);
+        Assert.assertTrue(o.get("double") instanceof Double);
+        Assert.assertTrue(o.isNull("null"));
+
+    }
+
+    @Test
+    public void testRejectsInvalidJson() throws Exception {
+
+        String[] invalid = { "", "{\"id\":1}", "[1,2", "[1]]" };
+        for (String json : invalid) {
+            try {
+                stream(json);
+                Assert.fail("Expected an error for: " + json);
+            } catch (JSONException e) {
+                // expected
+            } catch (java.io.IOException e) {
+                // expected
+            }
+        }
+
+    }
+
+    /**
+     * Not a strict benchmark, but compares the allocations and the time spent parsing an offer list,
+     * between the old String + org.json path and the streaming path.
+     */
+    @Test
+    public void testCompareWithStringParsing() throws Exception {
+
+        byte[] data = offerList(500).getBytes(UTF8);
+        int rounds = 20;
+
+        // Warm up both paths
+        for (int i = 0; i < rounds; i++) {
+            new JSONArray(new String(data, UTF8));
+            JsonStreamHelper.readArray(new ByteArrayInputStream(data), UTF8);
+        }
+
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        JSONArray expected = null;
+        for (int i = 0; i < rounds; i++) {
+            expected = new JSONArray(new String(data, UTF8));
+        }
+        long stringNanos = (System.nanoTime() - start) / rounds;
+        long stringBytes = (allocatedBytes() - bytes) / rounds;
+
+        bytes = allocatedBytes();
+        start = System.nanoTime();
+        JSONArray actual = null;
+        for (int i = 0; i < rounds; i++) {
+            actual = JsonStreamHelper.readArray(new ByteArrayInputStream(data), UTF8);
+        }
+        long streamNanos = (System.nanoTime() - start) / rounds;
+        long streamBytes = (allocatedBytes() - bytes) / rounds;
+
+        Assert.assertEquals(expected.length(), actual.length());
+        Assert.assertEquals(expected.toString(), actual.toString());
+
+        SgnLog.d(TAG, String.format(Locale.US, "%d bytes of offers, string: %dkb %.2fms, stream: %dkb %.2fms",
+                data.length, stringBytes / 1024, stringNanos / 1e6, streamBytes / 1024, streamNanos / 1e6));
+
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static String offerList(int count) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            JSONObject pricing = new JSONObject()
+                    .put("price", 10 + i % 50 + 0.95)
+                    .put("pre_price", JSONObject.NULL)
+                    .put("currency", "DKK");
+            JSONObject images = new JSONObject()
+                    .put("view", "https://akamai.shopgun.com/img/offer/view/" + i + ".jpg")
+                    .put("zoom", "https://akamai.shopgun.com/img/offer/zoom/" + i + ".jpg")
+                    .put("thumb", "https://akamai.shopgun.com/img/offer/thumb/" + i + ".jpg");
+            array.put(new JSONObject()
+                    .put("id", "offer" + i)
+                    .put("ern", "ern:offer:offer" + i)
+                    .put("heading", "Offer number " + i)
+                    .put("description", "A fairly long description of the offer, as seen in most offer lists")
+                    .put("catalog_page", i % 24)
+                    .put("pricing", pricing)
+                    .put("images", images)
+                    .put("run_from", "2015-03-01T00:00:00+0000")
+                    .put("run_till", "2015-03-08T23:59:59+0000")
+                    .put("dealer_id", "dealer" + i % 10)
+                    .put("category_ids", new JSONArray().put("food").put("dairy")));
+        }
+        return array.toString();
+    }
+
+}
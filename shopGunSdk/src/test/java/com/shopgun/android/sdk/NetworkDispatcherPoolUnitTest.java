@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk;
+
+import com.shopgun.android.sdk.api.Environment;
+import com.shopgun.android.sdk.model.Session;
+import com.shopgun.android.sdk.network.Delivery;
+import com.shopgun.android.sdk.network.Network;
+import com.shopgun.android.sdk.network.NetworkDispatcher;
+import com.shopgun.android.sdk.network.NetworkDispatcherPool;
+import com.shopgun.android.sdk.network.NetworkResponse;
+import com.shopgun.android.sdk.network.Request;
+import com.shopgun.android.sdk.network.RequestQueue;
+import com.shopgun.android.sdk.network.Response;
+import com.shopgun.android.sdk.network.ShopGunError;
+import com.shopgun.android.sdk.network.impl.MemoryCache;
+import com.shopgun.android.sdk.network.impl.StringRequest;
+import com.shopgun.android.sdk.utils.Constants;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class NetworkDispatcherPoolUnitTest {
+
+    public static final String TAG = Constants.getTag(NetworkDispatcherPoolUnitTest.class);
+
+    private final PriorityBlockingQueue<Request<?>> mQueue = new PriorityBlockingQueue<Request<?>>();
+    private final List<Request<?>> mDelivered = Collections.synchronizedList(new ArrayList<Request<?>>());
+    private CountDownLatch mDone;
+    private NetworkDispatcherPool mPool;
+
+    @Before
+    public void setUp() {
+        mDone = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        if (mPool != null) {
+            mPool.quit();
+        }
+    }
+
+    private void start(Network network, int maxRequestsPerHost) {
+        SessionManager sessionManager = mock(SessionManager.class);
+        when(sessionManager.getSession()).thenReturn(new Session());
+        ShopGun shopGun = mock(ShopGun.class);
+        when(shopGun.getSessionManager()).thenReturn(sessionManager);
+        when(shopGun.getEnvironment()).thenReturn(Environment.PRODUCTION);
+        Delivery delivery = new Delivery() {
+            @Override
+            public void postResponse(Request<?> request, Response<?> response) {
+                mDelivered.add(request);
+                mDone.countDown();
+            }
+        };
+        NetworkDispatcher dispatcher = new NetworkDispatcher(shopGun, mock(RequestQueue.class), mQueue, network,
+                new MemoryCache(), delivery);
+        mPool = new NetworkDispatcherPool(null, mQueue, dispatcher, maxRequestsPerHost);
+        mPool.start();
+    }
+
+    private static Request<?> request(String url, final Request.Priority priority) {
+        Request<?> request = new StringRequest(url, null) {
+            @Override
+            public Priority getPriority() {
+                return priority;
+            }
+        };
+        request.setRequestQueue(mock(RequestQueue.class));
+        return request;
+    }
+
+    @Test
+    public void testRespectsHostLimit() throws Exception {
+
+        HostCountingNetwork network = new HostCountingNetwork();
+        start(network, 2);
+        mDone = new CountDownLatch(14);
+        for (int i = 0; i < 10; i++) {
+            mQueue.add(request("https://api.etilbudsavis.dk/v2/offers?i=" + i, Request.Priority.MEDIUM));
+        }
+        for (int i = 0; i < 4; i++) {
+            mQueue.add(request("https://squid-api.tjek.com/v2/offers?i=" + i, Request.Priority.MEDIUM));
+        }
+
+        Assert.assertTrue(mDone.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(14, mDelivered.size());
+        Assert.assertEquals(2, network.max("api.etilbudsavis.dk"));
+        Assert.assertTrue(network.max("squid-api.tjek.com") <= 2);
+        Assert.assertTrue(mPool.getPoolSize() <= NetworkDispatcherPool.DEFAULT_POOL_SIZE);
+
+    }
+
+    @Test
+    public void testKeepsPriorityOrder() throws Exception {
+
+        BlockingNetwork network = new BlockingNetwork();
+        start(network, 1);
+        mDone = new CountDownLatch(7);
+
+        Request<?> first = request("https://api.etilbudsavis.dk/v2/first", Request.Priority.MEDIUM);
+        mQueue.add(first);
+        Assert.assertTrue(network.started.await(5, TimeUnit.SECONDS));
+
+        List<Request<?>> low = new ArrayList<Request<?>>();
+        List<Request<?>> high = new ArrayList<Request<?>>();
+        for (int i = 0; i < 3; i++) {
+            Request<?> l = request("https://api.etilbudsavis.dk/v2/low?i=" + i, Request.Priority.LOW);
+            low.add(l);
+            mQueue.add(l);
+            Request<?> h = request("https://api.etilbudsavis.dk/v2/high?i=" + i, Request.Priority.HIGH);
+            high.add(h);
+            mQueue.add(h);
+        }
+        // Let the pool hold back all of them, on the host limit
+        for (int i = 0; i < 50 && !mQueue.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        network.release.countDown();
+
+        Assert.assertTrue(mDone.await(5, TimeUnit.SECONDS));
+        Assert.assertSame(first, mDelivered.get(0));
+        Assert.assertTrue(high.containsAll(mDelivered.subList(1, 4)));
+        Assert.assertTrue(low.containsAll(mDelivered.subList(4, 7)));
+
+    }
+
+    private static NetworkResponse ok() {
+        return new NetworkResponse(200, "ok".getBytes(), new HashMap<String, String>());
+    }
+
+    private static class HostCountingNetwork implements Network {
+
+        final Map<String, Integer> active = new HashMap<String, Integer>();
+        final Map<String, Integer> max = new HashMap<String, Integer>();
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws ShopGunError {
+            String host;
+            try {
+                host = new URL(request.getUrl()).getHost();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            synchronized (this) {
+                int count = (active.containsKey(host) ? active.get(host) : 0) + 1;
+                active.put(host, count);
+                max.put(host, Math.max(count, max(host)));
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            synchronized (this) {
+                active.put(host, active.get(host) - 1);
+            }
+            return ok();
+        }
+
+        synchronized int max(String host) {
+            return max.containsKey(host) ? max.get(host) : 0;
+        }
+    }
+
+    private static class BlockingNetwork implements Network {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws ShopGunError {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            return ok();
+        }
+    }
+
+}
@@ -0,0 +1,319 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk;
+
+import com.shopgun.android.sdk.log.SgnLog;
+import com.shopgun.android.sdk.network.HttpStack;
+import com.shopgun.android.sdk.network.NetworkResponse;
+import com.shopgun.android.sdk.network.Request;
+import com.shopgun.android.sdk.network.RequestQueue;
+import com.shopgun.android.sdk.network.Response;
+import com.shopgun.android.sdk.network.ShopGunError;
+import com.shopgun.android.sdk.network.impl.JsonArrayRequest;
+import com.shopgun.android.sdk.network.impl.JsonStreamHelper;
+import com.shopgun.android.sdk.network.impl.NetworkError;
+import com.shopgun.android.sdk.network.impl.NetworkImpl;
+import com.shopgun.android.sdk.network.impl.ParseError;
+import com.shopgun.android.sdk.network.impl.StringRequest;
+import com.shopgun.android.sdk.utils.Constants;
+
+import junit.framework.Assert;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import static org.mockito.Mockito.mock;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class NetworkImplUnitTest {
+
+    public static final String TAG = Constants.getTag(NetworkImplUnitTest.class);
+
+    private static final String URL = "https://api.etilbudsavis.dk/v2/offers";
+
+    @Test
+    public void testBufferedGzipResponse() throws Exception {
+
+        byte[] body = "{\"hello\":\"world\"}".getBytes("UTF-8");
+        NetworkImpl network = new NetworkImpl(new FakeStack(gzip(body), "gzip"));
+        Request<?> request = prepare(new StringRequest(URL, null));
+
+        NetworkResponse response = network.performRequest(request);
+        Assert.assertFalse(response.isStreamed());
+        Assert.assertEquals(new String(body, "UTF-8"), new String(response.data, "UTF-8"));
+
+    }
+
+    @Test
+    public void testGzipHeaderWithoutBody() throws Exception {
+
+        // A 304 keeps the Content-Encoding of the cached response, but has no body to decode
+        for (int statusCode : new int[] { 304, 204 }) {
+            FakeStack stack = new FakeStack(new byte[0], "gzip", statusCode);
+            NetworkResponse response = new NetworkImpl(stack).performRequest(prepare(new StringRequest(URL, null)));
+            Assert.assertEquals(statusCode, response.statusCode);
+            Assert.assertEquals(0, response.data.length);
+            Assert.assertTrue(stack.closed);
+        }
+
+    }
+
+    @Test
+    public void testStreamedGzipResponse() throws Exception {
+
+        byte[] body = offerList(10).getBytes("UTF-8");
+        FakeStack stack = new FakeStack(gzip(body), "gzip");
+        NetworkImpl network = new NetworkImpl(stack);
+        JsonArrayRequest request = new JsonArrayRequest(URL, null);
+        RequestQueue queue = mock(RequestQueue.class);
+        request.setRequestQueue(queue);
+
+        NetworkResponse response = network.performRequest(request);
+        Assert.assertTrue(response.isStreamed());
+        Assert.assertNull(response.data);
+
+        JSONArray array = new JSONArray(readAll(response.getStream()));
+        Assert.assertEquals(10, array.length());
+        Assert.assertFalse(stack.closed);
+        response.close();
+        Assert.assertTrue(stack.closed);
+        Assert.assertEquals(body.length, queue.dataIn);
+
+    }
+
+    @Test
+    public void testStreamCutOffIsNetworkError() throws Exception {
+
+        byte[] body = offerList(100).getBytes("UTF-8");
+
+        // The connection times out half way through the body
+        FakeStack stack = new FakeStack(body, null, 200, body.length / 2);
+        ParsingArrayRequest request = new ParsingArrayRequest();
+        prepare(request);
+        Response<JSONArray> response = request.parse(new NetworkImpl(stack).performRequest(request));
+        Assert.assertFalse(response.isSuccess());
+        Assert.assertTrue(response.error instanceof NetworkError);
+        Assert.assertEquals(ShopGunError.Code.NETWORK_ERROR, response.error.getCode());
+
+        // A body that is all there, but isn't valid, is still a parse error
+        byte[] truncated = Arrays.copyOf(body, body.length / 2);
+        stack = new FakeStack(truncated, null);
+        request = new ParsingArrayRequest();
+        prepare(request);
+        response = request.parse(new NetworkImpl(stack).performRequest(request));
+        Assert.assertFalse(response.isSuccess());
+        Assert.assertTrue(response.error instanceof ParseError);
+
+    }
+
+    /**
+     * Not a strict benchmark, but compares the allocations made while reading and parsing a large offer list,
+     * between a buffered and a streamed response.
+     *
+     * <p>This is the total allocated, not the peak heap. The peak only drops by the decoded body, which a
+     * buffered response holds while parsing, and that is small next to the parsed {@link JSONArray}, which
+     * both modes hold at the end. The size of both is logged, so the peak saving can be read off.</p>
+     */
+    @Test
+    public void testCompareBufferedWithStreamed() throws Exception {
+
+        byte[] raw = offerList(2000).getBytes("UTF-8");
+        byte[] body = gzip(raw);
+
+        long buffered = 0;
+        long streamed = 0;
+        long parsed = 0;
+        for (int i = 0; i < 5; i++) {
+            buffered = parse(body, false);
+            streamed = parse(body, true);
+            long start = allocatedBytes();
+            Assert.assertEquals(2000, JsonStreamHelper.readArray(new ByteArrayInputStream(raw), "UTF-8").length());
+            parsed = allocatedBytes() - start;
+        }
+
+        SgnLog.d(TAG, String.format(Locale.US, "%d gzip'ed bytes of offers, buffered: %dkb, streamed: %dkb, "
+                + "decoded body: %dkb, parsing alone: %dkb", body.length, buffered / 1024, streamed / 1024,
+                raw.length / 1024, parsed / 1024));
+        if (buffered > 0) {
+            // Only measurable on a HotSpot JVM
+            Assert.assertTrue(streamed < buffered);
+        }
+
+    }
+
+    private static long parse(byte[] body, final boolean streamed) throws Exception {
+        JsonArrayRequest request = new JsonArrayRequest(URL, null) {
+            @Override
+            public boolean isStreamed() {
+                return streamed;
+            }
+        };
+        prepare(request);
+        NetworkImpl network = new NetworkImpl(new FakeStack(body, "gzip"));
+        long bytes = allocatedBytes();
+        NetworkResponse response = network.performRequest(request);
+        JSONArray array = JsonStreamHelper.readArray(response.getStream(), "UTF-8");
+        response.close();
+        Assert.assertEquals(2000, array.length());
+        return allocatedBytes() - bytes;
+    }
+
+    private static Request<?> prepare(Request<?> request) {
+        request.setRequestQueue(mock(RequestQueue.class));
+        return request;
+    }
+
+    private static String readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int c;
+        while ((c = is.read(buf)) != -1) {
+            out.write(buf, 0, c);
+        }
+        return out.toString("UTF-8");
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        GZIPOutputStream gos = new GZIPOutputStream(bos);
+        gos.write(data);
+        gos.close();
+        return bos.toByteArray();
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static String offerList(int count) throws Exception {
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            array.put(new JSONObject()
+                    .put("id", "offer" + i)
+                    .put("ern", "ern:offer:offer" + i)
+                    .put("heading", "Offer number " + i)
+                    .put("description", "A fairly long description of the offer, as seen in most offer lists")
+                    .put("pricing", new JSONObject().put("price", 10.95).put("currency", "DKK")));
+        }
+        return array.toString();
+    }
+
+    /**
+     * Exposes the parsing of a streamed response
+     */
+    private static class ParsingArrayRequest extends JsonArrayRequest {
+
+        ParsingArrayRequest() {
+            super(URL, null);
+        }
+
+        Response<JSONArray> parse(NetworkResponse response) {
+            try {
+                return parseNetworkResponse(response);
+            } finally {
+                response.close();
+            }
+        }
+    }
+
+    private static class FakeStack implements HttpStack {
+
+        final byte[] mContent;
+        final String mEncoding;
+        final int mStatusCode;
+        /** The number of bytes to deliver, before the connection times out, or -1 to deliver them all */
+        final int mCutOff;
+        boolean closed = false;
+
+        FakeStack(byte[] content, String encoding) {
+            this(content, encoding, 200);
+        }
+
+        FakeStack(byte[] content, String encoding, int statusCode) {
+            this(content, encoding, statusCode, -1);
+        }
+
+        FakeStack(byte[] content, String encoding, int statusCode, int cutOff) {
+            mContent = content;
+            mEncoding = encoding;
+            mStatusCode = statusCode;
+            mCutOff = cutOff;
+        }
+
+        @Override
+        public HttpResponse performNetworking(Request<?> request) throws IOException {
+            BasicHttpResponse response = new BasicHttpResponse(new ProtocolVersion("HTTP", 1, 1), mStatusCode, "OK");
+            BasicHttpEntity entity = new BasicHttpEntity();
+            final int length = mCutOff >= 0 ? mCutOff : mContent.length;
+            entity.setContent(new FilterInputStream(new ByteArrayInputStream(mContent, 0, length)) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b == -1 && length < mContent.length) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int c = super.read(b, off, len);
+                    if (c == -1 && length < mContent.length) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                    return c;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    closed = true;
+                    super.close();
+                }
+            });
+            entity.setContentLength(mContent.length);
+            entity.setContentEncoding(mEncoding);
+            response.setEntity(entity);
+            return response;
+        }
+    }
+
+}
@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk;
+
+import com.shopgun.android.sdk.log.SgnLog;
+import com.shopgun.android.sdk.network.HttpStack;
+import com.shopgun.android.sdk.network.NetworkResponse;
+import com.shopgun.android.sdk.network.Request;
+import com.shopgun.android.sdk.network.RequestQueue;
+import com.shopgun.android.sdk.network.impl.DefaultRedirectProtocol;
+import com.shopgun.android.sdk.network.impl.HttpURLNetwork;
+import com.shopgun.android.sdk.network.impl.NetworkImpl;
+import com.shopgun.android.sdk.network.impl.OkHttpNetwork;
+import com.shopgun.android.sdk.network.impl.StringRequest;
+import com.shopgun.android.sdk.utils.Constants;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+import static org.mockito.Mockito.mock;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class OkHttpNetworkUnitTest {
+
+    public static final String TAG = Constants.getTag(OkHttpNetworkUnitTest.class);
+
+    private static final String BODY = "{\"id\":\"abc\",\"heading\":\"Some offer\"}";
+
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().startsWith("/redirect")) {
+                    return new MockResponse().setResponseCode(302).addHeader("Location", mServer.url("/v2/offers"));
+                }
+                String encoding = request.getHeader("Accept-Encoding");
+                if (encoding != null && encoding.contains("gzip")) {
+                    return new MockResponse().addHeader("Content-Encoding", "gzip").setBody(gzip(BODY));
+                }
+                return new MockResponse().setBody(BODY);
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    private NetworkResponse perform(HttpStack stack, String path) throws Exception {
+        return perform(stack, new StringRequest(mServer.url(path).toString(), null));
+    }
+
+    private static NetworkResponse perform(HttpStack stack, Request<?> request) throws Exception {
+        request.setRequestQueue(mock(RequestQueue.class));
+        return new NetworkImpl(stack).performRequest(request);
+    }
+
+    private static OkHttpNetwork okHttpNetwork() {
+        return new OkHttpNetwork(new OkHttpClient(), new DefaultRedirectProtocol());
+    }
+
+    @Test
+    public void testDecodesGzip() throws Exception {
+
+        Request<?> request = new StringRequest(mServer.url("/v2/offers").toString(), null);
+        NetworkResponse response = perform(okHttpNetwork(), request);
+        Assert.assertEquals(200, response.statusCode);
+        Assert.assertEquals(BODY, new String(response.data, "UTF-8"));
+        Assert.assertEquals("gzip", mServer.takeRequest().getHeader("Accept-Encoding"));
+
+        // A new connection was made, for the first request
+        Assert.assertTrue(request.getTimings().getConnect() > 0);
+        Assert.assertTrue(request.getTimings().getTimeToFirstByte() >= 0);
+        Assert.assertTrue(request.getTimings().getDownload() >= 0);
+
+    }
+
+    @Test
+    public void testRedirectsUseRedirectProtocol() throws Exception {
+
+        final int[] completed = { 0 };
+        OkHttpNetwork stack = new OkHttpNetwork(new OkHttpClient(), new DefaultRedirectProtocol() {
+            @Override
+            public void onRedirectComplete(Request<?> request, ArrayList<URL> urls) throws IOException {
+                completed[0] = urls.size();
+            }
+        });
+
+        NetworkResponse response = perform(stack, "/redirect");
+        Assert.assertEquals(200, response.statusCode);
+        Assert.assertEquals(BODY, new String(response.data, "UTF-8"));
+        Assert.assertEquals(2, completed[0]);
+        Assert.assertEquals(2, mServer.getRequestCount());
+
+    }
+
+    /**
+     * Not a strict benchmark, but compares latency and the number of sockets opened against a local server,
+     * between the {@link HttpURLNetwork} and the {@link OkHttpNetwork}.
+     */
+    @Test
+    public void testCompareWithHttpURLNetwork() throws Exception {
+
+        int rounds = 50;
+        HttpStack[] stacks = { new HttpURLNetwork(new DefaultRedirectProtocol()), okHttpNetwork() };
+        long[] nanos = new long[stacks.length];
+        int[] sockets = new int[stacks.length];
+
+        for (int s = 0; s < stacks.length; s++) {
+            // Warm up, and don't count the warm up connections
+            for (int i = 0; i < 5; i++) {
+                perform(stacks[s], "/v2/offers");
+            }
+            drain();
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                NetworkResponse response = perform(stacks[s], "/v2/offers");
+                Assert.assertEquals(BODY, new String(response.data, "UTF-8"));
+            }
+            nanos[s] = (System.nanoTime() - start) / rounds;
+            sockets[s] = drain();
+        }
+
+        SgnLog.d(TAG, String.format(Locale.US, "%d requests, HttpURLNetwork: %.3fms %d sockets, OkHttpNetwork: %.3fms %d sockets",
+                rounds, nanos[0] / 1e6, sockets[0], nanos[1] / 1e6, sockets[1]));
+
+        Assert.assertTrue(sockets[1] <= 1);
+
+    }
+
+    /**
+     * Take all recorded requests, and count the ones that were the first on a new connection.
+     */
+    private int drain() throws InterruptedException {
+        int sockets = 0;
+        RecordedRequest request;
+        while ((request = mServer.takeRequest(10, TimeUnit.MILLISECONDS)) != null) {
+            if (request.getSequenceNumber() == 0) {
+                sockets++;
+            }
+        }
+        return sockets;
+    }
+
+    private static Buffer gzip(String data) {
+        try {
+            Buffer buffer = new Buffer();
+            BufferedSink sink = Okio.buffer(new GzipSink(buffer));
+            sink.writeUtf8(data);
+            sink.close();
+            return buffer;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
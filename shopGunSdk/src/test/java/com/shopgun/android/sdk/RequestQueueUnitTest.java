@@ -0,0 +1,341 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk;
+
+import com.shopgun.android.sdk.api.Environment;
+import com.shopgun.android.sdk.model.Session;
+import com.shopgun.android.sdk.network.Cache;
+import com.shopgun.android.sdk.network.Delivery;
+import com.shopgun.android.sdk.network.Network;
+import com.shopgun.android.sdk.network.NetworkResponse;
+import com.shopgun.android.sdk.network.Request;
+import com.shopgun.android.sdk.network.RequestQueue;
+import com.shopgun.android.sdk.network.RequestTimings;
+import com.shopgun.android.sdk.network.Response;
+import com.shopgun.android.sdk.network.ShopGunError;
+import com.shopgun.android.sdk.network.impl.JsonArrayRequest;
+import com.shopgun.android.sdk.network.impl.JsonObjectRequest;
+import com.shopgun.android.sdk.network.impl.SegmentedLruCache;
+import com.shopgun.android.sdk.utils.Constants;
+import com.shopgun.android.sdk.utils.SgnUtils;
+
+import junit.framework.Assert;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class RequestQueueUnitTest {
+
+    public static final String TAG = Constants.getTag(RequestQueueUnitTest.class);
+
+    private static final String URL = "https://api.etilbudsavis.dk/v2/catalogs/abc";
+    private static final String LIST_URL = "https://api.etilbudsavis.dk/v2/catalogs";
+
+    private ShopGun mShopGun;
+    private SegmentedLruCache mCache;
+    private RequestQueue mRequestQueue;
+
+    @Before
+    public void setUp() {
+        SgnLocation location = mock(SgnLocation.class);
+        SessionManager sessionManager = mock(SessionManager.class);
+        when(sessionManager.getSession()).thenReturn(new Session());
+        ShopGun shopGun = mock(ShopGun.class);
+        when(shopGun.getSessionManager()).thenReturn(sessionManager);
+        when(shopGun.getEnvironment()).thenReturn(Environment.PRODUCTION);
+        when(shopGun.getLocation()).thenReturn(location);
+        when(shopGun.getContext()).thenReturn(RuntimeEnvironment.application);
+        mShopGun = shopGun;
+        mCache = new SegmentedLruCache(1024 * 1024);
+    }
+
+    @After
+    public void tearDown() {
+        if (mRequestQueue != null) {
+            mRequestQueue.stop();
+        }
+    }
+
+    private void start(Network network) {
+        mRequestQueue = new RequestQueue(mShopGun, mCache, network, 2, new ImmediateDelivery());
+        mRequestQueue.start();
+    }
+
+    @Test
+    public void testIdenticalRequestsShareOneCall() throws Exception {
+
+        BlockingNetwork network = new BlockingNetwork();
+        start(network);
+        ResultListener first = new ResultListener();
+        ResultListener second = new ResultListener();
+        mRequestQueue.add(new JsonObjectRequest(URL, first));
+        Assert.assertTrue(network.started.await(5, TimeUnit.SECONDS));
+        mRequestQueue.add(new JsonObjectRequest(URL, second));
+        network.release.countDown();
+
+        Assert.assertTrue(first.done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(second.done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, network.calls.get());
+        Assert.assertEquals(1, mRequestQueue.getCoalescedCount());
+        Assert.assertNotNull(first.response);
+        Assert.assertSame(first.response, second.response);
+
+    }
+
+    @Test
+    public void testCancelledPrimaryStillServesWaiters() throws Exception {
+
+        BlockingNetwork network = new BlockingNetwork();
+        start(network);
+        ResultListener first = new ResultListener();
+        ResultListener second = new ResultListener();
+        Request<?> primary = mRequestQueue.add(new JsonObjectRequest(URL, first));
+        Assert.assertTrue(network.started.await(5, TimeUnit.SECONDS));
+        mRequestQueue.add(new JsonObjectRequest(URL, second));
+        primary.cancel();
+        network.release.countDown();
+
+        Assert.assertTrue(second.done.await(5, TimeUnit.SECONDS));
+        Assert.assertNotNull(second.response);
+        Assert.assertEquals(1, first.done.getCount());
+        Assert.assertEquals(1, network.calls.get());
+
+    }
+
+    @Test
+    public void testNotModifiedIsServedFromCache() throws Exception {
+
+        ConditionalNetwork network = new ConditionalNetwork();
+        start(network);
+
+        ListListener first = new ListListener();
+        mRequestQueue.add(new JsonArrayRequest(LIST_URL, first));
+        Assert.assertTrue(first.done.await(5, TimeUnit.SECONDS));
+        Assert.assertNull(network.ifNoneMatch);
+
+        // Skip the cache lookup, to force a (conditional) network request
+        ListListener second = new ListListener();
+        Request<?> request = mRequestQueue.add(new JsonArrayRequest(LIST_URL, second).setIgnoreCache(true));
+        Assert.assertTrue(second.done.await(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals(2, network.calls.get());
+        Assert.assertEquals(ConditionalNetwork.ETAG, network.ifNoneMatch);
+        Assert.assertTrue(request.isCacheHit());
+        Assert.assertEquals(1, second.response.length());
+        Assert.assertEquals("a", second.response.getJSONObject(0).getString("id"));
+
+    }
+
+    @Test
+    public void testNotModifiedSingleObject() throws Exception {
+
+        // A single object is only cached under its ern, not the url
+        ConditionalNetwork network = new ConditionalNetwork();
+        start(network);
+
+        ResultListener first = new ResultListener();
+        mRequestQueue.add(new JsonObjectRequest(URL, first));
+        Assert.assertTrue(first.done.await(5, TimeUnit.SECONDS));
+        Assert.assertNull(network.ifNoneMatch);
+
+        ResultListener second = new ResultListener();
+        Request<?> request = mRequestQueue.add(new JsonObjectRequest(URL, second).setIgnoreCache(true));
+        Assert.assertTrue(second.done.await(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals(2, network.calls.get());
+        Assert.assertEquals(ConditionalNetwork.ETAG, network.ifNoneMatch);
+        Assert.assertTrue(request.isCacheHit());
+        Assert.assertEquals("abc", second.response.getString("id"));
+
+    }
+
+    @Test
+    public void testStaleResponseIsDeliveredAndRevalidated() throws Exception {
+
+        ConditionalNetwork network = new ConditionalNetwork();
+        start(network);
+
+        ListListener first = new ListListener();
+        Request<?> request = mRequestQueue.add(new JsonArrayRequest(LIST_URL, first));
+        Assert.assertTrue(first.done.await(5, TimeUnit.SECONDS));
+
+        // Let all cached items expire a minute ago
+        String key = SgnUtils.requestToUrlAndQueryString(request);
+        String ern = "ern:catalog:a";
+        for (String k : new String[]{ key, ern }) {
+            Cache.Item item = mCache.get(k);
+            Cache.Item expired = Cache.Item.fromExpiry(item.object, System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1));
+            expired.etag = item.etag;
+            mCache.put(k, expired);
+        }
+        Assert.assertNull(mCache.get(key));
+
+        network.revalidated = new CountDownLatch(1);
+        ListListener second = new ListListener();
+        request = mRequestQueue.add(new JsonArrayRequest(LIST_URL, second).setMaxStale(TimeUnit.HOURS.toMillis(1)));
+        Assert.assertTrue(second.done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(request.isCacheHit());
+        Assert.assertEquals(1, second.response.length());
+
+        // The stale items are refreshed in the background, with a conditional request
+        Assert.assertTrue(network.revalidated.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 50 && mCache.get(key) == null; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, network.calls.get());
+        Assert.assertEquals(ConditionalNetwork.ETAG, network.ifNoneMatch);
+        Assert.assertNotNull(mCache.get(key));
+        Assert.assertNotNull(mCache.get(ern));
+
+    }
+
+    @Test
+    public void testTimingListenerReceivesTimings() throws Exception {
+
+        ConditionalNetwork network = new ConditionalNetwork();
+        start(network);
+        final Map<Request<?>, RequestTimings> timings = new ConcurrentHashMap<Request<?>, RequestTimings>();
+        mRequestQueue.setTimingListener(new RequestQueue.TimingListener() {
+            @Override
+            public void onRequestFinished(Request<?> request, RequestTimings t) {
+                timings.put(request, t);
+            }
+        });
+
+        ListListener first = new ListListener();
+        Request<?> fromNetwork = mRequestQueue.add(new JsonArrayRequest(LIST_URL, first));
+        Assert.assertTrue(first.done.await(5, TimeUnit.SECONDS));
+        ListListener second = new ListListener();
+        Request<?> fromCache = mRequestQueue.add(new JsonArrayRequest(LIST_URL, second));
+        Assert.assertTrue(second.done.await(5, TimeUnit.SECONDS));
+
+        RequestTimings network1 = timings.get(fromNetwork);
+        Assert.assertTrue(network1.isNetwork());
+        Assert.assertTrue(network1.getQueueWait() >= 0);
+        Assert.assertTrue(network1.getCacheLookup() >= 0);
+        Assert.assertTrue(network1.getParse() >= 0);
+        Assert.assertTrue(network1.getDelivery() >= 0);
+        Assert.assertTrue(network1.getTotal() >= network1.getParse());
+
+        RequestTimings cache = timings.get(fromCache);
+        Assert.assertFalse(cache.isNetwork());
+        Assert.assertTrue(cache.getCacheLookup() >= 0);
+        Assert.assertEquals(-1, cache.getParse());
+        Assert.assertEquals(-1, cache.getTimeToFirstByte());
+
+    }
+
+    private static class ResultListener implements Response.Listener<JSONObject> {
+
+        final CountDownLatch done = new CountDownLatch(1);
+        JSONObject response;
+
+        @Override
+        public void onComplete(JSONObject response, ShopGunError error) {
+            this.response = response;
+            done.countDown();
+        }
+    }
+
+    private static class ListListener implements Response.Listener<JSONArray> {
+
+        final CountDownLatch done = new CountDownLatch(1);
+        JSONArray response;
+
+        @Override
+        public void onComplete(JSONArray response, ShopGunError error) {
+            this.response = response;
+            done.countDown();
+        }
+    }
+
+    private static class ImmediateDelivery implements Delivery {
+
+        @Override
+        public void postResponse(Request<?> request, Response<?> response) {
+            new DeliveryRunnable(request, response).run();
+        }
+    }
+
+    private static class BlockingNetwork implements Network {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws ShopGunError {
+            calls.incrementAndGet();
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            byte[] body = "{\"ern\":\"ern:catalog:abc\",\"id\":\"abc\"}".getBytes();
+            return new NetworkResponse(200, body, new HashMap<String, String>());
+        }
+    }
+
+    /**
+     * Responds 304 to requests with a matching If-None-Match header, and 200 with an ETag to anything else.
+     */
+    private static class ConditionalNetwork implements Network {
+
+        static final String ETAG = "\"v1\"";
+
+        final AtomicInteger calls = new AtomicInteger();
+        volatile String ifNoneMatch;
+        volatile CountDownLatch revalidated = new CountDownLatch(1);
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws ShopGunError {
+            calls.incrementAndGet();
+            ifNoneMatch = request.getHeaders().get("If-None-Match");
+            Map<String, String> headers = new HashMap<String, String>();
+            headers.put("ETag", ETAG);
+            if (ETAG.equals(ifNoneMatch)) {
+                revalidated.countDown();
+                return new NetworkResponse(304, new byte[0], headers);
+            }
+            byte[] body = request.getUrl().equals(URL)
+                    ? "{\"ern\":\"ern:catalog:abc\",\"id\":\"abc\"}".getBytes()
+                    : "[{\"ern\":\"ern:catalog:a\",\"id\":\"a\"}]".getBytes();
+            return new NetworkResponse(200, body, headers);
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk;
+
+import com.shopgun.android.sdk.model.Session;
+import com.shopgun.android.sdk.network.RequestSigner;
+import com.shopgun.android.sdk.utils.Constants;
+import com.shopgun.android.utils.HashUtils;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Map;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class RequestSignerUnitTest {
+
+    public static final String TAG = Constants.getTag(RequestSignerUnitTest.class);
+
+    @Test
+    public void testHeadersAreSharedUntilTokenChanges() throws Exception {
+
+        Session session = new Session();
+        session.setToken("token-1");
+        SessionManager sessionManager = mock(SessionManager.class);
+        when(sessionManager.getSession()).thenReturn(session);
+        ShopGun shopGun = mock(ShopGun.class);
+        when(shopGun.getSessionManager()).thenReturn(sessionManager);
+        when(shopGun.getApiSecret()).thenReturn("secret");
+
+        RequestSigner signer = new RequestSigner(shopGun);
+        Map<String, String> first = signer.getHeaders();
+        Assert.assertEquals("token-1", first.get(RequestSigner.HEADER_TOKEN));
+        Assert.assertEquals(HashUtils.sha256("secret" + "token-1"), first.get(RequestSigner.HEADER_SIGNATURE));
+        Assert.assertSame(first, signer.getHeaders());
+
+        try {
+            first.put(RequestSigner.HEADER_TOKEN, "other");
+            Assert.fail("Headers must be immutable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        session.setToken("token-2");
+        Map<String, String> second = signer.getHeaders();
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals("token-2", second.get(RequestSigner.HEADER_TOKEN));
+        Assert.assertEquals(HashUtils.sha256("secret" + "token-2"), second.get(RequestSigner.HEADER_SIGNATURE));
+
+        // The secret is only looked up once
+        verify(shopGun, times(1)).getApiSecret();
+
+    }
+
+}
@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk;
+
+import com.shopgun.android.sdk.eventskit.AnonymousEventWrapper;
+import com.shopgun.android.sdk.eventskit.EventBatch;
+import com.shopgun.android.sdk.eventskit.SegmentedEventLog;
+import com.shopgun.android.sdk.log.SgnLog;
+import com.shopgun.android.sdk.utils.Constants;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class SegmentedEventLogUnitTest {
+
+    public static final String TAG = Constants.getTag(SegmentedEventLogUnitTest.class);
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("sgn-events", "");
+        mDirectory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private static List<AnonymousEventWrapper> events(int from, int to) {
+        List<AnonymousEventWrapper> events = new ArrayList<AnonymousEventWrapper>();
+        for (int i = from; i < to; i++) {
+            events.add(new AnonymousEventWrapper("id" + i, 2, 1000 + i, "{\"id\":\"id" + i + "\",\"\u00e6\u00f8\u00e5\":" + i + "}"));
+        }
+        return events;
+    }
+
+    private static Set<String> ids(int from, int to) {
+        Set<String> ids = new HashSet<String>();
+        for (int i = from; i < to; i++) {
+            ids.add("id" + i);
+        }
+        return ids;
+    }
+
+    @Test
+    public void testAppendReadAndDelete() throws Exception {
+
+        SegmentedEventLog log = new SegmentedEventLog(mDirectory, 10);
+        Assert.assertTrue(log.open());
+        log.add(events(0, 25));
+        log.add(events(20, 26)); // duplicates are ignored
+        Assert.assertEquals(26, log.count());
+        Assert.assertEquals(3, log.getSegmentCount());
+
+        List<AnonymousEventWrapper> events = log.get(12);
+        Assert.assertEquals(12, events.size());
+        Assert.assertEquals("id0", events.get(0).getId());
+        Assert.assertEquals("id11", events.get(11).getId());
+        Assert.assertEquals(1011, events.get(11).getTimestamp());
+        Assert.assertEquals("{\"id\":\"id11\",\"\u00e6\u00f8\u00e5\":11}", events.get(11).getEvent());
+
+        // Deleting all events in a segment, deletes the segment
+        log.delete(ids(0, 10));
+        Assert.assertEquals(16, log.count());
+        Assert.assertEquals(2, log.getSegmentCount());
+        Assert.assertEquals("id10", log.get(1).get(0).getId());
+
+        // Only the old events are deleted
+        log.deleteOlderThan(ids(10, 20), 1015);
+        Assert.assertEquals(11, log.count());
+        Assert.assertEquals("id15", log.get(1).get(0).getId());
+
+    }
+
+    @Test
+    public void testBatchRangeDelete() throws Exception {
+
+        SegmentedEventLog log = new SegmentedEventLog(mDirectory, 10);
+        Assert.assertTrue(log.open());
+        log.add(events(0, 25));
+        log.delete(Collections.singleton("id1"));
+
+        EventBatch batch = log.getBatch(12);
+        Assert.assertEquals(12, batch.size());
+        Assert.assertEquals("id0", batch.getEvents().get(0).getId());
+        Assert.assertEquals("id12", batch.getEvents().get(11).getId());
+
+        // The range spans two segments, and the first one is deleted
+        log.deleteBatch(batch);
+        Assert.assertEquals(12, log.count());
+        Assert.assertEquals(2, log.getSegmentCount());
+        batch = log.getBatch(100);
+        Assert.assertEquals("id13", batch.getEvents().get(0).getId());
+        Assert.assertEquals(12, batch.size());
+        log.close();
+
+        // The range is recorded in the ack file
+        log = new SegmentedEventLog(mDirectory, 10);
+        Assert.assertTrue(log.open());
+        Assert.assertEquals(12, log.count());
+        Assert.assertEquals("id13", log.get(1).get(0).getId());
+
+        // A week offline, drained a batch at a time
+        log.add(events(100, 50100));
+        long start = System.nanoTime();
+        while (log.count() > 0) {
+            batch = log.getBatch(100);
+            Assert.assertFalse(batch.isEmpty());
+            log.deleteBatch(batch);
+        }
+        SgnLog.d(TAG, "Drained 50000 events in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        Assert.assertEquals(1, log.getSegmentCount());
+
+    }
+
+    @Test
+    public void testSurvivesReopen() throws Exception {
+
+        SegmentedEventLog log = new SegmentedEventLog(mDirectory, 10);
+        Assert.assertTrue(log.open());
+        log.add(events(0, 15));
+        log.delete(ids(0, 3));
+        log.delete(Collections.singleton("id12"));
+        log.close();
+
+        // Tear the last record
+        File head = new File(mDirectory, String.format("%019d.log", 1));
+        RandomAccessFile raf = new RandomAccessFile(head, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        log = new SegmentedEventLog(mDirectory, 10);
+        Assert.assertTrue(log.open());
+        Assert.assertEquals(10, log.count());
+        List<AnonymousEventWrapper> events = log.get(100);
+        Assert.assertEquals("id3", events.get(0).getId());
+        Assert.assertEquals("id13", events.get(events.size() - 1).getId());
+
+        // Appending continues after the truncated record
+        log.add(events(14, 16));
+        log.close();
+        log = new SegmentedEventLog(mDirectory, 10);
+        Assert.assertTrue(log.open());
+        Assert.assertEquals(12, log.count());
+        Assert.assertEquals("id15", log.get(100).get(11).getId());
+
+    }
+
+    @Test
+    public void testReopenAfterError() throws Exception {
+
+        SegmentedEventLog log = new SegmentedEventLog(mDirectory, 10);
+        Assert.assertTrue(log.open());
+        Assert.assertTrue(log.add(events(0, 10)));
+        EventBatch stale = log.getBatch(100);
+
+        // Make starting a new segment fail
+        File moved = new File(mDirectory.getPath() + "-moved");
+        Assert.assertTrue(mDirectory.renameTo(moved));
+        Assert.assertTrue(mDirectory.createNewFile());
+        Assert.assertFalse(log.add(events(10, 12)));
+        Assert.assertTrue(log.isOpen());
+
+        Assert.assertTrue(mDirectory.delete());
+        Assert.assertTrue(moved.renameTo(mDirectory));
+        Thread.sleep(1100);
+
+        // The log is reopened on the next write, and nothing on disk was lost
+        Assert.assertTrue(log.add(events(10, 12)));
+        Assert.assertEquals(12, log.count());
+
+        // A batch read before the error, doesn't match the reloaded events
+        log.deleteBatch(stale);
+        Assert.assertEquals(12, log.count());
+
+    }
+
+    @Test
+    public void testRetryFailedOpen() throws Exception {
+
+        // The directory can't be created
+        Assert.assertTrue(mDirectory.createNewFile());
+        SegmentedEventLog log = new SegmentedEventLog(mDirectory, 10);
+        Assert.assertFalse(log.open());
+        Assert.assertFalse(log.add(events(0, 5)));
+
+        Assert.assertTrue(mDirectory.delete());
+        Thread.sleep(1100);
+
+        // The log is opened on the next write
+        Assert.assertTrue(log.add(events(0, 5)));
+        Assert.assertEquals(5, log.count());
+
+    }
+
+}
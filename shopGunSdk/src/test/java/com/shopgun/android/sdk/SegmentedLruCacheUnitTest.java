@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk;
+
+import com.shopgun.android.sdk.network.Cache;
+import com.shopgun.android.sdk.network.impl.SegmentedLruCache;
+import com.shopgun.android.sdk.utils.Constants;
+
+import junit.framework.Assert;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class SegmentedLruCacheUnitTest {
+
+    public static final String TAG = Constants.getTag(SegmentedLruCacheUnitTest.class);
+
+    private static final long TTL = TimeUnit.MINUTES.toMillis(3);
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+
+        SegmentedLruCache cache = new SegmentedLruCache(1024 * 1024, 4);
+        JSONObject o = new JSONObject().put("ern", "ern:catalog:abc").put("label", "label");
+        cache.put("ern:catalog:abc", new Cache.Item(o, TTL));
+
+        Assert.assertSame(o, cache.get("ern:catalog:abc").object);
+        Assert.assertNull(cache.get("ern:catalog:nope"));
+
+        SegmentedLruCache.Stats stats = cache.getStats();
+        Assert.assertEquals(1, stats.hitCount);
+        Assert.assertEquals(1, stats.missCount);
+        Assert.assertEquals(1, stats.itemCount);
+        Assert.assertTrue(stats.bytes > 0);
+
+    }
+
+    @Test
+    public void testExpiredItemIsOnlyReturnedAsStale() throws Exception {
+
+        SegmentedLruCache cache = new SegmentedLruCache(1024 * 1024);
+        cache.put("key", new Cache.Item("value", -1));
+        Assert.assertNull(cache.get("key"));
+        Assert.assertEquals("value", cache.getStale("key").object);
+        Assert.assertEquals(1, cache.getStats().missCount);
+        Assert.assertEquals(0, cache.getStats().hitCount);
+
+    }
+
+    @Test
+    public void testEvictsByBytesInLruOrder() throws Exception {
+
+        // a single segment, to make the eviction order predictable
+        SegmentedLruCache cache = new SegmentedLruCache(4096, 1);
+        byte[] payload = new byte[1000];
+        cache.put("a", new Cache.Item(payload, TTL));
+        cache.put("b", new Cache.Item(payload, TTL));
+        cache.put("c", new Cache.Item(payload, TTL));
+
+        // touch 'a' so 'b' becomes the least recently used
+        Assert.assertNotNull(cache.get("a"));
+        cache.put("d", new Cache.Item(payload, TTL));
+
+        Assert.assertNull(cache.get("b"));
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNotNull(cache.get("c"));
+        Assert.assertNotNull(cache.get("d"));
+        Assert.assertTrue(cache.getBytes() <= cache.getMaxBytes());
+        Assert.assertEquals(1, cache.getStats().evictionCount);
+
+    }
+
+    @Test
+    public void testReplaceUpdatesBytes() throws Exception {
+
+        SegmentedLruCache cache = new SegmentedLruCache(1024 * 1024);
+        cache.put("key", new Cache.Item(new byte[2000], TTL));
+        long large = cache.getBytes();
+        cache.put("key", new Cache.Item(new byte[10], TTL));
+        Assert.assertTrue(cache.getBytes() < large);
+        Assert.assertEquals(1, cache.getItemCount());
+
+        cache.clear();
+        Assert.assertEquals(0, cache.getBytes());
+        Assert.assertEquals(0, cache.getItemCount());
+
+    }
+
+}
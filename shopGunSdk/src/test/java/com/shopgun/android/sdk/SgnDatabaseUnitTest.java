@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk;
+
+import com.shopgun.android.sdk.database.PendingChange;
+import com.shopgun.android.sdk.database.SgnDatabase;
+import com.shopgun.android.sdk.database.WriteBatch;
+import com.shopgun.android.sdk.log.SgnLog;
+import com.shopgun.android.sdk.model.Shoppinglist;
+import com.shopgun.android.sdk.model.ShoppinglistItem;
+import com.shopgun.android.sdk.model.User;
+import com.shopgun.android.sdk.model.interfaces.SyncState;
+import com.shopgun.android.sdk.utils.Constants;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class SgnDatabaseUnitTest {
+
+    public static final String TAG = Constants.getTag(SgnDatabaseUnitTest.class);
+
+    private SgnDatabase mDatabase;
+    private User mUser;
+
+    @Before
+    public void setUp() {
+        mDatabase = SgnDatabase.getInstance(RuntimeEnvironment.application);
+        mDatabase.open();
+        mDatabase.clear();
+        mUser = new User().setUserId(1);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.clear();
+        mDatabase.close();
+    }
+
+    private static List<ShoppinglistItem> items(Shoppinglist sl, int count, String prefix) {
+        List<ShoppinglistItem> items = new ArrayList<ShoppinglistItem>(count);
+        for (int i = 0; i < count; i++) {
+            ShoppinglistItem sli = new ShoppinglistItem(sl, prefix + " item " + i);
+            sli.setId(prefix + "-" + i);
+            items.add(sli);
+        }
+        return items;
+    }
+
+    @Test
+    public void testBatchIsAppliedInOrder() throws Exception {
+
+        Shoppinglist sl = Shoppinglist.fromName("batch");
+        Shoppinglist gone = Shoppinglist.fromName("gone");
+        mDatabase.insertList(gone, mUser);
+        mDatabase.insertItems(items(gone, 10, "gone"), mUser);
+
+        WriteBatch batch = new WriteBatch().putList(sl);
+        List<ShoppinglistItem> items = items(sl, 20, "a");
+        for (ShoppinglistItem sli : items) {
+            batch.putItem(sli);
+        }
+        batch.deleteItem(items.get(0).getId());
+        batch.deleteItems(gone.getId()).deleteList(gone.getId());
+        Assert.assertEquals(24, batch.size());
+        Assert.assertTrue(mDatabase.apply(batch, mUser));
+
+        Assert.assertEquals(19, mDatabase.getItems(sl, mUser).size());
+        Assert.assertNull(mDatabase.getItem(items.get(0).getId(), mUser));
+        Assert.assertTrue(mDatabase.getItems(gone, mUser, true).isEmpty());
+        Assert.assertEquals(1, mDatabase.getLists(mUser, true).size());
+
+    }
+
+    @Test
+    public void testJournalCollapsesEdits() throws Exception {
+
+        Shoppinglist sl = Shoppinglist.fromName("journal");
+        sl.setState(SyncState.SYNCED);
+        mDatabase.insertList(sl, mUser);
+        List<ShoppinglistItem> items = items(sl, 3, "j");
+        for (int i = 0; i < 5; i++) {
+            mDatabase.editItems(items, mUser);
+        }
+        items.get(1).setState(SyncState.DELETE);
+        mDatabase.editItems(items.get(1), mUser);
+
+        // One entry per item, in the order of their latest edit
+        List<PendingChange> changes = mDatabase.getChanges(mUser);
+        Assert.assertEquals(3, changes.size());
+        Assert.assertEquals(items.get(1).getId(), changes.get(2).getId());
+        Assert.assertEquals(PendingChange.TYPE_ITEM, changes.get(0).getType());
+        Assert.assertEquals(sl.getId(), changes.get(0).getShoppinglistId());
+
+        // A failed attempt postpones the change
+        PendingChange first = changes.get(0);
+        Assert.assertTrue(mDatabase.deferChange(first, mUser, 1000L));
+        changes = mDatabase.getChanges(mUser);
+        Assert.assertEquals(1, changes.get(0).getAttempts());
+        Assert.assertEquals(1000L, changes.get(0).getRetryAt());
+
+        // An edit made while the change is in flight, must survive the completion of the change
+        mDatabase.editItems(items.get(0), mUser);
+        Assert.assertFalse(mDatabase.completeChange(first, mUser));
+        changes = mDatabase.getChanges(mUser);
+        Assert.assertEquals(3, changes.size());
+        Assert.assertEquals(0, changes.get(2).getAttempts());
+        Assert.assertTrue(mDatabase.completeChange(changes.get(2), mUser));
+
+        // Synchronized rows are not journaled
+        items.get(2).setState(SyncState.SYNCED);
+        mDatabase.editItems(items.get(2), mUser);
+        Assert.assertEquals(2, mDatabase.getChanges(mUser).size());
+
+        Assert.assertEquals(PendingChange.MIN_BACKOFF, PendingChange.getBackoff(0));
+        Assert.assertEquals(PendingChange.MIN_BACKOFF * 4, PendingChange.getBackoff(2));
+        Assert.assertEquals(PendingChange.MAX_BACKOFF, PendingChange.getBackoff(40));
+
+    }
+
+    /**
+     * Not a strict benchmark, but compares writing a large synthetic list one row at a time,
+     * with writing it in a single {@link WriteBatch}.
+     */
+    @Test
+    public void testCompareRowWritesWithBatch() throws Exception {
+
+        int size = 500;
+        Shoppinglist rows = Shoppinglist.fromName("rows");
+        Shoppinglist batched = Shoppinglist.fromName("batched");
+        mDatabase.insertList(rows, mUser);
+
+        long start = System.nanoTime();
+        for (ShoppinglistItem sli : items(rows, size, "rows")) {
+            mDatabase.editItems(sli, mUser);
+        }
+        long rowNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        WriteBatch batch = new WriteBatch().putList(batched);
+        for (ShoppinglistItem sli : items(batched, size, "batched")) {
+            batch.putItem(sli);
+        }
+        Assert.assertTrue(mDatabase.apply(batch, mUser));
+        long batchNanos = System.nanoTime() - start;
+
+        Assert.assertEquals(size, mDatabase.getItems(rows, mUser).size());
+        Assert.assertEquals(size, mDatabase.getItems(batched, mUser).size());
+
+        SgnLog.d(TAG, String.format(Locale.US, "%d items, one row at a time: %.2fms, batched: %.2fms",
+                size, rowNanos / 1e6, batchNanos / 1e6));
+
+    }
+
+}
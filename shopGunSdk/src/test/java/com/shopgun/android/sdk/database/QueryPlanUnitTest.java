@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk.database;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.shopgun.android.sdk.log.SgnLog;
+import com.shopgun.android.sdk.utils.Constants;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class QueryPlanUnitTest {
+
+    public static final String TAG = Constants.getTag(QueryPlanUnitTest.class);
+
+    @Test
+    public void testNoQueryScansATable() throws Exception {
+
+        SgnDataSource dataSource = new SgnDataSource(RuntimeEnvironment.application);
+        SQLiteDatabase db = dataSource.acquireDb();
+        try {
+            for (String[] path : SgnDataSource.ACCESS_PATHS) {
+                assertNoScan(db, "SELECT * FROM " + path[0] + " WHERE " + path[1]);
+            }
+            String lists = "SELECT * FROM " + ListSQLiteHelper.TABLE + " WHERE " + SgnDataSource.WHERE_USER_NOT_STATE +
+                    " ORDER BY " + SgnOpenHelper.NAME;
+            for (String detail : DbUtils.explainQueryPlan(db, lists)) {
+                Assert.assertFalse(lists + ": " + detail, detail.contains("TEMP B-TREE"));
+            }
+        } finally {
+            dataSource.releaseDb();
+        }
+
+    }
+
+    private static void assertNoScan(SQLiteDatabase db, String sql) {
+        List<String> plan = DbUtils.explainQueryPlan(db, sql);
+        Assert.assertFalse(sql, plan.isEmpty());
+        for (String detail : plan) {
+            SgnLog.d(TAG, sql + " -> " + detail);
+            Assert.assertFalse(sql + ": " + detail, detail.startsWith("SCAN"));
+        }
+    }
+
+    @Test
+    public void testUpgradeKeepsData() throws Exception {
+
+        // A version 5 database, without any indexes
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        db.execSQL(ListSQLiteHelper.CREATE_TABLE);
+        db.execSQL(ItemSQLiteHelper.CREATE_TABLE);
+        db.execSQL(ShareSQLiteHelper.CREATE_TABLE);
+        db.execSQL("INSERT INTO " + ItemSQLiteHelper.TABLE + " VALUES ('a','ern:shopping-list-item:a','2015-01-01T00:00:00+0000',null,1,0,null,null,'list',0,'00000000-0000-0000-0000-000000000000',null,1)");
+
+        new SgnOpenHelper(RuntimeEnvironment.application).onUpgrade(db, 5, 7);
+
+        Assert.assertEquals(1, DatabaseUtils.queryNumEntries(db, ItemSQLiteHelper.TABLE));
+        // The unsynchronized item is journaled, so it will still be sent to the API
+        Assert.assertEquals(1, DatabaseUtils.queryNumEntries(db, ChangeSQLiteHelper.TABLE));
+        long indexes = DatabaseUtils.longForQuery(db, "SELECT count(*) FROM sqlite_master WHERE type='index' AND sql IS NOT NULL", null);
+        Assert.assertEquals(ItemSQLiteHelper.CREATE_INDEXES.length + ListSQLiteHelper.CREATE_INDEXES.length +
+                ShareSQLiteHelper.CREATE_INDEXES.length + ChangeSQLiteHelper.CREATE_INDEXES.length, indexes);
+
+        // Older versions had a different schema, and are recreated
+        new SgnOpenHelper(RuntimeEnvironment.application).onUpgrade(db, 4, 7);
+        Assert.assertEquals(0, DatabaseUtils.queryNumEntries(db, ItemSQLiteHelper.TABLE));
+        Assert.assertEquals(0, DatabaseUtils.queryNumEntries(db, ChangeSQLiteHelper.TABLE));
+        db.close();
+
+    }
+
+}
@@ -0,0 +1,425 @@
+package com.shopgun.android.sdk.eventskit;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.shopgun.android.sdk.ShopGun;
+import com.shopgun.android.sdk.corekit.LifecycleManager;
+import com.shopgun.android.sdk.log.SgnLog;
+import com.shopgun.android.sdk.utils.Constants;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.GzipSource;
+import okio.Okio;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class EventManagerUnitTest {
+
+    public static final String TAG = Constants.getTag(EventManagerUnitTest.class);
+
+    private static final int EVENT_COUNT = 10000;
+
+    private File mDirectory;
+    private CountingEventStore mStore;
+    private AtomicInteger mAcked;
+    private ShopGun mShopGun;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("sgn-events", "");
+        mDirectory.delete();
+        mStore = new CountingEventStore(new SegmentedEventLog(mDirectory));
+        mAcked = new AtomicInteger();
+
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new AckInterceptor(mAcked))
+                .build();
+
+        LifecycleManager lifecycleManager = mock(LifecycleManager.class);
+        when(lifecycleManager.isActive()).thenReturn(true);
+
+        mShopGun = mock(ShopGun.class);
+        when(mShopGun.getClient()).thenReturn(client);
+        when(mShopGun.getEventEnvironment()).thenReturn("https://events.service.shopgun.com/track");
+        when(mShopGun.getEventStore()).thenReturn(mStore);
+        when(mShopGun.getLifecycleManager()).thenReturn(lifecycleManager);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+
+        EventManager manager = new EventManager(mShopGun);
+        manager.setLingerTime(20);
+        final AtomicInteger accepted = new AtomicInteger();
+        manager.addEventListener(new EventListener() {
+            @Override
+            public void onEvent(AnonymousEvent event) {
+                accepted.incrementAndGet();
+            }
+        });
+
+        long start = System.nanoTime();
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            AnonymousEvent event = new AnonymousEvent(AnonymousEvent.PAGED_PUBLICATION_PAGE_DISAPPEARED)
+                    .add("page", i);
+            // A full queue drops the event, so keep offering it
+            while (accepted.get() == i) {
+                manager.addEvent(event);
+                if (accepted.get() == i) {
+                    Thread.sleep(1);
+                }
+            }
+        }
+        long added = System.nanoTime();
+
+        long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60);
+        while (mAcked.get() < EVENT_COUNT && System.currentTimeMillis() < timeout) {
+            manager.flush();
+            Thread.sleep(50);
+        }
+        long shipped = System.nanoTime();
+
+        Assert.assertEquals(EVENT_COUNT, accepted.get());
+        Assert.assertEquals(EVENT_COUNT, mAcked.get());
+        Assert.assertEquals(EVENT_COUNT, mStore.getAddedCount());
+        Assert.assertTrue("Expected events to be written in batches, got " + mStore.getWriteCount() + " writes",
+                mStore.getWriteCount() < EVENT_COUNT / 10);
+
+        SgnLog.d(TAG, String.format("%s events added in %s ms, shipped in %s ms, %s writes",
+                EVENT_COUNT, TimeUnit.NANOSECONDS.toMillis(added - start),
+                TimeUnit.NANOSECONDS.toMillis(shipped - start), mStore.getWriteCount()));
+
+    }
+
+    @Test
+    public void testOverflowPolicies() throws Exception {
+
+        // Stall the dispatcher, so the queue fills up
+        CountDownLatch gate = new CountDownLatch(1);
+        mStore.setGate(gate);
+
+        EventManager manager = new EventManager(mShopGun);
+        manager.setLingerTime(0);
+        final AtomicInteger accepted = new AtomicInteger();
+        manager.addEventListener(new EventListener() {
+            @Override
+            public void onEvent(AnonymousEvent event) {
+                accepted.incrementAndGet();
+            }
+        });
+
+        int total = EventManager.MAX_QUEUE_SIZE * 2;
+        for (int i = 0; i < total; i++) {
+            manager.addEvent(new AnonymousEvent(AnonymousEvent.PAGED_PUBLICATION_PAGE_DISAPPEARED).add("page", i));
+        }
+        Assert.assertTrue(manager.getDroppedCount() > 0);
+        Assert.assertEquals(total, accepted.get() + manager.getDroppedCount());
+        Assert.assertTrue(mStore.awaitStalled(10, TimeUnit.SECONDS));
+
+        // Drop oldest accepts everything, and counts what it pushes out
+        manager.setOverflowPolicy(EventOverflowPolicy.DROP_OLDEST);
+        long dropped = manager.getDroppedCount();
+        accepted.set(0);
+        for (int i = 0; i < 100; i++) {
+            manager.addEvent(new AnonymousEvent(AnonymousEvent.PAGED_PUBLICATION_PAGE_DISAPPEARED).add("page", i));
+        }
+        Assert.assertEquals(100, accepted.get());
+        Assert.assertEquals(dropped + 100, manager.getDroppedCount());
+
+        // Sampling keeps one in four of the sampled type
+        manager.setOverflowPolicy(EventOverflowPolicy.SAMPLE);
+        manager.setSampleRate(AnonymousEvent.PAGED_PUBLICATION_PAGE_DISAPPEARED, 4);
+        for (int i = 0; i < 100; i++) {
+            manager.addEvent(new AnonymousEvent(AnonymousEvent.PAGED_PUBLICATION_PAGE_DISAPPEARED).add("page", i));
+        }
+        Assert.assertEquals(75, manager.getSampledCount());
+        Assert.assertEquals(0, manager.getSpilledCount());
+
+        gate.countDown();
+
+    }
+
+    @Test
+    public void testSpillPolicy() throws Exception {
+
+        CountDownLatch gate = new CountDownLatch(1);
+        EventManager manager = fillQueue(gate);
+        long dropped = manager.getDroppedCount();
+        int added = mStore.getAddedCount();
+
+        // The spill writer bypasses the full queue, and the stalled dispatcher
+        manager.setOverflowPolicy(EventOverflowPolicy.SPILL);
+        for (int i = 0; i < 100; i++) {
+            manager.addEvent(new AnonymousEvent(AnonymousEvent.PAGED_PUBLICATION_PAGE_DISAPPEARED).add("page", i));
+        }
+        Assert.assertEquals(100, manager.getSpilledCount());
+        Assert.assertEquals(dropped, manager.getDroppedCount());
+        Assert.assertTrue(await(mStore.mAdded, added + 100));
+
+        // Spilled events the store fails to persist are counted as dropped
+        mStore.setFailing(true);
+        for (int i = 0; i < 50; i++) {
+            manager.addEvent(new AnonymousEvent(AnonymousEvent.PAGED_PUBLICATION_PAGE_DISAPPEARED).add("page", i));
+        }
+        Assert.assertEquals(150, manager.getSpilledCount());
+        long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (manager.getDroppedCount() < dropped + 50 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(dropped + 50, manager.getDroppedCount());
+
+        mStore.setFailing(false);
+        gate.countDown();
+
+    }
+
+    @Test
+    public void testBlockPolicy() throws Exception {
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        EventManager manager = fillQueue(gate);
+        long dropped = manager.getDroppedCount();
+
+        // Each event waits for the timeout, and is then dropped
+        manager.setOverflowPolicy(EventOverflowPolicy.BLOCK);
+        manager.setBlockTimeout(20);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            manager.addEvent(new AnonymousEvent(AnonymousEvent.PAGED_PUBLICATION_PAGE_DISAPPEARED).add("page", i));
+        }
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+        Assert.assertEquals(dropped + 5, manager.getDroppedCount());
+
+        // The event gets in, once the dispatcher makes room in the queue
+        final AtomicInteger accepted = new AtomicInteger();
+        manager.addEventListener(new EventListener() {
+            @Override
+            public void onEvent(AnonymousEvent event) {
+                accepted.incrementAndGet();
+            }
+        });
+        manager.setBlockTimeout(TimeUnit.SECONDS.toMillis(10));
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // carry on
+                }
+                gate.countDown();
+            }
+        }.start();
+        manager.addEvent(new AnonymousEvent(AnonymousEvent.PAGED_PUBLICATION_PAGE_DISAPPEARED).add("page", 5));
+        Assert.assertEquals(1, accepted.get());
+        Assert.assertEquals(dropped + 5, manager.getDroppedCount());
+        Assert.assertEquals(0, manager.getSpilledCount());
+
+    }
+
+    /**
+     * Stall the dispatcher on the gate, and fill up the queue behind it.
+     */
+    private EventManager fillQueue(CountDownLatch gate) throws Exception {
+        mStore.setGate(gate);
+        EventManager manager = new EventManager(mShopGun);
+        manager.setLingerTime(0);
+        for (int i = 0; i < EventManager.MAX_QUEUE_SIZE * 2; i++) {
+            manager.addEvent(new AnonymousEvent(AnonymousEvent.PAGED_PUBLICATION_PAGE_DISAPPEARED).add("page", i));
+        }
+        Assert.assertTrue(mStore.awaitStalled(10, TimeUnit.SECONDS));
+        Assert.assertTrue(manager.getDroppedCount() > 0);
+        return manager;
+    }
+
+    private static boolean await(AtomicInteger counter, int value) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (counter.get() < value && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        return counter.get() >= value;
+    }
+
+    /**
+     * Acknowledges every event posted, instead of going to the network
+     */
+    private static class AckInterceptor implements Interceptor {
+
+        private final AtomicInteger mAcked;
+
+        AckInterceptor(AtomicInteger acked) {
+            mAcked = acked;
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Buffer buffer = new Buffer();
+            chain.request().body().writeTo(buffer);
+            String body = Okio.buffer(new GzipSource(buffer)).readUtf8();
+            JsonObject request = new JsonParser().parse(body).getAsJsonObject();
+            JsonArray events = new JsonArray();
+            for (JsonElement e : request.getAsJsonArray("events")) {
+                JsonObject item = new JsonObject();
+                item.addProperty("id", e.getAsJsonObject().get("_i").getAsString());
+                item.addProperty("status", "ack");
+                events.add(item);
+            }
+            mAcked.addAndGet(events.size());
+            JsonObject response = new JsonObject();
+            response.add("events", events);
+            return new Response.Builder()
+                    .request(chain.request())
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(200)
+                    .message("OK")
+                    .body(ResponseBody.create(MediaType.parse("application/json"), response.toString()))
+                    .build();
+        }
+    }
+
+    /**
+     * Counts the writes to the store it wraps. A gate stalls the writes of the dispatcher, not the spill writer.
+     */
+    private static class CountingEventStore implements EventStore {
+
+        private final EventStore mStore;
+        private final AtomicInteger mWrites = new AtomicInteger();
+        private final AtomicInteger mAdded = new AtomicInteger();
+        private volatile CountDownLatch mGate;
+        private volatile boolean mFailing;
+        private final CountDownLatch mStalled = new CountDownLatch(1);
+
+        CountingEventStore(EventStore store) {
+            mStore = store;
+        }
+
+        int getWriteCount() {
+            return mWrites.get();
+        }
+
+        int getAddedCount() {
+            return mAdded.get();
+        }
+
+        void setGate(CountDownLatch gate) {
+            mGate = gate;
+        }
+
+        void setFailing(boolean failing) {
+            mFailing = failing;
+        }
+
+        boolean awaitStalled(long timeout, TimeUnit unit) throws InterruptedException {
+            return mStalled.await(timeout, unit);
+        }
+
+        @Override
+        public boolean open() {
+            return mStore.open();
+        }
+
+        @Override
+        public void close() {
+            mStore.close();
+        }
+
+        @Override
+        public boolean add(List<AnonymousEventWrapper> events) {
+            CountDownLatch gate = mGate;
+            if (gate != null && Thread.currentThread() instanceof EventDispatcher) {
+                mStalled.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    // carry on
+                }
+            }
+            if (mFailing) {
+                return false;
+            }
+            mWrites.incrementAndGet();
+            mAdded.addAndGet(events.size());
+            return mStore.add(events);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return mStore.isOpen();
+        }
+
+        @Override
+        public boolean isThreadSafe() {
+            return mStore.isThreadSafe();
+        }
+
+        @Override
+        public long count() {
+            return mStore.count();
+        }
+
+        @Override
+        public List<AnonymousEventWrapper> get(int limit) {
+            return mStore.get(limit);
+        }
+
+        @Override
+        public EventBatch getBatch(int limit) {
+            return mStore.getBatch(limit);
+        }
+
+        @Override
+        public void deleteBatch(EventBatch batch) {
+            mStore.deleteBatch(batch);
+        }
+
+        @Override
+        public void delete(Set<String> ids) {
+            mStore.delete(ids);
+        }
+
+        @Override
+        public void deleteOlderThan(Set<String> ids, long timestamp) {
+            mStore.deleteOlderThan(ids, timestamp);
+        }
+    }
+
+}
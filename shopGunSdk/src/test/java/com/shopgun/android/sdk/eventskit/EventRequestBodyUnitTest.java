@@ -0,0 +1,85 @@
+package com.shopgun.android.sdk.eventskit;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import okio.Buffer;
+import okio.GzipSource;
+import okio.Okio;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class EventRequestBodyUnitTest {
+
+    private static List<AnonymousEventWrapper> events(int count) {
+        List<AnonymousEventWrapper> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            AnonymousEvent event = new AnonymousEvent(AnonymousEvent.PAGED_PUBLICATION_PAGE_DISAPPEARED)
+                    .add("page", i);
+            events.add(new AnonymousEventWrapper(event.getId(), event.getVersion(), event.getTimestamp(), event.toString()));
+        }
+        events.add(new AnonymousEventWrapper("empty", 2, 0, null));
+        return events;
+    }
+
+    @Test
+    public void testGzipBody() throws Exception {
+
+        List<AnonymousEventWrapper> events = events(100);
+
+        Buffer plain = new Buffer();
+        EventRequestBody plainBody = new EventRequestBody(events, false);
+        plainBody.writeTo(plain);
+        Assert.assertEquals(plain.size(), plainBody.getRawBytes());
+        Assert.assertEquals(plain.size(), plainBody.getCompressedBytes());
+
+        Buffer gzip = new Buffer();
+        EventRequestBody gzipBody = new EventRequestBody(events, true);
+        gzipBody.writeTo(gzip);
+        Assert.assertEquals(gzip.size(), gzipBody.getCompressedBytes());
+        Assert.assertEquals(plain.size(), gzipBody.getRawBytes());
+        Assert.assertTrue(gzipBody.getCompressedBytes() < gzipBody.getRawBytes() / 2);
+
+        String json = Okio.buffer(new GzipSource(gzip)).readUtf8();
+        Assert.assertEquals(plain.readUtf8(), json);
+
+        JsonArray array = new JsonParser().parse(json).getAsJsonObject().getAsJsonArray("events");
+        Assert.assertEquals(101, array.size());
+        Assert.assertEquals(events.get(7).getId(), array.get(7).getAsJsonObject().get("_i").getAsString());
+        Assert.assertEquals(new JsonObject(), array.get(100));
+
+    }
+
+    @Test
+    public void testMalformedEvent() throws Exception {
+
+        List<AnonymousEventWrapper> events = events(3);
+        events.add(new AnonymousEventWrapper("torn", 2, 0, "{\"_i\":\"torn\",\"page\":"));
+        events.add(new AnonymousEventWrapper("array", 2, 0, "[1,2]"));
+        events.add(new AnonymousEventWrapper("trailing", 2, 0, "{}}"));
+
+        Buffer buffer = new Buffer();
+        new EventRequestBody(events, false).writeTo(buffer);
+
+        // The batch is still valid JSON, with the corrupt events sent as empty objects
+        JsonArray array = new JsonParser().parse(buffer.readUtf8()).getAsJsonObject().getAsJsonArray("events");
+        Assert.assertEquals(7, array.size());
+        Assert.assertEquals(events.get(2).getId(), array.get(2).getAsJsonObject().get("_i").getAsString());
+        for (int i = 3; i < 7; i++) {
+            Assert.assertEquals(new JsonObject(), array.get(i));
+        }
+
+    }
+
+}
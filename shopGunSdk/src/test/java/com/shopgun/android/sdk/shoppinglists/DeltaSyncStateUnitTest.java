@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk.shoppinglists;
+
+import com.shopgun.android.sdk.model.Shoppinglist;
+import com.shopgun.android.sdk.model.User;
+import com.shopgun.android.sdk.utils.Constants;
+
+import junit.framework.Assert;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class DeltaSyncStateUnitTest {
+
+    public static final String TAG = Constants.getTag(DeltaSyncStateUnitTest.class);
+
+    private static JSONObject list(String id, String modified) throws Exception {
+        return new JSONObject().put("id", id).put("name", "list " + id).put("modified", modified);
+    }
+
+    @Test
+    public void testFingerprintIgnoresOrder() throws Exception {
+
+        JSONArray a = new JSONArray().put(list("a", "1")).put(list("b", "1"));
+        JSONArray b = new JSONArray().put(list("b", "1")).put(list("a", "1"));
+        JSONArray c = new JSONArray().put(list("b", "2")).put(list("a", "1"));
+        Assert.assertEquals(DeltaSyncState.fingerprint(a), DeltaSyncState.fingerprint(b));
+        Assert.assertFalse(DeltaSyncState.fingerprint(a) == DeltaSyncState.fingerprint(c));
+
+    }
+
+    @Test
+    public void testUpdateListsReturnsChanges() throws Exception {
+
+        DeltaSyncState state = new DeltaSyncState(new User().setUserId(1));
+        Set<String> changed = state.updateLists(new JSONArray().put(list("a", "1")).put(list("b", "1")));
+        Assert.assertEquals(2, changed.size());
+
+        changed = state.updateLists(new JSONArray().put(list("a", "1")).put(list("b", "1")));
+        Assert.assertTrue(changed.isEmpty());
+
+        changed = state.updateLists(new JSONArray().put(list("a", "2")).put(list("b", "1")).put(list("c", "1")));
+        Set<String> expected = new HashSet<>();
+        expected.add("a");
+        expected.add("c");
+        Assert.assertEquals(expected, changed);
+
+    }
+
+    @Test
+    public void testUpdateItems() throws Exception {
+
+        DeltaSyncState state = new DeltaSyncState(new User().setUserId(1));
+        JSONArray items = new JSONArray().put(new JSONObject().put("id", "i1").put("tick", false));
+        Assert.assertTrue(state.updateItems("a", items));
+        Assert.assertFalse(state.updateItems("a", items));
+
+        state.invalidateItems("a");
+        Assert.assertTrue(state.updateItems("a", items));
+
+        // Removing the list from the server, forgets the items too
+        state.updateLists(new JSONArray().put(list("a", "1")));
+        state.updateLists(new JSONArray());
+        Assert.assertTrue(state.updateItems("a", items));
+
+    }
+
+    @Test
+    public void testNextRefreshRotates() throws Exception {
+
+        DeltaSyncState state = new DeltaSyncState(new User().setUserId(1));
+        Assert.assertTrue(state.isFor(new User().setUserId(1)));
+        Assert.assertFalse(state.isFor(new User().setUserId(2)));
+
+        List<Shoppinglist> lists = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            lists.add(Shoppinglist.fromName("list " + i));
+        }
+
+        Set<Shoppinglist> seen = new HashSet<>();
+        for (int i = 0; i < DeltaSyncState.REFRESH_ITERATIONS; i++) {
+            List<Shoppinglist> next = state.nextRefresh(lists);
+            Assert.assertEquals(3, next.size());
+            seen.addAll(next);
+        }
+        Assert.assertEquals(lists.size(), seen.size());
+        Assert.assertTrue(state.nextRefresh(new ArrayList<Shoppinglist>()).isEmpty());
+
+    }
+
+}
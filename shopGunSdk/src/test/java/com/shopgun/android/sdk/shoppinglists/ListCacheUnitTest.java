@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk.shoppinglists;
+
+import com.shopgun.android.sdk.bus.ShoppinglistEvent;
+import com.shopgun.android.sdk.database.SgnDatabase;
+import com.shopgun.android.sdk.model.Share;
+import com.shopgun.android.sdk.model.Shoppinglist;
+import com.shopgun.android.sdk.model.ShoppinglistItem;
+import com.shopgun.android.sdk.model.User;
+import com.shopgun.android.sdk.model.interfaces.SyncState;
+import com.shopgun.android.sdk.utils.Constants;
+import com.shopgun.android.sdk.utils.ListUtils;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class ListCacheUnitTest {
+
+    public static final String TAG = Constants.getTag(ListCacheUnitTest.class);
+
+    private User mUser;
+    private Shoppinglist mList;
+    private SgnDatabase mDatabase;
+    private ListCache mCache;
+
+    @Before
+    public void setUp() {
+        mUser = new User().setUserId(1).setEmail("user@example.com");
+        mList = Shoppinglist.fromName("groceries");
+        mList.putShare(new Share(mUser.getEmail(), Share.ACCESS_OWNER, null));
+        List<Shoppinglist> lists = new ArrayList<Shoppinglist>();
+        lists.add(mList);
+        List<ShoppinglistItem> items = new ArrayList<ShoppinglistItem>();
+        items.add(item("b", "a"));
+        items.add(item("a", ListUtils.FIRST_ITEM));
+        mDatabase = mock(SgnDatabase.class);
+        when(mDatabase.getLists(mUser)).thenReturn(lists);
+        when(mDatabase.getItems(mList.getId(), mUser, false)).thenReturn(items);
+        mCache = new ListCache(mDatabase);
+    }
+
+    private ShoppinglistItem item(String id, String previousId) {
+        return new ShoppinglistItem(mList, id).setId(id).setPreviousId(previousId);
+    }
+
+    private static String ids(List<ShoppinglistItem> items) {
+        StringBuilder sb = new StringBuilder();
+        for (ShoppinglistItem sli : items) {
+            sb.append(sli.getId());
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testReadsAreServedFromMemory() throws Exception {
+
+        List<ShoppinglistItem> first = mCache.getItems(mList.getId(), mUser);
+        Assert.assertEquals("ab", ids(first));
+        Assert.assertSame(first, mCache.getItems(mList.getId(), mUser));
+        Assert.assertEquals(mList.getId(), mCache.getList(mList.getId(), mUser).getId());
+        Assert.assertSame(mCache.getLists(mUser), mCache.getLists(mUser));
+        Assert.assertEquals("b", mCache.getItem("b", mUser).getId());
+        verify(mDatabase, times(1)).getItems(mList.getId(), mUser, false);
+        verify(mDatabase, times(1)).getLists(mUser);
+
+        try {
+            first.clear();
+            Assert.fail("The items must be unmodifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+    }
+
+    @Test
+    public void testSingleReadsAndWritesAreCopies() throws Exception {
+
+        // Changing a single item that was read, doesn't change the snapshot
+        List<ShoppinglistItem> items = mCache.getItems(mList.getId(), mUser);
+        ShoppinglistItem sli = mCache.getItem("a", mUser);
+        Assert.assertNotSame(items.get(0), sli);
+        sli.setDescription("changed");
+        Assert.assertEquals("a", mCache.getItems(mList.getId(), mUser).get(0).getDescription());
+
+        Shoppinglist sl = mCache.getList(mList.getId(), mUser);
+        Assert.assertNotSame(mList, sl);
+        sl.setName("changed");
+        Assert.assertEquals("groceries", mCache.getLists(mUser).get(0).getName());
+
+        // Neither does changing what was written
+        ShoppinglistItem written = item("c", "b");
+        mCache.putItems(Collections.singletonList(written), mUser, new ShoppinglistEvent.Builder(false));
+        written.setDescription("changed");
+        Assert.assertEquals("c", mCache.getItems(mList.getId(), mUser).get(2).getDescription());
+
+    }
+
+    @Test
+    public void testWritesAreCopyOnWrite() throws Exception {
+
+        List<ShoppinglistItem> before = mCache.getItems(mList.getId(), mUser);
+
+        List<ShoppinglistItem> written = new ArrayList<ShoppinglistItem>();
+        written.add(item("c", ListUtils.FIRST_ITEM));
+        written.add(item("a", "c"));
+        written.add(item("b", "a").setState(SyncState.DELETE));
+        mCache.putItems(written, mUser, new ShoppinglistEvent.Builder(false));
+
+        Assert.assertEquals("ab", ids(before));
+        Assert.assertEquals("ca", ids(mCache.getItems(mList.getId(), mUser)));
+
+        List<ShoppinglistItem> moved = mCache.move(mCache.getItem("c", mUser), "a", mUser, new ShoppinglistEvent.Builder(false));
+        Assert.assertEquals(2, moved.size());
+        Assert.assertEquals("ac", ids(mCache.getItems(mList.getId(), mUser)));
+        Assert.assertNull(mCache.move(item("x", "a"), ListUtils.FIRST_ITEM, mUser, new ShoppinglistEvent.Builder(false)));
+
+        mCache.getLists(mUser);
+        mList.setState(SyncState.DELETE);
+        mCache.putLists(Collections.singletonList(mList), mUser);
+        Assert.assertTrue(mCache.getLists(mUser).isEmpty());
+        verify(mDatabase, times(1)).getItems(mList.getId(), mUser, false);
+        verify(mDatabase, times(1)).getLists(mUser);
+
+    }
+
+    @Test
+    public void testRefreshAndInvalidate() throws Exception {
+
+        mCache.getLists(mUser);
+        mCache.getItems(mList.getId(), mUser);
+
+        // Only the lists touched by the sync are read again
+        ShoppinglistEvent.Builder builder = new ShoppinglistEvent.Builder(true);
+        builder.edit(item("a", ListUtils.FIRST_ITEM));
+        mCache.refresh(builder, mUser);
+        verify(mDatabase, times(2)).getItems(mList.getId(), mUser, false);
+        verify(mDatabase, times(1)).getLists(mUser);
+
+        // A sync for another user is ignored
+        mCache.refresh(builder, new User().setUserId(2));
+        verify(mDatabase, times(2)).getItems(mList.getId(), mUser, false);
+
+        mCache.invalidate(2);
+        mCache.getItems(mList.getId(), mUser);
+        verify(mDatabase, times(2)).getItems(mList.getId(), mUser, false);
+
+        mCache.invalidate(mUser.getUserId());
+        mCache.getLists(mUser);
+        mCache.getItems(mList.getId(), mUser);
+        verify(mDatabase, times(3)).getItems(mList.getId(), mUser, false);
+        verify(mDatabase, times(2)).getLists(mUser);
+
+    }
+
+}
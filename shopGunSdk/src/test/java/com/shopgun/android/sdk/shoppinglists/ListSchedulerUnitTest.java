@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk.shoppinglists;
+
+import com.shopgun.android.sdk.model.Share;
+import com.shopgun.android.sdk.model.Shoppinglist;
+import com.shopgun.android.sdk.utils.Constants;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class ListSchedulerUnitTest {
+
+    public static final String TAG = Constants.getTag(ListSchedulerUnitTest.class);
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private static Shoppinglist list(String name, long modified) {
+        Shoppinglist sl = Shoppinglist.fromName(name);
+        sl.setModified(new Date(modified));
+        sl.putShare(new Share("owner@example.com", Share.ACCESS_OWNER, null));
+        return sl;
+    }
+
+    @Test
+    public void testIntervals() throws Exception {
+
+        long now = 100 * DAY;
+        ListScheduler scheduler = new ListScheduler();
+
+        Shoppinglist hot = list("hot", now - 1000);
+        Shoppinglist cold = list("cold", now - DAY);
+        Shoppinglist shared = list("shared", now - DAY);
+        shared.putShare(new Share("friend@example.com", Share.ACCESS_READWRITE, null));
+
+        Assert.assertEquals(0, scheduler.getInterval(hot, now));
+        Assert.assertEquals(ListScheduler.COLD_INTERVAL, scheduler.getInterval(cold, now));
+        Assert.assertEquals(ListScheduler.SHARED_COLD_INTERVAL, scheduler.getInterval(shared, now));
+
+        scheduler.onServerChange(cold.getId(), now - ListScheduler.HOT_PERIOD - 1);
+        Assert.assertEquals(ListScheduler.WARM_INTERVAL, scheduler.getInterval(cold, now));
+        scheduler.onLocalChange(cold.getId(), now);
+        Assert.assertEquals(0, scheduler.getInterval(cold, now));
+
+        // The foreground list stays hot for a while after it leaves the screen
+        scheduler.setForeground(shared.getId(), now);
+        Assert.assertEquals(0, scheduler.getInterval(shared, now));
+        scheduler.setForeground(null, now);
+        Assert.assertEquals(0, scheduler.getInterval(shared, now + 1000));
+        Assert.assertEquals(ListScheduler.SHARED_WARM_INTERVAL, scheduler.getInterval(shared, now + ListScheduler.HOT_PERIOD));
+
+    }
+
+    @Test
+    public void testNextDue() throws Exception {
+
+        long now = 100 * DAY;
+        ListScheduler scheduler = new ListScheduler();
+        Shoppinglist hot = list("hot", now);
+        Shoppinglist cold = list("cold", now - DAY);
+        List<Shoppinglist> lists = new ArrayList<Shoppinglist>();
+        lists.add(hot);
+        lists.add(cold);
+
+        Assert.assertEquals(2, scheduler.nextDue(lists, now).size());
+
+        List<Shoppinglist> due = scheduler.nextDue(lists, now + 1000);
+        Assert.assertEquals(1, due.size());
+        Assert.assertSame(hot, due.get(0));
+
+        Assert.assertEquals(2, scheduler.nextDue(lists, now + ListScheduler.COLD_INTERVAL).size());
+
+    }
+
+    @Test
+    public void testRefreshHasItsOwnSchedule() throws Exception {
+
+        long now = 100 * DAY;
+        ListScheduler scheduler = new ListScheduler();
+        Shoppinglist hot = list("hot", now);
+        Shoppinglist cold = list("cold", now - DAY);
+        Shoppinglist shared = list("shared", now - DAY);
+        shared.putShare(new Share("friend@example.com", Share.ACCESS_READWRITE, null));
+        List<Shoppinglist> lists = new ArrayList<Shoppinglist>();
+        lists.add(hot);
+        lists.add(cold);
+        lists.add(shared);
+
+        Assert.assertEquals(0, scheduler.getRefreshInterval(hot, now));
+        Assert.assertEquals(ListScheduler.REFRESH_INTERVAL, scheduler.getRefreshInterval(cold, now));
+        Assert.assertEquals(ListScheduler.SHARED_REFRESH_INTERVAL, scheduler.getRefreshInterval(shared, now));
+
+        // The checks use up their own slots, but not the slots of the refresh
+        Assert.assertEquals(3, scheduler.nextDue(lists, now).size());
+        Assert.assertEquals(3, scheduler.nextRefreshDue(lists, now).size());
+
+        // Checking the lists on every iteration, doesn't keep them from being refreshed
+        long time = now;
+        int refreshedCold = 0;
+        int refreshedShared = 0;
+        while (time < now + ListScheduler.REFRESH_INTERVAL) {
+            time += 1000;
+            scheduler.nextDue(lists, time);
+            if (time % 10000 == 0) {
+                List<Shoppinglist> due = scheduler.nextRefreshDue(lists, time);
+                refreshedCold += due.contains(cold) ? 1 : 0;
+                refreshedShared += due.contains(shared) ? 1 : 0;
+            }
+        }
+        Assert.assertEquals(1, refreshedCold);
+        Assert.assertEquals(ListScheduler.REFRESH_INTERVAL / ListScheduler.SHARED_REFRESH_INTERVAL, refreshedShared);
+
+        // The refresh doesn't use up the slot of the check either
+        Assert.assertTrue(scheduler.nextDue(lists, time + ListScheduler.COLD_INTERVAL).contains(cold));
+
+    }
+
+}
@@ -0,0 +1,350 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.shopgun.android.sdk.shoppinglists;
+
+import com.shopgun.android.sdk.SessionManager;
+import com.shopgun.android.sdk.SgnLocation;
+import com.shopgun.android.sdk.ShopGun;
+import com.shopgun.android.sdk.api.Environment;
+import com.shopgun.android.sdk.corekit.LifecycleManager;
+import com.shopgun.android.sdk.database.SgnDatabase;
+import com.shopgun.android.sdk.log.SgnLog;
+import com.shopgun.android.sdk.model.Session;
+import com.shopgun.android.sdk.model.Shoppinglist;
+import com.shopgun.android.sdk.model.ShoppinglistItem;
+import com.shopgun.android.sdk.model.User;
+import com.shopgun.android.sdk.network.Request;
+import com.shopgun.android.sdk.network.RequestQueue;
+import com.shopgun.android.sdk.network.impl.ExecutorDelivery;
+import com.shopgun.android.sdk.network.impl.SegmentedLruCache;
+import com.shopgun.android.sdk.network.mock.MockShoppinglistNetwork;
+import com.shopgun.android.sdk.utils.Constants;
+import com.shopgun.android.sdk.utils.ListUtils;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mockito.invocation.Invocation;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+/**
+ * Benchmark and soak tests for {@link SyncManager} and {@link ListManager}, running against a
+ * {@link MockShoppinglistNetwork}, a real {@link SgnDatabase}, and a real {@link RequestQueue}.
+ *
+ * <p>Each sync is measured by the wall time until the sync is idle, the number of requests sent,
+ * the number of writes to the database, and the CPU time used on the sync thread (which is where
+ * the responses are merged into the database). The numbers are logged, so they can be compared
+ * before and after changes to the sync loop.</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class SyncBenchmarkUnitTest {
+
+    public static final String TAG = Constants.getTag(SyncBenchmarkUnitTest.class);
+
+    private static final int[] LIST_SIZES = { 10, 100, 1000, 5000 };
+    private static final int SOAK_ROUNDS = 50;
+
+    private User mUser;
+    private MockShoppinglistNetwork mNetwork;
+    private RequestQueue mRequestQueue;
+    private SgnDatabase mDatabase;
+    private SyncEngine mEngine;
+    private ListManager mListManager;
+    private SyncManager mSyncManager;
+
+    @Before
+    public void setUp() throws Exception {
+
+        mUser = new User().setUserId(1).setEmail("benchmark@example.com");
+        SessionManager sessionManager = mock(SessionManager.class);
+        when(sessionManager.getSession()).thenReturn(new Session().setUser(mUser));
+        LifecycleManager lifecycleManager = mock(LifecycleManager.class);
+        // Not active, so every forceSync() runs exactly one iteration of the sync loop
+        when(lifecycleManager.isActive()).thenReturn(false);
+
+        final ShopGun shopGun = mock(ShopGun.class);
+        when(shopGun.getSessionManager()).thenReturn(sessionManager);
+        when(shopGun.getLifecycleManager()).thenReturn(lifecycleManager);
+        when(shopGun.getEnvironment()).thenReturn(Environment.PRODUCTION);
+        when(shopGun.getLocation()).thenReturn(mock(SgnLocation.class));
+        when(shopGun.getContext()).thenReturn(RuntimeEnvironment.application);
+
+        mNetwork = new MockShoppinglistNetwork();
+        mRequestQueue = new RequestQueue(shopGun, new SegmentedLruCache(1024 * 1024), mNetwork, 4,
+                new ExecutorDelivery(Executors.newSingleThreadExecutor()));
+        mRequestQueue.start();
+        when(shopGun.add(any(Request.class))).thenAnswer(new Answer<Request<?>>() {
+            @Override
+            public Request<?> answer(InvocationOnMock invocation) throws Throwable {
+                return mRequestQueue.add((Request<?>) invocation.getArgument(0));
+            }
+        });
+
+        mDatabase = spy(SgnDatabase.getInstance(RuntimeEnvironment.application));
+        mDatabase.open();
+        mDatabase.clear();
+        mEngine = new SyncEngine();
+        mListManager = new ListManager(shopGun, mDatabase);
+        when(shopGun.getListManager()).thenReturn(mListManager);
+        mSyncManager = new SyncManager(shopGun, mDatabase, mEngine);
+        when(shopGun.getSyncManager()).thenReturn(mSyncManager);
+        mSyncManager.setSyncInterval(SyncInterval.SLOW);
+        sync();
+
+    }
+
+    @After
+    public void tearDown() {
+        mRequestQueue.stop();
+        mEngine.shutdown();
+        mDatabase.close();
+    }
+
+    @Test
+    public void testSyncBenchmark() throws Exception {
+
+        Random random = new Random(42);
+        for (int size : LIST_SIZES) {
+
+            Shoppinglist sl = mNetwork.createList(mUser.getUserId(), mUser.getEmail(), "benchmark " + size, size);
+            // New lists are only fetched every third iteration, so it may take a few
+            Result initial = new Result();
+            for (int i = 0; i < 3 && mListManager.getItems(sl).size() != size; i++) {
+                initial.add(sync());
+            }
+            Assert.assertEquals(size, mListManager.getItems(sl).size());
+
+            // Nothing changed, on the next iteration only modified is checked
+            Result idle = sync();
+
+            // Another device edits one percent of the list
+            mNetwork.simulateDevice(mUser.getUserId(), random, Math.max(1, size / 100));
+            Result remote = sync();
+
+            // Edit one percent of the list locally
+            List<ShoppinglistItem> items = new ArrayList<ShoppinglistItem>(mListManager.getItems(sl));
+            for (int i = 0; i < Math.max(1, size / 100); i++) {
+                ShoppinglistItem sli = items.get(random.nextInt(items.size()));
+                mListManager.editItem(sli.setTick(!sli.isTicked()));
+            }
+            Result local = sync();
+
+            SgnLog.i(TAG, String.format("size:%d initial[%s] idle[%s] remote[%s] local[%s]",
+                    size, initial, idle, remote, local));
+            assertConverged();
+
+            mNetwork.deleteList(mUser.getUserId(), sl.getId());
+            sync();
+        }
+
+    }
+
+    @Test
+    public void testSoak() throws Exception {
+
+        Random random = new Random(7);
+        Shoppinglist first = mNetwork.createList(mUser.getUserId(), mUser.getEmail(), "first", 100);
+        Shoppinglist second = mNetwork.createList(mUser.getUserId(), mUser.getEmail(), "second", 20);
+        mNetwork.setErrorRate(0.05f);
+        sync();
+
+        Result total = new Result();
+        for (int i = 0; i < SOAK_ROUNDS; i++) {
+
+            // Two other devices editing, while this device is editing too
+            mNetwork.simulateDevice(mUser.getUserId(), random, 1 + random.nextInt(3));
+            mNetwork.simulateDevice(mUser.getUserId(), random, 1 + random.nextInt(3));
+
+            Shoppinglist sl = random.nextBoolean() ? first : second;
+            List<ShoppinglistItem> items = mListManager.getItems(sl);
+            switch (items.isEmpty() ? 0 : random.nextInt(3)) {
+                case 0:
+                    ShoppinglistItem sli = new ShoppinglistItem(sl, "soak " + i);
+                    sli.setPreviousId(ListUtils.FIRST_ITEM);
+                    mListManager.addItem(sli);
+                    break;
+                case 1:
+                    ShoppinglistItem tick = items.get(random.nextInt(items.size()));
+                    mListManager.editItem(tick.setTick(!tick.isTicked()));
+                    break;
+                default:
+                    ShoppinglistItem move = items.get(random.nextInt(items.size()));
+                    mListManager.moveItem(move, ListUtils.FIRST_ITEM);
+                    break;
+            }
+            total.add(sync());
+        }
+        SgnLog.i(TAG, String.format("soak rounds:%d errors:%d [%s]", SOAK_ROUNDS, mNetwork.getErrorCount(), total));
+
+        mNetwork.setErrorRate(0);
+        assertConverged();
+
+    }
+
+    /**
+     * Run sync iterations until there are no local changes left, and every list has been compared
+     * with the server, then assert that the local items are the same as the items on the server.
+     */
+    private void assertConverged() throws InterruptedException {
+        // Every tenth iteration fetches all items of the lists due for a full refresh, regardless of modified.
+        // Within a run, that's every list the first time, as none of them have been refreshed yet
+        for (int i = 0; i < 11; i++) {
+            sync();
+        }
+        for (Shoppinglist sl : mListManager.getLists()) {
+            Set<String> server = new HashSet<String>();
+            for (ShoppinglistItem sli : mNetwork.getItems(mUser.getUserId(), sl.getId())) {
+                server.add(sli.getId() + sli.isTicked());
+            }
+            Set<String> local = new HashSet<String>();
+            for (ShoppinglistItem sli : mListManager.getItems(sl)) {
+                local.add(sli.getId() + sli.isTicked());
+            }
+            Assert.assertEquals(sl.getName(), server, local);
+        }
+    }
+
+    /**
+     * Run one iteration of the sync loop, and wait for it, and all the requests it triggers to finish.
+     * @return The measurements of the iteration
+     */
+    private Result sync() throws InterruptedException {
+        mNetwork.resetCounters();
+        Mockito.clearInvocations(mDatabase);
+        long cpu = getSyncThreadCpuTime();
+        long start = System.nanoTime();
+        mSyncManager.forceSync();
+        awaitIdle();
+        Result r = new Result();
+        r.wall = System.nanoTime() - start;
+        r.cpu = getSyncThreadCpuTime() - cpu;
+        r.requests = mNetwork.getRequestCount();
+        r.writes = countDatabaseWrites();
+        r.syncs = 1;
+        return r;
+    }
+
+    /**
+     * The sync is idle, when the sync thread has nothing to do, and there are no requests
+     * waiting for it in the {@link RequestQueue}.
+     */
+    private void awaitIdle() throws InterruptedException {
+        long timeout = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5);
+        int idle = 0;
+        while (idle < 2) {
+            Assert.assertTrue("Sync never became idle", System.currentTimeMillis() < timeout);
+            drain();
+            if (mRequestQueue.getRequestCount() == 0 && mNetwork.getInFlightCount() == 0) {
+                idle++;
+            } else {
+                idle = 0;
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private void drain() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        mEngine.execute(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        Assert.assertTrue(latch.await(1, TimeUnit.MINUTES));
+    }
+
+    private long getSyncThreadCpuTime() throws InterruptedException {
+        final AtomicLong time = new AtomicLong();
+        final CountDownLatch latch = new CountDownLatch(1);
+        mEngine.execute(new Runnable() {
+            @Override
+            public void run() {
+                ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+                time.set(bean.isCurrentThreadCpuTimeSupported() ? bean.getCurrentThreadCpuTime() : 0);
+                latch.countDown();
+            }
+        });
+        Assert.assertTrue(latch.await(1, TimeUnit.MINUTES));
+        return time.get();
+    }
+
+    private int countDatabaseWrites() {
+        int writes = 0;
+        for (Invocation i : Mockito.mockingDetails(mDatabase).getInvocations()) {
+            String name = i.getMethod().getName();
+            if (name.startsWith("insert") || name.startsWith("edit") || name.startsWith("delete")
+                    || name.startsWith("apply") || name.startsWith("complete") || name.startsWith("defer")
+                    || name.startsWith("clean")) {
+                writes++;
+            }
+        }
+        return writes;
+    }
+
+    private static class Result {
+
+        int syncs;
+        long wall;
+        long cpu;
+        int requests;
+        int writes;
+
+        void add(Result r) {
+            syncs += r.syncs;
+            wall += r.wall;
+            cpu += r.cpu;
+            requests += r.requests;
+            writes += r.writes;
+        }
+
+        @Override
+        public String toString() {
+            int n = Math.max(1, syncs);
+            return String.format("syncs:%d latency:%dms requests/sync:%.1f writes/sync:%.1f merge-cpu:%dms",
+                    syncs, TimeUnit.NANOSECONDS.toMillis(wall / n), (float) requests / n, (float) writes / n,
+                    TimeUnit.NANOSECONDS.toMillis(cpu / n));
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright 2015 ShopGun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package com.shopgun.android.sdk.shoppinglists;
+
+import android.os.Looper;
+
+import com.shopgun.android.sdk.SessionManager;
+import com.shopgun.android.sdk.ShopGun;
+import com.shopgun.android.sdk.corekit.LifecycleManager;
+import com.shopgun.android.sdk.database.SgnDatabase;
+import com.shopgun.android.sdk.model.Session;
+import com.shopgun.android.sdk.model.User;
+import com.shopgun.android.sdk.network.Request;
+import com.shopgun.android.sdk.network.Response;
+import com.shopgun.android.sdk.network.impl.JsonArrayRequest;
+import com.shopgun.android.sdk.utils.Constants;
+
+import junit.framework.Assert;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class SyncManagerUnitTest {
+
+    public static final String TAG = Constants.getTag(SyncManagerUnitTest.class);
+
+    @Test
+    public void testNoDatabaseAccessOnMainThread() throws Exception {
+
+        final SyncEngine engine = new SyncEngine();
+        final AtomicInteger calls = new AtomicInteger();
+        final List<String> wrongThread = Collections.synchronizedList(new ArrayList<String>());
+        SgnDatabase database = mock(SgnDatabase.class, new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                calls.incrementAndGet();
+                if (Looper.myLooper() == Looper.getMainLooper() || !engine.isSyncThread()) {
+                    wrongThread.add(invocation.getMethod().getName() + " on " + Thread.currentThread().getName());
+                }
+                return RETURNS_DEFAULTS.answer(invocation);
+            }
+        });
+
+        User user = new User().setUserId(1).setEmail("sync@example.com");
+        Session session = mock(Session.class);
+        when(session.getUser()).thenReturn(user);
+        SessionManager sessionManager = mock(SessionManager.class);
+        when(sessionManager.getSession()).thenReturn(session);
+        LifecycleManager lifecycleManager = mock(LifecycleManager.class);
+        when(lifecycleManager.isActive()).thenReturn(true);
+        ShopGun shopGun = mock(ShopGun.class);
+        when(shopGun.getSessionManager()).thenReturn(sessionManager);
+        when(shopGun.getLifecycleManager()).thenReturn(lifecycleManager);
+        when(shopGun.getContext()).thenReturn(RuntimeEnvironment.application);
+        ListManager listManager = mock(ListManager.class);
+        when(listManager.getCache()).thenReturn(new ListCache(database));
+        when(shopGun.getListManager()).thenReturn(listManager);
+        // Answer every request with an empty response, through the delivery set by the SyncManager
+        when(shopGun.add(any(Request.class))).thenAnswer(new Answer<Request<?>>() {
+            @Override
+            public Request<?> answer(InvocationOnMock invocation) throws Throwable {
+                Request<?> r = invocation.getArgument(0);
+                Object result = r instanceof JsonArrayRequest ? new JSONArray() : new JSONObject();
+                r.getDelivery().postResponse(r, Response.fromSuccess(result, null));
+                return r;
+            }
+        });
+
+        new SyncManager(shopGun, database, engine);
+        ArgumentCaptor<LifecycleManager.Callback> callback = ArgumentCaptor.forClass(LifecycleManager.Callback.class);
+        verify(lifecycleManager).registerCallback(callback.capture());
+
+        // Called on the main thread, like the real lifecycle callbacks
+        callback.getValue().onCreate(null);
+        drain(engine);
+        callback.getValue().onDestroy(null);
+        drain(engine);
+        engine.shutdown();
+
+        verify(database).open();
+        verify(database).close();
+        Assert.assertTrue(calls.get() > 2);
+        Assert.assertTrue(wrongThread.toString(), wrongThread.isEmpty());
+
+    }
+
+    /**
+     * Wait for the sync thread to finish its work, including the work queued by responses.
+     */
+    private static void drain(SyncEngine engine) throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            engine.execute(new Runnable() {
+                @Override
+                public void run() {
+                    latch.countDown();
+                }
+            });
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+}